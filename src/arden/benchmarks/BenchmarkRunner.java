@@ -0,0 +1,393 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.benchmarks;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Runs benchmarks and reports their throughput.
+ * 
+ * Each benchmark is run for every workload: first for a number of warmup
+ * iterations so that the JIT compiler can optimize the code, then for a
+ * number of measured iterations. The result is the mean throughput of the
+ * measured iterations in operations per second, with the standard deviation
+ * as error.
+ * 
+ * In latency mode, the runner instead times a number of individual calls
+ * after the warmup and reports percentiles of their duration, together with
+ * the number of bytes allocated per call (if the JVM supports measuring
+ * this).
+ * 
+ * The output is one tab-separated line per benchmark and workload, so that
+ * results of different releases can be compared with standard tools.
+ * 
+ * Usage: BenchmarkRunner [options]
+ * 
+ * <pre>
+ * -suite name        benchmark suite to run: runtime, mlm or compiler
+ *                    (default: runtime)
+ * -mode mode         throughput or latency (default: latency for the mlm
+ *                    suite, throughput otherwise)
+ * -filter regex      run only the benchmarks whose name matches
+ * -sizes 1,1000      list sizes (default: 1,1000,1000000)
+ * -mixes NUMBERS,... element types (default: all)
+ * -times ASCENDING,... primary time patterns (default: all)
+ * -warmup n          number of warmup iterations (default: 3)
+ * -iterations n      number of measured iterations (default: 5)
+ * -time ms           duration of each iteration (default: 200)
+ * -samples n         number of timed calls in latency mode (default: 10000)
+ * </pre>
+ */
+public final class BenchmarkRunner {
+	/** Result of measuring a benchmark for one workload. */
+	public static final class Result {
+		private final double opsPerSecond;
+		private final double error;
+
+		Result(double opsPerSecond, double error) {
+			this.opsPerSecond = opsPerSecond;
+			this.error = error;
+		}
+
+		/** Gets the mean throughput in operations per second. */
+		public double getOpsPerSecond() {
+			return opsPerSecond;
+		}
+
+		/** Gets the standard deviation of the throughput. */
+		public double getError() {
+			return error;
+		}
+	}
+
+	/** Result of measuring the latency of a benchmark for one workload. */
+	public static final class LatencyResult {
+		private final long[] sortedNanos;
+		private final double allocatedBytes;
+
+		LatencyResult(long[] sortedNanos, double allocatedBytes) {
+			this.sortedNanos = sortedNanos;
+			this.allocatedBytes = allocatedBytes;
+		}
+
+		/**
+		 * Gets the duration (in nanoseconds) that the specified fraction of
+		 * the calls did not exceed.
+		 * 
+		 * @param percentile
+		 *            The percentile, e.g. 0.99 for the 99th percentile.
+		 */
+		public long getPercentile(double percentile) {
+			if (percentile < 0 || percentile > 1)
+				throw new IllegalArgumentException();
+			int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+			return sortedNanos[Math.max(index, 0)];
+		}
+
+		/** Gets the duration of the slowest call in nanoseconds. */
+		public long getMaximum() {
+			return sortedNanos[sortedNanos.length - 1];
+		}
+
+		/**
+		 * Gets the average number of bytes allocated per call, or -1 if the
+		 * JVM does not support measuring allocations.
+		 */
+		public double getAllocatedBytes() {
+			return allocatedBytes;
+		}
+	}
+
+	private int warmupIterations = 3;
+	private int measurementIterations = 5;
+	private long iterationTimeMillis = 200;
+	private int latencySamples = 10000;
+
+	/** Results of run() are compared against this field to keep them alive. */
+	private volatile Object sink;
+
+	public int getWarmupIterations() {
+		return warmupIterations;
+	}
+
+	public void setWarmupIterations(int warmupIterations) {
+		if (warmupIterations < 0)
+			throw new IllegalArgumentException();
+		this.warmupIterations = warmupIterations;
+	}
+
+	public int getMeasurementIterations() {
+		return measurementIterations;
+	}
+
+	public void setMeasurementIterations(int measurementIterations) {
+		if (measurementIterations < 1)
+			throw new IllegalArgumentException();
+		this.measurementIterations = measurementIterations;
+	}
+
+	public long getIterationTimeMillis() {
+		return iterationTimeMillis;
+	}
+
+	public void setIterationTimeMillis(long iterationTimeMillis) {
+		if (iterationTimeMillis < 1)
+			throw new IllegalArgumentException();
+		this.iterationTimeMillis = iterationTimeMillis;
+	}
+
+	public int getLatencySamples() {
+		return latencySamples;
+	}
+
+	public void setLatencySamples(int latencySamples) {
+		if (latencySamples < 1)
+			throw new IllegalArgumentException();
+		this.latencySamples = latencySamples;
+	}
+
+	/** Measures a benchmark for one workload. */
+	public Result measure(Benchmark benchmark, Workload workload) {
+		benchmark.setUp(workload);
+		long iterationNanos = iterationTimeMillis * 1000000L;
+		// Calls are done in batches so that reading the clock does not
+		// dominate the measurement of fast operations. The batch size is
+		// increased until a batch takes about 1% of an iteration.
+		int batchSize = 1;
+		for (int i = 0; i < warmupIterations; i++)
+			batchSize = runIteration(benchmark, iterationNanos, batchSize, null);
+		double[] results = new double[measurementIterations];
+		for (int i = 0; i < measurementIterations; i++) {
+			double[] opsPerSecond = new double[1];
+			batchSize = runIteration(benchmark, iterationNanos, batchSize, opsPerSecond);
+			results[i] = opsPerSecond[0];
+		}
+		double sum = 0;
+		for (double r : results)
+			sum += r;
+		double mean = sum / results.length;
+		double variance = 0;
+		for (double r : results)
+			variance += (r - mean) * (r - mean);
+		double error = results.length > 1 ? Math.sqrt(variance / (results.length - 1)) : 0;
+		return new Result(mean, error);
+	}
+
+	private int runIteration(Benchmark benchmark, long iterationNanos, int batchSize, double[] opsPerSecond) {
+		long operations = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			long batchStart = System.nanoTime();
+			for (int i = 0; i < batchSize; i++) {
+				Object result = benchmark.run();
+				if (result == sink)
+					sink = new Object();
+			}
+			long now = System.nanoTime();
+			operations += batchSize;
+			if (now - batchStart < iterationNanos / 100 && batchSize < (1 << 30))
+				batchSize *= 2;
+			elapsed = now - start;
+		} while (elapsed < iterationNanos);
+		if (opsPerSecond != null)
+			opsPerSecond[0] = operations * 1e9 / elapsed;
+		return batchSize;
+	}
+
+	/** Measures the latency of individual calls of a benchmark for one workload. */
+	public LatencyResult measureLatency(Benchmark benchmark, Workload workload) {
+		benchmark.setUp(workload);
+		long iterationNanos = iterationTimeMillis * 1000000L;
+		int batchSize = 1;
+		for (int i = 0; i < warmupIterations; i++)
+			batchSize = runIteration(benchmark, iterationNanos, batchSize, null);
+		long[] nanos = new long[latencySamples];
+		long allocatedBefore = getAllocatedBytes();
+		for (int i = 0; i < nanos.length; i++) {
+			long start = System.nanoTime();
+			Object result = benchmark.run();
+			nanos[i] = System.nanoTime() - start;
+			if (result == sink)
+				sink = new Object();
+		}
+		long allocatedAfter = getAllocatedBytes();
+		Arrays.sort(nanos);
+		double allocated = -1;
+		if (allocatedBefore >= 0 && allocatedAfter >= 0)
+			allocated = (double) (allocatedAfter - allocatedBefore) / nanos.length;
+		return new LatencyResult(nanos, allocated);
+	}
+
+	/**
+	 * Gets the number of bytes allocated by the current thread so far, or -1
+	 * if the JVM does not support measuring this.
+	 */
+	private static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled())
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/** Measures all benchmarks for all workloads and writes the results. */
+	public void run(List<Benchmark> benchmarks, List<Workload> workloads, PrintStream out) {
+		out.println("benchmark\tsize\tmix\ttimes\tops/s\terror");
+		for (Benchmark benchmark : benchmarks) {
+			for (Workload workload : workloads) {
+				Result r = measure(benchmark, workload);
+				out.println(String.format(Locale.ENGLISH, "%s\t%s\t%.1f\t%.1f", benchmark.getName(), workload,
+						r.getOpsPerSecond(), r.getError()));
+			}
+		}
+	}
+
+	/**
+	 * Measures the latency of all benchmarks for all workloads and writes the
+	 * results. Durations are written in microseconds.
+	 */
+	public void runLatency(List<Benchmark> benchmarks, List<Workload> workloads, PrintStream out) {
+		out.println("benchmark\tsize\tmix\ttimes\tp50\tp90\tp99\tmax\tbytes/op");
+		for (Benchmark benchmark : benchmarks) {
+			for (Workload workload : workloads) {
+				LatencyResult r = measureLatency(benchmark, workload);
+				out.println(String.format(Locale.ENGLISH, "%s\t%s\t%.2f\t%.2f\t%.2f\t%.2f\t%.0f", benchmark
+						.getName(), workload, r.getPercentile(0.5) / 1000.0, r.getPercentile(0.9) / 1000.0, r
+						.getPercentile(0.99) / 1000.0, r.getMaximum() / 1000.0, r.getAllocatedBytes()));
+			}
+		}
+	}
+
+	/** Creates all combinations of the specified workload parameters. */
+	public static List<Workload> createWorkloads(int[] sizes, List<Workload.ElementMix> mixes,
+			List<Workload.TimePattern> timePatterns) {
+		List<Workload> workloads = new ArrayList<Workload>();
+		for (int size : sizes) {
+			for (Workload.ElementMix mix : mixes) {
+				for (Workload.TimePattern timePattern : timePatterns)
+					workloads.add(new Workload(size, mix, timePattern));
+			}
+		}
+		return workloads;
+	}
+
+	/** Gets the benchmarks of a suite, or null if the suite does not exist. */
+	private static List<Benchmark> getSuite(String name) {
+		if (name.equals("runtime"))
+			return RuntimeBenchmarks.getBenchmarks();
+		else if (name.equals("mlm"))
+			return MlmBenchmarks.getBenchmarks();
+		else if (name.equals("compiler"))
+			return CompilerBenchmarks.getBenchmarks();
+		else
+			return null;
+	}
+
+	private static int[] parseSizes(String text) {
+		String[] parts = text.split(",");
+		int[] sizes = new int[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			sizes[i] = Integer.parseInt(parts[i].trim());
+		return sizes;
+	}
+
+	private static <T extends Enum<T>> List<T> parseEnums(Class<T> enumType, String text) {
+		List<T> result = new ArrayList<T>();
+		for (String part : text.split(","))
+			result.add(Enum.valueOf(enumType, part.trim().toUpperCase(Locale.ENGLISH)));
+		return result;
+	}
+
+	public static void main(String[] args) {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		String suite = "runtime";
+		String mode = null;
+		Pattern filter = null;
+		int[] sizes = { 1, 1000, 1000000 };
+		List<Workload.ElementMix> mixes = new ArrayList<Workload.ElementMix>();
+		Collections.addAll(mixes, Workload.ElementMix.values());
+		List<Workload.TimePattern> timePatterns = new ArrayList<Workload.TimePattern>();
+		Collections.addAll(timePatterns, Workload.TimePattern.values());
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String option = args[i];
+			String value = args[i + 1];
+			if (option.equals("-suite"))
+				suite = value;
+			else if (option.equals("-mode"))
+				mode = value;
+			else if (option.equals("-filter"))
+				filter = Pattern.compile(value);
+			else if (option.equals("-sizes"))
+				sizes = parseSizes(value);
+			else if (option.equals("-mixes"))
+				mixes = parseEnums(Workload.ElementMix.class, value);
+			else if (option.equals("-times"))
+				timePatterns = parseEnums(Workload.TimePattern.class, value);
+			else if (option.equals("-warmup"))
+				runner.setWarmupIterations(Integer.parseInt(value));
+			else if (option.equals("-iterations"))
+				runner.setMeasurementIterations(Integer.parseInt(value));
+			else if (option.equals("-time"))
+				runner.setIterationTimeMillis(Long.parseLong(value));
+			else if (option.equals("-samples"))
+				runner.setLatencySamples(Integer.parseInt(value));
+			else
+				throw new IllegalArgumentException("Unknown option: " + option);
+		}
+
+		List<Benchmark> benchmarks = getSuite(suite);
+		if (benchmarks == null)
+			throw new IllegalArgumentException("Unknown suite: " + suite);
+		List<Benchmark> selected = new ArrayList<Benchmark>();
+		for (Benchmark b : benchmarks) {
+			if (filter == null || filter.matcher(b.getName()).find())
+				selected.add(b);
+		}
+		if (mode == null)
+			mode = suite.equals("mlm") ? "latency" : "throughput";
+		List<Workload> workloads = createWorkloads(sizes, mixes, timePatterns);
+		if (mode.equals("latency"))
+			runner.runLatency(selected, workloads, System.out);
+		else if (mode.equals("throughput"))
+			runner.run(selected, workloads, System.out);
+		else
+			throw new IllegalArgumentException("Unknown mode: " + mode);
+	}
+}
@@ -0,0 +1,120 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import arden.compiler.CompiledMlm;
+import arden.compiler.Compiler;
+import arden.compiler.CompilerException;
+import arden.compiler.CompilerProfile;
+
+/**
+ * Benchmarks for the compiler. The workload size is the number of MLMs in a
+ * generated corpus; each operation compiles the whole corpus. The MLMs in the
+ * corpus have between 1 and 20 READ statements.
+ * 
+ * Running this class directly compiles a corpus with profiling enabled and
+ * prints the time spent in each compiler phase.
+ * 
+ * Usage: CompilerBenchmarks [number of MLMs] [number of runs]
+ */
+public final class CompilerBenchmarks {
+	private CompilerBenchmarks() {
+	}
+
+	/** Creates the source code of a corpus of MLMs with distinct names. */
+	public static List<String> createCorpus(int mlmCount) {
+		List<String> corpus = new ArrayList<String>(mlmCount);
+		for (int i = 0; i < mlmCount; i++)
+			corpus.add(MlmBenchmarks.createSyntheticMlm("corpus_" + i, 1 + i % 20));
+		return corpus;
+	}
+
+	/** Compiles all MLMs in the corpus and returns the compiled MLMs. */
+	public static List<CompiledMlm> compileCorpus(Compiler compiler, List<String> corpus) {
+		List<CompiledMlm> output = new ArrayList<CompiledMlm>(corpus.size());
+		try {
+			for (String source : corpus)
+				output.add(compiler.compileMlm(new StringReader(source)));
+		} catch (CompilerException e) {
+			throw new RuntimeException(e);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return output;
+	}
+
+	private static final class CompileBenchmark extends Benchmark {
+		private final boolean debug;
+		private List<String> corpus;
+
+		CompileBenchmark(String name, boolean debug) {
+			super(name);
+			this.debug = debug;
+		}
+
+		@Override
+		public void setUp(Workload workload) {
+			corpus = createCorpus(workload.getSize());
+		}
+
+		@Override
+		public Object run() {
+			Compiler compiler = new Compiler();
+			if (debug)
+				compiler.enableDebugging("corpus.mlm");
+			return compileCorpus(compiler, corpus);
+		}
+	}
+
+	public static List<Benchmark> getBenchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new CompileBenchmark("Compiler.compileMlm", false));
+		benchmarks.add(new CompileBenchmark("Compiler.compileMlm(debug)", true));
+		return benchmarks;
+	}
+
+	public static void main(String[] args) {
+		int mlmCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		List<String> corpus = createCorpus(mlmCount);
+		Compiler compiler = new Compiler();
+		CompilerProfile profile = new CompilerProfile();
+		compiler.setProfile(profile);
+		// the first runs warm up the JIT; only the last run is reported
+		for (int i = 0; i < runs; i++) {
+			profile.reset();
+			compileCorpus(compiler, corpus);
+		}
+		System.out.print(profile);
+	}
+}
@@ -0,0 +1,188 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+
+import arden.compiler.Compiler;
+import arden.compiler.CompilerException;
+import arden.runtime.ArdenValue;
+import arden.runtime.MedicalLogicModule;
+import arden.runtime.MedicalLogicModuleImplementation;
+
+/**
+ * End-to-end benchmarks that execute compiled MLMs: the example modules
+ * x2.1 to x2.8 and synthetic larger MLMs.
+ * 
+ * Each call of run() creates an instance (which runs the data slot), runs the
+ * logic slot and, if the MLM concludes true, the action slot, against a
+ * SyntheticContext. The workload size is the number of rows returned by each
+ * query.
+ */
+public final class MlmBenchmarks {
+	private MlmBenchmarks() {
+	}
+
+	/** Number of columns returned by queries; enough for all examples. */
+	private static final int COLUMN_COUNT = 3;
+
+	/** Sizes of the synthetic MLMs (number of READ statements). */
+	private static final int[] SYNTHETIC_SIZES = { 10, 100 };
+
+	/** Benchmark that executes an MLM. */
+	private static final class MlmBenchmark extends Benchmark {
+		private final MedicalLogicModule mlm;
+		private final int argumentCount;
+		private SyntheticContext context;
+		private ArdenValue[] arguments;
+
+		MlmBenchmark(String name, MedicalLogicModule mlm, int argumentCount) {
+			super(name);
+			this.mlm = mlm;
+			this.argumentCount = argumentCount;
+		}
+
+		@Override
+		public void setUp(Workload workload) {
+			context = new SyntheticContext(workload, COLUMN_COUNT);
+			if (argumentCount > 0) {
+				arguments = new ArdenValue[argumentCount];
+				for (int i = 0; i < argumentCount; i++)
+					arguments[i] = workload.createList();
+			}
+		}
+
+		@Override
+		public Object run() {
+			try {
+				MedicalLogicModuleImplementation impl = mlm.createInstance(context, arguments);
+				if (impl.logic(context)) {
+					ArdenValue[] result = impl.action(context);
+					if (result != null)
+						return result;
+				}
+				return impl;
+			} catch (InvocationTargetException e) {
+				throw new RuntimeException(e.getCause());
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/** Compiles one of the example MLMs from the arden.examples package. */
+	public static MedicalLogicModule compileExample(String name) throws CompilerException, IOException {
+		InputStream stream = MlmBenchmarks.class.getResourceAsStream("/arden/examples/" + name + ".mlm");
+		if (stream == null)
+			throw new IOException("Example MLM not found: " + name);
+		try {
+			return new Compiler().compileMlm(new InputStreamReader(stream, "UTF-8"));
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Creates the source code of a synthetic MLM with the specified number of
+	 * READ statements. Each read value is aggregated in the data slot and
+	 * tested in the logic slot.
+	 */
+	public static String createSyntheticMlm(int readCount) {
+		return createSyntheticMlm("synthetic_" + readCount, readCount);
+	}
+
+	/** Creates the source code of a synthetic MLM with the specified mlmname. */
+	public static String createSyntheticMlm(String name, int readCount) {
+		StringBuilder b = new StringBuilder();
+		b.append("maintenance:\n");
+		b.append("    title: Synthetic benchmark MLM;;\n");
+		b.append("    mlmname: ").append(name).append(";;\n");
+		b.append("    arden: Version 2.5;;\n");
+		b.append("    version: 1.00;;\n");
+		b.append("    institution: ;;\n");
+		b.append("    author: ;;\n");
+		b.append("    specialist: ;;\n");
+		b.append("    date: 2010-01-01;;\n");
+		b.append("    validation: testing;;\n");
+		b.append("library:\n");
+		b.append("    purpose: ;;\n");
+		b.append("    explanation: ;;\n");
+		b.append("    keywords: ;;\n");
+		b.append("knowledge:\n");
+		b.append("    type: data-driven;;\n");
+		b.append("    data:\n");
+		for (int i = 0; i < readCount; i++) {
+			b.append("        values").append(i).append(" := read ({lab").append(i).append(
+					"} where they occurred within past 3 days);\n");
+			b.append("        avg").append(i).append(" := average of values").append(i).append(";\n");
+			b.append("        last").append(i).append(" := last of values").append(i).append(";\n");
+		}
+		b.append("        ;;\n");
+		b.append("    evoke: ;;\n");
+		b.append("    logic:\n");
+		b.append("        abnormal := 0;\n");
+		for (int i = 0; i < readCount; i++) {
+			b.append("        if last").append(i).append(" > avg").append(i).append(" * 1.5 then\n");
+			b.append("            abnormal := abnormal + 1;\n");
+			b.append("        endif;\n");
+		}
+		b.append("        conclude abnormal > 0;\n");
+		b.append("        ;;\n");
+		b.append("    action:\n");
+		b.append("        write \"abnormal values: \" || abnormal;\n");
+		b.append("        ;;\n");
+		b.append("end:\n");
+		return b.toString();
+	}
+
+	public static List<Benchmark> getBenchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		try {
+			for (int i = 1; i <= 8; i++) {
+				String name = "x2." + i;
+				// x2.8 receives four lists as arguments
+				benchmarks.add(new MlmBenchmark(name, compileExample(name), i == 8 ? 4 : 0));
+			}
+			for (int size : SYNTHETIC_SIZES) {
+				MedicalLogicModule mlm = new Compiler().compileMlm(new StringReader(createSyntheticMlm(size)));
+				benchmarks.add(new MlmBenchmark("synthetic" + size, mlm, 0));
+			}
+		} catch (CompilerException e) {
+			throw new RuntimeException(e);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return benchmarks;
+	}
+}
@@ -0,0 +1,172 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import arden.runtime.ArdenList;
+import arden.runtime.ArdenTime;
+import arden.runtime.ArdenValue;
+import arden.runtime.BinaryOperator;
+import arden.runtime.ExpressionHelpers;
+import arden.runtime.MemoryQuery;
+import arden.runtime.TernaryOperator;
+import arden.runtime.UnaryOperator;
+
+/**
+ * Benchmarks for the runtime operator library: the list operators, the
+ * helpers used for sorting and aggregation, and the in-memory query
+ * constraints.
+ */
+public final class RuntimeBenchmarks {
+	private RuntimeBenchmarks() {
+	}
+
+	/** Base class for benchmarks operating on the list of a workload. */
+	private abstract static class ListBenchmark extends Benchmark {
+		ArdenList list;
+		ArdenList otherList;
+		ArdenList condition;
+		ArdenValue scalar;
+		ArdenTime windowStart;
+		ArdenTime windowEnd;
+
+		ListBenchmark(String name) {
+			super(name);
+		}
+
+		@Override
+		public void setUp(Workload workload) {
+			list = workload.createList();
+			otherList = workload.createList();
+			condition = workload.createCondition();
+			scalar = workload.createScalar();
+			// the middle half of the time range of the ASCENDING pattern
+			long range = workload.getEndTime() - Workload.BASE_TIME;
+			windowStart = new ArdenTime(Workload.BASE_TIME + range / 4);
+			windowEnd = new ArdenTime(Workload.BASE_TIME + range / 4 * 3);
+		}
+
+		MemoryQuery query() {
+			return new MemoryQuery(new ArdenValue[] { list });
+		}
+	}
+
+	private static Benchmark binary(final BinaryOperator op, final boolean withList) {
+		return new ListBenchmark("BinaryOperator." + op + (withList ? "(list,list)" : "(list,scalar)")) {
+			@Override
+			public Object run() {
+				return op.run(list, withList ? otherList : scalar);
+			}
+		};
+	}
+
+	private static Benchmark unary(final UnaryOperator op) {
+		return new ListBenchmark("UnaryOperator." + op + "(list)") {
+			@Override
+			public Object run() {
+				return op.run(list);
+			}
+		};
+	}
+
+	public static List<Benchmark> getBenchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(binary(BinaryOperator.ADD, false));
+		benchmarks.add(binary(BinaryOperator.ADD, true));
+		benchmarks.add(binary(BinaryOperator.MUL, false));
+		benchmarks.add(binary(BinaryOperator.LT, false));
+		benchmarks.add(binary(BinaryOperator.EQ, true));
+		benchmarks.add(binary(BinaryOperator.AND, true));
+		benchmarks.add(unary(UnaryOperator.MINUS));
+		benchmarks.add(unary(UnaryOperator.ISNULL));
+		benchmarks.add(unary(UnaryOperator.TIME));
+		benchmarks.add(new ListBenchmark("TernaryOperator.WITHINTO(list,scalar,scalar)") {
+			@Override
+			public Object run() {
+				return TernaryOperator.WITHINTO.run(list, scalar, scalar);
+			}
+		});
+		benchmarks.add(new ListBenchmark("ExpressionHelpers.sortByData") {
+			@Override
+			public Object run() {
+				return ExpressionHelpers.sortByData(list);
+			}
+		});
+		benchmarks.add(new ListBenchmark("ExpressionHelpers.sortByTime") {
+			@Override
+			public Object run() {
+				return ExpressionHelpers.sortByTime(list);
+			}
+		});
+		benchmarks.add(new ListBenchmark("ExpressionHelpers.where") {
+			@Override
+			public Object run() {
+				return ExpressionHelpers.where(list, condition);
+			}
+		});
+		benchmarks.add(new ListBenchmark("ExpressionHelpers.median") {
+			@Override
+			public Object run() {
+				return ExpressionHelpers.median(list);
+			}
+		});
+		benchmarks.add(new ListBenchmark("MemoryQuery.occursWithinTo") {
+			@Override
+			public Object run() {
+				return query().occursWithinTo(windowStart, windowEnd).execute();
+			}
+		});
+		benchmarks.add(new ListBenchmark("MemoryQuery.occursAfter") {
+			@Override
+			public Object run() {
+				return query().occursAfter(windowEnd).execute();
+			}
+		});
+		benchmarks.add(new ListBenchmark("MemoryQuery.latest") {
+			@Override
+			public Object run() {
+				return query().latest().execute();
+			}
+		});
+		benchmarks.add(new ListBenchmark("MemoryQuery.earliest(10)") {
+			@Override
+			public Object run() {
+				return query().earliest(10).execute();
+			}
+		});
+		benchmarks.add(new ListBenchmark("MemoryQuery.occursWithinTo.latest(10)") {
+			@Override
+			public Object run() {
+				return query().occursWithinTo(windowStart, windowEnd).latest(10).execute();
+			}
+		});
+		return benchmarks;
+	}
+}
@@ -0,0 +1,88 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.benchmarks;
+
+import arden.runtime.ArdenList;
+import arden.runtime.ArdenTime;
+import arden.runtime.ArdenValue;
+import arden.runtime.DatabaseQuery;
+import arden.runtime.ExecutionContext;
+import arden.runtime.MemoryQuery;
+
+/**
+ * Execution context that answers every query with the data of a workload.
+ * 
+ * Each query result has the specified number of columns, so that READ
+ * statements assigning several variables also get data. The current time is
+ * one step after the last primary time of the workload, so constraints like
+ * "within past 24 hours" select the most recent part of ascending data.
+ * Messages written by the MLMs are counted, but not stored.
+ */
+public class SyntheticContext extends ExecutionContext {
+	private final ArdenValue[] columns;
+	private final ArdenTime currentTime;
+	private int messageCount;
+
+	public SyntheticContext(Workload workload, int columnCount) {
+		columns = new ArdenValue[columnCount];
+		ArdenList list = workload.createList();
+		for (int i = 0; i < columnCount; i++)
+			columns[i] = list;
+		currentTime = new ArdenTime(workload.getEndTime() + Workload.TIME_STEP);
+	}
+
+	@Override
+	public DatabaseQuery createQuery(String mapping) {
+		return new MemoryQuery(columns.clone());
+	}
+
+	@Override
+	public void write(ArdenValue message, String destination) {
+		messageCount++;
+	}
+
+	/** Gets the number of messages written so far. */
+	public int getMessageCount() {
+		return messageCount;
+	}
+
+	@Override
+	public ArdenTime getCurrentTime() {
+		return currentTime;
+	}
+
+	@Override
+	public ArdenTime getEventTime() {
+		return currentTime;
+	}
+
+	@Override
+	public ArdenTime getTriggerTime() {
+		return currentTime;
+	}
+}
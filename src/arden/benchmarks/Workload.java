@@ -0,0 +1,204 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.benchmarks;
+
+import java.util.Random;
+
+import arden.runtime.ArdenBoolean;
+import arden.runtime.ArdenList;
+import arden.runtime.ArdenNull;
+import arden.runtime.ArdenNumber;
+import arden.runtime.ArdenString;
+import arden.runtime.ArdenTime;
+import arden.runtime.ArdenValue;
+
+/**
+ * Describes the input data of a benchmark run: the list size, the types of
+ * the elements and the pattern of their primary times.
+ * 
+ * The data is generated from a fixed seed, so all runs of a workload operate
+ * on the same values.
+ */
+public final class Workload {
+	/** The types of the list elements. */
+	public enum ElementMix {
+		/** Numbers only; lists are created in the packed form. */
+		NUMBERS,
+		/** Times only. */
+		TIMES,
+		/** Strings only. */
+		STRINGS,
+		/** Numbers with every fourth element being null. */
+		NUMBERS_WITH_NULLS
+	}
+
+	/** The primary times of the list elements. */
+	public enum TimePattern {
+		/** No element has a primary time. */
+		NONE,
+		/** Primary times are ascending (typical for database results). */
+		ASCENDING,
+		/** Primary times are in random order. */
+		RANDOM,
+		/** All elements have the same primary time. */
+		EQUAL
+	}
+
+	/** Primary time of the first element (2010-01-01T00:00:00Z). */
+	public static final long BASE_TIME = 1262304000000L;
+	/** Distance between ascending primary times (one hour). */
+	public static final long TIME_STEP = 3600000L;
+
+	private static final long SEED = 20100101L;
+
+	private final int size;
+	private final ElementMix mix;
+	private final TimePattern timePattern;
+
+	public Workload(int size, ElementMix mix, TimePattern timePattern) {
+		if (size < 0)
+			throw new IllegalArgumentException("size must not be negative");
+		if (mix == null || timePattern == null)
+			throw new NullPointerException();
+		this.size = size;
+		this.mix = mix;
+		this.timePattern = timePattern;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public ElementMix getMix() {
+		return mix;
+	}
+
+	public TimePattern getTimePattern() {
+		return timePattern;
+	}
+
+	/** Gets the primary time of the last element in the ASCENDING pattern. */
+	public long getEndTime() {
+		return BASE_TIME + (size - 1) * TIME_STEP;
+	}
+
+	private long[] createTimes(Random random) {
+		long[] times = new long[size];
+		for (int i = 0; i < size; i++) {
+			switch (timePattern) {
+			case NONE:
+				times[i] = ArdenValue.NOPRIMARYTIME;
+				break;
+			case ASCENDING:
+				times[i] = BASE_TIME + i * TIME_STEP;
+				break;
+			case RANDOM:
+				times[i] = BASE_TIME + (long) random.nextInt(Math.max(size, 1)) * TIME_STEP;
+				break;
+			case EQUAL:
+				times[i] = BASE_TIME;
+				break;
+			default:
+				throw new RuntimeException("unknown time pattern");
+			}
+		}
+		return times;
+	}
+
+	/** Creates the list elements. */
+	public ArdenValue[] createValues() {
+		Random random = new Random(SEED);
+		long[] times = createTimes(random);
+		ArdenValue[] values = new ArdenValue[size];
+		for (int i = 0; i < size; i++) {
+			switch (mix) {
+			case NUMBERS:
+				values[i] = ArdenNumber.create(random.nextInt(1000), times[i]);
+				break;
+			case TIMES:
+				values[i] = new ArdenTime(BASE_TIME + random.nextInt(1000) * TIME_STEP, times[i]);
+				break;
+			case STRINGS:
+				values[i] = new ArdenString("value" + random.nextInt(1000), times[i]);
+				break;
+			case NUMBERS_WITH_NULLS:
+				if (i % 4 == 3)
+					values[i] = ArdenNull.create(times[i]);
+				else
+					values[i] = ArdenNumber.create(random.nextInt(1000), times[i]);
+				break;
+			default:
+				throw new RuntimeException("unknown element mix");
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Creates a list of the elements. Number lists are created in the packed
+	 * form, like the lists returned by database queries.
+	 */
+	public ArdenList createList() {
+		ArdenValue[] values = createValues();
+		if (mix == ElementMix.NUMBERS) {
+			double[] numbers = new double[values.length];
+			long[] times = new long[values.length];
+			for (int i = 0; i < values.length; i++) {
+				numbers[i] = ((ArdenNumber) values[i]).value;
+				times[i] = values[i].primaryTime;
+			}
+			return ArdenList.createNumberList(numbers, times);
+		}
+		return new ArdenList(values);
+	}
+
+	/** Creates a list of booleans (every other element true) for WHERE. */
+	public ArdenList createCondition() {
+		ArdenValue[] values = new ArdenValue[size];
+		for (int i = 0; i < size; i++)
+			values[i] = ArdenBoolean.create(i % 2 == 0, ArdenValue.NOPRIMARYTIME);
+		return new ArdenList(values);
+	}
+
+	/** Creates a single value of the element type (not a list). */
+	public ArdenValue createScalar() {
+		switch (mix) {
+		case TIMES:
+			return new ArdenTime(BASE_TIME + 500 * TIME_STEP);
+		case STRINGS:
+			return new ArdenString("value500");
+		default:
+			return ArdenNumber.create(500, ArdenValue.NOPRIMARYTIME);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return size + "\t" + mix + "\t" + timePattern;
+	}
+}
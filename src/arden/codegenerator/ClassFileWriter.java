@@ -158,6 +158,27 @@ public final class ClassFileWriter {
 		return createMethod(JAVA_STATIC_INITIALIZER_NAME, Modifier.PUBLIC | Modifier.STATIC, new Class<?>[0], Void.TYPE);
 	}
 
+	/** Gets the constant pool of the class. */
+	public ConstantPool getConstantPool() {
+		return pool;
+	}
+
+	/** Gets the number of label references resolved in all methods. */
+	public int getResolvedLabelCount() {
+		int count = 0;
+		for (MethodInfo info : methods)
+			count += info.writer.getResolvedLabelCount();
+		return count;
+	}
+
+	/** Gets the time spent resolving labels in all methods (in nanoseconds). */
+	public long getLabelResolutionNanos() {
+		long nanos = 0;
+		for (MethodInfo info : methods)
+			nanos += info.writer.getLabelResolutionNanos();
+		return nanos;
+	}
+
 	/** Saves the class file to disk */
 	public void save(String filename) throws IOException {
 		DataOutputStream s = new DataOutputStream(new FileOutputStream(filename));
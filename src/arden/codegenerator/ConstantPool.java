@@ -68,6 +68,8 @@ public final class ConstantPool {
 	private HashMap<NameTypePair, Integer> nameAndType_map = new HashMap<NameTypePair, Integer>();
 	private HashMap<Constructor<?>, Integer> constructor_map = new HashMap<Constructor<?>, Integer>();
 	private int elementNumber = 0;
+	/** Number of calls to the methods that find or create an entry */
+	private int lookupCount = 0;
 	private ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
 	private DataOutputStream data = new DataOutputStream(byteOutputStream);
 
@@ -90,6 +92,19 @@ public final class ConstantPool {
 		return index;
 	}
 
+	/** Gets the number of constant pool slots used so far. */
+	public int getEntryCount() {
+		return elementNumber;
+	}
+
+	/**
+	 * Gets the number of requests to find or create an entry, including the
+	 * requests for entries referenced by other entries.
+	 */
+	public int getLookupCount() {
+		return lookupCount;
+	}
+
 	/** Saves the ConstantPool into a .class-file */
 	public void save(DataOutput output) throws IOException {
 		data.flush(); // ensure the DataOutputStream writes everything to the
@@ -106,6 +121,7 @@ public final class ConstantPool {
 	 * @return The index of the entry.
 	 */
 	public int getInteger(Integer value) {
+		lookupCount++;
 		if (integer_map.containsKey(value))
 			return integer_map.get(value);
 		int index = getNextIndex();
@@ -127,6 +143,7 @@ public final class ConstantPool {
 	 * @return The index of the entry.
 	 */
 	public int getDouble(Double value) {
+		lookupCount++;
 		if (double_map.containsKey(value))
 			return double_map.get(value);
 		int index = getNextDoubleIndex();
@@ -148,6 +165,7 @@ public final class ConstantPool {
 	 * @return The index of the entry.
 	 */
 	public int getLong(Long value) {
+		lookupCount++;
 		if (long_map.containsKey(value))
 			return long_map.get(value);
 		int index = getNextDoubleIndex();
@@ -169,6 +187,7 @@ public final class ConstantPool {
 	 * @return The index of the entry.
 	 */
 	public int getUtf8(String text) {
+		lookupCount++;
 		if (utf8_map.containsKey(text))
 			return utf8_map.get(text);
 		int index = getNextIndex();
@@ -193,6 +212,7 @@ public final class ConstantPool {
 	 * @return The index of the entry.
 	 */
 	public int getString(String text) {
+		lookupCount++;
 		if (string_map.containsKey(text))
 			return string_map.get(text);
 		int utf8 = getUtf8(text);
@@ -215,6 +235,7 @@ public final class ConstantPool {
 	 * @return Index of the Class-entry.
 	 */
 	public int getClass(Class<?> classSym) {
+		lookupCount++;
 		if (classSym == null)
 			throw new IllegalArgumentException();
 		return getClassByJavaName(getInternalJavaName(classSym));
@@ -257,6 +278,7 @@ public final class ConstantPool {
 	 * @return Index of the Class-entry.
 	 */
 	public int getClassByJavaName(String internalJavaName) {
+		lookupCount++;
 		if (class_map.containsKey(internalJavaName))
 			return class_map.get(internalJavaName);
 		int utf8 = getUtf8(internalJavaName);
@@ -279,6 +301,7 @@ public final class ConstantPool {
 	 * @return Index of the Fieldref-Entry
 	 */
 	public FieldReference getFieldref(Field field) {
+		lookupCount++;
 		if (field == null)
 			throw new IllegalArgumentException();
 		if (fieldref_map.containsKey(field))
@@ -340,6 +363,7 @@ public final class ConstantPool {
 	 * @return Index of the Methodref-entry.
 	 */
 	public int getMethodref(Method method) {
+		lookupCount++;
 		if (method == null)
 			throw new IllegalArgumentException();
 		if (methodref_map.containsKey(method))
@@ -381,6 +405,7 @@ public final class ConstantPool {
 	 * @return Index of the entry
 	 */
 	public int getConstructor(Constructor<?> ctor) {
+		lookupCount++;
 		if (constructor_map.containsKey(ctor))
 			return constructor_map.get(ctor);
 		int classRef = getClass(ctor.getDeclaringClass());
@@ -397,6 +422,29 @@ public final class ConstantPool {
 		return index;
 	}
 
+	/**
+	 * Creates a Methodref-entry for a constructor of a class that is identified
+	 * by its Class-entry (e.g. a class that is being generated).
+	 * 
+	 * @param declaringClass
+	 *            Index of the Class-entry
+	 * @param parameters
+	 *            The parameter types of the constructor
+	 * @return Index of the entry
+	 */
+	public int createConstructorref(int declaringClass, Class<?>[] parameters) {
+		int natRef = getNameAndType(JAVA_CONSTRUCTOR_NAME, createMethodDescriptor(parameters, Void.TYPE));
+		int index = getNextIndex();
+		try {
+			data.writeByte(CONSTANT_Methodref);
+			data.writeShort(declaringClass);
+			data.writeShort(natRef);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+		return index;
+	}
+
 	/**
 	 * Finds an existing NameAndType-entry or creates a new entry.
 	 * 
@@ -408,6 +456,7 @@ public final class ConstantPool {
 	 * @return Index of the entry
 	 */
 	public int getNameAndType(String name, String typeDescriptor) {
+		lookupCount++;
 		NameTypePair ntp = new NameTypePair(name, typeDescriptor);
 		if (nameAndType_map.containsKey(ntp))
 			return nameAndType_map.get(ntp);
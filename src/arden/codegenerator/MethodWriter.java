@@ -64,6 +64,12 @@ public final class MethodWriter {
 	/** Stores positions, where the target of labels has to be placed. */
 	private final ArrayList<LabelReference> labelReferences = new ArrayList<LabelReference>();
 
+	/** Number of label references resolved so far */
+	private int resolvedLabelCount;
+
+	/** Time spent resolving labels (in nanoseconds) */
+	private long labelResolutionNanos;
+
 	/** Number of local variables including parameters and 'this' */
 	private int numLocals;
 
@@ -82,6 +88,25 @@ public final class MethodWriter {
 	/** Maximum stack size that was observed so far */
 	private int maxStackSize;
 
+	/**
+	 * Allows emitting additional code at the start of every statement and
+	 * before every return instruction, e.g. for profiling.
+	 */
+	public interface Instrumentation {
+		/** Called after a sequence point was marked. The stack is empty. */
+		void sequencePoint(MethodWriter writer, int lineNumber);
+
+		/** Called before a return instruction is emitted. */
+		void beforeReturn(MethodWriter writer);
+	}
+
+	/** Instrumentation, or null */
+	private Instrumentation instrumentation;
+
+	/** Line and end position of the last instrumented sequence point */
+	private int instrumentedLine = -1;
+	private int instrumentedEndPosition = -1;
+
 	/**
 	 * MethodWriter constructor.
 	 */
@@ -219,6 +244,7 @@ public final class MethodWriter {
 	 * Fills in the target addresses of all labels into the place holders.
 	 */
 	private void resolveLabels(byte[] byteCode) {
+		long startTime = System.nanoTime();
 		for (LabelReference labelRef : labelReferences) {
 			if (labelRef.label.markedPosition < 0)
 				throw new IllegalStateException("Cannot resolve label - did you use a label without calling mark()?");
@@ -235,7 +261,19 @@ public final class MethodWriter {
 				byteCode[labelRef.referencePosition + 1] = (byte) (offset & 0xff);
 			}
 		}
+		resolvedLabelCount += labelReferences.size();
 		labelReferences.clear();
+		labelResolutionNanos += System.nanoTime() - startTime;
+	}
+
+	/** Gets the number of label references that were resolved. */
+	public int getResolvedLabelCount() {
+		return resolvedLabelCount;
+	}
+
+	/** Gets the time spent resolving labels in nanoseconds. */
+	public long getLabelResolutionNanos() {
+		return labelResolutionNanos;
 	}
 
 	/** Returns the emitted byte code. */
@@ -311,6 +349,14 @@ public final class MethodWriter {
 			localVariableTable.addEntry(vindex, name, ConstantPool.createFieldDescriptor(type));
 	}
 
+	/**
+	 * Sets the instrumentation that is called for all following sequence
+	 * points and return instructions.
+	 */
+	public void setInstrumentation(Instrumentation instrumentation) {
+		this.instrumentation = instrumentation;
+	}
+
 	/**
 	 * Marks the beginning of a statement. Used by debuggers and for display of
 	 * line numbers in stack traces.
@@ -320,6 +366,21 @@ public final class MethodWriter {
 			throw new IllegalStateException("Expecting empty stack at start of statement.");
 		if (lineNumberTable != null)
 			lineNumberTable.addEntry(byteCode.size(), lineNumber);
+		if (instrumentation != null) {
+			// Some statements mark the same line several times in a row (e.g.
+			// an assignment of a READ phrase); the instrumentation only needs
+			// to see it once.
+			if (lineNumber != instrumentedLine || getCurrentPosition() != instrumentedEndPosition) {
+				instrumentation.sequencePoint(this, lineNumber);
+				instrumentedLine = lineNumber;
+				instrumentedEndPosition = getCurrentPosition();
+			}
+		}
+	}
+
+	private void beforeReturn() {
+		if (instrumentation != null)
+			instrumentation.beforeReturn(this);
 	}
 
 	private void emitLdc(int constantIndex) {
@@ -619,6 +680,73 @@ public final class MethodWriter {
 		emit(95); // swap
 	}
 
+	/**
+	 * Adds two doubles.
+	 * 
+	 * Stack: .., lhs (double), rhs (double) => .., result (double)
+	 */
+	public void addDouble() {
+		poppush(4, 2);
+		emit(99); // dadd
+	}
+
+	/**
+	 * Subtracts two doubles.
+	 * 
+	 * Stack: .., lhs (double), rhs (double) => .., result (double)
+	 */
+	public void subtractDouble() {
+		poppush(4, 2);
+		emit(103); // dsub
+	}
+
+	/**
+	 * Multiplies two doubles.
+	 * 
+	 * Stack: .., lhs (double), rhs (double) => .., result (double)
+	 */
+	public void multiplyDouble() {
+		poppush(4, 2);
+		emit(107); // dmul
+	}
+
+	/**
+	 * Divides two doubles.
+	 * 
+	 * Stack: .., lhs (double), rhs (double) => .., result (double)
+	 */
+	public void divideDouble() {
+		poppush(4, 2);
+		emit(111); // ddiv
+	}
+
+	/**
+	 * Negates a double.
+	 * 
+	 * Stack: .., val (double) => .., result (double)
+	 */
+	public void negateDouble() {
+		poppush(2, 2);
+		emit(119); // dneg
+	}
+
+	/**
+	 * Compares two doubles. The result is -1 if lhs &lt; rhs, 0 if lhs == rhs
+	 * and 1 if lhs &gt; rhs. If one of the values is NaN, the result is
+	 * nanResult (must be -1 or 1).
+	 * 
+	 * Stack: .., lhs (double), rhs (double) => .., result (int)
+	 */
+	public void compareDouble(int nanResult) {
+		poppush(4, 1);
+		if (nanResult == -1)
+			emit(151); // dcmpl
+		else if (nanResult == 1)
+			emit(152); // dcmpg
+		else
+			throw new IllegalArgumentException("nanResult must be -1 or 1");
+	}
+
 	private void emitJump(int opcode, Label label) {
 		int basePosition = getCurrentPosition();
 		emit(opcode);
@@ -668,6 +796,36 @@ public final class MethodWriter {
 		emitJump(155, label); // iflt
 	}
 
+	/**
+	 * Jump to Label, if value is greater than or equal to 0.
+	 * 
+	 * Stack: .., int => ..
+	 */
+	public void jumpIfNonNegative(Label label) {
+		poppush(1, 0);
+		emitJump(156, label); // ifge
+	}
+
+	/**
+	 * Jump to Label, if value is greater than 0.
+	 * 
+	 * Stack: .., int => ..
+	 */
+	public void jumpIfPositive(Label label) {
+		poppush(1, 0);
+		emitJump(157, label); // ifgt
+	}
+
+	/**
+	 * Jump to Label, if value is less than or equal to 0.
+	 * 
+	 * Stack: .., int => ..
+	 */
+	public void jumpIfNonPositive(Label label) {
+		poppush(1, 0);
+		emitJump(158, label); // ifle
+	}
+
 	/**
 	 * Jump to Label, if lhs is less than rhs.
 	 * 
@@ -786,6 +944,7 @@ public final class MethodWriter {
 	public void markForwardJumpsOnly(Label label) {
 		if (label.markedPosition == -1) {
 			label.markedPosition = getCurrentPosition();
+			instrumentedEndPosition = -1; // jumps may skip the instrumentation
 			label.allowJumps = false;
 			// "synchronize" stackSize with label.stackSize
 			if (stackSize == -1) {
@@ -811,6 +970,7 @@ public final class MethodWriter {
 	public void mark(Label label) {
 		if (label.markedPosition == -1) {
 			label.markedPosition = getCurrentPosition();
+			instrumentedEndPosition = -1; // jumps may skip the instrumentation
 			if (stackSize > 0)
 				throw new IllegalArgumentException(
 						"Label cannot be placed here: Stack must be empty at label position, but has size " + stackSize);
@@ -827,6 +987,7 @@ public final class MethodWriter {
 
 	/** Emits the 'return' instruction. */
 	public void returnFromProcedure() {
+		beforeReturn();
 		emit(177); // return
 		unconditionalControlTransfer();
 	}
@@ -837,6 +998,7 @@ public final class MethodWriter {
 	 * Stack: .., returnvalue
 	 */
 	public void returnIntFromFunction() {
+		beforeReturn();
 		poppush(1, 0);
 		emit(172); // ireturn
 		unconditionalControlTransfer();
@@ -848,6 +1010,7 @@ public final class MethodWriter {
 	 * Stack: .., returnvalue
 	 */
 	public void returnObjectFromFunction() {
+		beforeReturn();
 		poppush(1, 0);
 		emit(176); // areturn
 		unconditionalControlTransfer();
@@ -859,20 +1022,23 @@ public final class MethodWriter {
 	 * Stack: .., returnvalue
 	 */
 	public void returnDoubleFromFunction() {
+		beforeReturn();
 		poppush(2, 0);
 		emit(175); // dreturn
 		unconditionalControlTransfer();
 	}
 
 	/**
-	 * Loads the value from a reference-type field.
+	 * Loads the value from a field.
 	 * 
-	 * Stack: .., objectref => .., valueref
+	 * Stack: .., objectref => .., value
 	 */
 	public void loadInstanceField(Field field) {
 		if (isStatic(field))
 			throw new IllegalArgumentException("Expected instance field, but found static field.");
-		loadInstanceField(pool.getFieldref(field));
+		poppush(1, getStackSize(field.getType()));
+		emit(180); // getfield
+		emitUInt16(pool.getFieldref(field).index);
 	}
 
 	/**
@@ -1009,6 +1175,18 @@ public final class MethodWriter {
 		emitUInt16(pool.getClass(type));
 	}
 
+	/**
+	 * Creates a new object of a class that is specified by name (e.g. a class
+	 * that is being generated) without calling any constructor.
+	 * 
+	 * Stack: .. => .., objectref
+	 */
+	public void newObject(String className) {
+		poppush(0, 1);
+		emit(187); // new
+		emitUInt16(pool.getClassByJavaName(className.replace('.', '/')));
+	}
+
 	/**
 	 * Calls the constructor of an object.
 	 * 
@@ -1020,6 +1198,18 @@ public final class MethodWriter {
 		emitUInt16(pool.getConstructor(ctor));
 	}
 
+	/**
+	 * Calls the constructor of an object of a class that is specified by name
+	 * (e.g. a class that is being generated).
+	 * 
+	 * Stack: .., objectref, parameters => ..
+	 */
+	public void invokeConstructor(String className, Class<?>[] parameterTypes) {
+		poppush(1 + getStackSize(parameterTypes), 0);
+		emit(183); // invokespecial
+		emitUInt16(pool.createConstructorref(pool.getClassByJavaName(className.replace('.', '/')), parameterTypes));
+	}
+
 	/**
 	 * Creates a new array.
 	 * 
@@ -28,6 +28,7 @@
 package arden.compiler;
 
 import arden.codegenerator.Label;
+import arden.compiler.analysis.DepthFirstAdapter;
 import arden.compiler.node.*;
 import arden.runtime.ArdenValue;
 
@@ -46,6 +47,18 @@ final class ActionCompiler extends VisitorBase {
 		this.context = context;
 	}
 
+	/** Creates the visitor that compiles the blocks of a slot. */
+	interface BlockCompilerFactory {
+		Switch create(CompilerContext context);
+	}
+
+	static final BlockCompilerFactory FACTORY = new BlockCompilerFactory() {
+		@Override
+		public Switch create(CompilerContext context) {
+			return new ActionCompiler(context);
+		}
+	};
+
 	// action_slot =
 	// action action_block semicolons;
 	@Override
@@ -164,15 +177,7 @@ final class ActionCompiler extends VisitorBase {
 		Label end = new Label();
 		context.writer.mark(start);
 		context.writer.sequencePoint(tWhile.getLine());
-		expr.apply(new ExpressionCompiler(context));
-		try {
-			context.writer.invokeInstance(ArdenValue.class.getMethod("isTrue"));
-		} catch (SecurityException e) {
-			throw new RuntimeException(e);
-		} catch (NoSuchMethodException e) {
-			throw new RuntimeException(e);
-		}
-		context.writer.jumpIfZero(end);
+		ConditionCompiler.compileJump(context, expr, false, end);
 		block.apply(blockCompiler);
 		context.writer.jump(start);
 		context.writer.markForwardJumpsOnly(end);
@@ -258,22 +263,36 @@ final class ActionCompiler extends VisitorBase {
 	// expr then action_block semicolon action_elseif;
 	@Override
 	public void caseAActionIfThenElse2(AActionIfThenElse2 node) {
-		compileIfStatement(context, node.getExpr(), node.getActionBlock(), node.getActionElseif(), this);
+		compileIfStatement(context, node.getExpr(), node.getActionBlock(), node.getActionElseif(), this, FACTORY);
 	}
 
+	/**
+	 * Compiles an IF statement.
+	 * 
+	 * @param deadBranchCompiler
+	 *            If not null and the condition is a compile-time constant, only
+	 *            the branch that will be executed is emitted. The other branch
+	 *            is compiled by a block compiler from this factory into a
+	 *            discarded context, so it is still checked for errors.
+	 */
 	public static void compileIfStatement(CompilerContext context, PExpr expr, Switchable trueBlock,
-			Switchable falseBlock, Switch blockCompiler) {
-		expr.apply(new ExpressionCompiler(context));
-		try {
-			context.writer.invokeInstance(ArdenValue.class.getMethod("isTrue"));
-		} catch (SecurityException e) {
-			throw new RuntimeException(e);
-		} catch (NoSuchMethodException e) {
-			throw new RuntimeException(e);
+			Switchable falseBlock, Switch blockCompiler, BlockCompilerFactory deadBranchCompiler) {
+		if (deadBranchCompiler != null) {
+			ArdenValue condition = context.codeGenerator.getConstantFolder().evaluate(expr);
+			if (condition != null) {
+				if (condition.isTrue()) {
+					trueBlock.apply(blockCompiler);
+					compileDeadBranch(context, falseBlock, deadBranchCompiler);
+				} else {
+					compileDeadBranch(context, trueBlock, deadBranchCompiler);
+					falseBlock.apply(blockCompiler);
+				}
+				return;
+			}
 		}
 		Label falseLabel = new Label();
 		Label endLabel = new Label();
-		context.writer.jumpIfZero(falseLabel);
+		ConditionCompiler.compileJump(context, expr, false, falseLabel);
 		trueBlock.apply(blockCompiler);
 		context.writer.jump(endLabel);
 		context.writer.markForwardJumpsOnly(falseLabel);
@@ -281,6 +300,49 @@ final class ActionCompiler extends VisitorBase {
 		context.writer.markForwardJumpsOnly(endLabel);
 	}
 
+	/**
+	 * Compiles a block that is never executed into a discarded context, so
+	 * that errors like unknown variables are reported. The variables assigned
+	 * in the block are still declared, so later statements can refer to them
+	 * (they remain null).
+	 */
+	private static void compileDeadBranch(CompilerContext context, Switchable block, BlockCompilerFactory factory) {
+		block.apply(factory.create(context.codeGenerator.createDiscardedContext()));
+		block.apply(new VariableDeclarer(context.codeGenerator));
+	}
+
+	/**
+	 * Declares the variables assigned within a block without compiling the
+	 * block.
+	 */
+	private static final class VariableDeclarer extends DepthFirstAdapter {
+		private final CodeGenerator codeGen;
+
+		public VariableDeclarer(CodeGenerator codeGen) {
+			this.codeGen = codeGen;
+		}
+
+		@Override
+		public void caseAIdIdentifierBecomes(AIdIdentifierBecomes node) {
+			LeftHandSideAnalyzer.analyze(node).declareVariables(codeGen);
+		}
+
+		@Override
+		public void caseALetIdentifierBecomes(ALetIdentifierBecomes node) {
+			LeftHandSideAnalyzer.analyze(node).declareVariables(codeGen);
+		}
+
+		@Override
+		public void caseAIdDataVarList(AIdDataVarList node) {
+			LeftHandSideAnalyzer.analyze(node).declareVariables(codeGen);
+		}
+
+		@Override
+		public void caseAIdlDataVarList(AIdlDataVarList node) {
+			LeftHandSideAnalyzer.analyze(node).declareVariables(codeGen);
+		}
+	}
+
 	// action_elseif =
 	// {end} endif
 	// | {else} else action_block semicolon endif
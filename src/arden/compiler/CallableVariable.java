@@ -83,6 +83,8 @@ final class CallableVariable extends Variable {
 		}
 		context.writer.invokeStatic(Compiler.getRuntimeHelper("call", ArdenRunnable.class, ExecutionContext.class,
 				ArdenValue[].class));
+		// the called MLM may have modified objects passed to it
+		context.codeGenerator.getSubexpressionCache().emitInvalidationOfAll(context);
 	}
 
 	@Override
@@ -98,5 +100,7 @@ final class CallableVariable extends Variable {
 		}
 		delay.apply(new ExpressionCompiler(context));
 		context.writer.invokeInstance(ExecutionContextMethods.callWithDelay);
+		// the context may run the MLM immediately
+		context.codeGenerator.getSubexpressionCache().emitInvalidationOfAll(context);
 	}
 }
@@ -29,9 +29,11 @@ package arden.compiler;
 
 import java.io.DataOutput;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Locale;
 
 import arden.codegenerator.ClassFileWriter;
@@ -39,6 +41,7 @@ import arden.codegenerator.FieldReference;
 import arden.codegenerator.Label;
 import arden.codegenerator.MethodWriter;
 import arden.compiler.node.TIdentifier;
+import arden.runtime.ArdenDuration;
 import arden.runtime.ArdenNull;
 import arden.runtime.ArdenNumber;
 import arden.runtime.ArdenString;
@@ -46,7 +49,9 @@ import arden.runtime.ArdenTime;
 import arden.runtime.ArdenValue;
 import arden.runtime.ExecutionContext;
 import arden.runtime.MedicalLogicModule;
+import arden.runtime.MedicalLogicModuleFactory;
 import arden.runtime.MedicalLogicModuleImplementation;
+import arden.runtime.StatementProfile;
 
 /**
  * This class is responsible for generating the
@@ -55,12 +60,22 @@ import arden.runtime.MedicalLogicModuleImplementation;
  * @author Daniel Grunwald
  */
 final class CodeGenerator {
+	/** Suffix appended to the class name to get the name of the factory class. */
+	public static final String FACTORY_SUFFIX = "$Factory";
+
+	private static final Class<?>[] constructorParameters = { ExecutionContext.class, MedicalLogicModule.class,
+			ArdenValue[].class };
+
+	private final String className;
 	private final ClassFileWriter classFileWriter;
 	private MethodWriter staticInitializer;
 	private final HashMap<String, FieldReference> stringLiterals = new HashMap<String, FieldReference>();
 	private final HashMap<Double, FieldReference> numberLiterals = new HashMap<Double, FieldReference>();
 	private final HashMap<Long, FieldReference> timeLiterals = new HashMap<Long, FieldReference>();
+	private final HashMap<Double, FieldReference> secondsLiterals = new HashMap<Double, FieldReference>();
+	private final HashMap<Double, FieldReference> monthsLiterals = new HashMap<Double, FieldReference>();
 	private final HashMap<String, Variable> variables = new HashMap<String, Variable>();
+	private final LinkedHashSet<String> queryMappings = new LinkedHashSet<String>();
 	private int nextFieldIndex;
 	private boolean isFinished;
 	private FieldReference nowField;
@@ -161,10 +176,40 @@ final class CodeGenerator {
 		}
 	}
 
+	/**
+	 * Gets a reference to the static field that stores an ArdenDuration with
+	 * the specified value.
+	 */
+	public FieldReference getDurationLiteral(double value, boolean isMonths) {
+		try {
+			HashMap<Double, FieldReference> literals = isMonths ? monthsLiterals : secondsLiterals;
+			FieldReference ref = literals.get(value);
+			if (ref == null) {
+				ref = classFileWriter.declareField(literalPrefix + (nextFieldIndex++), ArdenValue.class,
+						Modifier.PRIVATE | Modifier.STATIC | Modifier.FINAL);
+				literals.put(value, ref);
+				getStaticInitializer().loadDoubleConstant(value);
+				getStaticInitializer().loadIntegerConstant(isMonths ? 1 : 0);
+				getStaticInitializer().loadLongConstant(ArdenValue.NOPRIMARYTIME);
+
+				getStaticInitializer().invokeStatic(
+						ArdenDuration.class.getMethod("create", Double.TYPE, Boolean.TYPE, Long.TYPE));
+
+				getStaticInitializer().storeStaticField(ref);
+			}
+			return ref;
+		} catch (SecurityException e) {
+			throw new RuntimeException(e);
+		} catch (NoSuchMethodException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	private final int lineNumberForStaticInitializationSequencePoint;
 
-	public CodeGenerator(String mlmName, int lineNumberForStaticInitializationSequencePoint) {
-		this.classFileWriter = new ClassFileWriter(mlmName, MedicalLogicModuleImplementation.class);
+	public CodeGenerator(String className, int lineNumberForStaticInitializationSequencePoint) {
+		this.className = className;
+		this.classFileWriter = new ClassFileWriter(className, MedicalLogicModuleImplementation.class);
 		this.lineNumberForStaticInitializationSequencePoint = lineNumberForStaticInitializationSequencePoint;
 	}
 
@@ -176,14 +221,98 @@ final class CodeGenerator {
 		classFileWriter.setSourceFileName(sourceFileName);
 	}
 
+	private TypeInference typeInference = TypeInference.NONE;
+
+	/** Gets the type information used for compiling unboxed arithmetic. */
+	public TypeInference getTypeInference() {
+		return typeInference;
+	}
+
+	/** Sets the type information used for compiling unboxed arithmetic. */
+	public void setTypeInference(TypeInference typeInference) {
+		if (typeInference == null)
+			throw new NullPointerException();
+		this.typeInference = typeInference;
+	}
+
+	private final ConstantFolder constantFolder = new ConstantFolder();
+
+	/** Gets the compile-time values of the expressions in this MLM. */
+	public ConstantFolder getConstantFolder() {
+		return constantFolder;
+	}
+
+	private SubexpressionCache subexpressionCache = SubexpressionCache.NONE;
+
+	/** Gets the cache fields for common subexpressions. */
+	public SubexpressionCache getSubexpressionCache() {
+		return subexpressionCache;
+	}
+
+	/** Sets the cache fields for common subexpressions. */
+	public void setSubexpressionCache(SubexpressionCache subexpressionCache) {
+		if (subexpressionCache == null)
+			throw new NullPointerException();
+		this.subexpressionCache = subexpressionCache;
+	}
+
+	private String profiledMlmName;
+	private FieldReference profileField;
+	private int profileLineCount;
+
+	/**
+	 * Enables statement profiling: the generated methods record the execution
+	 * count and time of every statement in a StatementProfile. Must be called
+	 * before the methods are created.
+	 */
+	public void enableStatementProfiling(String mlmName) {
+		profiledMlmName = mlmName;
+		profileField = classFileWriter.declareField(StatementProfile.FIELD_NAME, StatementProfile.class,
+				Modifier.PUBLIC | Modifier.STATIC | Modifier.FINAL);
+	}
+
+	/**
+	 * Creates the statement timer at the current position and lets the method
+	 * notify it at all following sequence points and returns.
+	 */
+	private void instrumentMethod(CompilerContext context) {
+		if (profileField == null)
+			return;
+		final int timerVariable = context.allocateVariable();
+		final MethodWriter w = context.writer;
+		try {
+			w.loadStaticField(profileField);
+			w.invokeInstance(StatementProfile.class.getMethod("startTimer"));
+			w.storeVariable(timerVariable);
+			final Method statement = StatementProfile.Timer.class.getMethod("statement", Integer.TYPE);
+			final Method finish = StatementProfile.Timer.class.getMethod("finish");
+			w.setInstrumentation(new MethodWriter.Instrumentation() {
+				@Override
+				public void sequencePoint(MethodWriter writer, int lineNumber) {
+					profileLineCount = Math.max(profileLineCount, lineNumber + 1);
+					writer.loadVariable(timerVariable);
+					writer.loadIntegerConstant(lineNumber);
+					writer.invokeInstance(statement);
+				}
+
+				@Override
+				public void beforeReturn(MethodWriter writer) {
+					writer.loadVariable(timerVariable);
+					writer.invokeInstance(finish);
+				}
+			});
+		} catch (NoSuchMethodException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	private MethodWriter ctor;
 	private final Label ctorUserCodeLabel = new Label();
 	private final Label ctorInitCodeLabel = new Label();
 	private int lineNumberForInitializationSequencePoint;
 
 	public CompilerContext createConstructor(int lineNumberForInitializationSequencePoint) {
-		ctor = classFileWriter.createConstructor(Modifier.PUBLIC, new Class<?>[] { ExecutionContext.class,
-				MedicalLogicModule.class, ArdenValue[].class });
+		ctor = classFileWriter.createConstructor(Modifier.PUBLIC, constructorParameters);
 		this.lineNumberForInitializationSequencePoint = lineNumberForInitializationSequencePoint;
 		if (isDebuggingEnabled) {
 			ctor.enableLineNumberTable();
@@ -199,7 +328,9 @@ final class CodeGenerator {
 		}
 		ctor.jump(ctorInitCodeLabel);
 		ctor.mark(ctorUserCodeLabel);
-		return new CompilerContext(this, ctor, 3);
+		CompilerContext context = new CompilerContext(this, ctor, 3);
+		instrumentMethod(context);
+		return context;
 	}
 
 	public CompilerContext createLogic() {
@@ -207,7 +338,9 @@ final class CodeGenerator {
 				new Class<?>[] { ExecutionContext.class }, Boolean.TYPE);
 		if (isDebuggingEnabled)
 			w.enableLineNumberTable();
-		return new CompilerContext(this, w, 1);
+		CompilerContext context = new CompilerContext(this, w, 1);
+		instrumentMethod(context);
+		return context;
 	}
 
 	public CompilerContext createAction() {
@@ -215,14 +348,44 @@ final class CodeGenerator {
 				new Class<?>[] { ExecutionContext.class }, ArdenValue[].class);
 		if (isDebuggingEnabled)
 			w.enableLineNumberTable();
-		return new CompilerContext(this, w, 1);
+		CompilerContext context = new CompilerContext(this, w, 1);
+		instrumentMethod(context);
+		return context;
+	}
+
+	/**
+	 * Creates a context for code that is compiled only to check it for errors,
+	 * e.g. IF branches that can never be executed. The code, and the literals
+	 * and fields it uses, go into a separate class that is never saved.
+	 * Variables declared by the discarded code are not added to this code
+	 * generator.
+	 */
+	public CompilerContext createDiscardedContext() {
+		CodeGenerator discarded = new CodeGenerator(className, lineNumberForStaticInitializationSequencePoint);
+		discarded.variables.putAll(variables);
+		discarded.typeInference = typeInference;
+		MethodWriter w = discarded.classFileWriter.createMethod("discarded", Modifier.PUBLIC,
+				new Class<?>[] { ExecutionContext.class }, Void.TYPE);
+		return new CompilerContext(discarded, w, 1);
 	}
 
 	public CompilerContext createUrgency() {
 		MethodWriter w = classFileWriter.createMethod("getUrgency", Modifier.PUBLIC, new Class<?>[] {}, Double.TYPE);
 		if (isDebuggingEnabled)
 			w.enableLineNumberTable();
-		return new CompilerContext(this, w, 0);
+		CompilerContext context = new CompilerContext(this, w, 0);
+		instrumentMethod(context);
+		return context;
+	}
+
+	/** Records the mapping clause of a READ statement. */
+	public void addQueryMapping(String mapping) {
+		queryMappings.add(mapping);
+	}
+
+	/** Gets the mapping clauses of all READ statements, in source order. */
+	public String[] getQueryMappings() {
+		return queryMappings.toArray(new String[queryMappings.size()]);
 	}
 
 	public FieldReference getNowField() {
@@ -285,9 +448,33 @@ final class CodeGenerator {
 		variables.remove(var.name.toLowerCase(Locale.ENGLISH));
 	}
 
+	/**
+	 * Copies the constant pool and label statistics of the generated class
+	 * (not including the factory class) into the profile.
+	 */
+	void addStatistics(CompilerProfile.MlmProfile profile) {
+		profile.constantPoolEntries = classFileWriter.getConstantPool().getEntryCount();
+		profile.constantPoolLookups = classFileWriter.getConstantPool().getLookupCount();
+		profile.resolvedLabels = classFileWriter.getResolvedLabelCount();
+		profile.labelResolutionNanos = classFileWriter.getLabelResolutionNanos();
+	}
+
 	/** Saves the class file */
 	public void save(DataOutput output) throws IOException {
 		if (!isFinished) {
+			if (profileField != null) {
+				// the sequence point at the end of the constructor is emitted below
+				int lineCount = Math.max(profileLineCount, lineNumberForInitializationSequencePoint + 1);
+				MethodWriter w = getStaticInitializer();
+				w.loadStringConstant(profiledMlmName);
+				w.loadIntegerConstant(lineCount);
+				try {
+					w.invokeStatic(StatementProfile.class.getMethod("create", String.class, Integer.TYPE));
+				} catch (NoSuchMethodException e) {
+					throw new RuntimeException(e);
+				}
+				w.storeStaticField(profileField);
+			}
 			if (staticInitializer != null)
 				staticInitializer.returnFromProcedure();
 
@@ -318,4 +505,33 @@ final class CodeGenerator {
 		}
 		classFileWriter.save(output);
 	}
+
+	/**
+	 * Saves the factory class. The factory class derives from
+	 * MedicalLogicModuleFactory and calls the constructor of the generated
+	 * class.
+	 */
+	public void saveFactory(DataOutput output) throws IOException {
+		ClassFileWriter factory = new ClassFileWriter(className + FACTORY_SUFFIX, MedicalLogicModuleFactory.class);
+		MethodWriter w = factory.createConstructor(Modifier.PUBLIC, new Class<?>[0]);
+		w.loadThis();
+		try {
+			w.invokeConstructor(MedicalLogicModuleFactory.class.getConstructor());
+		} catch (NoSuchMethodException e) {
+			throw new RuntimeException(e);
+		}
+		w.returnFromProcedure();
+
+		// return new <className>(context, self, arguments);
+		w = factory.createMethod("create", Modifier.PUBLIC, constructorParameters,
+				MedicalLogicModuleImplementation.class);
+		w.newObject(className);
+		w.dup();
+		w.loadVariable(1);
+		w.loadVariable(2);
+		w.loadVariable(3);
+		w.invokeConstructor(className, constructorParameters);
+		w.returnObjectFromFunction();
+		factory.save(output);
+	}
 }
@@ -29,8 +29,12 @@ package arden.compiler;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import arden.runtime.ArdenList;
 import arden.runtime.ArdenValue;
@@ -38,7 +42,10 @@ import arden.runtime.ExecutionContext;
 import arden.runtime.LibraryMetadata;
 import arden.runtime.MaintenanceMetadata;
 import arden.runtime.MedicalLogicModule;
+import arden.runtime.MedicalLogicModuleFactory;
 import arden.runtime.MedicalLogicModuleImplementation;
+import arden.runtime.QueryMappingProvider;
+import arden.runtime.StatementProfile;
 
 /**
  * Represents a compiled MedicalLogicModule.
@@ -47,75 +54,158 @@ import arden.runtime.MedicalLogicModuleImplementation;
  * saveClassFile() method.
  * 
  * When createInstance() or run() is called, the compiled bytecode is loaded
- * using the InMemoryClassLoader for execution.
+ * using the InMemoryClassLoader for execution. Instances are created using a
+ * generated MedicalLogicModuleFactory, so no reflection is involved after the
+ * classes have been loaded.
  * 
  * @author Daniel Grunwald
  * 
  */
-public final class CompiledMlm implements MedicalLogicModule {
+public final class CompiledMlm implements MedicalLogicModule, QueryMappingProvider {
 	private final byte[] data;
+	private final byte[] factoryData;
 	private final MaintenanceMetadata maintenance;
 	private final LibraryMetadata library;
 	private final String mlmname;
+	private final String className;
 	private final double priority;
-	private Constructor<? extends MedicalLogicModuleImplementation> ctor;
+	private final String[] queryMappings;
+	private volatile MedicalLogicModuleFactory factory;
 
-	CompiledMlm(byte[] data, MaintenanceMetadata maintenance, LibraryMetadata library, double priority) {
-		if (data == null || maintenance == null || library == null)
+	CompiledMlm(byte[] data, byte[] factoryData, String className, MaintenanceMetadata maintenance,
+			LibraryMetadata library, double priority, String[] queryMappings) {
+		if (data == null || factoryData == null || className == null || maintenance == null || library == null
+				|| queryMappings == null)
 			throw new NullPointerException();
 		this.data = data;
+		this.factoryData = factoryData;
+		this.className = className;
 		this.maintenance = maintenance;
 		this.library = library;
 		this.mlmname = maintenance.getMlmName();
 		this.priority = priority;
+		this.queryMappings = queryMappings;
 	}
 
 	public void saveClassFile(OutputStream os) throws IOException {
 		os.write(data);
 	}
 
-	@SuppressWarnings("unchecked")
-	private synchronized Constructor<? extends MedicalLogicModuleImplementation> getConstructor() {
-		if (ctor == null) {
-			Class<? extends MedicalLogicModuleImplementation> clazz;
-			try {
-				ClassLoader classLoader = new InMemoryClassLoader(mlmname, data);
-				clazz = (Class<? extends MedicalLogicModuleImplementation>) classLoader.loadClass(mlmname);
-			} catch (ClassNotFoundException e) {
-				throw new RuntimeException(e);
-			}
-			// We know the class has an appropriate constructor because we
-			// compiled it, so wrap all the checked exceptions that should never
-			// occur.
-			try {
-				ctor = clazz.getConstructor(ExecutionContext.class, MedicalLogicModule.class, ArdenValue[].class);
-			} catch (SecurityException e) {
-				throw new RuntimeException(e);
-			} catch (NoSuchMethodException e) {
-				throw new RuntimeException(e);
+	/**
+	 * Saves the factory class, which is required for loading the compiled
+	 * class without reflection. See getFactoryClassName().
+	 */
+	public void saveFactoryClassFile(OutputStream os) throws IOException {
+		os.write(factoryData);
+	}
+
+	/** Gets the compiled bytecode. The array must not be modified. */
+	byte[] getClassData() {
+		return data;
+	}
+
+	/** Gets the compiled bytecode of the factory class. The array must not be modified. */
+	byte[] getFactoryClassData() {
+		return factoryData;
+	}
+
+	/**
+	 * Gets the fully qualified name of the compiled class. This is the mlmname,
+	 * prefixed with the package name if one was set using
+	 * Compiler.setPackageName().
+	 */
+	public String getClassName() {
+		return className;
+	}
+
+	/**
+	 * Gets the fully qualified name of the factory class. The factory class
+	 * derives from MedicalLogicModuleFactory and creates instances of the
+	 * compiled class.
+	 */
+	public String getFactoryClassName() {
+		return className + CodeGenerator.FACTORY_SUFFIX;
+	}
+
+	/** Adds the compiled classes of this MLM to the map (class name to bytecode). */
+	void addClassData(Map<String, byte[]> classData) {
+		classData.put(className, data);
+		classData.put(getFactoryClassName(), factoryData);
+	}
+
+	private MedicalLogicModuleFactory getFactory() {
+		MedicalLogicModuleFactory f = factory;
+		if (f == null) {
+			synchronized (this) {
+				f = factory;
+				if (f == null) {
+					Map<String, byte[]> classData = new HashMap<String, byte[]>();
+					addClassData(classData);
+					factory = f = loadFactory(new InMemoryClassLoader(classData));
+				}
 			}
 		}
-		return ctor;
+		return f;
+	}
+
+	/** Creates the factory of this MLM using the specified class loader. */
+	MedicalLogicModuleFactory loadFactory(ClassLoader classLoader) {
+		// We know the factory class has an appropriate constructor because we
+		// compiled it, so wrap all the checked exceptions that should never
+		// occur.
+		try {
+			Class<?> factoryClass = classLoader.loadClass(getFactoryClassName());
+			return (MedicalLogicModuleFactory) factoryClass.getConstructor().newInstance();
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		} catch (NoSuchMethodException e) {
+			throw new RuntimeException(e);
+		} catch (InstantiationException e) {
+			throw new RuntimeException(e);
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Gets the statement profile of this MLM, or null if it was not compiled
+	 * with statement profiling enabled. Loads the compiled class if necessary.
+	 */
+	public StatementProfile getStatementProfile() {
+		try {
+			Class<?> implementationClass = getFactory().getClass().getClassLoader().loadClass(className);
+			return StatementProfile.forClass(implementationClass.asSubclass(MedicalLogicModuleImplementation.class));
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	/** Creates an instance of the implementation class. */
 	@Override
 	public MedicalLogicModuleImplementation createInstance(ExecutionContext context, ArdenValue[] arguments)
 			throws InvocationTargetException {
+		return createInstance(getFactory(), context, this, arguments);
+	}
+
+	/** Creates an instance of a compiled class using its factory. */
+	static MedicalLogicModuleImplementation createInstance(MedicalLogicModuleFactory factory,
+			ExecutionContext context, MedicalLogicModule self, ArdenValue[] arguments) throws InvocationTargetException {
 		if (context == null)
 			throw new NullPointerException();
 
 		if (arguments == null)
-			arguments = ArdenList.EMPTY.values;
+			arguments = ArdenList.EMPTY.getElements();
 
 		try {
-			return getConstructor().newInstance(context, this, arguments);
-		} catch (IllegalArgumentException e) {
-			throw new RuntimeException(e);
-		} catch (InstantiationException e) {
-			throw new RuntimeException(e);
-		} catch (IllegalAccessException e) {
-			throw new RuntimeException(e);
+			return factory.create(context, self, arguments);
+		} catch (RuntimeException e) {
+			// exceptions in the data slot
+			throw new InvocationTargetException(e);
+		} catch (Error e) {
+			// Constructor.newInstance() used to wrap errors as well
+			throw new InvocationTargetException(e);
 		}
 	}
 
@@ -157,4 +247,9 @@ public final class CompiledMlm implements MedicalLogicModule {
 	public double getPriority() {
 		return priority;
 	}
+
+	@Override
+	public List<String> getQueryMappings() {
+		return Collections.unmodifiableList(Arrays.asList(queryMappings));
+	}
 }
@@ -27,14 +27,26 @@
 
 package arden.compiler;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PushbackReader;
 import java.io.Reader;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import arden.compiler.analysis.DepthFirstAdapter;
 import arden.compiler.lexer.Lexer;
@@ -65,8 +77,18 @@ import arden.runtime.RuntimeHelpers;
  * @author Daniel Grunwald
  */
 public final class Compiler {
+	/**
+	 * Identifies the code generated by this compiler version. Must be changed
+	 * whenever the generated code or the runtime methods it calls change, as
+	 * it invalidates the entries in a CompilerCache.
+	 */
+	public static final String VERSION = "arden2bytecode-10";
+
 	private boolean isDebuggingEnabled = false;
+	private boolean isStatementProfilingEnabled = false;
 	private String sourceFileName;
+	private String packageName;
+	private CompilerProfile profile;
 
 	/** Enables debugging for the code being produced. */
 	public void enableDebugging(String sourceFileName) {
@@ -74,6 +96,54 @@ public final class Compiler {
 		this.sourceFileName = sourceFileName;
 	}
 
+	/**
+	 * Enables statement profiling: the compiled MLMs record how often each
+	 * statement is executed and how much time it takes. The results are
+	 * available from CompiledMlm.getStatementProfile().
+	 */
+	public void enableStatementProfiling() {
+		this.isStatementProfilingEnabled = true;
+	}
+
+	/**
+	 * Sets the Java package of the generated classes. By default, the classes
+	 * are in the default package and named after the mlmname.
+	 */
+	public void setPackageName(String packageName) {
+		this.packageName = (packageName == null || packageName.length() == 0) ? null : packageName;
+	}
+
+	/** Gets the Java package of the generated classes; null for the default package. */
+	public String getPackageName() {
+		return packageName;
+	}
+
+	/**
+	 * Sets the profile that records the time spent in each compiler phase.
+	 * Pass null to disable profiling (the default).
+	 */
+	public void setProfile(CompilerProfile profile) {
+		this.profile = profile;
+	}
+
+	/** Gets the profile used for recording; null if profiling is disabled. */
+	public CompilerProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Gets a string describing the options that influence the generated code.
+	 * Used as part of the CompilerCache key.
+	 */
+	String getOptionsKey() {
+		String key = isDebuggingEnabled ? "debug:" + sourceFileName : "";
+		if (packageName != null)
+			key += ";package:" + packageName;
+		if (isStatementProfilingEnabled)
+			key += ";profile";
+		return key;
+	}
+
 	/** Compiles a single MLM given in the input stream. */
 	public CompiledMlm compileMlm(Reader input) throws CompilerException, IOException {
 		List<CompiledMlm> output = compile(input);
@@ -84,46 +154,204 @@ public final class Compiler {
 
 	/** Compiles a list of MLMs given in the input stream. */
 	public List<CompiledMlm> compile(Reader input) throws CompilerException, IOException {
-		Lexer lexer = new Lexer(new PushbackReader(input, 1024));
+		return compile(parse(input));
+	}
+
+	private Start parse(Reader input) throws CompilerException, IOException {
+		CompilerProfile.Recorder recorder = new CompilerProfile.Recorder(profile);
+		PushbackReader reader = new PushbackReader(input, 1024);
+		Lexer lexer = profile != null ? new CompilerProfile.ProfilingLexer(reader) : new Lexer(reader);
 		Parser parser = new Parser(lexer);
-		Start syntaxTree;
 		try {
-			syntaxTree = parser.parse();
+			Start syntaxTree = parser.parse();
+			if (profile != null)
+				recorder.parseCompleted((CompilerProfile.ProfilingLexer) lexer);
+			return syntaxTree;
 		} catch (ParserException e) {
 			throw new CompilerException(e);
 		} catch (LexerException e) {
 			throw new CompilerException(e);
 		}
-		return compile(syntaxTree);
+	}
+
+	/** Finds all AMlm nodes in the syntax tree. */
+	private static List<AMlm> findMlms(Start syntaxTree) {
+		final ArrayList<AMlm> mlms = new ArrayList<AMlm>();
+		syntaxTree.apply(new DepthFirstAdapter() {
+			@Override
+			public void caseAMlm(AMlm node) {
+				mlms.add(node);
+			}
+		});
+		return mlms;
 	}
 
 	/** Compiles a list of MLMs given in the syntax tree. */
 	public List<CompiledMlm> compile(Start syntaxTree) throws CompilerException {
 		try {
 			final ArrayList<CompiledMlm> output = new ArrayList<CompiledMlm>();
-			// find all AMlm nodes and compile each individually
-			syntaxTree.apply(new DepthFirstAdapter() {
-				@Override
-				public void caseAMlm(AMlm node) {
-					output.add(doCompileMlm(node));
-				}
-			});
+			// compile each MLM individually
+			for (AMlm mlm : findMlms(syntaxTree))
+				output.add(doCompileMlm(mlm, sourceFileName));
 			return output;
 		} catch (RuntimeCompilerException ex) {
 			throw new CompilerException(ex);
 		}
 	}
 
+	/**
+	 * Compiles a list of MLMs given in the syntax tree. The MLMs are compiled
+	 * in parallel using the specified executor.
+	 */
+	public List<CompiledMlm> compile(Start syntaxTree, ExecutorService executor) throws CompilerException {
+		List<Future<CompiledMlm>> futures = new ArrayList<Future<CompiledMlm>>();
+		for (AMlm mlm : findMlms(syntaxTree))
+			futures.add(executor.submit(createCompileTask(mlm, sourceFileName)));
+		List<CompiledMlm> output = new ArrayList<CompiledMlm>();
+		for (Future<CompiledMlm> future : futures) {
+			try {
+				output.add(getResult(future));
+			} catch (IOException e) {
+				throw new RuntimeException(e); // compile tasks don't do any I/O
+			}
+		}
+		return output;
+	}
+
+	/**
+	 * Compiles all .mlm files in the directory and its subdirectories. Parsing
+	 * the files and compiling the MLMs is done in parallel using the specified
+	 * executor.
+	 * 
+	 * If debugging is enabled, the path of each file is used as source file
+	 * name.
+	 * 
+	 * @return Returns a map from the mlmname to the compiled MLM.
+	 * @throws LibraryCompilerException
+	 *             One or more files contained compile errors, or the same
+	 *             mlmname was used more than once. The exception contains the
+	 *             errors of all files.
+	 */
+	public Map<String, CompiledMlm> compileDirectory(File directory, ExecutorService executor)
+			throws LibraryCompilerException, IOException {
+		List<File> files = new ArrayList<File>();
+		findMlmFiles(directory, files);
+		Map<File, CompilerException> errors = new LinkedHashMap<File, CompilerException>();
+
+		// phase 1: parse all files
+		List<Future<Start>> parseTasks = new ArrayList<Future<Start>>();
+		for (final File file : files) {
+			parseTasks.add(executor.submit(new Callable<Start>() {
+				@Override
+				public Start call() throws CompilerException, IOException {
+					Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+					try {
+						return parse(new BufferedReader(reader));
+					} finally {
+						reader.close();
+					}
+				}
+			}));
+		}
+		// phase 2: compile all MLMs
+		List<File> mlmFiles = new ArrayList<File>();
+		List<Future<CompiledMlm>> compileTasks = new ArrayList<Future<CompiledMlm>>();
+		for (int i = 0; i < files.size(); i++) {
+			Start syntaxTree;
+			try {
+				syntaxTree = getResult(parseTasks.get(i));
+			} catch (CompilerException e) {
+				errors.put(files.get(i), e);
+				continue;
+			}
+			String fileName = isDebuggingEnabled ? files.get(i).getPath() : null;
+			for (AMlm mlm : findMlms(syntaxTree)) {
+				mlmFiles.add(files.get(i));
+				compileTasks.add(executor.submit(createCompileTask(mlm, fileName)));
+			}
+		}
+		Map<String, CompiledMlm> output = new LinkedHashMap<String, CompiledMlm>();
+		for (int i = 0; i < compileTasks.size(); i++) {
+			File file = mlmFiles.get(i);
+			CompiledMlm mlm;
+			try {
+				mlm = getResult(compileTasks.get(i));
+			} catch (CompilerException e) {
+				if (!errors.containsKey(file))
+					errors.put(file, e);
+				continue;
+			}
+			if (output.containsKey(mlm.getName())) {
+				if (!errors.containsKey(file))
+					errors.put(file, new CompilerException("Duplicate mlmname '" + mlm.getName() + "'", 0, 0));
+				continue;
+			}
+			output.put(mlm.getName(), mlm);
+		}
+		if (!errors.isEmpty())
+			throw new LibraryCompilerException(errors, output);
+		return output;
+	}
+
+	private static void findMlmFiles(File directory, List<File> output) throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null)
+			throw new IOException("Cannot read directory " + directory);
+		Arrays.sort(files);
+		for (File file : files) {
+			if (file.isDirectory())
+				findMlmFiles(file, output);
+			else if (file.getName().toLowerCase(Locale.ENGLISH).endsWith(".mlm"))
+				output.add(file);
+		}
+	}
+
+	private Callable<CompiledMlm> createCompileTask(final AMlm mlm, final String sourceFileName) {
+		return new Callable<CompiledMlm>() {
+			@Override
+			public CompiledMlm call() throws CompilerException {
+				try {
+					return doCompileMlm(mlm, sourceFileName);
+				} catch (RuntimeCompilerException ex) {
+					throw new CompilerException(ex);
+				}
+			}
+		};
+	}
+
+	/** Waits for a task and unwraps the exceptions thrown by it. */
+	private static <T> T getResult(Future<T> future) throws CompilerException, IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof CompilerException)
+				throw (CompilerException) cause;
+			else if (cause instanceof IOException)
+				throw (IOException) cause;
+			else if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			else if (cause instanceof Error)
+				throw (Error) cause;
+			else
+				throw new RuntimeException(cause);
+		}
+	}
+
 	/** Compiles a single MLMs given in the syntax tree. */
 	public MedicalLogicModule compileMlm(AMlm mlm) throws CompilerException {
 		try {
-			return doCompileMlm(mlm);
+			return doCompileMlm(mlm, sourceFileName);
 		} catch (RuntimeCompilerException ex) {
 			throw new CompilerException(ex);
 		}
 	}
 
-	private CompiledMlm doCompileMlm(AMlm mlm) {
+	private CompiledMlm doCompileMlm(AMlm mlm, String sourceFileName) {
+		CompilerProfile.Recorder recorder = new CompilerProfile.Recorder(profile);
 		MetadataCompiler metadata = new MetadataCompiler();
 		mlm.getMaintenanceCategory().apply(metadata);
 		mlm.getLibraryCategory().apply(metadata);
@@ -131,31 +359,52 @@ public final class Compiler {
 		AKnowledgeCategory knowledgeCategory = (AKnowledgeCategory) mlm.getKnowledgeCategory();
 		AKnowledgeBody knowledge = (AKnowledgeBody) knowledgeCategory.getKnowledgeBody();
 		knowledge.getPrioritySlot().apply(metadata);
+		recorder.phaseCompleted(CompilerProfile.Phase.METADATA);
 
 		// System.out.println(knowledge.toString());
 		// knowledge.apply(new PrintTreeVisitor(System.out));
 
-		CodeGenerator codeGen = new CodeGenerator(metadata.maintenance.getMlmName(), knowledgeCategory.getKnowledge()
-				.getLine());
+		String className = metadata.maintenance.getMlmName();
+		if (packageName != null)
+			className = packageName + "." + className;
+		CodeGenerator codeGen = new CodeGenerator(className, knowledgeCategory.getKnowledge().getLine());
 		if (isDebuggingEnabled)
 			codeGen.enableDebugging(sourceFileName);
+		if (isStatementProfilingEnabled)
+			codeGen.enableStatementProfiling(metadata.maintenance.getMlmName());
+		codeGen.setTypeInference(new TypeInference(knowledge));
+		codeGen.setSubexpressionCache(new SubexpressionCache(knowledge, codeGen));
 
 		compileData(codeGen, knowledge.getDataSlot());
+		recorder.phaseCompleted(CompilerProfile.Phase.DATA);
 		compileLogic(codeGen, knowledge.getLogicSlot());
+		recorder.phaseCompleted(CompilerProfile.Phase.LOGIC);
 		compileAction(codeGen, knowledge.getActionSlot());
+		recorder.phaseCompleted(CompilerProfile.Phase.ACTION);
 		compileUrgency(codeGen, knowledge.getUrgencySlot());
+		recorder.phaseCompleted(CompilerProfile.Phase.URGENCY);
 
 		byte[] data;
+		byte[] factoryData;
 		try {
 			ByteArrayOutputStream bos = new ByteArrayOutputStream();
 			DataOutputStream s = new DataOutputStream(bos);
 			codeGen.save(s);
 			s.close();
 			data = bos.toByteArray();
+
+			bos = new ByteArrayOutputStream();
+			s = new DataOutputStream(bos);
+			codeGen.saveFactory(s);
+			s.close();
+			factoryData = bos.toByteArray();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
-		return new CompiledMlm(data, metadata.maintenance, metadata.library, metadata.priority);
+		recorder.phaseCompleted(CompilerProfile.Phase.WRITE_CLASS);
+		recorder.mlmCompleted(metadata.maintenance.getMlmName(), codeGen);
+		return new CompiledMlm(data, factoryData, className, metadata.maintenance, metadata.library, metadata.priority,
+				codeGen.getQueryMappings());
 	}
 
 	private void compileData(CodeGenerator codeGen, PDataSlot dataSlot) {
@@ -0,0 +1,330 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import arden.runtime.LibraryMetadata;
+import arden.runtime.MaintenanceMetadata;
+
+/**
+ * Persistent cache for compiled MLMs.
+ * 
+ * The bytecode and metadata of the MLMs compiled from a source text are
+ * stored in a file in the cache directory. The file name is a SHA-256 hash of
+ * the source text, the compiler version and the compiler options, so an
+ * unchanged source can be loaded without running the parser and code
+ * generator.
+ * 
+ * Instances of this class can be used from several threads; cache files are
+ * written to a temporary file first and then renamed. The cache is
+ * best-effort: if a cache file cannot be written, the compiled MLMs are
+ * returned anyway.
+ */
+public final class CompilerCache {
+	private static final int MAGIC = 0x41524443; // "ARDC"
+	private static final int FORMAT_VERSION = 3;
+	private static final String FILE_EXTENSION = ".mlmcache";
+
+	private final File directory;
+
+	/**
+	 * Creates a new CompilerCache.
+	 * 
+	 * @param directory
+	 *            The directory that stores the cache files. It is created if
+	 *            it does not exist.
+	 */
+	public CompilerCache(File directory) {
+		if (directory == null)
+			throw new NullPointerException();
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/** Compiles a single MLM, using the cached result if possible. */
+	public CompiledMlm compileMlm(Compiler compiler, Reader input) throws CompilerException, IOException {
+		List<CompiledMlm> output = compile(compiler, input);
+		if (output.size() != 1)
+			throw new CompilerException("Expected only a single MLM per file", 0, 0);
+		return output.get(0);
+	}
+
+	/** Compiles a list of MLMs, using the cached result if possible. */
+	public List<CompiledMlm> compile(Compiler compiler, Reader input) throws CompilerException, IOException {
+		return compile(compiler, readToEnd(input));
+	}
+
+	/** Compiles a list of MLMs, using the cached result if possible. */
+	public List<CompiledMlm> compile(Compiler compiler, String source) throws CompilerException, IOException {
+		File file = getCacheFile(compiler, source);
+		if (file.isFile()) {
+			try {
+				return read(file);
+			} catch (IOException e) {
+				// corrupt or truncated cache file: fall through and recompile
+			} catch (RuntimeException e) {
+				// corrupt cache file: fall through and recompile
+			}
+		}
+		List<CompiledMlm> output = compiler.compile(new StringReader(source));
+		try {
+			write(file, output);
+		} catch (IOException e) {
+			// read-only or full cache directory: use the result without caching
+		}
+		return output;
+	}
+
+	/** Deletes all cache files. */
+	public void clear() {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		for (File file : files) {
+			if (file.getName().endsWith(FILE_EXTENSION))
+				file.delete();
+		}
+	}
+
+	private File getCacheFile(Compiler compiler, String source) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+			digest.update(Compiler.VERSION.getBytes("UTF-8"));
+			digest.update((byte) 0);
+			digest.update(compiler.getOptionsKey().getBytes("UTF-8"));
+			digest.update((byte) 0);
+			digest.update(source.getBytes("UTF-8"));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		StringBuilder name = new StringBuilder();
+		for (byte b : digest.digest())
+			name.append(String.format("%02x", b & 0xff));
+		name.append(FILE_EXTENSION);
+		return new File(directory, name.toString());
+	}
+
+	private static String readToEnd(Reader input) throws IOException {
+		StringBuilder b = new StringBuilder();
+		char[] buffer = new char[4096];
+		int len;
+		while ((len = input.read(buffer)) > 0)
+			b.append(buffer, 0, len);
+		return b.toString();
+	}
+
+	private static List<CompiledMlm> read(File file) throws IOException {
+		CacheInputStream s = new CacheInputStream(file);
+		try {
+			if (s.readInt() != MAGIC || s.readInt() != FORMAT_VERSION || !s.readUTF().equals(Compiler.VERSION))
+				throw new IOException("Invalid cache file");
+			int count = s.readLength();
+			List<CompiledMlm> output = new ArrayList<CompiledMlm>(count);
+			for (int i = 0; i < count; i++) {
+				byte[] data = new byte[s.readLength()];
+				s.readFully(data);
+				byte[] factoryData = new byte[s.readLength()];
+				s.readFully(factoryData);
+				String className = readString(s);
+				MaintenanceMetadata maintenance = readMaintenance(s);
+				LibraryMetadata library = readLibrary(s);
+				double priority = s.readDouble();
+				String[] queryMappings = new String[s.readLength()];
+				for (int j = 0; j < queryMappings.length; j++)
+					queryMappings[j] = readString(s);
+				output.add(new CompiledMlm(data, factoryData, className, maintenance, library, priority, queryMappings));
+			}
+			return output;
+		} finally {
+			s.close();
+		}
+	}
+
+	private void write(File file, List<CompiledMlm> mlms) throws IOException {
+		directory.mkdirs();
+		File tempFile = File.createTempFile("mlm", ".tmp", directory);
+		try {
+			DataOutputStream s = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				s.writeInt(MAGIC);
+				s.writeInt(FORMAT_VERSION);
+				s.writeUTF(Compiler.VERSION);
+				s.writeInt(mlms.size());
+				for (CompiledMlm mlm : mlms) {
+					byte[] data = mlm.getClassData();
+					s.writeInt(data.length);
+					s.write(data);
+					byte[] factoryData = mlm.getFactoryClassData();
+					s.writeInt(factoryData.length);
+					s.write(factoryData);
+					writeString(s, mlm.getClassName());
+					writeMaintenance(s, mlm.getMaintenance());
+					writeLibrary(s, mlm.getLibrary());
+					s.writeDouble(mlm.getPriority());
+					List<String> queryMappings = mlm.getQueryMappings();
+					s.writeInt(queryMappings.size());
+					for (String mapping : queryMappings)
+						writeString(s, mapping);
+				}
+			} finally {
+				s.close();
+			}
+			if (!tempFile.renameTo(file)) {
+				// On platforms where renaming does not replace an existing
+				// file, remove the old (corrupt) file first. Another thread or
+				// process may write the same entry concurrently; both files
+				// have the same content, so it does not matter which is kept.
+				file.delete();
+				if (!tempFile.renameTo(file) && !file.isFile())
+					throw new IOException("Could not rename " + tempFile + " to " + file);
+			}
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	private static MaintenanceMetadata readMaintenance(CacheInputStream s) throws IOException {
+		MaintenanceMetadata m = new MaintenanceMetadata();
+		m.setTitle(readString(s));
+		m.setMlmName(readString(s));
+		m.setArdenVersion(readString(s));
+		m.setVersion(readString(s));
+		m.setInstitution(readString(s));
+		m.setAuthor(readString(s));
+		m.setSpecialist(readString(s));
+		if (s.readBoolean())
+			m.setDate(new Date(s.readLong()));
+		m.setValidation(readString(s));
+		return m;
+	}
+
+	private static void writeMaintenance(DataOutputStream s, MaintenanceMetadata m) throws IOException {
+		writeString(s, m.getTitle());
+		writeString(s, m.getMlmName());
+		writeString(s, m.getArdenVersion());
+		writeString(s, m.getVersion());
+		writeString(s, m.getInstitution());
+		writeString(s, m.getAuthor());
+		writeString(s, m.getSpecialist());
+		s.writeBoolean(m.getDate() != null);
+		if (m.getDate() != null)
+			s.writeLong(m.getDate().getTime());
+		writeString(s, m.getValidation());
+	}
+
+	private static LibraryMetadata readLibrary(CacheInputStream s) throws IOException {
+		LibraryMetadata l = new LibraryMetadata();
+		l.setPurpose(readString(s));
+		l.setExplanation(readString(s));
+		int keywordCount = s.readLength();
+		for (int i = 0; i < keywordCount; i++)
+			l.getKeywords().add(readString(s));
+		l.setCitations(readString(s));
+		l.setLinks(readString(s));
+		return l;
+	}
+
+	private static void writeLibrary(DataOutputStream s, LibraryMetadata l) throws IOException {
+		writeString(s, l.getPurpose());
+		writeString(s, l.getExplanation());
+		s.writeInt(l.getKeywords().size());
+		for (String keyword : l.getKeywords())
+			writeString(s, keyword);
+		writeString(s, l.getCitations());
+		writeString(s, l.getLinks());
+	}
+
+	/*
+	 * DataOutput.writeUTF is limited to 64 KB, so strings are written as
+	 * length-prefixed UTF-8 bytes.
+	 */
+	private static String readString(CacheInputStream s) throws IOException {
+		int length = s.readInt();
+		if (length == -1)
+			return null;
+		byte[] bytes = new byte[s.checkLength(length)];
+		s.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static void writeString(DataOutputStream s, String value) throws IOException {
+		if (value == null) {
+			s.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes("UTF-8");
+			s.writeInt(bytes.length);
+			s.write(bytes);
+		}
+	}
+
+	/**
+	 * Input stream for cache files that checks lengths and counts before
+	 * they are used to allocate arrays. Every array element takes up at
+	 * least one byte in the file, so no valid length can exceed the file
+	 * size.
+	 */
+	private static final class CacheInputStream extends DataInputStream {
+		private final long fileLength;
+
+		CacheInputStream(File file) throws IOException {
+			super(new BufferedInputStream(new FileInputStream(file)));
+			this.fileLength = file.length();
+		}
+
+		int readLength() throws IOException {
+			return checkLength(readInt());
+		}
+
+		int checkLength(int length) throws IOException {
+			if (length < 0 || length > fileLength)
+				throw new IOException("Invalid length in cache file: " + length);
+			return length;
+		}
+	}
+}
@@ -0,0 +1,320 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.compiler;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import arden.compiler.lexer.Lexer;
+import arden.compiler.lexer.LexerException;
+import arden.compiler.node.Token;
+
+/**
+ * Records where the compiler spends its time. Enable profiling by passing an
+ * instance to Compiler.setProfile().
+ * 
+ * For every phase, the profile contains the wall time and the number of bytes
+ * allocated by the compiling thread. The lexer and parser phases are recorded
+ * per source; the other phases are also recorded per MLM (see
+ * getMlmProfiles()). A profile can be shared by compilers running on several
+ * threads.
+ * 
+ * Constant pool interning and label resolution are part of the code generation
+ * and class writing phases; the MLM profiles contain their counts and the time
+ * spent resolving labels.
+ */
+public final class CompilerProfile {
+	/** The phases of the compiler. */
+	public enum Phase {
+		/** Tokenizing the source (SableCC Lexer). */
+		LEX,
+		/** Building the syntax tree from the tokens (SableCC Parser). */
+		PARSE,
+		/** MetadataCompiler: maintenance, library and priority slots. */
+		METADATA,
+		/** DataCompiler: data slot. */
+		DATA,
+		/** LogicCompiler: logic slot. */
+		LOGIC,
+		/** ActionCompiler: action slot. */
+		ACTION,
+		/** Urgency slot. */
+		URGENCY,
+		/** Writing the class files, including label resolution. */
+		WRITE_CLASS
+	}
+
+	private static final Phase[] PHASES = Phase.values();
+
+	/** Profile of compiling a single MLM. */
+	public static final class MlmProfile {
+		private final String name;
+		private final long[] nanos;
+		private final long[] allocatedBytes;
+		int constantPoolEntries;
+		int constantPoolLookups;
+		int resolvedLabels;
+		long labelResolutionNanos;
+
+		MlmProfile(String name, long[] nanos, long[] allocatedBytes) {
+			this.name = name;
+			this.nanos = nanos;
+			this.allocatedBytes = allocatedBytes;
+		}
+
+		/** Gets the mlmname. */
+		public String getName() {
+			return name;
+		}
+
+		/** Gets the time spent in a phase in nanoseconds. */
+		public long getNanos(Phase phase) {
+			return nanos[phase.ordinal()];
+		}
+
+		/** Gets the bytes allocated in a phase, or -1 if not supported. */
+		public long getAllocatedBytes(Phase phase) {
+			return isAllocationSupported() ? allocatedBytes[phase.ordinal()] : -1;
+		}
+
+		/** Gets the number of slots used in the constant pool of the generated class. */
+		public int getConstantPoolEntries() {
+			return constantPoolEntries;
+		}
+
+		/** Gets the number of constant pool lookups done while generating the class. */
+		public int getConstantPoolLookups() {
+			return constantPoolLookups;
+		}
+
+		/** Gets the number of jump targets that had to be resolved. */
+		public int getResolvedLabels() {
+			return resolvedLabels;
+		}
+
+		/** Gets the time spent resolving jump targets in nanoseconds. */
+		public long getLabelResolutionNanos() {
+			return labelResolutionNanos;
+		}
+	}
+
+	private final AtomicLongArray nanos = new AtomicLongArray(PHASES.length);
+	private final AtomicLongArray allocatedBytes = new AtomicLongArray(PHASES.length);
+	private final List<MlmProfile> mlmProfiles = new ArrayList<MlmProfile>();
+
+	/** Gets the total time spent in a phase in nanoseconds. */
+	public long getNanos(Phase phase) {
+		return nanos.get(phase.ordinal());
+	}
+
+	/** Gets the total time spent in all phases in nanoseconds. */
+	public long getTotalNanos() {
+		long total = 0;
+		for (Phase phase : PHASES)
+			total += getNanos(phase);
+		return total;
+	}
+
+	/**
+	 * Gets the number of bytes allocated in a phase, or -1 if the JVM does not
+	 * support measuring allocations.
+	 */
+	public long getAllocatedBytes(Phase phase) {
+		return isAllocationSupported() ? allocatedBytes.get(phase.ordinal()) : -1;
+	}
+
+	/** Gets the profiles of the individual MLMs in the order in which they were compiled. */
+	public List<MlmProfile> getMlmProfiles() {
+		synchronized (mlmProfiles) {
+			return Collections.unmodifiableList(new ArrayList<MlmProfile>(mlmProfiles));
+		}
+	}
+
+	/** Clears the profile. */
+	public void reset() {
+		for (int i = 0; i < PHASES.length; i++) {
+			nanos.set(i, 0);
+			allocatedBytes.set(i, 0);
+		}
+		synchronized (mlmProfiles) {
+			mlmProfiles.clear();
+		}
+	}
+
+	private void add(Phase phase, long phaseNanos, long phaseBytes) {
+		nanos.addAndGet(phase.ordinal(), phaseNanos);
+		allocatedBytes.addAndGet(phase.ordinal(), phaseBytes);
+	}
+
+	/** Returns a table with the time and allocations of each phase. */
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		long total = getTotalNanos();
+		b.append(String.format(Locale.ENGLISH, "%-12s %12s %7s %14s%n", "phase", "time [ms]", "time %", "alloc [KB]"));
+		for (Phase phase : PHASES) {
+			long phaseNanos = getNanos(phase);
+			b.append(String.format(Locale.ENGLISH, "%-12s %12.3f %6.1f%% %14s%n", phase, phaseNanos / 1e6,
+					total > 0 ? 100.0 * phaseNanos / total : 0.0, isAllocationSupported() ? String.valueOf(
+							getAllocatedBytes(phase) / 1024) : "n/a"));
+		}
+		long entries = 0, lookups = 0, labels = 0, labelNanos = 0;
+		List<MlmProfile> mlms = getMlmProfiles();
+		for (MlmProfile mlm : mlms) {
+			entries += mlm.constantPoolEntries;
+			lookups += mlm.constantPoolLookups;
+			labels += mlm.resolvedLabels;
+			labelNanos += mlm.labelResolutionNanos;
+		}
+		b.append(String.format(Locale.ENGLISH, "%d MLMs, %.3f ms total%n", mlms.size(), total / 1e6));
+		b.append(String.format(Locale.ENGLISH, "constant pool: %d entries, %d lookups%n", entries, lookups));
+		b.append(String.format(Locale.ENGLISH, "labels: %d resolved in %.3f ms%n", labels, labelNanos / 1e6));
+		return b.toString();
+	}
+
+	private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	/** Gets whether the allocations of a thread can be measured. */
+	public static boolean isAllocationSupported() {
+		if (threadBean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) threadBean;
+			return sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled();
+		}
+		return false;
+	}
+
+	/** Gets the bytes allocated by the current thread, or 0 if not supported. */
+	static long getCurrentThreadAllocatedBytes() {
+		if (isAllocationSupported())
+			return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread()
+					.getId());
+		return 0;
+	}
+
+	/**
+	 * Lexer that measures the time spent tokenizing. Used for parsing when
+	 * profiling is enabled.
+	 */
+	static final class ProfilingLexer extends Lexer {
+		long nanos;
+		long allocatedBytes;
+
+		ProfilingLexer(PushbackReader in) {
+			super(in);
+		}
+
+		@Override
+		protected Token getToken() throws IOException, LexerException {
+			long startTime = System.nanoTime();
+			long startBytes = getCurrentThreadAllocatedBytes();
+			try {
+				return super.getToken();
+			} finally {
+				nanos += System.nanoTime() - startTime;
+				allocatedBytes += getCurrentThreadAllocatedBytes() - startBytes;
+			}
+		}
+	}
+
+	/**
+	 * Records the phases of compiling a source or an MLM on the current
+	 * thread. All methods do nothing if the profile is null, so the compiler
+	 * can use the same code path with and without profiling.
+	 */
+	static final class Recorder {
+		private final CompilerProfile profile;
+		private final long[] nanos;
+		private final long[] allocatedBytes;
+		private long lastTime;
+		private long lastBytes;
+
+		Recorder(CompilerProfile profile) {
+			this.profile = profile;
+			if (profile != null) {
+				nanos = new long[PHASES.length];
+				allocatedBytes = new long[PHASES.length];
+				lastTime = System.nanoTime();
+				lastBytes = getCurrentThreadAllocatedBytes();
+			} else {
+				nanos = null;
+				allocatedBytes = null;
+			}
+		}
+
+		/** Records the time since the previous phase was completed. */
+		void phaseCompleted(Phase phase) {
+			if (profile == null)
+				return;
+			long time = System.nanoTime();
+			long bytes = getCurrentThreadAllocatedBytes();
+			nanos[phase.ordinal()] += time - lastTime;
+			allocatedBytes[phase.ordinal()] += bytes - lastBytes;
+			lastTime = time;
+			lastBytes = bytes;
+		}
+
+		/**
+		 * Records that parsing was completed. The time spent in the lexer is
+		 * subtracted from the parser phase.
+		 */
+		void parseCompleted(ProfilingLexer lexer) {
+			if (profile == null)
+				return;
+			phaseCompleted(Phase.PARSE);
+			nanos[Phase.PARSE.ordinal()] -= lexer.nanos;
+			allocatedBytes[Phase.PARSE.ordinal()] -= lexer.allocatedBytes;
+			nanos[Phase.LEX.ordinal()] += lexer.nanos;
+			allocatedBytes[Phase.LEX.ordinal()] += lexer.allocatedBytes;
+			addToProfile();
+		}
+
+		/** Records that an MLM was compiled. */
+		void mlmCompleted(String name, CodeGenerator codeGen) {
+			if (profile == null)
+				return;
+			MlmProfile mlmProfile = new MlmProfile(name, nanos, allocatedBytes);
+			codeGen.addStatistics(mlmProfile);
+			addToProfile();
+			synchronized (profile.mlmProfiles) {
+				profile.mlmProfiles.add(mlmProfile);
+			}
+		}
+
+		private void addToProfile() {
+			for (Phase phase : PHASES)
+				profile.add(phase, nanos[phase.ordinal()], allocatedBytes[phase.ordinal()]);
+		}
+	}
+}
@@ -0,0 +1,222 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.compiler;
+
+import arden.codegenerator.Label;
+import arden.compiler.node.*;
+import arden.runtime.ArdenValue;
+
+/**
+ * Compiles conditions (of IF, WHILE and CONCLUDE statements) into jumps.
+ * 
+ * Only the truth of a condition matters, so AND and OR are evaluated with
+ * short-circuiting: isTrue(a AND b) is exactly isTrue(a) &amp;&amp; isTrue(b),
+ * even if a or b are lists or null (AND of a list results in a list, which
+ * is never true). For OR, isTrue(a OR b) = isTrue(a) || isTrue(b) holds only
+ * if neither operand is a list, so OR is short-circuited only if
+ * TypeInference can prove both operands are scalars. All other expressions
+ * are evaluated by the ExpressionCompiler, followed by ArdenValue.isTrue().
+ */
+final class ConditionCompiler extends VisitorBase {
+	private final CompilerContext context;
+	private final boolean jumpIfTrue;
+	private final Label target;
+
+	private ConditionCompiler(CompilerContext context, boolean jumpIfTrue, Label target) {
+		this.context = context;
+		this.jumpIfTrue = jumpIfTrue;
+		this.target = target;
+	}
+
+	/**
+	 * Emits code that jumps to the target if the condition is true
+	 * (jumpIfTrue) or if it is not true (!jumpIfTrue). The stack must be
+	 * empty.
+	 */
+	public static void compileJump(CompilerContext context, Node condition, boolean jumpIfTrue, Label target) {
+		if (context.codeGenerator.getTypeInference().isNumericCondition(condition))
+			NumericExpressionCompiler.compileCondition(context, condition, jumpIfTrue, target);
+		else
+			condition.apply(new ConditionCompiler(context, jumpIfTrue, target));
+	}
+
+	/** Emits code that pushes 1 if the condition is true, otherwise 0. */
+	public static void compileValue(CompilerContext context, Node condition) {
+		Label falseLabel = new Label();
+		Label endLabel = new Label();
+		compileJump(context, condition, false, falseLabel);
+		context.writer.loadIntegerConstant(1);
+		context.writer.jump(endLabel);
+		context.writer.markForwardJumpsOnly(falseLabel);
+		context.writer.loadIntegerConstant(0);
+		context.writer.markForwardJumpsOnly(endLabel);
+	}
+
+	/** Emits code that evaluates the expression and pushes isTrue() as int. */
+	private static void compileIsTrue(CompilerContext context, Node expr) {
+		expr.apply(new ExpressionCompiler(context));
+		try {
+			context.writer.invokeInstance(ArdenValue.class.getMethod("isTrue"));
+		} catch (SecurityException e) {
+			throw new RuntimeException(e);
+		} catch (NoSuchMethodException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private boolean isScalar(Node expr) {
+		return context.codeGenerator.getTypeInference().isScalar(expr);
+	}
+
+	@Override
+	public void defaultCase(Node node) {
+		compileIsTrue(context, node);
+		if (jumpIfTrue)
+			context.writer.jumpIfNonZero(target);
+		else
+			context.writer.jumpIfZero(target);
+	}
+
+	@Override
+	public void caseASortExpr(ASortExpr node) {
+		node.getExprSort().apply(this);
+	}
+
+	@Override
+	public void caseAWhereExprSort(AWhereExprSort node) {
+		node.getExprWhere().apply(this);
+	}
+
+	@Override
+	public void caseARangeExprWhere(ARangeExprWhere node) {
+		node.getExprRange().apply(this);
+	}
+
+	@Override
+	public void caseAOrExprRange(AOrExprRange node) {
+		node.getExprOr().apply(this);
+	}
+
+	@Override
+	public void caseAOrExprOr(AOrExprOr node) {
+		// expr_or = {or} expr_or or expr_and
+		if (!isScalar(node.getExprOr()) || !isScalar(node.getExprAnd())) {
+			defaultCase(node);
+		} else if (jumpIfTrue) {
+			compileJump(context, node.getExprOr(), true, target);
+			compileJump(context, node.getExprAnd(), true, target);
+		} else {
+			Label trueLabel = new Label();
+			compileJump(context, node.getExprOr(), true, trueLabel);
+			compileJump(context, node.getExprAnd(), false, target);
+			context.writer.markForwardJumpsOnly(trueLabel);
+		}
+	}
+
+	@Override
+	public void caseAAndExprOr(AAndExprOr node) {
+		node.getExprAnd().apply(this);
+	}
+
+	@Override
+	public void caseAAndExprAnd(AAndExprAnd node) {
+		// expr_and = {and} expr_and and expr_not
+		if (jumpIfTrue) {
+			Label falseLabel = new Label();
+			compileJump(context, node.getExprAnd(), false, falseLabel);
+			compileJump(context, node.getExprNot(), true, target);
+			context.writer.markForwardJumpsOnly(falseLabel);
+		} else {
+			compileJump(context, node.getExprAnd(), false, target);
+			compileJump(context, node.getExprNot(), false, target);
+		}
+	}
+
+	@Override
+	public void caseANotExprAnd(ANotExprAnd node) {
+		node.getExprNot().apply(this);
+	}
+
+	@Override
+	public void caseACompExprNot(ACompExprNot node) {
+		node.getExprComparison().apply(this);
+	}
+
+	// parentheses: expr_comparison = {str} expr_string, down to
+	// expr_factor_atom = {exp} l_par expr r_par
+	@Override
+	public void caseAStrExprComparison(AStrExprComparison node) {
+		node.getExprString().apply(this);
+	}
+
+	@Override
+	public void caseAPlusExprString(APlusExprString node) {
+		node.getExprPlus().apply(this);
+	}
+
+	@Override
+	public void caseATimesExprPlus(ATimesExprPlus node) {
+		node.getExprTimes().apply(this);
+	}
+
+	@Override
+	public void caseAPowerExprTimes(APowerExprTimes node) {
+		node.getExprPower().apply(this);
+	}
+
+	@Override
+	public void caseABeforeExprPower(ABeforeExprPower node) {
+		node.getExprBefore().apply(this);
+	}
+
+	@Override
+	public void caseAAgoExprBefore(AAgoExprBefore node) {
+		node.getExprAgo().apply(this);
+	}
+
+	@Override
+	public void caseAFuncExprAgo(AFuncExprAgo node) {
+		node.getExprFunction().apply(this);
+	}
+
+	@Override
+	public void caseAExprExprFunction(AExprExprFunction node) {
+		node.getExprFactor().apply(this);
+	}
+
+	@Override
+	public void caseAExpfExprFactor(AExpfExprFactor node) {
+		node.getExprFactorAtom().apply(this);
+	}
+
+	@Override
+	public void caseAExpExprFactorAtom(AExpExprFactorAtom node) {
+		node.getExpr().apply(this);
+	}
+
+}
@@ -0,0 +1,413 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.compiler;
+
+import java.util.IdentityHashMap;
+
+import arden.compiler.node.*;
+import arden.runtime.ArdenBoolean;
+import arden.runtime.ArdenDuration;
+import arden.runtime.ArdenList;
+import arden.runtime.ArdenNull;
+import arden.runtime.ArdenNumber;
+import arden.runtime.ArdenString;
+import arden.runtime.ArdenTime;
+import arden.runtime.ArdenValue;
+import arden.runtime.BinaryOperator;
+import arden.runtime.ExpressionHelpers;
+import arden.runtime.UnaryOperator;
+
+/**
+ * Evaluates expressions at compile time.
+ * 
+ * Only operator applications whose operands are all literals are evaluated;
+ * the operators are executed using the same runtime implementations as the
+ * compiled code would use. For all other expressions (variables, NOW,
+ * queries, list operators etc.) the result is null.
+ * 
+ * The result of every evaluated node is remembered, so asking for the value
+ * of each node of an expression tree (as the ExpressionCompiler does) visits
+ * every node only once.
+ */
+final class ConstantFolder extends VisitorBase {
+	private final IdentityHashMap<Switchable, ArdenValue> values = new IdentityHashMap<Switchable, ArdenValue>();
+	private ArdenValue result;
+
+	/**
+	 * Evaluates the expression. Returns null if the expression is not a
+	 * compile-time constant.
+	 */
+	public ArdenValue evaluate(Switchable expr) {
+		return eval(expr);
+	}
+
+	private ArdenValue eval(Switchable node) {
+		if (values.containsKey(node)) {
+			result = values.get(node);
+			return result;
+		}
+		result = null;
+		try {
+			node.apply(this);
+		} catch (RuntimeException e) {
+			// Invalid literals and operator errors are reported when the
+			// expression is compiled normally.
+			result = null;
+		}
+		values.put(node, result);
+		return result;
+	}
+
+	private void unary(UnaryOperator operator, Switchable arg) {
+		ArdenValue val = eval(arg);
+		result = (val != null) ? operator.run(val) : null;
+	}
+
+	private void binary(BinaryOperator operator, Switchable lhs, Switchable rhs) {
+		ArdenValue left = eval(lhs);
+		ArdenValue right = (left != null) ? eval(rhs) : null;
+		if (left == null || right == null || isCalendarArithmetic(left, right))
+			result = null;
+		else
+			result = operator.run(left, right);
+	}
+
+	/**
+	 * Adding months to a time depends on the time zone of the execution
+	 * context (see ExecutionContext.getCalendar()), so this must not be
+	 * evaluated by the compiler.
+	 */
+	private static boolean isCalendarArithmetic(ArdenValue left, ArdenValue right) {
+		return (left instanceof ArdenTime && right instanceof ArdenDuration && ((ArdenDuration) right).isMonths)
+				|| (right instanceof ArdenTime && left instanceof ArdenDuration && ((ArdenDuration) left).isMonths);
+	}
+
+	/** Unsupported nodes are not constant. */
+	@Override
+	public void defaultCase(Node node) {
+		result = null;
+	}
+
+	// expr = {sort} expr_sort
+	@Override
+	public void caseASortExpr(ASortExpr node) {
+		eval(node.getExprSort());
+	}
+
+	// expr_sort = {where} expr_where
+	@Override
+	public void caseAWhereExprSort(AWhereExprSort node) {
+		eval(node.getExprWhere());
+	}
+
+	// expr_where = {range} expr_range
+	@Override
+	public void caseARangeExprWhere(ARangeExprWhere node) {
+		eval(node.getExprRange());
+	}
+
+	// expr_range = {or} expr_or
+	@Override
+	public void caseAOrExprRange(AOrExprRange node) {
+		eval(node.getExprOr());
+	}
+
+	// expr_or =
+	// {or} expr_or or expr_and
+	// | {and} expr_and;
+	@Override
+	public void caseAOrExprOr(AOrExprOr node) {
+		binary(BinaryOperator.OR, node.getExprOr(), node.getExprAnd());
+	}
+
+	@Override
+	public void caseAAndExprOr(AAndExprOr node) {
+		eval(node.getExprAnd());
+	}
+
+	// expr_and =
+	// {and} expr_and and expr_not
+	// | {not} expr_not;
+	@Override
+	public void caseAAndExprAnd(AAndExprAnd node) {
+		binary(BinaryOperator.AND, node.getExprAnd(), node.getExprNot());
+	}
+
+	@Override
+	public void caseANotExprAnd(ANotExprAnd node) {
+		eval(node.getExprNot());
+	}
+
+	// expr_not =
+	// {not} not expr_comparison
+	// | {comp} expr_comparison;
+	@Override
+	public void caseANotExprNot(ANotExprNot node) {
+		unary(UnaryOperator.NOT, node.getExprComparison());
+	}
+
+	@Override
+	public void caseACompExprNot(ACompExprNot node) {
+		eval(node.getExprComparison());
+	}
+
+	// expr_comparison =
+	// {str} expr_string
+	// | {sim} [first_string]:expr_string simple_comp_op
+	// [second_string]:expr_string
+	@Override
+	public void caseAStrExprComparison(AStrExprComparison node) {
+		eval(node.getExprString());
+	}
+
+	@Override
+	public void caseASimExprComparison(ASimExprComparison node) {
+		binary(ExpressionCompiler.getComparisonOperator(node.getSimpleCompOp()), node.getFirstString(), node
+				.getSecondString());
+	}
+
+	// expr_string =
+	// {plus} expr_plus
+	// | {or} expr_string logor expr_plus
+	@Override
+	public void caseAPlusExprString(APlusExprString node) {
+		eval(node.getExprPlus());
+	}
+
+	@Override
+	public void caseAOrExprString(AOrExprString node) {
+		ArdenValue left = eval(node.getExprString());
+		ArdenValue right = (left != null) ? eval(node.getExprPlus()) : null;
+		if (left == null || right == null || containsTime(left) || containsTime(right))
+			result = null;
+		else
+			result = ExpressionHelpers.concat(left, right);
+	}
+
+	/**
+	 * Times are converted to strings in the time zone of the JVM executing the
+	 * MLM, so concatenations with times must not be evaluated by the compiler.
+	 */
+	private static boolean containsTime(ArdenValue val) {
+		if (val instanceof ArdenList) {
+			for (ArdenValue element : ((ArdenList) val).getElements()) {
+				if (element instanceof ArdenTime)
+					return true;
+			}
+			return false;
+		}
+		return val instanceof ArdenTime;
+	}
+
+	// expr_plus =
+	// {times} expr_times
+	// | {plus} expr_plus plus expr_times
+	// | {minus} expr_plus minus expr_times
+	// | {plust} plus expr_times
+	// | {mint} minus expr_times;
+	@Override
+	public void caseATimesExprPlus(ATimesExprPlus node) {
+		eval(node.getExprTimes());
+	}
+
+	@Override
+	public void caseAPlusExprPlus(APlusExprPlus node) {
+		binary(BinaryOperator.ADD, node.getExprPlus(), node.getExprTimes());
+	}
+
+	@Override
+	public void caseAMinusExprPlus(AMinusExprPlus node) {
+		binary(BinaryOperator.SUB, node.getExprPlus(), node.getExprTimes());
+	}
+
+	@Override
+	public void caseAPlustExprPlus(APlustExprPlus node) {
+		unary(UnaryOperator.PLUS, node.getExprTimes());
+	}
+
+	@Override
+	public void caseAMintExprPlus(AMintExprPlus node) {
+		unary(UnaryOperator.MINUS, node.getExprTimes());
+	}
+
+	// expr_times =
+	// {power} expr_power
+	// | {tpow} expr_times times expr_power
+	// | {dpow} expr_times div expr_power;
+	@Override
+	public void caseAPowerExprTimes(APowerExprTimes node) {
+		eval(node.getExprPower());
+	}
+
+	@Override
+	public void caseATpowExprTimes(ATpowExprTimes node) {
+		binary(BinaryOperator.MUL, node.getExprTimes(), node.getExprPower());
+	}
+
+	@Override
+	public void caseADpowExprTimes(ADpowExprTimes node) {
+		binary(BinaryOperator.DIV, node.getExprTimes(), node.getExprPower());
+	}
+
+	// expr_power =
+	// {before} expr_before
+	// | {exp} [base]:expr_function dexp [exp]:expr_function;
+	@Override
+	public void caseABeforeExprPower(ABeforeExprPower node) {
+		eval(node.getExprBefore());
+	}
+
+	@Override
+	public void caseAExpExprPower(AExpExprPower node) {
+		binary(BinaryOperator.POW, node.getBase(), node.getExp());
+	}
+
+	// expr_before =
+	// {ago} expr_ago
+	// | {before} expr_duration before expr_ago
+	// | {after} expr_duration after expr_ago
+	// | {from} expr_duration from expr_ago;
+	@Override
+	public void caseAAgoExprBefore(AAgoExprBefore node) {
+		eval(node.getExprAgo());
+	}
+
+	@Override
+	public void caseABeforeExprBefore(ABeforeExprBefore node) {
+		binary(BinaryOperator.BEFORE, node.getExprDuration(), node.getExprAgo());
+	}
+
+	@Override
+	public void caseAAfterExprBefore(AAfterExprBefore node) {
+		binary(BinaryOperator.AFTER, node.getExprDuration(), node.getExprAgo());
+	}
+
+	@Override
+	public void caseAFromExprBefore(AFromExprBefore node) {
+		binary(BinaryOperator.AFTER, node.getExprDuration(), node.getExprAgo());
+	}
+
+	// expr_ago =
+	// {func} expr_function
+	// | {dur} expr_duration
+	@Override
+	public void caseAFuncExprAgo(AFuncExprAgo node) {
+		eval(node.getExprFunction());
+	}
+
+	@Override
+	public void caseADurExprAgo(ADurExprAgo node) {
+		eval(node.getExprDuration());
+	}
+
+	// expr_duration = expr_function duration_op;
+	@Override
+	public void caseAExprDuration(AExprDuration node) {
+		ArdenValue val = eval(node.getExprFunction());
+		if (val != null) {
+			PDurationOp durOp = node.getDurationOp();
+			result = ExpressionHelpers.createDuration(val, ExpressionCompiler.getDurationMultiplier(durOp),
+					ExpressionCompiler.isMonthsDuration(durOp));
+		}
+	}
+
+	// expr_function = {expr} expr_factor
+	@Override
+	public void caseAExprExprFunction(AExprExprFunction node) {
+		eval(node.getExprFactor());
+	}
+
+	// expr_factor = {expf} expr_factor_atom
+	@Override
+	public void caseAExpfExprFactor(AExpfExprFactor node) {
+		eval(node.getExprFactorAtom());
+	}
+
+	// expr_factor_atom =
+	// {num} number_literal
+	// | {string} string_literal
+	// | {time} time_value
+	// | {bool} boolean_value
+	// | {null} null
+	// | {exp} l_par expr r_par;
+	@Override
+	public void caseANumExprFactorAtom(ANumExprFactorAtom node) {
+		result = new ArdenNumber(ParseHelpers.getLiteralDoubleValue(node.getNumberLiteral()));
+	}
+
+	@Override
+	public void caseAStringExprFactorAtom(AStringExprFactorAtom node) {
+		result = new ArdenString(ParseHelpers.getLiteralStringValue(node.getStringLiteral()));
+	}
+
+	@Override
+	public void caseATimeExprFactorAtom(ATimeExprFactorAtom node) {
+		eval(node.getTimeValue());
+	}
+
+	@Override
+	public void caseABoolExprFactorAtom(ABoolExprFactorAtom node) {
+		eval(node.getBooleanValue());
+	}
+
+	@Override
+	public void caseANullExprFactorAtom(ANullExprFactorAtom node) {
+		result = ArdenNull.INSTANCE;
+	}
+
+	@Override
+	public void caseAExpExprFactorAtom(AExpExprFactorAtom node) {
+		eval(node.getExpr());
+	}
+
+	// boolean_value =
+	// {true} true
+	// | {false} false;
+	@Override
+	public void caseATrueBooleanValue(ATrueBooleanValue node) {
+		result = ArdenBoolean.TRUE;
+	}
+
+	@Override
+	public void caseAFalseBooleanValue(AFalseBooleanValue node) {
+		result = ArdenBoolean.FALSE;
+	}
+
+	// time_value =
+	// {idt} iso_date_time
+	// | {idat} iso_date
+	@Override
+	public void caseAIdtTimeValue(AIdtTimeValue node) {
+		result = new ArdenTime(ParseHelpers.parseIsoDateTime(node.getIsoDateTime()));
+	}
+
+	@Override
+	public void caseAIdatTimeValue(AIdatTimeValue node) {
+		result = new ArdenTime(ParseHelpers.parseIsoDate(node.getIsoDate()));
+	}
+}
@@ -114,7 +114,10 @@ final class DataCompiler extends VisitorBase {
 	// data_if_then_else2 = expr then data_block semicolon data_elseif;
 	@Override
 	public void caseADataIfThenElse2(ADataIfThenElse2 node) {
-		ActionCompiler.compileIfStatement(context, node.getExpr(), node.getDataBlock(), node.getDataElseif(), this);
+		// Dead branches are kept in the data slot: they may declare READ, MLM
+		// or EVENT variables that are used elsewhere.
+		ActionCompiler.compileIfStatement(context, node.getExpr(), node.getDataBlock(), node.getDataElseif(), this,
+				null);
 	}
 
 	// data_elseif =
@@ -59,5 +59,6 @@ final class DataVariable extends Variable {
 		context.writer.loadThis();
 		context.writer.swap();
 		context.writer.storeInstanceField(field);
+		context.codeGenerator.getSubexpressionCache().emitInvalidation(context, name);
 	}
 }
@@ -32,14 +32,21 @@ import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Locale;
 
+import arden.codegenerator.FieldReference;
 import arden.codegenerator.Label;
+import arden.compiler.analysis.DepthFirstAdapter;
 import arden.compiler.node.*;
 import arden.runtime.ArdenBoolean;
+import arden.runtime.ArdenDuration;
 import arden.runtime.ArdenList;
 import arden.runtime.ArdenNull;
+import arden.runtime.ArdenNumber;
 import arden.runtime.ArdenObject;
+import arden.runtime.ArdenString;
+import arden.runtime.ArdenTime;
 import arden.runtime.ArdenValue;
 import arden.runtime.BinaryOperator;
+import arden.runtime.CivilTime;
 import arden.runtime.ExpressionHelpers;
 import arden.runtime.ObjectType;
 import arden.runtime.TernaryOperator;
@@ -90,6 +97,8 @@ final class ExpressionCompiler extends VisitorBase {
 		try {
 			Field field = TernaryOperator.class.getField(operator.toString());
 			context.writer.loadStaticField(field);
+			if (operator.dependsOnTimeZone())
+				selectOperatorTimeZone(TernaryOperator.class);
 		} catch (SecurityException e) {
 			throw new RuntimeException(e);
 		} catch (NoSuchFieldException e) {
@@ -108,6 +117,20 @@ final class ExpressionCompiler extends VisitorBase {
 		}
 	}
 
+	/**
+	 * Emits code that loads the calendar of the execution context and
+	 * replaces the operator on the stack with its variant for that time zone.
+	 */
+	private void selectOperatorTimeZone(Class<?> operatorClass) {
+		try {
+			context.writer.loadVariable(context.executionContextVariable);
+			context.writer.invokeInstance(ExecutionContextMethods.getCalendar);
+			context.writer.invokeInstance(operatorClass.getMethod("inZone", CivilTime.class));
+		} catch (NoSuchMethodException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	public void invokeOperator(TernaryOperator operator, Switchable arg1, Switchable arg2, Switchable arg3) {
 		loadOperator(operator);
 		arg1.apply(this);
@@ -120,6 +143,8 @@ final class ExpressionCompiler extends VisitorBase {
 		try {
 			Field field = BinaryOperator.class.getField(operator.toString());
 			context.writer.loadStaticField(field);
+			if (operator.dependsOnTimeZone())
+				selectOperatorTimeZone(BinaryOperator.class);
 		} catch (SecurityException e) {
 			throw new RuntimeException(e);
 		} catch (NoSuchFieldException e) {
@@ -173,6 +198,95 @@ final class ExpressionCompiler extends VisitorBase {
 		invokeLoadedUnaryOperator();
 	}
 
+	/**
+	 * Evaluates the expression at compile time if all its operands are
+	 * literals. If successful, emits code that loads the result from a static
+	 * field and returns true; otherwise returns false without emitting code.
+	 */
+	private boolean foldConstant(Node expr) {
+		ArdenValue value = context.codeGenerator.getConstantFolder().evaluate(expr);
+		return value != null && loadConstant(value);
+	}
+
+	/** The common subexpression currently being computed for its cache. */
+	private Node subexpressionBeingCached;
+
+	/**
+	 * Emits code that loads the value of a common subexpression from its
+	 * cache field, computing and storing it first if the cache is empty.
+	 * Returns false without emitting code if the expression is not cached.
+	 */
+	private boolean loadCachedSubexpression(Node expr) {
+		if (expr == subexpressionBeingCached)
+			return false;
+		FieldReference field = context.codeGenerator.getSubexpressionCache().getCacheField(expr,
+				context.codeGenerator);
+		if (field == null)
+			return false;
+		Label cached = new Label();
+		context.writer.loadThis();
+		context.writer.loadInstanceField(field);
+		context.writer.dup();
+		context.writer.jumpIfNonNull(cached);
+		context.writer.pop();
+		Node outer = subexpressionBeingCached;
+		subexpressionBeingCached = expr;
+		expr.apply(this);
+		subexpressionBeingCached = outer;
+		context.writer.dup();
+		context.writer.loadThis();
+		context.writer.swap();
+		context.writer.storeInstanceField(field);
+		context.writer.markForwardJumpsOnly(cached);
+		return true;
+	}
+
+	/**
+	 * Compiles the expression using unboxed double arithmetic if type
+	 * inference has proven that it is a number. Returns false without emitting
+	 * code otherwise.
+	 */
+	private boolean compileUnboxed(Node expr) {
+		if (!context.codeGenerator.getTypeInference().isNumber(expr))
+			return false;
+		NumericExpressionCompiler.compileBoxed(context, expr);
+		return true;
+	}
+
+	/**
+	 * Emits code that loads a constant value. Returns false (without emitting
+	 * code) if the value cannot be stored as a literal.
+	 */
+	private boolean loadConstant(ArdenValue value) {
+		if (value.primaryTime != ArdenValue.NOPRIMARYTIME)
+			return false;
+		try {
+			if (value instanceof ArdenNumber) {
+				context.writer.loadStaticField(context.codeGenerator.getNumberLiteral(((ArdenNumber) value).value));
+			} else if (value instanceof ArdenString) {
+				context.writer.loadStaticField(context.codeGenerator.getStringLiteral(((ArdenString) value).value));
+			} else if (value instanceof ArdenTime) {
+				context.writer.loadStaticField(context.codeGenerator.getTimeLiteral(((ArdenTime) value).value));
+			} else if (value instanceof ArdenDuration) {
+				ArdenDuration duration = (ArdenDuration) value;
+				context.writer.loadStaticField(context.codeGenerator.getDurationLiteral(duration.value,
+						duration.isMonths));
+			} else if (value instanceof ArdenBoolean) {
+				String name = ((ArdenBoolean) value).value ? "TRUE" : "FALSE";
+				context.writer.loadStaticField(ArdenBoolean.class.getDeclaredField(name));
+			} else if (value instanceof ArdenNull) {
+				context.writer.loadStaticField(ArdenNull.class.getDeclaredField("INSTANCE"));
+			} else {
+				return false;
+			}
+			return true;
+		} catch (SecurityException e) {
+			throw new RuntimeException(e);
+		} catch (NoSuchFieldException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	// expr =
 	// {sort} expr_sort
 	// | {exsort} expr comma expr_sort
@@ -220,27 +334,42 @@ final class ExpressionCompiler extends VisitorBase {
 	@Override
 	public void caseASortExprSort(ASortExprSort node) {
 		// expr_sort = {sort} sort data? expr_sort
-		GetExpressionVisitor exprVisitor = new GetExpressionVisitor();
-		node.getExprSort().apply(exprVisitor);
+		if (loadCachedSubexpression(node))
+			return;
+		PExprFunction sortByTimeArgument = getSortByTimeArgument(node);
+		if (sortByTimeArgument != null) {
+			sortByTimeArgument.apply(this); // evaluate 'x'
+			context.writer.invokeStatic(getMethod("sortByTime", ArdenValue.class));
+		} else {
+			node.getExprSort().apply(this);
+			context.writer.invokeStatic(getMethod("sortByData", ArdenValue.class));
+		}
+	}
+
+	/**
+	 * Gets the argument 'x' if the node is a 'sort time x' expression;
+	 * otherwise returns null (the node sorts by data).
+	 */
+	static PExprFunction getSortByTimeArgument(ASortExprSort node) {
 		// if data wasn't specified, we need to check whether this is was a
 		// 'sort time x' expression
 		// we have to do this in code as handling it in the grammar would cause
 		// a shift/reduce conflict
-		if (node.getData() == null && exprVisitor.result instanceof AOfexprExprFunction) {
+		if (node.getData() != null)
+			return null;
+		GetExpressionVisitor exprVisitor = new GetExpressionVisitor();
+		node.getExprSort().apply(exprVisitor);
+		if (exprVisitor.result instanceof AOfexprExprFunction) {
 			AOfexprExprFunction ofExpr = (AOfexprExprFunction) exprVisitor.result;
 			if (ofExpr.getOfFuncOp() instanceof AOfnrOfFuncOp) {
 				AOfnrOfFuncOp ofOp = (AOfnrOfFuncOp) ofExpr.getOfFuncOp();
 				if (ofOp.getOfNoreadFuncOp() instanceof ATimeOfNoreadFuncOp) {
 					// found pattern 'sort time x'
-					ofExpr.getExprFunction().apply(this); // evaluate 'x'
-					context.writer.invokeStatic(getMethod("sortByTime", ArdenValue.class));
-					return;
+					return ofExpr.getExprFunction();
 				}
 			}
 		}
-		// did not find pattern, so sort by data
-		exprVisitor.result.apply(this);
-		context.writer.invokeStatic(getMethod("sortByData", ArdenValue.class));
+		return null;
 	}
 
 	// expr_where =
@@ -256,6 +385,10 @@ final class ExpressionCompiler extends VisitorBase {
 	public void caseAWrangeExprWhere(AWrangeExprWhere node) {
 		// expr_where = {wrange} [this_range]:expr_range where
 		// [next_range]:expr_range
+		if (loadCachedSubexpression(node))
+			return;
+		if (compileWhereComparison(node))
+			return;
 		node.getThisRange().apply(this);
 		context.writer.dup();
 		int it = context.allocateItVariable();
@@ -265,6 +398,44 @@ final class ExpressionCompiler extends VisitorBase {
 		context.popItVariable();
 	}
 
+	/**
+	 * Compiles "x WHERE x op y" and "x WHERE IT op y" with a scalar y to a
+	 * single pass over x that does not create the list of condition values.
+	 * Returns false without emitting code if the condition has another form.
+	 */
+	private boolean compileWhereComparison(AWrangeExprWhere node) {
+		Node condition = GetExpressionVisitor.getExpressionInParentheses(node.getNextRange());
+		if (!(condition instanceof ASimExprComparison))
+			return false;
+		ASimExprComparison comparison = (ASimExprComparison) condition;
+		Node lhs = GetExpressionVisitor.getExpressionInParentheses(comparison.getFirstString());
+		if (!(lhs instanceof AItExprFactorAtom)) {
+			Node sequence = GetExpressionVisitor.getExpressionInParentheses(node.getThisRange());
+			if (!SubexpressionCache.getKey(lhs).equals(SubexpressionCache.getKey(sequence)))
+				return false;
+		}
+		PExprString rhs = comparison.getSecondString();
+		if (!context.codeGenerator.getTypeInference().isScalar(rhs) || containsIt(rhs))
+			return false;
+		node.getThisRange().apply(this);
+		loadOperator(getComparisonOperator(comparison.getSimpleCompOp()));
+		rhs.apply(this);
+		context.writer.invokeStatic(getMethod("whereCompare", ArdenValue.class, BinaryOperator.class,
+				ArdenValue.class));
+		return true;
+	}
+
+	private static boolean containsIt(Node node) {
+		final boolean[] result = new boolean[1];
+		node.apply(new DepthFirstAdapter() {
+			@Override
+			public void inAItExprFactorAtom(AItExprFactorAtom node) {
+				result[0] = true;
+			}
+		});
+		return result[0];
+	}
+
 	// expr_range =
 	// {or} expr_or
 	// | {seq} [this_or]:expr_or seqto [next_or]:expr_or;
@@ -288,6 +459,8 @@ final class ExpressionCompiler extends VisitorBase {
 	@Override
 	public void caseAOrExprOr(AOrExprOr node) {
 		// expr_or = {or} expr_or or expr_and
+		if (foldConstant(node))
+			return;
 		invokeOperator(BinaryOperator.OR, node.getExprOr(), node.getExprAnd());
 	}
 
@@ -303,6 +476,8 @@ final class ExpressionCompiler extends VisitorBase {
 	@Override
 	public void caseAAndExprAnd(AAndExprAnd node) {
 		// expr_and = {and} expr_and and expr_not
+		if (foldConstant(node))
+			return;
 		invokeOperator(BinaryOperator.AND, node.getExprAnd(), node.getExprNot());
 	}
 
@@ -318,6 +493,8 @@ final class ExpressionCompiler extends VisitorBase {
 	@Override
 	public void caseANotExprNot(ANotExprNot node) {
 		// expr_not = {not} not expr_comparison
+		if (foldConstant(node))
+			return;
 		invokeOperator(UnaryOperator.NOT, node.getExprComparison());
 	}
 
@@ -356,8 +533,14 @@ final class ExpressionCompiler extends VisitorBase {
 	public void caseASimExprComparison(ASimExprComparison node) {
 		// expr_comparison = [first_string]:expr_string simple_comp_op
 		// [second_string]:expr_string
+		if (foldConstant(node))
+			return;
+		invokeOperator(getComparisonOperator(node.getSimpleCompOp()), node.getFirstString(), node.getSecondString());
+	}
+
+	/** Gets the binary operator that implements a simple comparison operator. */
+	static BinaryOperator getComparisonOperator(PSimpleCompOp compOp) {
 		BinaryOperator op;
-		PSimpleCompOp compOp = node.getSimpleCompOp();
 		if (compOp instanceof AEqSimpleCompOp || compOp instanceof AEqsSimpleCompOp)
 			op = BinaryOperator.EQ;
 		else if (compOp instanceof ANeSimpleCompOp || compOp instanceof ANesSimpleCompOp)
@@ -372,7 +555,7 @@ final class ExpressionCompiler extends VisitorBase {
 			op = BinaryOperator.LT;
 		else
 			throw new RuntimeCompilerException("Unsupported comparison operator: " + compOp.toString());
-		invokeOperator(op, node.getFirstString(), node.getSecondString());
+		return op;
 	}
 
 	@Override
@@ -457,6 +640,8 @@ final class ExpressionCompiler extends VisitorBase {
 	@Override
 	public void caseAOrExprString(AOrExprString node) {
 		// expr_string = expr_string logor expr_plus
+		if (foldConstant(node))
+			return;
 		node.getExprString().apply(this);
 		node.getExprPlus().apply(this);
 		context.writer.invokeStatic(getMethod("concat", ArdenValue.class, ArdenValue.class));
@@ -541,24 +726,40 @@ final class ExpressionCompiler extends VisitorBase {
 	@Override
 	public void caseAPlusExprPlus(APlusExprPlus node) {
 		// expr_plus = {plus} expr_plus plus expr_times
+		if (foldConstant(node))
+			return;
+		if (compileUnboxed(node))
+			return;
 		invokeOperator(BinaryOperator.ADD, node.getExprPlus(), node.getExprTimes());
 	}
 
 	@Override
 	public void caseAMinusExprPlus(AMinusExprPlus node) {
 		// expr_plus = {minus} expr_plus minus expr_times
+		if (foldConstant(node))
+			return;
+		if (compileUnboxed(node))
+			return;
 		invokeOperator(BinaryOperator.SUB, node.getExprPlus(), node.getExprTimes());
 	}
 
 	@Override
 	public void caseAPlustExprPlus(APlustExprPlus node) {
 		// expr_plus = {plust} plus expr_times
+		if (foldConstant(node))
+			return;
+		if (compileUnboxed(node))
+			return;
 		invokeOperator(UnaryOperator.PLUS, node.getExprTimes());
 	}
 
 	@Override
 	public void caseAMintExprPlus(AMintExprPlus node) {
 		// expr_plus = {mint} minus expr_times
+		if (foldConstant(node))
+			return;
+		if (compileUnboxed(node))
+			return;
 		invokeOperator(UnaryOperator.MINUS, node.getExprTimes());
 	}
 
@@ -575,12 +776,20 @@ final class ExpressionCompiler extends VisitorBase {
 	@Override
 	public void caseATpowExprTimes(ATpowExprTimes node) {
 		// expr_times = {tpow} expr_times times expr_power
+		if (foldConstant(node))
+			return;
+		if (compileUnboxed(node))
+			return;
 		invokeOperator(BinaryOperator.MUL, node.getExprTimes(), node.getExprPower());
 	}
 
 	@Override
 	public void caseADpowExprTimes(ADpowExprTimes node) {
 		// expr_times = {dpow} expr_times div expr_power
+		if (foldConstant(node))
+			return;
+		if (compileUnboxed(node))
+			return;
 		invokeOperator(BinaryOperator.DIV, node.getExprTimes(), node.getExprPower());
 	}
 
@@ -595,6 +804,8 @@ final class ExpressionCompiler extends VisitorBase {
 	@Override
 	public void caseAExpExprPower(AExpExprPower node) {
 		// expr_power = {exp} [base]:expr_function dexp [exp]:expr_function
+		if (foldConstant(node))
+			return;
 		// Exponent (second arguement) must be an expression that evaluates to a
 		// scalar number
 		invokeOperator(BinaryOperator.POW, node.getBase(), node.getExp());
@@ -614,18 +825,24 @@ final class ExpressionCompiler extends VisitorBase {
 	@Override
 	public void caseABeforeExprBefore(ABeforeExprBefore node) {
 		// expr_before = {before} expr_duration before expr_ago
+		if (foldConstant(node))
+			return;
 		invokeOperator(BinaryOperator.BEFORE, node.getExprDuration(), node.getExprAgo());
 	}
 
 	@Override
 	public void caseAAfterExprBefore(AAfterExprBefore node) {
 		// expr_before = {after} expr_duration after expr_ago
+		if (foldConstant(node))
+			return;
 		invokeOperator(BinaryOperator.AFTER, node.getExprDuration(), node.getExprAgo());
 	}
 
 	@Override
 	public void caseAFromExprBefore(AFromExprBefore node) {
 		// expr_before = {from} expr_duration from expr_ago
+		if (foldConstant(node))
+			return;
 		// FROM and AFTER both do the same (duration + time)
 		invokeOperator(BinaryOperator.AFTER, node.getExprDuration(), node.getExprAgo());
 	}
@@ -659,39 +876,41 @@ final class ExpressionCompiler extends VisitorBase {
 	// expr_duration = expr_function duration_op;
 	@Override
 	public void caseAExprDuration(AExprDuration node) {
+		if (foldConstant(node))
+			return;
 		node.getExprFunction().apply(this);
-		boolean isMonths;
-		double multiplier;
 		PDurationOp durOp = node.getDurationOp();
-		if (durOp instanceof ADayDurationOp || durOp instanceof ADaysDurationOp) {
-			isMonths = false;
-			multiplier = 86400;
-		} else if (durOp instanceof AHourDurationOp || durOp instanceof AHoursDurationOp) {
-			isMonths = false;
-			multiplier = 3600;
-		} else if (durOp instanceof AMinDurationOp || durOp instanceof AMinsDurationOp) {
-			isMonths = false;
-			multiplier = 60;
-		} else if (durOp instanceof AMonthDurationOp || durOp instanceof AMonthsDurationOp) {
-			isMonths = true;
-			multiplier = 1;
-		} else if (durOp instanceof ASecDurationOp || durOp instanceof ASecsDurationOp) {
-			isMonths = false;
-			multiplier = 1;
-		} else if (durOp instanceof AWeekDurationOp || durOp instanceof AWeeksDurationOp) {
-			isMonths = false;
-			multiplier = 604800;
-		} else if (durOp instanceof AYearDurationOp || durOp instanceof AYearsDurationOp) {
-			isMonths = true;
-			multiplier = 12;
-		} else {
-			throw new RuntimeCompilerException("Unsupported duration operator: " + durOp.toString());
-		}
-		context.writer.loadDoubleConstant(multiplier);
-		context.writer.loadIntegerConstant(isMonths ? 1 : 0);
+		context.writer.loadDoubleConstant(getDurationMultiplier(durOp));
+		context.writer.loadIntegerConstant(isMonthsDuration(durOp) ? 1 : 0);
 		context.writer.invokeStatic(getMethod("createDuration", ArdenValue.class, double.class, boolean.class));
 	}
 
+	/** Gets whether the duration operator counts months (instead of seconds). */
+	static boolean isMonthsDuration(PDurationOp durOp) {
+		return durOp instanceof AMonthDurationOp || durOp instanceof AMonthsDurationOp
+				|| durOp instanceof AYearDurationOp || durOp instanceof AYearsDurationOp;
+	}
+
+	/** Gets the number of seconds (or months) per unit of the duration operator. */
+	static double getDurationMultiplier(PDurationOp durOp) {
+		if (durOp instanceof ADayDurationOp || durOp instanceof ADaysDurationOp)
+			return 86400;
+		else if (durOp instanceof AHourDurationOp || durOp instanceof AHoursDurationOp)
+			return 3600;
+		else if (durOp instanceof AMinDurationOp || durOp instanceof AMinsDurationOp)
+			return 60;
+		else if (durOp instanceof AMonthDurationOp || durOp instanceof AMonthsDurationOp)
+			return 1;
+		else if (durOp instanceof ASecDurationOp || durOp instanceof ASecsDurationOp)
+			return 1;
+		else if (durOp instanceof AWeekDurationOp || durOp instanceof AWeeksDurationOp)
+			return 604800;
+		else if (durOp instanceof AYearDurationOp || durOp instanceof AYearsDurationOp)
+			return 12;
+		else
+			throw new RuntimeCompilerException("Unsupported duration operator: " + durOp.toString());
+	}
+
 	// expr_function =
 	// {expr} expr_factor
 	// | {ofexpr} of_func_op expr_function
@@ -715,30 +934,40 @@ final class ExpressionCompiler extends VisitorBase {
 	@Override
 	public void caseAOfexprExprFunction(AOfexprExprFunction node) {
 		// expr_function = {ofexpr} of_func_op expr_function
+		if (loadCachedSubexpression(node))
+			return;
 		node.getOfFuncOp().apply(new UnaryOperatorCompiler(this, node.getExprFunction()));
 	}
 
 	@Override
 	public void caseAOfofexprExprFunction(AOfofexprExprFunction node) {
 		// expr_function = {ofofexpr} of_func_op of expr_function
+		if (loadCachedSubexpression(node))
+			return;
 		node.getOfFuncOp().apply(new UnaryOperatorCompiler(this, node.getExprFunction()));
 	}
 
 	@Override
 	public void caseAFromexprExprFunction(AFromexprExprFunction node) {
 		// {fromexpr} from_of_func_op expr_function
+		if (loadCachedSubexpression(node))
+			return;
 		node.getFromOfFuncOp().apply(new UnaryOperatorCompiler(this, node.getExprFunction()));
 	}
 
 	@Override
 	public void caseAFromofexprExprFunction(AFromofexprExprFunction node) {
 		// {fromofexpr} from_of_func_op of expr_function
+		if (loadCachedSubexpression(node))
+			return;
 		node.getFromOfFuncOp().apply(new UnaryOperatorCompiler(this, node.getExprFunction()));
 	}
 
 	@Override
 	public void caseAFromofexprfromExprFunction(AFromofexprfromExprFunction node) {
 		// {fromofexprfrom} from_of_func_op expr_factor from expr_function
+		if (loadCachedSubexpression(node))
+			return;
 		node.getFromOfFuncOp().apply(
 				new TransformationOperatorCompiler(this, node.getExprFactor(), node.getExprFunction()));
 	}
@@ -746,6 +975,8 @@ final class ExpressionCompiler extends VisitorBase {
 	@Override
 	public void caseAFromexprfromExprFunction(AFromexprfromExprFunction node) {
 		// {fromexprfrom} from_func_op expr_factor from expr_function
+		if (loadCachedSubexpression(node))
+			return;
 		node.getFromFuncOp().apply(
 				new TransformationOperatorCompiler(this, node.getExprFactor(), node.getExprFunction()));
 	}
@@ -753,18 +984,24 @@ final class ExpressionCompiler extends VisitorBase {
 	@Override
 	public void caseAIfromexprExprFunction(AIfromexprExprFunction node) {
 		// {ifromexpr} index_from_of_func_op expr_function
+		if (loadCachedSubexpression(node))
+			return;
 		node.getIndexFromOfFuncOp().apply(new UnaryOperatorCompiler(this, node.getExprFunction()));
 	}
 
 	@Override
 	public void caseAIfromofexprExprFunction(AIfromofexprExprFunction node) {
 		// {ifromofexpr} index_from_of_func_op of expr_function
+		if (loadCachedSubexpression(node))
+			return;
 		node.getIndexFromOfFuncOp().apply(new UnaryOperatorCompiler(this, node.getExprFunction()));
 	}
 
 	@Override
 	public void caseAIfromofexprfromExprFunction(AIfromofexprfromExprFunction node) {
 		// {ifromofexprfrom} index_from_of_func_op expr_factor from
+		if (loadCachedSubexpression(node))
+			return;
 		node.getIndexFromOfFuncOp().apply(
 				new TransformationOperatorCompiler(this, node.getExprFactor(), node.getExprFunction()));
 
@@ -773,6 +1010,8 @@ final class ExpressionCompiler extends VisitorBase {
 	@Override
 	public void caseAIfromexprfromExprFunction(AIfromexprfromExprFunction node) {
 		// {ifromexprfrom} index_from_func_op expr_factor from expr_function
+		if (loadCachedSubexpression(node))
+			return;
 		node.getIndexFromFuncOp().apply(
 				new TransformationOperatorCompiler(this, node.getExprFactor(), node.getExprFunction()));
 	}
@@ -786,6 +1025,8 @@ final class ExpressionCompiler extends VisitorBase {
 	@Override
 	public void caseAAttrExprFunction(AAttrExprFunction node) {
 		// {attr} attribute expr_factor from expr_function
+		if (loadCachedSubexpression(node))
+			return;
 		invokeOperator(BinaryOperator.ATTRIBUTEFROM, node.getExprFactor(), node.getExprFunction());
 	}
 
@@ -40,6 +40,7 @@ import arden.runtime.ArdenList;
 import arden.runtime.ArdenNull;
 import arden.runtime.ArdenString;
 import arden.runtime.ArdenValue;
+import arden.runtime.CivilTime;
 
 /**
  * This class is responsible for compiling 'FORMATTED WITH' operator
@@ -66,7 +67,7 @@ final class FormattingCompiler {
 	 */
 	public void run(CompilerContext context) {
 		// we'll emit code in the form:
-		// ArdenValue[] values = ExpressionHelpers.unaryComma(inputData).values;
+		// ArdenValue[] values = ExpressionHelpers.unaryComma(inputData).getElements();
 		// new ArdenString(new StringBuilder().append(...).toString())
 
 		this.context = context;
@@ -74,7 +75,7 @@ final class FormattingCompiler {
 			// convert ArdenValue on stack to ArdenList
 			context.writer.invokeStatic(ExpressionCompiler.getMethod("unaryComma", ArdenValue.class));
 			// fetch the values inside the list
-			context.writer.loadInstanceField(ArdenList.class.getField("values"));
+			context.writer.invokeInstance(ArdenList.class.getMethod("getElements"));
 			// store the ArdenValue[] in a variable
 			this.valuesVariable = context.allocateVariable();
 			context.writer.storeVariable(valuesVariable);
@@ -214,7 +215,10 @@ final class FormattingCompiler {
 			break;
 		case 't':
 			context.writer.loadIntegerConstant(spec.precision < 0 ? 5 : spec.precision);
-			context.writer.invokeStatic(Compiler.getRuntimeHelper("formatTime", ArdenValue.class, int.class));
+			context.writer.loadVariable(context.executionContextVariable);
+			context.writer.invokeInstance(ExecutionContextMethods.getCalendar);
+			context.writer.invokeStatic(Compiler.getRuntimeHelper("formatTime", ArdenValue.class, int.class,
+					CivilTime.class));
 			break;
 		/*
 		 * case 'o': case 'x': case 'X': case 'e': throw new
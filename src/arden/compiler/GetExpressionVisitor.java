@@ -39,6 +39,18 @@ import arden.compiler.node.*;
 final class GetExpressionVisitor extends AnalysisAdapter {
 	Node result;
 
+	/**
+	 * Retrieves the first concrete expression node, looking through
+	 * parentheses.
+	 */
+	static Node getExpressionInParentheses(Node node) {
+		GetExpressionVisitor visitor = new GetExpressionVisitor();
+		node.apply(visitor);
+		while (visitor.result instanceof AExpExprFactorAtom)
+			((AExpExprFactorAtom) visitor.result).getExpr().apply(visitor);
+		return visitor.result;
+	}
+
 	@Override
 	public void defaultCase(Node node) {
 		result = node;
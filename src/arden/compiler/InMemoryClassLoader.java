@@ -27,6 +27,9 @@
 
 package arden.compiler;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * ClassLoader used for loading the compiled classes without having to save them
  * to disk.
@@ -34,24 +37,25 @@ package arden.compiler;
  * @author Daniel Grunwald
  */
 final class InMemoryClassLoader extends ClassLoader {
-	String className;
-	byte[] data;
-	Class<?> loadedClass;
+	private final Map<String, byte[]> classData;
 
-	public InMemoryClassLoader(String className, byte[] data) {
-		this.className = className;
-		this.data = data;
+	/**
+	 * Creates a new InMemoryClassLoader.
+	 * 
+	 * @param classData
+	 *            Map from the class names to the bytecode of the classes.
+	 */
+	public InMemoryClassLoader(Map<String, byte[]> classData) {
+		super(InMemoryClassLoader.class.getClassLoader());
+		this.classData = new HashMap<String, byte[]>(classData);
 	}
 
+	@Override
 	protected synchronized Class<?> findClass(String name) throws ClassNotFoundException {
-		if (className.equals(name)) {
-			if (loadedClass == null) {
-				loadedClass = defineClass(name, data, 0, data.length);
-				data = null;
-			}
-			return loadedClass;
-		} else {
-			throw new ClassNotFoundException();
-		}
+		// loadClass() only calls findClass() for classes that were not loaded yet
+		byte[] data = classData.remove(name);
+		if (data == null)
+			throw new ClassNotFoundException(name);
+		return defineClass(name, data, 0, data.length);
 	}
 }
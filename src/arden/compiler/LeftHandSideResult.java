@@ -58,6 +58,13 @@ abstract class LeftHandSideResult {
 
 	/** Reads the current value of the variable. */
 	public abstract void loadValue(CompilerContext context);
+
+	/**
+	 * Declares the variables that would be created by an assignment, without
+	 * emitting any code.
+	 */
+	public void declareVariables(CodeGenerator codeGen) {
+	}
 }
 
 /** Represents a simple identifier on the left-hand-side: "identifier := ...;" */
@@ -76,16 +83,20 @@ final class LeftHandSideIdentifier extends LeftHandSideResult {
 	@Override
 	public void assign(CompilerContext context, Switchable expr) {
 		context.writer.sequencePoint(identifier.getLine());
+		declareVariables(context.codeGenerator);
 		Variable v = context.codeGenerator.getVariable(identifier.getText());
-		if (v == null) {
-			FieldReference f = context.codeGenerator.createInitializedField(identifier.getText(), Modifier.PRIVATE);
-			v = new DataVariable(identifier, f);
-			context.codeGenerator.addVariable(v);
-		}
 		expr.apply(new ExpressionCompiler(context));
 		v.saveValue(context, identifier);
 	};
 
+	@Override
+	public void declareVariables(CodeGenerator codeGen) {
+		if (codeGen.getVariable(identifier.getText()) == null) {
+			FieldReference f = codeGen.createInitializedField(identifier.getText(), Modifier.PRIVATE);
+			codeGen.addVariable(new DataVariable(identifier, f));
+		}
+	}
+
 	@Override
 	public void loadValue(CompilerContext context) {
 		Variable v = context.codeGenerator.getVariableOrShowError(identifier);
@@ -116,6 +127,8 @@ final class LeftHandSideObjectMember extends LeftHandSideResult {
 		expr.apply(new ExpressionCompiler(context));
 		context.writer.invokeStatic(Compiler.getRuntimeHelper("setObjectMember", ArdenValue.class, String.class,
 				ArdenValue.class));
+		// the object may be referenced by any variable
+		context.codeGenerator.getSubexpressionCache().emitInvalidationOfAll(context);
 	}
 
 	@Override
@@ -160,6 +173,12 @@ final class LeftHandSideIdentifierList extends LeftHandSideResult {
 		throw new RuntimeCompilerException(getPosition(),
 				"A READ or CALL query must be used for initializing multiple variables.");
 	}
+
+	@Override
+	public void declareVariables(CodeGenerator codeGen) {
+		for (LeftHandSideIdentifier ident : list)
+			ident.declareVariables(codeGen);
+	}
 }
 
 /**
@@ -217,6 +236,8 @@ final class LeftHandSideNow extends LeftHandSideResult {
 		context.writer.loadThis();
 		expr.apply(new ExpressionCompiler(context));
 		context.writer.storeInstanceField(context.codeGenerator.getNowField());
+		// expressions like "x occurred within past 3 days" use NOW implicitly
+		context.codeGenerator.getSubexpressionCache().emitInvalidationOfAll(context);
 	}
 
 	@Override
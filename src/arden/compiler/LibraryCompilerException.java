@@ -0,0 +1,75 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.compiler;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Reports the compiler errors of all files when compiling a directory.
+ */
+public class LibraryCompilerException extends Exception {
+	private static final long serialVersionUID = 2286425043318385472L;
+
+	private final Map<File, CompilerException> errors;
+	/** CompiledMlm is not serializable, so the modules are not serialized. */
+	private final transient Map<String, CompiledMlm> compiledModules;
+
+	public LibraryCompilerException(Map<File, CompilerException> errors, Map<String, CompiledMlm> compiledModules) {
+		super(createMessage(errors));
+		this.errors = Collections.unmodifiableMap(errors);
+		this.compiledModules = Collections.unmodifiableMap(compiledModules);
+	}
+
+	private static String createMessage(Map<File, CompilerException> errors) {
+		StringBuilder b = new StringBuilder();
+		b.append(errors.size()).append(errors.size() == 1 ? " file" : " files").append(" could not be compiled:");
+		for (Map.Entry<File, CompilerException> entry : errors.entrySet()) {
+			CompilerException e = entry.getValue();
+			b.append("\n  ").append(entry.getKey().getPath());
+			b.append('[').append(e.getLine()).append(',').append(e.getPos()).append("]: ");
+			b.append(e.getMessage());
+		}
+		return b.toString();
+	}
+
+	/** Gets the compile error of each file that could not be compiled. */
+	public Map<File, CompilerException> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Gets the MLMs that were compiled successfully, by mlmname. Returns an
+	 * empty map if the exception was deserialized.
+	 */
+	public Map<String, CompiledMlm> getCompiledModules() {
+		if (compiledModules == null)
+			return Collections.emptyMap();
+		return compiledModules;
+	}
+}
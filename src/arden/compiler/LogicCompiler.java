@@ -28,7 +28,6 @@
 package arden.compiler;
 
 import arden.compiler.node.*;
-import arden.runtime.ArdenValue;
 
 /**
  * Compiler for logic block.
@@ -45,6 +44,13 @@ final class LogicCompiler extends VisitorBase {
 		this.context = context;
 	}
 
+	static final ActionCompiler.BlockCompilerFactory FACTORY = new ActionCompiler.BlockCompilerFactory() {
+		@Override
+		public Switch create(CompilerContext context) {
+			return new LogicCompiler(context);
+		}
+	};
+
 	// logic_slot = logic logic_block semicolons;
 	@Override
 	public void caseALogicSlot(ALogicSlot node) {
@@ -106,14 +112,7 @@ final class LogicCompiler extends VisitorBase {
 	public void caseAConcLogicStatement(AConcLogicStatement node) {
 		// logic_statement = {conc} conclude expr
 		context.writer.sequencePoint(node.getConclude().getLine());
-		node.getExpr().apply(new ExpressionCompiler(context));
-		try {
-			context.writer.invokeInstance(ArdenValue.class.getMethod("isTrue"));
-		} catch (SecurityException e) {
-			throw new RuntimeException(e);
-		} catch (NoSuchMethodException e) {
-			throw new RuntimeException(e);
-		}
+		ConditionCompiler.compileValue(context, node.getExpr());
 		context.writer.returnIntFromFunction();
 	}
 
@@ -122,7 +121,8 @@ final class LogicCompiler extends VisitorBase {
 	// [else_block]:logic_elseif;
 	@Override
 	public void caseALogicIfThenElse2(ALogicIfThenElse2 node) {
-		ActionCompiler.compileIfStatement(context, node.getCondition(), node.getThenBlock(), node.getElseBlock(), this);
+		ActionCompiler.compileIfStatement(context, node.getCondition(), node.getThenBlock(), node.getElseBlock(), this,
+				FACTORY);
 	}
 
 	// logic_elseif =
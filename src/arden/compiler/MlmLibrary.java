@@ -0,0 +1,259 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.compiler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import arden.runtime.ArdenValue;
+import arden.runtime.ExecutionContext;
+import arden.runtime.LibraryMetadata;
+import arden.runtime.MaintenanceMetadata;
+import arden.runtime.MedicalLogicModule;
+import arden.runtime.MedicalLogicModuleFactory;
+import arden.runtime.MedicalLogicModuleImplementation;
+import arden.runtime.QueryMappingProvider;
+
+/**
+ * Loads a whole MLM library into a single class loader.
+ * 
+ * Every call to load() creates a new generation: a class loader that defines
+ * the classes of all MLMs of the library (the implementation classes and
+ * their factory classes). The current generation is replaced
+ * atomically; callers that still hold modules of an older generation can
+ * continue to use them, and the old classes are unloaded by the garbage
+ * collector once they are no longer referenced.
+ * 
+ * Note that a single module keeps the class loader of its generation, and thus
+ * the classes of all MLMs of that generation, alive. Code that keeps modules
+ * across reloads (e.g. in a ModuleRegistry) should replace all of them with
+ * the modules of the new generation; getLiveGenerationCount() shows whether
+ * old generations were released.
+ * 
+ * All MLMs of a generation must have different class names; use
+ * Compiler.setPackageName() to move the generated classes into a package.
+ */
+public final class MlmLibrary {
+	/** One version of the library, defined by a single class loader. */
+	public static final class Generation {
+		private final int number;
+		private final Map<String, MedicalLogicModule> modules;
+		private final int classCount;
+		private final long bytecodeSize;
+
+		Generation(int number, Map<String, MedicalLogicModule> modules, int classCount, long bytecodeSize) {
+			this.number = number;
+			this.modules = Collections.unmodifiableMap(modules);
+			this.classCount = classCount;
+			this.bytecodeSize = bytecodeSize;
+		}
+
+		/** Gets the generation number. Generations are numbered starting with 1. */
+		public int getNumber() {
+			return number;
+		}
+
+		/** Gets the module with the specified mlmname, or null if it does not exist. */
+		public MedicalLogicModule getModule(String name) {
+			return modules.get(name);
+		}
+
+		/** Gets all modules of this generation. */
+		public Collection<MedicalLogicModule> getModules() {
+			return modules.values();
+		}
+
+		/** Gets the number of classes defined by this generation. */
+		public int getClassCount() {
+			return classCount;
+		}
+
+		/** Gets the total size of the bytecode of this generation. */
+		public long getBytecodeSize() {
+			return bytecodeSize;
+		}
+	}
+
+	private volatile Generation currentGeneration;
+	private final AtomicInteger nextGenerationNumber = new AtomicInteger(1);
+	private final List<WeakReference<ClassLoader>> classLoaders = new ArrayList<WeakReference<ClassLoader>>();
+
+	/**
+	 * Gets the current generation, or null if load() was not called yet.
+	 */
+	public Generation getCurrentGeneration() {
+		return currentGeneration;
+	}
+
+	/**
+	 * Defines the classes of all MLMs in a new class loader and makes them the
+	 * current generation.
+	 * 
+	 * @return Returns the new generation.
+	 * @throws IllegalArgumentException
+	 *             Two MLMs have the same class name or mlmname.
+	 */
+	public Generation load(Collection<CompiledMlm> mlms) {
+		Map<String, byte[]> classData = new LinkedHashMap<String, byte[]>();
+		Map<String, CompiledMlm> mlmsByName = new LinkedHashMap<String, CompiledMlm>();
+		long bytecodeSize = 0;
+		for (CompiledMlm mlm : mlms) {
+			if (classData.containsKey(mlm.getClassName()))
+				throw new IllegalArgumentException("Duplicate class name '" + mlm.getClassName() + "'");
+			if (mlmsByName.containsKey(mlm.getName()))
+				throw new IllegalArgumentException("Duplicate mlmname '" + mlm.getName() + "'");
+			mlm.addClassData(classData);
+			mlmsByName.put(mlm.getName(), mlm);
+			bytecodeSize += mlm.getClassData().length + mlm.getFactoryClassData().length;
+		}
+
+		// define all classes up front, so that a broken library is rejected
+		// before it replaces the current generation
+		ClassLoader classLoader = new InMemoryClassLoader(classData);
+		Map<String, MedicalLogicModule> modules = new LinkedHashMap<String, MedicalLogicModule>();
+		for (CompiledMlm mlm : mlmsByName.values()) {
+			try {
+				// load the implementation class, too: the factory loads it lazily
+				classLoader.loadClass(mlm.getClassName());
+			} catch (ClassNotFoundException e) {
+				throw new RuntimeException(e);
+			}
+			modules.put(mlm.getName(), new LibraryModule(mlm, mlm.loadFactory(classLoader)));
+		}
+
+		Generation generation = new Generation(nextGenerationNumber.getAndIncrement(), modules, classData.size(),
+				bytecodeSize);
+		synchronized (classLoaders) {
+			classLoaders.add(new WeakReference<ClassLoader>(classLoader));
+			currentGeneration = generation;
+		}
+		return generation;
+	}
+
+	/**
+	 * Gets the number of generations whose class loader has not been garbage
+	 * collected yet (including the current generation).
+	 */
+	public int getLiveGenerationCount() {
+		synchronized (classLoaders) {
+			for (Iterator<WeakReference<ClassLoader>> it = classLoaders.iterator(); it.hasNext();) {
+				if (it.next().get() == null)
+					it.remove();
+			}
+			return classLoaders.size();
+		}
+	}
+
+	/** Gets the number of classes currently loaded in the JVM. */
+	public static int getLoadedClassCount() {
+		return ManagementFactory.getClassLoadingMXBean().getLoadedClassCount();
+	}
+
+	/** Gets the number of classes that were unloaded since the JVM started. */
+	public static long getUnloadedClassCount() {
+		return ManagementFactory.getClassLoadingMXBean().getUnloadedClassCount();
+	}
+
+	/**
+	 * Gets the memory used for class metadata (the "Metaspace" memory pool, or
+	 * the "Perm Gen" pool on older JVMs), or -1 if the JVM does not provide
+	 * this information.
+	 */
+	public static long getClassMetadataUsage() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			String name = pool.getName();
+			if (name.equals("Metaspace") || name.endsWith("Perm Gen"))
+				return pool.getUsage().getUsed();
+		}
+		return -1;
+	}
+
+	/** A compiled MLM whose class was loaded by the library class loader. */
+	private static final class LibraryModule implements MedicalLogicModule, QueryMappingProvider {
+		private final CompiledMlm mlm;
+		private final MedicalLogicModuleFactory factory;
+
+		LibraryModule(CompiledMlm mlm, MedicalLogicModuleFactory factory) {
+			this.mlm = mlm;
+			this.factory = factory;
+		}
+
+		@Override
+		public MedicalLogicModuleImplementation createInstance(ExecutionContext context, ArdenValue[] arguments)
+				throws InvocationTargetException {
+			return CompiledMlm.createInstance(factory, context, this, arguments);
+		}
+
+		@Override
+		public ArdenValue[] run(ExecutionContext context, ArdenValue[] arguments) throws InvocationTargetException {
+			MedicalLogicModuleImplementation impl = createInstance(context, arguments);
+			try {
+				if (impl.logic(context))
+					return impl.action(context);
+				else
+					return null;
+			} catch (Exception ex) {
+				throw new InvocationTargetException(ex);
+			}
+		}
+
+		@Override
+		public String getName() {
+			return mlm.getName();
+		}
+
+		@Override
+		public MaintenanceMetadata getMaintenance() {
+			return mlm.getMaintenance();
+		}
+
+		@Override
+		public LibraryMetadata getLibrary() {
+			return mlm.getLibrary();
+		}
+
+		@Override
+		public double getPriority() {
+			return mlm.getPriority();
+		}
+
+		@Override
+		public List<String> getQueryMappings() {
+			return mlm.getQueryMappings();
+		}
+	}
+}
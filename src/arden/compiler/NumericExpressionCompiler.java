@@ -0,0 +1,525 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.compiler;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import arden.codegenerator.Label;
+import arden.compiler.analysis.DepthFirstAdapter;
+import arden.compiler.node.*;
+import arden.runtime.ArdenNumber;
+import arden.runtime.ArdenValue;
+import arden.runtime.BinaryOperator;
+import arden.runtime.ExpressionHelpers;
+
+/**
+ * Compiler for expressions that TypeInference has proven to be numbers.
+ * 
+ * Every expression.apply(this) call will generate code that pushes the
+ * expression's value as double onto the evaluation stack. NaN represents
+ * null. The primary time is computed separately, and the result is boxed into
+ * an ArdenNumber only once for the whole expression.
+ */
+final class NumericExpressionCompiler extends VisitorBase {
+	/**
+	 * ArdenValue.primaryTime; MethodWriter needs the field's metadata to emit
+	 * the GETFIELD instruction. The generated code reads the field directly.
+	 */
+	private static final Field primaryTimeField;
+
+	static {
+		try {
+			primaryTimeField = ArdenValue.class.getField("primaryTime");
+		} catch (NoSuchFieldException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private final CompilerContext context;
+
+	private NumericExpressionCompiler(CompilerContext context) {
+		this.context = context;
+	}
+
+	private static Method getMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+		try {
+			return type.getMethod(name, parameterTypes);
+		} catch (SecurityException e) {
+			throw new RuntimeException(e);
+		} catch (NoSuchMethodException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Emits code that pushes the value of the numeric expression as
+	 * ArdenValue.
+	 */
+	public static void compileBoxed(CompilerContext context, Node expr) {
+		expr.apply(new NumericExpressionCompiler(context));
+		loadPrimaryTime(context, expr);
+		context.writer.invokeStatic(getMethod(ArdenNumber.class, "create", Double.TYPE, Long.TYPE));
+	}
+
+	/**
+	 * Emits code that pushes the primary time of the numeric expression.
+	 * 
+	 * All operators supported for numeric expressions combine the primary
+	 * times of their operands, so the primary time is that of the variables
+	 * in the expression if they all have the same primary time. Literals have
+	 * no primary time.
+	 */
+	private static void loadPrimaryTime(final CompilerContext context, Node expr) {
+		final boolean[] hasLiteral = new boolean[1];
+		final List<AIdExprFactorAtom> variables = new ArrayList<AIdExprFactorAtom>();
+		expr.apply(new DepthFirstAdapter() {
+			@Override
+			public void inANumExprFactorAtom(ANumExprFactorAtom node) {
+				hasLiteral[0] = true;
+			}
+
+			@Override
+			public void inANullExprFactorAtom(ANullExprFactorAtom node) {
+				hasLiteral[0] = true;
+			}
+
+			@Override
+			public void inAIdExprFactorAtom(AIdExprFactorAtom node) {
+				variables.add(node);
+			}
+		});
+		if (hasLiteral[0] || variables.isEmpty()) {
+			context.writer.loadLongConstant(ArdenValue.NOPRIMARYTIME);
+			return;
+		}
+		for (int i = 0; i < variables.size(); i++) {
+			TIdentifier identifier = variables.get(i).getIdentifier();
+			context.codeGenerator.getVariableOrShowError(identifier).loadValue(context, identifier);
+			context.writer.loadInstanceField(primaryTimeField);
+			if (i > 0)
+				context.writer.invokeStatic(getMethod(BinaryOperator.class, "combinePrimaryTime", Long.TYPE,
+						Long.TYPE));
+		}
+	}
+
+	/**
+	 * Emits code that jumps to the target if the numeric condition is true
+	 * (jumpIfTrue) or if it is not true (!jumpIfTrue). The stack must be
+	 * empty.
+	 */
+	public static void compileCondition(CompilerContext context, Node condition, boolean jumpIfTrue, Label target) {
+		condition.apply(new NumericConditionCompiler(context, true, jumpIfTrue, target));
+	}
+
+	private void checkResult() {
+		context.writer.invokeStatic(getMethod(ExpressionHelpers.class, "checkUnboxedResult", Double.TYPE));
+	}
+
+	@Override
+	public void caseASortExpr(ASortExpr node) {
+		node.getExprSort().apply(this);
+	}
+
+	@Override
+	public void caseAWhereExprSort(AWhereExprSort node) {
+		node.getExprWhere().apply(this);
+	}
+
+	@Override
+	public void caseARangeExprWhere(ARangeExprWhere node) {
+		node.getExprRange().apply(this);
+	}
+
+	@Override
+	public void caseAOrExprRange(AOrExprRange node) {
+		node.getExprOr().apply(this);
+	}
+
+	@Override
+	public void caseAAndExprOr(AAndExprOr node) {
+		node.getExprAnd().apply(this);
+	}
+
+	@Override
+	public void caseANotExprAnd(ANotExprAnd node) {
+		node.getExprNot().apply(this);
+	}
+
+	@Override
+	public void caseACompExprNot(ACompExprNot node) {
+		node.getExprComparison().apply(this);
+	}
+
+	@Override
+	public void caseAStrExprComparison(AStrExprComparison node) {
+		node.getExprString().apply(this);
+	}
+
+	@Override
+	public void caseAPlusExprString(APlusExprString node) {
+		node.getExprPlus().apply(this);
+	}
+
+	@Override
+	public void caseATimesExprPlus(ATimesExprPlus node) {
+		node.getExprTimes().apply(this);
+	}
+
+	@Override
+	public void caseAPlusExprPlus(APlusExprPlus node) {
+		node.getExprPlus().apply(this);
+		node.getExprTimes().apply(this);
+		context.writer.addDouble();
+		checkResult();
+	}
+
+	@Override
+	public void caseAMinusExprPlus(AMinusExprPlus node) {
+		node.getExprPlus().apply(this);
+		node.getExprTimes().apply(this);
+		context.writer.subtractDouble();
+		checkResult();
+	}
+
+	@Override
+	public void caseAPlustExprPlus(APlustExprPlus node) {
+		node.getExprTimes().apply(this);
+	}
+
+	@Override
+	public void caseAMintExprPlus(AMintExprPlus node) {
+		node.getExprTimes().apply(this);
+		context.writer.negateDouble();
+	}
+
+	@Override
+	public void caseAPowerExprTimes(APowerExprTimes node) {
+		node.getExprPower().apply(this);
+	}
+
+	@Override
+	public void caseATpowExprTimes(ATpowExprTimes node) {
+		node.getExprTimes().apply(this);
+		node.getExprPower().apply(this);
+		context.writer.multiplyDouble();
+		checkResult();
+	}
+
+	@Override
+	public void caseADpowExprTimes(ADpowExprTimes node) {
+		node.getExprTimes().apply(this);
+		node.getExprPower().apply(this);
+		context.writer.divideDouble();
+		checkResult();
+	}
+
+	@Override
+	public void caseABeforeExprPower(ABeforeExprPower node) {
+		node.getExprBefore().apply(this);
+	}
+
+	@Override
+	public void caseAAgoExprBefore(AAgoExprBefore node) {
+		node.getExprAgo().apply(this);
+	}
+
+	@Override
+	public void caseAFuncExprAgo(AFuncExprAgo node) {
+		node.getExprFunction().apply(this);
+	}
+
+	@Override
+	public void caseAExprExprFunction(AExprExprFunction node) {
+		node.getExprFactor().apply(this);
+	}
+
+	@Override
+	public void caseAExpfExprFactor(AExpfExprFactor node) {
+		node.getExprFactorAtom().apply(this);
+	}
+
+	@Override
+	public void caseAIdExprFactorAtom(AIdExprFactorAtom node) {
+		TIdentifier identifier = node.getIdentifier();
+		context.codeGenerator.getVariableOrShowError(identifier).loadValue(context, identifier);
+		context.writer.invokeStatic(getMethod(ExpressionHelpers.class, "unboxNumber", ArdenValue.class));
+	}
+
+	@Override
+	public void caseANumExprFactorAtom(ANumExprFactorAtom node) {
+		context.writer.loadDoubleConstant(ParseHelpers.getLiteralDoubleValue(node.getNumberLiteral()));
+	}
+
+	@Override
+	public void caseANullExprFactorAtom(ANullExprFactorAtom node) {
+		context.writer.loadDoubleConstant(Double.NaN);
+	}
+
+	@Override
+	public void caseAExpExprFactorAtom(AExpExprFactorAtom node) {
+		node.getExpr().apply(this);
+	}
+
+	/**
+	 * Compiles conditions on numbers into jumps.
+	 * 
+	 * In Arden Syntax, comparisons involving null result in null, which is
+	 * neither true nor false. With NaN representing null, the Java comparison
+	 * operators already behave like that: every comparison involving NaN is
+	 * false. So "isTrue(a &lt; b)" is "a &lt; b" and "isFalse(a &lt; b)" is
+	 * "a &gt;= b".
+	 */
+	private static final class NumericConditionCompiler extends VisitorBase {
+		private final CompilerContext context;
+		/** true to test for isTrue(), false to test for isFalse() */
+		private final boolean truth;
+		/** true to jump if the test succeeds, false to jump if it fails */
+		private final boolean jumpIfHolds;
+		private final Label target;
+
+		NumericConditionCompiler(CompilerContext context, boolean truth, boolean jumpIfHolds, Label target) {
+			this.context = context;
+			this.truth = truth;
+			this.jumpIfHolds = jumpIfHolds;
+			this.target = target;
+		}
+
+		private void branch(Node node, boolean truth, boolean jumpIfHolds, Label target) {
+			node.apply(new NumericConditionCompiler(context, truth, jumpIfHolds, target));
+		}
+
+		/**
+		 * Emits code for a test that holds if both lhs and rhs hold (with the
+		 * specified truth).
+		 */
+		private void conjunction(Node lhs, Node rhs, boolean truth) {
+			if (jumpIfHolds) {
+				Label skip = new Label();
+				branch(lhs, truth, false, skip);
+				branch(rhs, truth, true, target);
+				context.writer.markForwardJumpsOnly(skip);
+			} else {
+				branch(lhs, truth, false, target);
+				branch(rhs, truth, false, target);
+			}
+		}
+
+		/**
+		 * Emits code for a test that holds if lhs or rhs holds (with the
+		 * specified truth).
+		 */
+		private void disjunction(Node lhs, Node rhs, boolean truth) {
+			if (jumpIfHolds) {
+				branch(lhs, truth, true, target);
+				branch(rhs, truth, true, target);
+			} else {
+				Label skip = new Label();
+				branch(lhs, truth, true, skip);
+				branch(rhs, truth, false, target);
+				context.writer.markForwardJumpsOnly(skip);
+			}
+		}
+
+		@Override
+		public void caseASortExpr(ASortExpr node) {
+			node.getExprSort().apply(this);
+		}
+
+		@Override
+		public void caseAWhereExprSort(AWhereExprSort node) {
+			node.getExprWhere().apply(this);
+		}
+
+		@Override
+		public void caseARangeExprWhere(ARangeExprWhere node) {
+			node.getExprRange().apply(this);
+		}
+
+		@Override
+		public void caseAOrExprRange(AOrExprRange node) {
+			node.getExprOr().apply(this);
+		}
+
+		@Override
+		public void caseAOrExprOr(AOrExprOr node) {
+			// isTrue(a OR b) = isTrue(a) || isTrue(b)
+			// isFalse(a OR b) = isFalse(a) && isFalse(b)
+			if (truth)
+				disjunction(node.getExprOr(), node.getExprAnd(), truth);
+			else
+				conjunction(node.getExprOr(), node.getExprAnd(), truth);
+		}
+
+		@Override
+		public void caseAAndExprOr(AAndExprOr node) {
+			node.getExprAnd().apply(this);
+		}
+
+		@Override
+		public void caseAAndExprAnd(AAndExprAnd node) {
+			// isTrue(a AND b) = isTrue(a) && isTrue(b)
+			// isFalse(a AND b) = isFalse(a) || isFalse(b)
+			if (truth)
+				conjunction(node.getExprAnd(), node.getExprNot(), truth);
+			else
+				disjunction(node.getExprAnd(), node.getExprNot(), truth);
+		}
+
+		@Override
+		public void caseANotExprAnd(ANotExprAnd node) {
+			node.getExprNot().apply(this);
+		}
+
+		@Override
+		public void caseANotExprNot(ANotExprNot node) {
+			branch(node.getExprComparison(), !truth, jumpIfHolds, target);
+		}
+
+		@Override
+		public void caseACompExprNot(ACompExprNot node) {
+			node.getExprComparison().apply(this);
+		}
+
+		@Override
+		public void caseASimExprComparison(ASimExprComparison node) {
+			BinaryOperator op = ExpressionCompiler.getComparisonOperator(node.getSimpleCompOp());
+			// The test to perform. For numbers (which are never NaN), the
+			// negation of "a = b" is "a < b or a > b"; this is tested as
+			// "abs(a - b) > 0", which is false for NaN.
+			BinaryOperator test;
+			if (op == BinaryOperator.LT)
+				test = truth ? BinaryOperator.LT : BinaryOperator.GE;
+			else if (op == BinaryOperator.LE)
+				test = truth ? BinaryOperator.LE : BinaryOperator.GT;
+			else if (op == BinaryOperator.GT)
+				test = truth ? BinaryOperator.GT : BinaryOperator.LE;
+			else if (op == BinaryOperator.GE)
+				test = truth ? BinaryOperator.GE : BinaryOperator.LT;
+			else if (op == BinaryOperator.EQ)
+				test = truth ? BinaryOperator.EQ : BinaryOperator.NE;
+			else
+				test = truth ? BinaryOperator.NE : BinaryOperator.EQ;
+
+			NumericExpressionCompiler values = new NumericExpressionCompiler(context);
+			node.getFirstString().apply(values);
+			node.getSecondString().apply(values);
+			if (test == BinaryOperator.NE) {
+				context.writer.subtractDouble();
+				context.writer.invokeStatic(getMethod(Math.class, "abs", Double.TYPE));
+				context.writer.loadDoubleConstant(0);
+				test = BinaryOperator.GT;
+			}
+			// choose the comparison instruction so that NaN makes the test
+			// fail
+			if (test == BinaryOperator.LT || test == BinaryOperator.LE)
+				context.writer.compareDouble(1);
+			else
+				context.writer.compareDouble(-1);
+
+			if (test == BinaryOperator.LT) {
+				if (jumpIfHolds)
+					context.writer.jumpIfNegative(target);
+				else
+					context.writer.jumpIfNonNegative(target);
+			} else if (test == BinaryOperator.LE) {
+				if (jumpIfHolds)
+					context.writer.jumpIfNonPositive(target);
+				else
+					context.writer.jumpIfPositive(target);
+			} else if (test == BinaryOperator.GT) {
+				if (jumpIfHolds)
+					context.writer.jumpIfPositive(target);
+				else
+					context.writer.jumpIfNonPositive(target);
+			} else if (test == BinaryOperator.GE) {
+				if (jumpIfHolds)
+					context.writer.jumpIfNonNegative(target);
+				else
+					context.writer.jumpIfNegative(target);
+			} else {
+				if (jumpIfHolds)
+					context.writer.jumpIfZero(target);
+				else
+					context.writer.jumpIfNonZero(target);
+			}
+		}
+
+		@Override
+		public void caseAStrExprComparison(AStrExprComparison node) {
+			node.getExprString().apply(this);
+		}
+
+		@Override
+		public void caseAPlusExprString(APlusExprString node) {
+			node.getExprPlus().apply(this);
+		}
+
+		@Override
+		public void caseATimesExprPlus(ATimesExprPlus node) {
+			node.getExprTimes().apply(this);
+		}
+
+		@Override
+		public void caseAPowerExprTimes(APowerExprTimes node) {
+			node.getExprPower().apply(this);
+		}
+
+		@Override
+		public void caseABeforeExprPower(ABeforeExprPower node) {
+			node.getExprBefore().apply(this);
+		}
+
+		@Override
+		public void caseAAgoExprBefore(AAgoExprBefore node) {
+			node.getExprAgo().apply(this);
+		}
+
+		@Override
+		public void caseAFuncExprAgo(AFuncExprAgo node) {
+			node.getExprFunction().apply(this);
+		}
+
+		@Override
+		public void caseAExprExprFunction(AExprExprFunction node) {
+			node.getExprFactor().apply(this);
+		}
+
+		@Override
+		public void caseAExpfExprFactor(AExpfExprFactor node) {
+			node.getExprFactorAtom().apply(this);
+		}
+
+		@Override
+		public void caseAExpExprFactorAtom(AExpExprFactorAtom node) {
+			node.getExpr().apply(this);
+		}
+	}
+}
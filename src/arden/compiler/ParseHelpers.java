@@ -27,14 +27,11 @@
 
 package arden.compiler;
 
-import java.text.ParseException;
-import java.text.ParsePosition;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
 import arden.compiler.node.*;
-import arden.runtime.ArdenTime;
+import arden.runtime.CivilTime;
 
 /**
  * Static methods that do help using the parse tree.
@@ -98,12 +95,14 @@ final class ParseHelpers {
 
 	public static long parseIsoDateTime(TIsoDateTime dateTime) {
 		String text = dateTime.getText();
-		ParsePosition parsePos = new ParsePosition(0);
-		Date date = ArdenTime.isoDateTimeFormat.parse(text, parsePos);
-		if (date == null)
+		// yyyy-MM-ddTHH:mm:ss
+		if (text.length() < 19)
 			throw new RuntimeCompilerException(dateTime, "Invalid DateTime literal");
-		long time = date.getTime();
-		int pos = parsePos.getIndex();
+		int hour = parseDigits(dateTime, text, 11, 2);
+		int minute = parseDigits(dateTime, text, 14, 2);
+		int second = parseDigits(dateTime, text, 17, 2);
+		int millisOfDay = ((hour * 60 + minute) * 60 + second) * 1000;
+		int pos = 19;
 		if (pos < text.length() && text.charAt(pos) == '.') {
 			// fractional seconds
 			pos++;
@@ -111,7 +110,7 @@ final class ParseHelpers {
 			while (pos < text.length()) {
 				char c = text.charAt(pos);
 				if (c >= '0' && c <= '9') {
-					time += (c - '0') * multiplier;
+					millisOfDay += (c - '0') * multiplier;
 					multiplier /= 10;
 					pos++;
 				} else {
@@ -119,17 +118,46 @@ final class ParseHelpers {
 				}
 			}
 		}
-		if (pos != text.length())
+		if (pos == text.length()) {
+			// without time zone: local time of the compiling machine
+			return parseDate(dateTime, text, millisOfDay, CivilTime.DEFAULT);
+		}
+		// time zone: Z or +hh:mm or -hh:mm
+		char c = text.charAt(pos);
+		int offset;
+		if ((c == 'Z' || c == 'z') && pos + 1 == text.length()) {
+			offset = 0;
+		} else if ((c == '+' || c == '-') && pos + 6 == text.length() && text.charAt(pos + 3) == ':') {
+			offset = (parseDigits(dateTime, text, pos + 1, 2) * 60 + parseDigits(dateTime, text, pos + 4, 2)) * 60000;
+			if (c == '-')
+				offset = -offset;
+		} else {
 			throw new RuntimeCompilerException(dateTime, "Invalid DateTime literal");
-		return time;
+		}
+		return parseDate(dateTime, text, millisOfDay, CivilTime.UTC) - offset;
 	}
 
 	public static long parseIsoDate(TIsoDate date) {
-		try {
-			return ArdenTime.isoDateFormat.parse(date.getText()).getTime();
-		} catch (ParseException e) {
-			throw new RuntimeCompilerException(e.getMessage());
+		return parseDate(date, date.getText(), 0, CivilTime.DEFAULT);
+	}
+
+	/** Parses the date (yyyy-MM-dd) at the start of the text. */
+	private static long parseDate(Token token, String text, int millisOfDay, CivilTime calendar) {
+		int year = parseDigits(token, text, 0, 4);
+		int month = parseDigits(token, text, 5, 2);
+		int day = parseDigits(token, text, 8, 2);
+		return calendar.getTime(year, month, day, millisOfDay);
+	}
+
+	private static int parseDigits(Token token, String text, int start, int count) {
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			char c = i < text.length() ? text.charAt(i) : ' ';
+			if (c < '0' || c > '9')
+				throw new RuntimeCompilerException(token, "Invalid date: " + text);
+			value = value * 10 + (c - '0');
 		}
+		return value;
 	}
 
 	/** Returns the list of comma-separated terms in the expression */
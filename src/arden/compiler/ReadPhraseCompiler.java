@@ -31,6 +31,7 @@ import arden.codegenerator.Label;
 import arden.compiler.node.*;
 import arden.runtime.ArdenValue;
 import arden.runtime.BinaryOperator;
+import arden.runtime.CivilTime;
 import arden.runtime.DatabaseQuery;
 
 /**
@@ -227,6 +228,7 @@ final class ReadPhraseCompiler extends VisitorBase {
 	// mapping_factor = l_brc data_mapping r_brc;
 	@Override
 	public void caseAMappingFactor(AMappingFactor node) {
+		context.codeGenerator.addQueryMapping(node.getDataMapping().getText());
 		context.writer.loadVariable(context.executionContextVariable);
 		context.writer.loadStringConstant(node.getDataMapping().getText());
 		context.writer.invokeInstance(ExecutionContextMethods.createQuery);
@@ -291,12 +293,13 @@ final class ReadPhraseCompiler extends VisitorBase {
 				// within [left]:expr_string surrounding [right]:expr_string
 				node.getLeft().apply(expressionCompiler);
 				node.getRight().apply(expressionCompiler);
+				loadCalendar();
 				if (negate) {
 					context.writer.invokeStatic(Compiler.getRuntimeHelper("constrainQueryNotWithinSurrounding",
-							DatabaseQuery.class, ArdenValue.class, ArdenValue.class));
+							DatabaseQuery.class, ArdenValue.class, ArdenValue.class, CivilTime.class));
 				} else {
 					context.writer.invokeStatic(Compiler.getRuntimeHelper("constrainQueryWithinSurrounding",
-							DatabaseQuery.class, ArdenValue.class, ArdenValue.class));
+							DatabaseQuery.class, ArdenValue.class, ArdenValue.class, CivilTime.class));
 				}
 			}
 
@@ -328,15 +331,22 @@ final class ReadPhraseCompiler extends VisitorBase {
 			@Override
 			public void caseASameTemporalCompOp(ASameTemporalCompOp node) {
 				// within same day as expr_string
+				node.getExprString().apply(expressionCompiler);
+				loadCalendar();
 				if (negate) {
 					context.writer.invokeStatic(Compiler.getRuntimeHelper("constrainQueryNotWithinSameDay",
-							DatabaseQuery.class, ArdenValue.class));
+							DatabaseQuery.class, ArdenValue.class, CivilTime.class));
 				} else {
 					context.writer.invokeStatic(Compiler.getRuntimeHelper("constrainQueryWithinSameDay",
-							DatabaseQuery.class, ArdenValue.class));
+							DatabaseQuery.class, ArdenValue.class, CivilTime.class));
 				}
 			}
 
+			private void loadCalendar() {
+				context.writer.loadVariable(context.executionContextVariable);
+				context.writer.invokeInstance(ExecutionContextMethods.getCalendar);
+			}
+
 			@Override
 			public void caseABefTemporalCompOp(ABefTemporalCompOp node) {
 				// before expr_string
@@ -0,0 +1,304 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.compiler;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import arden.codegenerator.FieldReference;
+import arden.compiler.analysis.DepthFirstAdapter;
+import arden.compiler.node.*;
+import arden.runtime.ArdenValue;
+
+/**
+ * Common subexpression elimination across the slots of an MLM.
+ * 
+ * Operator expressions (aggregation, transformation, WHERE, SORT, ...) that
+ * occur several times in an MLM get a cache field. The first evaluation
+ * stores the value in the field, later evaluations load it. Every assignment
+ * to a variable used by a cached expression clears the field, so the cache
+ * is always consistent with the current variable values, independent of
+ * control flow. Assignments to object members clear all cache fields,
+ * because the object may be referenced by any variable. For the same reason,
+ * CALL statements and phrases clear all cache fields: objects are passed by
+ * reference, so the called MLM or interface can modify them.
+ * 
+ * Expressions are considered equal if they consist of the same tokens
+ * (ignoring case except for string literals and terms). Expressions that
+ * depend on anything other than variables and literals (NOW, EVENTTIME,
+ * CURRENTTIME, an unbound IT) are never cached.
+ */
+final class SubexpressionCache {
+	/** Cache that does not contain any expressions. */
+	public static final SubexpressionCache NONE = new SubexpressionCache();
+
+	private static final String FIELD_PREFIX = "cse$";
+
+	private static final class CachedExpression {
+		final FieldReference field;
+		final HashSet<String> variables;
+
+		CachedExpression(FieldReference field, HashSet<String> variables) {
+			this.field = field;
+			this.variables = variables;
+		}
+	}
+
+	private final IdentityHashMap<Node, CachedExpression> occurrences = new IdentityHashMap<Node, CachedExpression>();
+	private final List<CachedExpression> cachedExpressions = new ArrayList<CachedExpression>();
+
+	private SubexpressionCache() {
+	}
+
+	/**
+	 * Finds the common subexpressions in the data, logic and action slots of
+	 * an MLM and creates their cache fields.
+	 */
+	public SubexpressionCache(AKnowledgeBody knowledge, CodeGenerator codeGen) {
+		CandidateCollector collector = new CandidateCollector();
+		knowledge.getDataSlot().apply(collector);
+		knowledge.getLogicSlot().apply(collector);
+		if (knowledge.getActionSlot() != null)
+			knowledge.getActionSlot().apply(collector);
+
+		for (List<Node> nodes : collector.candidates.values()) {
+			if (nodes.size() < 2)
+				continue;
+			ExpressionAnalyzer analyzer = new ExpressionAnalyzer(nodes.get(0));
+			if (!analyzer.isCacheable)
+				continue;
+			FieldReference field = codeGen.createField(FIELD_PREFIX + (cachedExpressions.size() + 1),
+					ArdenValue.class, Modifier.PRIVATE);
+			CachedExpression cached = new CachedExpression(field, analyzer.variables);
+			cachedExpressions.add(cached);
+			for (Node node : nodes)
+				occurrences.put(node, cached);
+		}
+	}
+
+	/**
+	 * Gets the cache field for the expression, or null if the expression is
+	 * not cached. Expressions are only cached while all variables they use are
+	 * DataVariables, as only assignments to those invalidate the cache.
+	 */
+	public FieldReference getCacheField(Node expr, CodeGenerator codeGen) {
+		CachedExpression cached = occurrences.get(expr);
+		if (cached == null)
+			return null;
+		for (String name : cached.variables) {
+			if (!(codeGen.getVariable(name) instanceof DataVariable))
+				return null;
+		}
+		return cached.field;
+	}
+
+	/**
+	 * Emits code that clears the cache fields of all expressions using the
+	 * variable. Must be called after each assignment to the variable.
+	 */
+	public void emitInvalidation(CompilerContext context, String variableName) {
+		String name = variableName.toLowerCase(Locale.ENGLISH);
+		for (CachedExpression cached : cachedExpressions) {
+			if (cached.variables.contains(name))
+				emitClear(context, cached);
+		}
+	}
+
+	/** Emits code that clears all cache fields. */
+	public void emitInvalidationOfAll(CompilerContext context) {
+		for (CachedExpression cached : cachedExpressions)
+			emitClear(context, cached);
+	}
+
+	private static void emitClear(CompilerContext context, CachedExpression cached) {
+		context.writer.loadThis();
+		context.writer.loadNull();
+		context.writer.storeInstanceField(cached.field);
+	}
+
+	/**
+	 * Computes a key for an expression: the class of the node and its tokens.
+	 * As the grammar is unambiguous, nodes of the same class with the same
+	 * tokens are equal.
+	 */
+	static String getKey(Node node) {
+		final StringBuilder b = new StringBuilder();
+		b.append(node.getClass().getSimpleName());
+		node.apply(new DepthFirstAdapter() {
+			@Override
+			public void defaultCase(Node node) {
+				if (node instanceof TStringLiteral || node instanceof TTerm) {
+					b.append(' ');
+					b.append(((Token) node).getText());
+				} else if (node instanceof Token) {
+					b.append(' ');
+					b.append(((Token) node).getText().toLowerCase(Locale.ENGLISH));
+				}
+			}
+		});
+		return b.toString();
+	}
+
+	/** Groups the operator expressions of the MLM by their key. */
+	private static final class CandidateCollector extends DepthFirstAdapter {
+		final Map<String, List<Node>> candidates = new LinkedHashMap<String, List<Node>>();
+
+		private void add(Node node) {
+			String key = getKey(node);
+			List<Node> list = candidates.get(key);
+			if (list == null) {
+				list = new ArrayList<Node>();
+				candidates.put(key, list);
+			}
+			list.add(node);
+		}
+
+		@Override
+		public void inASortExprSort(ASortExprSort node) {
+			add(node);
+		}
+
+		@Override
+		public void inAWrangeExprWhere(AWrangeExprWhere node) {
+			add(node);
+		}
+
+		@Override
+		public void inAOfexprExprFunction(AOfexprExprFunction node) {
+			add(node);
+		}
+
+		@Override
+		public void inAOfofexprExprFunction(AOfofexprExprFunction node) {
+			add(node);
+		}
+
+		@Override
+		public void inAFromexprExprFunction(AFromexprExprFunction node) {
+			add(node);
+		}
+
+		@Override
+		public void inAFromofexprExprFunction(AFromofexprExprFunction node) {
+			add(node);
+		}
+
+		@Override
+		public void inAFromofexprfromExprFunction(AFromofexprfromExprFunction node) {
+			add(node);
+		}
+
+		@Override
+		public void inAFromexprfromExprFunction(AFromexprfromExprFunction node) {
+			add(node);
+		}
+
+		@Override
+		public void inAIfromexprExprFunction(AIfromexprExprFunction node) {
+			add(node);
+		}
+
+		@Override
+		public void inAIfromofexprExprFunction(AIfromofexprExprFunction node) {
+			add(node);
+		}
+
+		@Override
+		public void inAIfromofexprfromExprFunction(AIfromofexprfromExprFunction node) {
+			add(node);
+		}
+
+		@Override
+		public void inAIfromexprfromExprFunction(AIfromexprfromExprFunction node) {
+			add(node);
+		}
+
+		@Override
+		public void inAAttrExprFunction(AAttrExprFunction node) {
+			add(node);
+		}
+	}
+
+	/**
+	 * Collects the variables used by an expression and determines whether
+	 * the expression may be cached.
+	 */
+	private static final class ExpressionAnalyzer extends DepthFirstAdapter {
+		final Node root;
+		final HashSet<String> variables = new HashSet<String>();
+		boolean isCacheable = true;
+
+		ExpressionAnalyzer(Node root) {
+			this.root = root;
+			root.apply(this);
+		}
+
+		@Override
+		public void inAIdExprFactorAtom(AIdExprFactorAtom node) {
+			variables.add(node.getIdentifier().getText().toLowerCase(Locale.ENGLISH));
+		}
+
+		@Override
+		public void inATimeExprFactorAtom(ATimeExprFactorAtom node) {
+			// only date literals; NOW, EVENTTIME etc. may change
+			PTimeValue value = node.getTimeValue();
+			if (!(value instanceof AIdatTimeValue || value instanceof AIdtTimeValue))
+				isCacheable = false;
+		}
+
+		@Override
+		public void inAAgoExprAgo(AAgoExprAgo node) {
+			// uses NOW implicitly
+			isCacheable = false;
+		}
+
+		@Override
+		public void inAPastTemporalCompOp(APastTemporalCompOp node) {
+			// uses NOW implicitly
+			isCacheable = false;
+		}
+
+		@Override
+		public void inAItExprFactorAtom(AItExprFactorAtom node) {
+			// IT is allowed only within the condition of a WHERE inside the
+			// expression
+			for (Node n = node; n != root; n = n.parent()) {
+				Node parent = n.parent();
+				if (parent instanceof AWrangeExprWhere && ((AWrangeExprWhere) parent).getNextRange() == n)
+					return;
+			}
+			isCacheable = false;
+		}
+	}
+}
@@ -89,12 +89,32 @@ final class TransformationOperatorCompiler extends VisitorBase {
 
 	@Override
 	public void caseALastFromOfFuncOp(ALastFromOfFuncOp node) {
-		handleTransformationOperator("last", false);
+		Node sortedList = getSortByDataArgument();
+		if (sortedList != null)
+			handleTransformationOperator("lastSortedByData", false, sortedList);
+		else
+			handleTransformationOperator("last", false);
 	}
 
 	@Override
 	public void caseAFirFromOfFuncOp(AFirFromOfFuncOp node) {
-		handleTransformationOperator("first", false);
+		Node sortedList = getSortByDataArgument();
+		if (sortedList != null)
+			handleTransformationOperator("firstSortedByData", false, sortedList);
+		else
+			handleTransformationOperator("first", false);
+	}
+
+	/**
+	 * Gets the list 'x' if the source list is 'SORT DATA x'; otherwise
+	 * returns null. FIRST/LAST n FROM SORT DATA x are fused into a single
+	 * operation that does not sort the whole list.
+	 */
+	private Node getSortByDataArgument() {
+		Node source = GetExpressionVisitor.getExpressionInParentheses(sourceListArgument);
+		if (source instanceof ASortExprSort && ExpressionCompiler.getSortByTimeArgument((ASortExprSort) source) == null)
+			return ((ASortExprSort) source).getExprSort();
+		return null;
 	}
 
 	@Override
@@ -108,8 +128,12 @@ final class TransformationOperatorCompiler extends VisitorBase {
 	}
 
 	private void handleTransformationOperator(String name, boolean followedByElementAt) {
+		handleTransformationOperator(name, followedByElementAt, sourceListArgument);
+	}
+
+	private void handleTransformationOperator(String name, boolean followedByElementAt, Node sourceList) {
 		numberArgument.apply(parent);
-		sourceListArgument.apply(parent);
+		sourceList.apply(parent);
 		if (followedByElementAt)
 			context.writer.dup_x1();
 		context.writer.swap();
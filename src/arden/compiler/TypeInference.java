@@ -0,0 +1,658 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import arden.compiler.analysis.DepthFirstAdapter;
+import arden.compiler.node.*;
+
+/**
+ * Infers which expressions of an MLM are scalar numbers.
+ * 
+ * An expression is a number if it always evaluates to an ArdenNumber or to
+ * null: number literals, null, arithmetic on numbers, and variables that are
+ * only ever assigned numbers. Variables are initialized to null, so no
+ * definite assignment analysis is needed. Such expressions can be compiled to
+ * unboxed double arithmetic by NumericExpressionCompiler.
+ * 
+ * Variables assigned in any other way (READ, CALL, ARGUMENT, MLM and EVENT
+ * declarations, FOR loops etc.) are never numbers.
+ */
+final class TypeInference {
+	/** Analysis result if no MLM was analyzed: nothing is known to be a number. */
+	public static final TypeInference NONE = new TypeInference();
+
+	private final HashSet<String> numericVariables = new HashSet<String>();
+	private final IdentityHashMap<Node, Boolean> numberCache = new IdentityHashMap<Node, Boolean>();
+
+	private TypeInference() {
+	}
+
+	/** Analyzes the data, logic and action slots of an MLM. */
+	public TypeInference(AKnowledgeBody knowledge) {
+		AssignmentCollector collector = new AssignmentCollector();
+		knowledge.getDataSlot().apply(collector);
+		knowledge.getLogicSlot().apply(collector);
+		if (knowledge.getActionSlot() != null)
+			knowledge.getActionSlot().apply(collector);
+
+		for (String name : collector.assignments.keySet()) {
+			if (!collector.otherAssignments.contains(name))
+				numericVariables.add(name);
+		}
+		// Start by assuming that all variables assigned only from expressions
+		// are numbers; remove those with non-numeric assignments until
+		// nothing changes.
+		boolean changed;
+		do {
+			changed = false;
+			for (Map.Entry<String, List<PExpr>> entry : collector.assignments.entrySet()) {
+				if (!numericVariables.contains(entry.getKey()))
+					continue;
+				for (PExpr expr : entry.getValue()) {
+					if (!new NumberTypeVisitor().isNumber(expr)) {
+						numericVariables.remove(entry.getKey());
+						changed = true;
+						break;
+					}
+				}
+			}
+		} while (changed);
+	}
+
+	/** Gets whether the variable only ever holds numbers (or null). */
+	public boolean isNumericVariable(String name) {
+		return numericVariables.contains(name.toLowerCase(Locale.ENGLISH));
+	}
+
+	/** Gets whether the expression always evaluates to a number (or null). */
+	public boolean isNumber(Node expr) {
+		Boolean result = numberCache.get(expr);
+		if (result == null) {
+			result = new NumberTypeVisitor().isNumber(expr);
+			numberCache.put(expr, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets whether the expression is a condition built from comparisons of
+	 * numbers using AND, OR and NOT.
+	 */
+	public boolean isNumericCondition(Node expr) {
+		return new ConditionTypeVisitor().isCondition(expr);
+	}
+
+	/**
+	 * Gets whether the expression is known to evaluate to a single value
+	 * rather than a list.
+	 */
+	public boolean isScalar(Node expr) {
+		return new ScalarTypeVisitor().isScalar(expr);
+	}
+
+	/** Collects the assignments to each variable. */
+	private static final class AssignmentCollector extends DepthFirstAdapter {
+		final HashMap<String, List<PExpr>> assignments = new HashMap<String, List<PExpr>>();
+		final HashSet<String> otherAssignments = new HashSet<String>();
+
+		private void addAssignment(PIdentifierBecomes identifierBecomes, PExpr expr) {
+			LeftHandSideResult lhs = LeftHandSideAnalyzer.analyze(identifierBecomes);
+			if (lhs instanceof LeftHandSideIdentifier) {
+				String name = ((LeftHandSideIdentifier) lhs).identifier.getText().toLowerCase(Locale.ENGLISH);
+				List<PExpr> list = assignments.get(name);
+				if (list == null) {
+					list = new ArrayList<PExpr>();
+					assignments.put(name, list);
+				}
+				list.add(expr);
+			}
+			// assignments to object members or NOW don't change variables
+		}
+
+		private void addOtherAssignment(TIdentifier identifier) {
+			otherAssignments.add(identifier.getText().toLowerCase(Locale.ENGLISH));
+		}
+
+		// Assignments of expressions
+		@Override
+		public void caseAIphrDataAssignment(AIphrDataAssignment node) {
+			if (node.getDataAssignPhrase() instanceof AExprDataAssignPhrase)
+				addAssignment(node.getIdentifierBecomes(), ((AExprDataAssignPhrase) node.getDataAssignPhrase())
+						.getExpr());
+			else
+				super.caseAIphrDataAssignment(node);
+		}
+
+		@Override
+		public void caseAIdexLogicAssignment(AIdexLogicAssignment node) {
+			addAssignment(node.getIdentifierBecomes(), node.getExpr());
+		}
+
+		@Override
+		public void caseAAssign1ActionStatement(AAssign1ActionStatement node) {
+			addAssignment(node.getIdentifierBecomes(), node.getExpr());
+		}
+
+		// Assignments of anything else; "TIME x := " does not change the type
+		// of x.
+		@Override
+		public void inAIdIdentifierOrObjectRef(AIdIdentifierOrObjectRef node) {
+			addOtherAssignment(node.getIdentifier());
+		}
+
+		@Override
+		public void inALetIdentifierBecomes(ALetIdentifierBecomes node) {
+			addOtherAssignment(node.getIdentifier());
+		}
+
+		@Override
+		public void inAIdDataVarList(AIdDataVarList node) {
+			addOtherAssignment(node.getIdentifier());
+		}
+
+		@Override
+		public void inAIdlDataVarList(AIdlDataVarList node) {
+			addOtherAssignment(node.getIdentifier());
+		}
+
+		// Loop variables hold list elements
+		@Override
+		public void inAForDataStatement(AForDataStatement node) {
+			addOtherAssignment(node.getIdentifier());
+		}
+
+		@Override
+		public void inAForLogicStatement(AForLogicStatement node) {
+			addOtherAssignment(node.getIdentifier());
+		}
+
+		@Override
+		public void inAForActionStatement(AForActionStatement node) {
+			addOtherAssignment(node.getIdentifier());
+		}
+	}
+
+	/**
+	 * Determines whether an expression is a number. Supports the subset of
+	 * expressions that NumericExpressionCompiler can compile.
+	 */
+	private final class NumberTypeVisitor extends VisitorBase {
+		private boolean result;
+
+		public boolean isNumber(Switchable node) {
+			result = false;
+			node.apply(this);
+			return result;
+		}
+
+		@Override
+		public void defaultCase(Node node) {
+			result = false;
+		}
+
+		@Override
+		public void caseASortExpr(ASortExpr node) {
+			isNumber(node.getExprSort());
+		}
+
+		@Override
+		public void caseAWhereExprSort(AWhereExprSort node) {
+			isNumber(node.getExprWhere());
+		}
+
+		@Override
+		public void caseARangeExprWhere(ARangeExprWhere node) {
+			isNumber(node.getExprRange());
+		}
+
+		@Override
+		public void caseAOrExprRange(AOrExprRange node) {
+			isNumber(node.getExprOr());
+		}
+
+		@Override
+		public void caseAAndExprOr(AAndExprOr node) {
+			isNumber(node.getExprAnd());
+		}
+
+		@Override
+		public void caseANotExprAnd(ANotExprAnd node) {
+			isNumber(node.getExprNot());
+		}
+
+		@Override
+		public void caseACompExprNot(ACompExprNot node) {
+			isNumber(node.getExprComparison());
+		}
+
+		@Override
+		public void caseAStrExprComparison(AStrExprComparison node) {
+			isNumber(node.getExprString());
+		}
+
+		@Override
+		public void caseAPlusExprString(APlusExprString node) {
+			isNumber(node.getExprPlus());
+		}
+
+		@Override
+		public void caseATimesExprPlus(ATimesExprPlus node) {
+			isNumber(node.getExprTimes());
+		}
+
+		@Override
+		public void caseAPlusExprPlus(APlusExprPlus node) {
+			result = isNumber(node.getExprPlus()) && isNumber(node.getExprTimes());
+		}
+
+		@Override
+		public void caseAMinusExprPlus(AMinusExprPlus node) {
+			result = isNumber(node.getExprPlus()) && isNumber(node.getExprTimes());
+		}
+
+		@Override
+		public void caseAPlustExprPlus(APlustExprPlus node) {
+			isNumber(node.getExprTimes());
+		}
+
+		@Override
+		public void caseAMintExprPlus(AMintExprPlus node) {
+			isNumber(node.getExprTimes());
+		}
+
+		@Override
+		public void caseAPowerExprTimes(APowerExprTimes node) {
+			isNumber(node.getExprPower());
+		}
+
+		@Override
+		public void caseATpowExprTimes(ATpowExprTimes node) {
+			result = isNumber(node.getExprTimes()) && isNumber(node.getExprPower());
+		}
+
+		@Override
+		public void caseADpowExprTimes(ADpowExprTimes node) {
+			result = isNumber(node.getExprTimes()) && isNumber(node.getExprPower());
+		}
+
+		@Override
+		public void caseABeforeExprPower(ABeforeExprPower node) {
+			isNumber(node.getExprBefore());
+		}
+
+		@Override
+		public void caseAAgoExprBefore(AAgoExprBefore node) {
+			isNumber(node.getExprAgo());
+		}
+
+		@Override
+		public void caseAFuncExprAgo(AFuncExprAgo node) {
+			isNumber(node.getExprFunction());
+		}
+
+		@Override
+		public void caseAExprExprFunction(AExprExprFunction node) {
+			isNumber(node.getExprFactor());
+		}
+
+		@Override
+		public void caseAExpfExprFactor(AExpfExprFactor node) {
+			isNumber(node.getExprFactorAtom());
+		}
+
+		@Override
+		public void caseAIdExprFactorAtom(AIdExprFactorAtom node) {
+			result = isNumericVariable(node.getIdentifier().getText());
+		}
+
+		@Override
+		public void caseANumExprFactorAtom(ANumExprFactorAtom node) {
+			result = true;
+		}
+
+		@Override
+		public void caseANullExprFactorAtom(ANullExprFactorAtom node) {
+			result = true;
+		}
+
+		@Override
+		public void caseAExpExprFactorAtom(AExpExprFactorAtom node) {
+			isNumber(node.getExpr());
+		}
+	}
+
+	/** Determines whether an expression is a condition on numbers. */
+	private final class ConditionTypeVisitor extends VisitorBase {
+		private boolean result;
+
+		public boolean isCondition(Switchable node) {
+			result = false;
+			node.apply(this);
+			return result;
+		}
+
+		@Override
+		public void defaultCase(Node node) {
+			result = false;
+		}
+
+		@Override
+		public void caseASortExpr(ASortExpr node) {
+			isCondition(node.getExprSort());
+		}
+
+		@Override
+		public void caseAWhereExprSort(AWhereExprSort node) {
+			isCondition(node.getExprWhere());
+		}
+
+		@Override
+		public void caseARangeExprWhere(ARangeExprWhere node) {
+			isCondition(node.getExprRange());
+		}
+
+		@Override
+		public void caseAOrExprRange(AOrExprRange node) {
+			isCondition(node.getExprOr());
+		}
+
+		@Override
+		public void caseAOrExprOr(AOrExprOr node) {
+			result = isCondition(node.getExprOr()) && isCondition(node.getExprAnd());
+		}
+
+		@Override
+		public void caseAAndExprOr(AAndExprOr node) {
+			isCondition(node.getExprAnd());
+		}
+
+		@Override
+		public void caseAAndExprAnd(AAndExprAnd node) {
+			result = isCondition(node.getExprAnd()) && isCondition(node.getExprNot());
+		}
+
+		@Override
+		public void caseANotExprAnd(ANotExprAnd node) {
+			isCondition(node.getExprNot());
+		}
+
+		@Override
+		public void caseANotExprNot(ANotExprNot node) {
+			isCondition(node.getExprComparison());
+		}
+
+		@Override
+		public void caseACompExprNot(ACompExprNot node) {
+			isCondition(node.getExprComparison());
+		}
+
+		@Override
+		public void caseASimExprComparison(ASimExprComparison node) {
+			result = isNumber(node.getFirstString()) && isNumber(node.getSecondString());
+		}
+
+		// parentheses: expr_comparison = {str} expr_string, down to
+		// expr_factor_atom = {exp} l_par expr r_par
+		@Override
+		public void caseAStrExprComparison(AStrExprComparison node) {
+			isCondition(node.getExprString());
+		}
+
+		@Override
+		public void caseAPlusExprString(APlusExprString node) {
+			isCondition(node.getExprPlus());
+		}
+
+		@Override
+		public void caseATimesExprPlus(ATimesExprPlus node) {
+			isCondition(node.getExprTimes());
+		}
+
+		@Override
+		public void caseAPowerExprTimes(APowerExprTimes node) {
+			isCondition(node.getExprPower());
+		}
+
+		@Override
+		public void caseABeforeExprPower(ABeforeExprPower node) {
+			isCondition(node.getExprBefore());
+		}
+
+		@Override
+		public void caseAAgoExprBefore(AAgoExprBefore node) {
+			isCondition(node.getExprAgo());
+		}
+
+		@Override
+		public void caseAFuncExprAgo(AFuncExprAgo node) {
+			isCondition(node.getExprFunction());
+		}
+
+		@Override
+		public void caseAExprExprFunction(AExprExprFunction node) {
+			isCondition(node.getExprFactor());
+		}
+
+		@Override
+		public void caseAExpfExprFactor(AExpfExprFactor node) {
+			isCondition(node.getExprFactorAtom());
+		}
+
+		@Override
+		public void caseAExpExprFactorAtom(AExpExprFactorAtom node) {
+			isCondition(node.getExpr());
+		}
+	}
+
+	/**
+	 * Determines whether an expression is a scalar: numbers, literals,
+	 * aggregation operators, and comparisons and boolean operators on
+	 * scalars.
+	 */
+	private final class ScalarTypeVisitor extends VisitorBase {
+		private boolean result;
+
+		public boolean isScalar(Switchable node) {
+			if (node instanceof Node && (isNumber((Node) node) || isNumericCondition((Node) node)))
+				return result = true;
+			result = false;
+			node.apply(this);
+			return result;
+		}
+
+		@Override
+		public void defaultCase(Node node) {
+			result = false;
+		}
+
+		@Override
+		public void caseASortExpr(ASortExpr node) {
+			isScalar(node.getExprSort());
+		}
+
+		@Override
+		public void caseAWhereExprSort(AWhereExprSort node) {
+			isScalar(node.getExprWhere());
+		}
+
+		@Override
+		public void caseARangeExprWhere(ARangeExprWhere node) {
+			isScalar(node.getExprRange());
+		}
+
+		@Override
+		public void caseAOrExprRange(AOrExprRange node) {
+			isScalar(node.getExprOr());
+		}
+
+		@Override
+		public void caseAOrExprOr(AOrExprOr node) {
+			result = isScalar(node.getExprOr()) && isScalar(node.getExprAnd());
+		}
+
+		@Override
+		public void caseAAndExprOr(AAndExprOr node) {
+			isScalar(node.getExprAnd());
+		}
+
+		@Override
+		public void caseAAndExprAnd(AAndExprAnd node) {
+			result = isScalar(node.getExprAnd()) && isScalar(node.getExprNot());
+		}
+
+		@Override
+		public void caseANotExprAnd(ANotExprAnd node) {
+			isScalar(node.getExprNot());
+		}
+
+		@Override
+		public void caseANotExprNot(ANotExprNot node) {
+			isScalar(node.getExprComparison());
+		}
+
+		@Override
+		public void caseACompExprNot(ACompExprNot node) {
+			isScalar(node.getExprComparison());
+		}
+
+		@Override
+		public void caseASimExprComparison(ASimExprComparison node) {
+			result = isScalar(node.getFirstString()) && isScalar(node.getSecondString());
+		}
+
+		@Override
+		public void caseAStrExprComparison(AStrExprComparison node) {
+			isScalar(node.getExprString());
+		}
+
+		@Override
+		public void caseAPlusExprString(APlusExprString node) {
+			isScalar(node.getExprPlus());
+		}
+
+		@Override
+		public void caseATimesExprPlus(ATimesExprPlus node) {
+			isScalar(node.getExprTimes());
+		}
+
+		@Override
+		public void caseAPowerExprTimes(APowerExprTimes node) {
+			isScalar(node.getExprPower());
+		}
+
+		@Override
+		public void caseABeforeExprPower(ABeforeExprPower node) {
+			isScalar(node.getExprBefore());
+		}
+
+		@Override
+		public void caseAAgoExprBefore(AAgoExprBefore node) {
+			isScalar(node.getExprAgo());
+		}
+
+		@Override
+		public void caseAFuncExprAgo(AFuncExprAgo node) {
+			isScalar(node.getExprFunction());
+		}
+
+		@Override
+		public void caseAExprExprFunction(AExprExprFunction node) {
+			isScalar(node.getExprFactor());
+		}
+
+		@Override
+		public void caseAOfexprExprFunction(AOfexprExprFunction node) {
+			node.getOfFuncOp().apply(this);
+		}
+
+		@Override
+		public void caseAOfofexprExprFunction(AOfofexprExprFunction node) {
+			node.getOfFuncOp().apply(this);
+		}
+
+		// aggregation operators return a single value for any argument
+		@Override
+		public void caseAOfrOfFuncOp(AOfrOfFuncOp node) {
+			// AVERAGE, COUNT, EXIST, SUM, MEDIAN
+			result = true;
+		}
+
+		@Override
+		public void caseAOfnrOfFuncOp(AOfnrOfFuncOp node) {
+			node.getOfNoreadFuncOp().apply(this);
+		}
+
+		@Override
+		public void caseAAnyOfNoreadFuncOp(AAnyOfNoreadFuncOp node) {
+			result = true;
+		}
+
+		@Override
+		public void caseAAllOfNoreadFuncOp(AAllOfNoreadFuncOp node) {
+			result = true;
+		}
+
+		@Override
+		public void caseANoOfNoreadFuncOp(ANoOfNoreadFuncOp node) {
+			result = true;
+		}
+
+		@Override
+		public void caseAExpfExprFactor(AExpfExprFactor node) {
+			isScalar(node.getExprFactorAtom());
+		}
+
+		@Override
+		public void caseAStringExprFactorAtom(AStringExprFactorAtom node) {
+			result = true;
+		}
+
+		@Override
+		public void caseATimeExprFactorAtom(ATimeExprFactorAtom node) {
+			result = true;
+		}
+
+		@Override
+		public void caseABoolExprFactorAtom(ABoolExprFactorAtom node) {
+			result = true;
+		}
+
+		@Override
+		public void caseAExpExprFactorAtom(AExpExprFactorAtom node) {
+			isScalar(node.getExpr());
+		}
+	}
+}
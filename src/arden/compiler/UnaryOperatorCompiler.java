@@ -27,10 +27,9 @@
 
 package arden.compiler;
 
-import java.util.GregorianCalendar;
-
 import arden.compiler.node.*;
 import arden.runtime.ArdenValue;
+import arden.runtime.CivilTime;
 import arden.runtime.UnaryOperator;
 
 /**
@@ -363,33 +362,36 @@ final class UnaryOperatorCompiler extends VisitorBase {
 
 	@Override
 	public void caseAExyOfNoreadFuncOp(AExyOfNoreadFuncOp node) {
-		extractTimeComponent(GregorianCalendar.YEAR);
+		extractTimeComponent(CivilTime.YEAR);
 	}
 
 	@Override
 	public void caseAExmoOfNoreadFuncOp(AExmoOfNoreadFuncOp node) {
-		extractTimeComponent(GregorianCalendar.MONTH);
+		extractTimeComponent(CivilTime.MONTH);
 	}
 
 	@Override
 	public void caseAExdOfNoreadFuncOp(AExdOfNoreadFuncOp node) {
-		extractTimeComponent(GregorianCalendar.DAY_OF_MONTH);
+		extractTimeComponent(CivilTime.DAY_OF_MONTH);
 	}
 
 	@Override
 	public void caseAExhOfNoreadFuncOp(AExhOfNoreadFuncOp node) {
-		extractTimeComponent(GregorianCalendar.HOUR_OF_DAY);
+		extractTimeComponent(CivilTime.HOUR);
 	}
 
 	@Override
 	public void caseAExmiOfNoreadFuncOp(AExmiOfNoreadFuncOp node) {
-		extractTimeComponent(GregorianCalendar.MINUTE);
+		extractTimeComponent(CivilTime.MINUTE);
 	}
 
 	private void extractTimeComponent(int component) {
 		argument.apply(parent);
 		context.writer.loadIntegerConstant(component);
-		context.writer.invokeStatic(ExpressionCompiler.getMethod("extractTimeComponent", ArdenValue.class, int.class));
+		context.writer.loadVariable(context.executionContextVariable);
+		context.writer.invokeInstance(ExecutionContextMethods.getCalendar);
+		context.writer.invokeStatic(ExpressionCompiler.getMethod("extractTimeComponent", ArdenValue.class, int.class,
+				CivilTime.class));
 	}
 
 	@Override
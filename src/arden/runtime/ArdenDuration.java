@@ -104,7 +104,7 @@ public final class ArdenDuration extends ArdenValue {
 
 	@Override
 	public int hashCode() {
-		return new Double(toSeconds()).hashCode();
+		return ArdenNumber.hashCode(toSeconds());
 	}
 
 	@Override
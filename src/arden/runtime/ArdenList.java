@@ -27,30 +27,110 @@
 
 package arden.runtime;
 
+import java.util.Arrays;
+
+/**
+ * Represents an Arden list.
+ * 
+ * Lists consisting only of numbers can be stored in a packed form (one
+ * double[] for the values and one long[] for the primary times). The boxed
+ * ArdenValue[] representation is created on demand when getElements() is
+ * called on a packed list.
+ */
 public final class ArdenList extends ArdenValue {
 	public final static ArdenList EMPTY = new ArdenList(new ArdenValue[0]);
 
-	public final ArdenValue[] values;
+	/** The elements; null for packed lists */
+	private final ArdenValue[] values;
+	/** The values of the elements of a packed list; null for boxed lists */
+	final double[] numbers;
+	/** The primary times of the elements of a packed list; null for boxed lists */
+	final long[] numberTimes;
+	/** Cached boxed representation of a packed list */
+	private volatile ArdenValue[] boxedNumbers;
 
 	public ArdenList(ArdenValue[] values) {
+		if (values == null)
+			throw new NullPointerException();
 		this.values = values;
+		this.numbers = null;
+		this.numberTimes = null;
+	}
+
+	private ArdenList(double[] numbers, long[] numberTimes) {
+		this.values = null;
+		this.numbers = numbers;
+		this.numberTimes = numberTimes;
+	}
+
+	/**
+	 * Creates a list of numbers in the packed form. The arrays are not copied,
+	 * so the caller must not modify them afterwards.
+	 * 
+	 * If any of the values is not a valid ArdenNumber (NaN or infinite), the
+	 * element becomes null and the list is created in the boxed form.
+	 * 
+	 * @param numbers
+	 *            The values of the numbers.
+	 * @param primaryTimes
+	 *            The primary times of the numbers (use NOPRIMARYTIME for
+	 *            numbers without primary time).
+	 */
+	public static ArdenList createNumberList(double[] numbers, long[] primaryTimes) {
+		if (numbers.length != primaryTimes.length)
+			throw new IllegalArgumentException("numbers and primaryTimes must have the same length");
+		for (double d : numbers) {
+			if (Double.isNaN(d) || Double.isInfinite(d))
+				return new ArdenList(box(numbers, primaryTimes));
+		}
+		return new ArdenList(numbers, primaryTimes);
+	}
+
+	/** Gets whether this list is stored in the packed form. */
+	public boolean isNumberList() {
+		return numbers != null;
+	}
+
+	/** Gets the number of elements in this list. */
+	public int size() {
+		return values != null ? values.length : numbers.length;
+	}
+
+	private static ArdenValue[] box(double[] numbers, long[] numberTimes) {
+		ArdenValue[] result = new ArdenValue[numbers.length];
+		for (int i = 0; i < result.length; i++)
+			result[i] = ArdenNumber.create(numbers[i], numberTimes[i]);
+		return result;
 	}
-	
+
 	@Override
 	public ArdenValue setTime(long newPrimaryTime) {
+		if (values == null) {
+			long[] newTimes = new long[numbers.length];
+			Arrays.fill(newTimes, newPrimaryTime);
+			return new ArdenList(numbers, newTimes);
+		}
 		ArdenValue[] newValues = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			newValues[i] = values[i].setTime(newPrimaryTime);
 		return new ArdenList(newValues);
 	}
-	
+
 	@Override
 	public ArdenValue[] getElements() {
-		return values;
+		if (values != null)
+			return values;
+		ArdenValue[] result = boxedNumbers;
+		if (result == null) {
+			result = box(numbers, numberTimes);
+			boxedNumbers = result;
+		}
+		return result;
 	}
 
 	@Override
 	public String toString() {
+		ArdenValue[] values = getElements();
 		StringBuilder b = new StringBuilder();
 		b.append('(');
 		if (values.length == 1) {
@@ -72,10 +152,19 @@ public final class ArdenList extends ArdenValue {
 		if (!(obj instanceof ArdenList))
 			return false;
 		ArdenList list = (ArdenList) obj;
-		if (list.values.length != values.length)
+		if (list.size() != size())
 			return false;
+		if (numbers != null && list.numbers != null) {
+			for (int i = 0; i < numbers.length; i++) {
+				if (numbers[i] != list.numbers[i])
+					return false;
+			}
+			return true;
+		}
+		ArdenValue[] values = getElements();
+		ArdenValue[] otherValues = list.getElements();
 		for (int i = 0; i < values.length; i++) {
-			if (!values[i].equals(list.values[i]))
+			if (!values[i].equals(otherValues[i]))
 				return false;
 		}
 		return true;
@@ -84,9 +173,16 @@ public final class ArdenList extends ArdenValue {
 	@Override
 	public int hashCode() {
 		int result = 1;
-		for (ArdenValue val : values) {
-			result *= 27;
-			result += val.hashCode();
+		if (numbers != null) {
+			for (double d : numbers) {
+				result *= 27;
+				result += ArdenNumber.hashCode(d);
+			}
+		} else {
+			for (ArdenValue val : values) {
+				result *= 27;
+				result += val.hashCode();
+			}
 		}
 		return result;
 	}
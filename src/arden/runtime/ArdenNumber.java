@@ -76,7 +76,13 @@ public final class ArdenNumber extends ArdenValue {
 
 	@Override
 	public int hashCode() {
-		return new Double(value).hashCode();
+		return hashCode(value);
+	}
+
+	/** Gets the hash code of a number; the same as Double.hashCode(). */
+	static int hashCode(double value) {
+		long bits = Double.doubleToLongBits(value);
+		return (int) (bits ^ (bits >>> 32));
 	}
 
 	@Override
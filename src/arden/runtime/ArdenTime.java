@@ -27,10 +27,7 @@
 
 package arden.runtime;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.GregorianCalendar;
 
 public final class ArdenTime extends ArdenValue {
 	/** Number of milliseconds since 1.1.1970, midnight GMT */
@@ -54,17 +51,9 @@ public final class ArdenTime extends ArdenValue {
 		return new ArdenTime(value, newPrimaryTime);
 	}
 
-	public static final DateFormat isoDateTimeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-	public static final DateFormat isoDateTimeFormatWithMillis = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
-	public static final DateFormat isoDateFormat = new SimpleDateFormat("yyyy-MM-dd");
-
 	@Override
 	public String toString() {
-		if (value % 1000 != 0) {
-			return isoDateTimeFormatWithMillis.format(new Date(value));
-		} else {
-			return isoDateTimeFormat.format(new Date(value));
-		}
+		return CivilTime.DEFAULT.toIsoString(value);
 	}
 
 	@Override
@@ -74,7 +63,7 @@ public final class ArdenTime extends ArdenValue {
 
 	@Override
 	public int hashCode() {
-		return new Long(value).hashCode();
+		return (int) (value ^ (value >>> 32));
 	}
 
 	@Override
@@ -91,26 +80,24 @@ public final class ArdenTime extends ArdenValue {
 		return Integer.MIN_VALUE;
 	}
 
-	private long addMonths(double months) {
+	private long addMonths(double months, CivilTime calendar) {
 		int wholeMonths = (int) months;
-		GregorianCalendar c = new GregorianCalendar();
-		c.setTimeInMillis(value);
-		c.add(GregorianCalendar.MONTH, wholeMonths);
-		return c.getTimeInMillis() + (long) ((months - wholeMonths) * 1000 * ArdenDuration.SECONDS_PER_MONTH);
+		return calendar.addMonths(value, wholeMonths)
+				+ (long) ((months - wholeMonths) * 1000 * ArdenDuration.SECONDS_PER_MONTH);
 	}
 
-	long add(ArdenDuration dur) {
+	long add(ArdenDuration dur, CivilTime calendar) {
 		if (dur.isMonths) {
-			return addMonths(dur.value);
+			return addMonths(dur.value, calendar);
 		} else {
 			long milliseconds = (long) (1000 * dur.value);
 			return this.value + milliseconds;
 		}
 	}
 
-	long subtract(ArdenDuration dur) {
+	long subtract(ArdenDuration dur, CivilTime calendar) {
 		if (dur.isMonths) {
-			return addMonths(-dur.value);
+			return addMonths(-dur.value, calendar);
 		} else {
 			long milliseconds = (long) (1000 * dur.value);
 			return this.value - milliseconds;
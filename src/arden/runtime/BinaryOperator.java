@@ -130,7 +130,31 @@ public abstract class BinaryOperator {
 		};
 	};
 
-	public static final BinaryOperator ADD = new BinaryOperator("ADD") {
+	public static final BinaryOperator ADD = new AddOperator(CivilTime.DEFAULT);
+
+	static final class AddOperator extends NumericBinaryOperator {
+		private final CivilTime calendar;
+
+		AddOperator(CivilTime calendar) {
+			super("ADD");
+			this.calendar = calendar;
+		}
+
+		@Override
+		public boolean dependsOnTimeZone() {
+			return true;
+		}
+
+		@Override
+		public BinaryOperator inZone(CivilTime calendar) {
+			return (calendar == this.calendar) ? this : calendar.getOperators().add;
+		}
+
+		@Override
+		public double runNumber(double lhs, double rhs) {
+			return lhs + rhs;
+		}
+
 		@Override
 		public ArdenValue runElement(ArdenValue lhs, ArdenValue rhs) {
 			long newTime = combinePrimaryTime(lhs.primaryTime, rhs.primaryTime);
@@ -145,16 +169,40 @@ public abstract class BinaryOperator {
 				else
 					return ArdenDuration.seconds(left.toSeconds() + right.toSeconds(), newTime);
 			} else if (lhs instanceof ArdenTime && rhs instanceof ArdenDuration) {
-				return new ArdenTime(((ArdenTime) lhs).add((ArdenDuration) rhs), newTime);
+				return new ArdenTime(((ArdenTime) lhs).add((ArdenDuration) rhs, calendar), newTime);
 			} else if (lhs instanceof ArdenDuration && rhs instanceof ArdenTime) {
-				return new ArdenTime(((ArdenTime) rhs).add((ArdenDuration) lhs), newTime);
+				return new ArdenTime(((ArdenTime) rhs).add((ArdenDuration) lhs, calendar), newTime);
 			} else {
 				return ArdenNull.create(newTime);
 			}
 		};
-	};
+	}
+
+	public static final BinaryOperator SUB = new SubOperator(CivilTime.DEFAULT);
+
+	static final class SubOperator extends NumericBinaryOperator {
+		private final CivilTime calendar;
+
+		SubOperator(CivilTime calendar) {
+			super("SUB");
+			this.calendar = calendar;
+		}
+
+		@Override
+		public boolean dependsOnTimeZone() {
+			return true;
+		}
+
+		@Override
+		public BinaryOperator inZone(CivilTime calendar) {
+			return (calendar == this.calendar) ? this : calendar.getOperators().sub;
+		}
+
+		@Override
+		public double runNumber(double lhs, double rhs) {
+			return lhs - rhs;
+		}
 
-	public static final BinaryOperator SUB = new BinaryOperator("SUB") {
 		@Override
 		public ArdenValue runElement(ArdenValue lhs, ArdenValue rhs) {
 			long newTime = combinePrimaryTime(lhs.primaryTime, rhs.primaryTime);
@@ -169,7 +217,7 @@ public abstract class BinaryOperator {
 				else
 					return ArdenDuration.seconds(left.toSeconds() - right.toSeconds(), newTime);
 			} else if (lhs instanceof ArdenTime && rhs instanceof ArdenDuration) {
-				return new ArdenTime(((ArdenTime) lhs).subtract((ArdenDuration) rhs), newTime);
+				return new ArdenTime(((ArdenTime) lhs).subtract((ArdenDuration) rhs, calendar), newTime);
 			} else if (lhs instanceof ArdenTime && rhs instanceof ArdenTime) {
 				long milliseconds = ((ArdenTime) lhs).value - ((ArdenTime) rhs).value;
 				return ArdenDuration.seconds(milliseconds / 1000.0, newTime);
@@ -177,9 +225,14 @@ public abstract class BinaryOperator {
 				return ArdenNull.create(newTime);
 			}
 		};
-	};
+	}
+
+	public static final BinaryOperator MUL = new NumericBinaryOperator("MUL") {
+		@Override
+		public double runNumber(double lhs, double rhs) {
+			return lhs * rhs;
+		}
 
-	public static final BinaryOperator MUL = new BinaryOperator("MUL") {
 		@Override
 		public ArdenValue runElement(ArdenValue lhs, ArdenValue rhs) {
 			long newTime = combinePrimaryTime(lhs.primaryTime, rhs.primaryTime);
@@ -200,7 +253,12 @@ public abstract class BinaryOperator {
 		};
 	};
 
-	public static final BinaryOperator DIV = new BinaryOperator("DIV") {
+	public static final BinaryOperator DIV = new NumericBinaryOperator("DIV") {
+		@Override
+		public double runNumber(double lhs, double rhs) {
+			return lhs / rhs;
+		}
+
 		@Override
 		public ArdenValue runElement(ArdenValue lhs, ArdenValue rhs) {
 			long newTime = combinePrimaryTime(lhs.primaryTime, rhs.primaryTime);
@@ -236,27 +294,65 @@ public abstract class BinaryOperator {
 		}
 	};
 
-	public static final BinaryOperator AFTER = new BinaryOperator("AFTER") {
+	public static final BinaryOperator AFTER = new AfterOperator(CivilTime.DEFAULT);
+
+	static final class AfterOperator extends BinaryOperator {
+		private final CivilTime calendar;
+
+		AfterOperator(CivilTime calendar) {
+			super("AFTER");
+			this.calendar = calendar;
+		}
+
 		@Override
-		public final ArdenValue runElement(ArdenValue lhs, ArdenValue rhs) {
+		public boolean dependsOnTimeZone() {
+			return true;
+		}
+
+		@Override
+		public BinaryOperator inZone(CivilTime calendar) {
+			return (calendar == this.calendar) ? this : calendar.getOperators().after;
+		}
+
+		@Override
+		public ArdenValue runElement(ArdenValue lhs, ArdenValue rhs) {
 			long newTime = combinePrimaryTime(lhs.primaryTime, rhs.primaryTime);
 			if (lhs instanceof ArdenDuration && rhs instanceof ArdenTime) {
-				return new ArdenTime(((ArdenTime) rhs).add((ArdenDuration) lhs), newTime);
+				return new ArdenTime(((ArdenTime) rhs).add((ArdenDuration) lhs, calendar), newTime);
 			}
 			return ArdenNull.create(newTime);
 		}
-	};
+	}
+
+	public static final BinaryOperator BEFORE = new BeforeOperator(CivilTime.DEFAULT);
+
+	static final class BeforeOperator extends BinaryOperator {
+		private final CivilTime calendar;
+
+		BeforeOperator(CivilTime calendar) {
+			super("BEFORE");
+			this.calendar = calendar;
+		}
 
-	public static final BinaryOperator BEFORE = new BinaryOperator("BEFORE") {
 		@Override
-		public final ArdenValue runElement(ArdenValue lhs, ArdenValue rhs) {
+		public boolean dependsOnTimeZone() {
+			return true;
+		}
+
+		@Override
+		public BinaryOperator inZone(CivilTime calendar) {
+			return (calendar == this.calendar) ? this : calendar.getOperators().before;
+		}
+
+		@Override
+		public ArdenValue runElement(ArdenValue lhs, ArdenValue rhs) {
 			long newTime = combinePrimaryTime(lhs.primaryTime, rhs.primaryTime);
 			if (lhs instanceof ArdenDuration && rhs instanceof ArdenTime) {
-				return new ArdenTime(((ArdenTime) rhs).subtract((ArdenDuration) lhs), newTime);
+				return new ArdenTime(((ArdenTime) rhs).subtract((ArdenDuration) lhs, calendar), newTime);
 			}
 			return ArdenNull.create(newTime);
 		}
-	};
+	}
 
 	public static final BinaryOperator ISAFTER = new BinaryOperator("ISAFTER") {
 		@Override
@@ -280,13 +376,32 @@ public abstract class BinaryOperator {
 		}
 	};
 
-	public static final BinaryOperator WITHINSAMEDAY = new BinaryOperator("WITHINSAMEDAY") {
+	public static final BinaryOperator WITHINSAMEDAY = new WithinSameDayOperator(CivilTime.DEFAULT);
+
+	static final class WithinSameDayOperator extends BinaryOperator {
+		private final CivilTime calendar;
+
+		WithinSameDayOperator(CivilTime calendar) {
+			super("WITHINSAMEDAY");
+			this.calendar = calendar;
+		}
+
 		@Override
-		public final ArdenValue runElement(ArdenValue lhs, ArdenValue rhs) {
-			return TernaryOperator.WITHINTO.runElement(lhs, RuntimeHelpers.getStartOfDay(rhs), RuntimeHelpers
-					.getEndOfDay(rhs));
+		public boolean dependsOnTimeZone() {
+			return true;
 		}
-	};
+
+		@Override
+		public BinaryOperator inZone(CivilTime calendar) {
+			return (calendar == this.calendar) ? this : calendar.getOperators().withinSameDay;
+		}
+
+		@Override
+		public ArdenValue runElement(ArdenValue lhs, ArdenValue rhs) {
+			return TernaryOperator.WITHINTO.runElement(lhs, RuntimeHelpers.getStartOfDay(rhs, calendar),
+					RuntimeHelpers.getEndOfDay(rhs, calendar));
+		}
+	}
 
 	public static final BinaryOperator ATTRIBUTEFROM = new BinaryOperator("ATTRIBUTEFROM") {
 		@Override
@@ -302,6 +417,24 @@ public abstract class BinaryOperator {
 		this.name = name;
 	}
 
+	/**
+	 * Gets whether the result of the operator depends on the time zone (e.g.
+	 * when adding months to a time).
+	 */
+	public boolean dependsOnTimeZone() {
+		return false;
+	}
+
+	/**
+	 * Gets the variant of this operator that does its calendar arithmetic in
+	 * the time zone of the specified calendar. Operators that do not depend on
+	 * the time zone return this. The static operator fields use
+	 * CivilTime.DEFAULT.
+	 */
+	public BinaryOperator inZone(CivilTime calendar) {
+		return this;
+	}
+
 	/** Helper method for handling of primary times */
 	public static final long combinePrimaryTime(long time1, long time2) {
 		if (time1 == time2)
@@ -314,28 +447,35 @@ public abstract class BinaryOperator {
 	public final ArdenValue run(ArdenValue lhs, ArdenValue rhs) {
 		if (lhs instanceof ArdenList) {
 			ArdenList leftList = (ArdenList) lhs;
+			ArdenValue packedResult = runNumberList(lhs, rhs);
+			if (packedResult != null)
+				return packedResult;
+			ArdenValue[] leftValues = leftList.getElements();
 			if (rhs instanceof ArdenList) {
-				ArdenList rightList = (ArdenList) rhs;
-				if (leftList.values.length != rightList.values.length)
+				ArdenValue[] rightValues = ((ArdenList) rhs).getElements();
+				if (leftValues.length != rightValues.length)
 					return ArdenNull.INSTANCE;
-				ArdenValue[] results = new ArdenValue[leftList.values.length];
+				ArdenValue[] results = new ArdenValue[leftValues.length];
 				for (int i = 0; i < results.length; i++) {
-					results[i] = runElement(leftList.values[i], rightList.values[i]);
+					results[i] = runElement(leftValues[i], rightValues[i]);
 				}
 				return new ArdenList(results);
 			} else {
-				ArdenValue[] results = new ArdenValue[leftList.values.length];
+				ArdenValue[] results = new ArdenValue[leftValues.length];
 				for (int i = 0; i < results.length; i++) {
-					results[i] = runElement(leftList.values[i], rhs);
+					results[i] = runElement(leftValues[i], rhs);
 				}
 				return new ArdenList(results);
 			}
 		} else {
 			if (rhs instanceof ArdenList) {
-				ArdenList rightList = (ArdenList) rhs;
-				ArdenValue[] results = new ArdenValue[rightList.values.length];
+				ArdenValue packedResult = runNumberList(lhs, rhs);
+				if (packedResult != null)
+					return packedResult;
+				ArdenValue[] rightValues = ((ArdenList) rhs).getElements();
+				ArdenValue[] results = new ArdenValue[rightValues.length];
 				for (int i = 0; i < results.length; i++) {
-					results[i] = runElement(lhs, rightList.values[i]);
+					results[i] = runElement(lhs, rightValues[i]);
 				}
 				return new ArdenList(results);
 			} else {
@@ -344,8 +484,70 @@ public abstract class BinaryOperator {
 		}
 	}
 
+	/**
+	 * Runs the operator on packed number lists without creating ArdenNumber
+	 * objects for the elements.
+	 * 
+	 * @return Returns the result list, or (Java) null if the operator or the
+	 *         arguments do not support the packed representation.
+	 */
+	ArdenValue runNumberList(ArdenValue lhs, ArdenValue rhs) {
+		return null;
+	}
+
 	@Override
 	public String toString() {
 		return name;
 	}
+
+	/**
+	 * Base class for arithmetic operators that can work on packed number lists.
+	 */
+	private static abstract class NumericBinaryOperator extends BinaryOperator {
+		public NumericBinaryOperator(String name) {
+			super(name);
+		}
+
+		/** Runs the operator for two numbers. */
+		public abstract double runNumber(double lhs, double rhs);
+
+		@Override
+		ArdenValue runNumberList(ArdenValue lhs, ArdenValue rhs) {
+			if (lhs instanceof ArdenList && ((ArdenList) lhs).isNumberList()) {
+				ArdenList leftList = (ArdenList) lhs;
+				if (rhs instanceof ArdenList && ((ArdenList) rhs).isNumberList()) {
+					ArdenList rightList = (ArdenList) rhs;
+					if (leftList.numbers.length != rightList.numbers.length)
+						return ArdenNull.INSTANCE;
+					double[] results = new double[leftList.numbers.length];
+					long[] times = new long[results.length];
+					for (int i = 0; i < results.length; i++) {
+						results[i] = runNumber(leftList.numbers[i], rightList.numbers[i]);
+						times[i] = combinePrimaryTime(leftList.numberTimes[i], rightList.numberTimes[i]);
+					}
+					return ArdenList.createNumberList(results, times);
+				} else if (rhs instanceof ArdenNumber) {
+					double right = ((ArdenNumber) rhs).value;
+					double[] results = new double[leftList.numbers.length];
+					long[] times = new long[results.length];
+					for (int i = 0; i < results.length; i++) {
+						results[i] = runNumber(leftList.numbers[i], right);
+						times[i] = combinePrimaryTime(leftList.numberTimes[i], rhs.primaryTime);
+					}
+					return ArdenList.createNumberList(results, times);
+				}
+			} else if (lhs instanceof ArdenNumber && rhs instanceof ArdenList && ((ArdenList) rhs).isNumberList()) {
+				double left = ((ArdenNumber) lhs).value;
+				ArdenList rightList = (ArdenList) rhs;
+				double[] results = new double[rightList.numbers.length];
+				long[] times = new long[results.length];
+				for (int i = 0; i < results.length; i++) {
+					results[i] = runNumber(left, rightList.numbers[i]);
+					times[i] = combinePrimaryTime(lhs.primaryTime, rightList.numberTimes[i]);
+				}
+				return ArdenList.createNumberList(results, times);
+			}
+			return null;
+		}
+	}
 }
@@ -0,0 +1,515 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.runtime;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Calendar arithmetic for ArdenTime values.
+ * 
+ * Converts between points in time (milliseconds since 1.1.1970, midnight GMT)
+ * and the civil date and time fields of a time zone using integer arithmetic
+ * on the proleptic Gregorian calendar, so no Calendar or DateFormat objects
+ * are created. The boundaries and date fields of recently used days are
+ * cached in immutable entries; instances can be shared between threads.
+ * 
+ * The Gregorian calendar is used for all dates, as in ISO 8601. This differs
+ * from GregorianCalendar, which switches to the Julian calendar before
+ * 1582-10-15: for earlier dates, the fields computed by this class (and the
+ * ISO strings) do not match those of GregorianCalendar or DateFormat. Parsing
+ * and formatting Arden time literals both use this class, so they are
+ * consistent with each other.
+ * 
+ * The UTC offsets of the time zone between 1900 and 2100 are precomputed
+ * into a table of transitions, so looking up an offset is a binary search
+ * that does not depend on the TimeZone implementation. Use forZone() to
+ * share the tables between all users of a time zone.
+ */
+public final class CivilTime {
+	public static final int YEAR = 1;
+	public static final int MONTH = 2;
+	public static final int DAY_OF_MONTH = 3;
+	public static final int HOUR = 4;
+	public static final int MINUTE = 5;
+	public static final int SECOND = 6;
+	public static final int MILLISECOND = 7;
+
+	public static final int MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+
+	/** Number of cached days; must be a power of two. */
+	private static final int CACHE_SIZE = 64;
+
+	/** Range of the transition table: 1900-01-01 to 2100-01-01 (UTC) */
+	private static final long TABLE_START = -2208988800000L;
+	private static final long TABLE_END = 4102444800000L;
+
+	/**
+	 * Interval at which the offsets are sampled when building the transition
+	 * table. A change of the offset that is reverted within this interval is
+	 * not detected.
+	 */
+	private static final long SAMPLE_INTERVAL = 6 * 60 * 60 * 1000;
+
+	/** Shared instances by time zone ID */
+	private static final ConcurrentMap<String, CivilTime> instances = new ConcurrentHashMap<String, CivilTime>();
+
+	/** Calendar arithmetic in the default time zone of the JVM. */
+	public static final CivilTime DEFAULT = forZone(TimeZone.getDefault());
+
+	/** Calendar arithmetic in UTC. */
+	public static final CivilTime UTC = forZone(TimeZone.getTimeZone("UTC"));
+
+	/** A local day. Entries are immutable, so they can be read without locking. */
+	private static final class Day {
+		final long epochDay;
+		/**
+		 * First point in time on the day (inclusive) and first point in time
+		 * of the following day (exclusive)
+		 */
+		final long start, end;
+		final int year, month, dayOfMonth;
+		/** Whether the UTC offset is the same for the whole day */
+		final boolean uniformOffset;
+		final int offset;
+
+		Day(long epochDay, long start, long end, int date, boolean uniformOffset, int offset) {
+			this.epochDay = epochDay;
+			this.start = start;
+			this.end = end;
+			this.year = getYear(date);
+			this.month = getMonth(date);
+			this.dayOfMonth = getDayOfMonth(date);
+			this.uniformOffset = uniformOffset;
+			this.offset = offset;
+		}
+	}
+
+	private final TimeZone zone;
+	private final Day[] dayCache = new Day[CACHE_SIZE];
+	/**
+	 * Points in time within the table range at which the UTC offset changes,
+	 * or null if the offsets are not precomputed.
+	 */
+	private final long[] transitions;
+	/**
+	 * offsets[i] is the UTC offset before transitions[i]; the last entry is
+	 * the offset after the last transition.
+	 */
+	private final int[] offsets;
+	private volatile Operators operators;
+
+	public CivilTime(TimeZone zone) {
+		this(zone, true);
+	}
+
+	/**
+	 * @param precomputeOffsets
+	 *            Whether to build the transition table. If false, offsets are
+	 *            looked up using TimeZone.getOffset().
+	 */
+	private CivilTime(TimeZone zone, boolean precomputeOffsets) {
+		if (zone == null)
+			throw new NullPointerException();
+		// TimeZone objects are mutable, so keep a private copy
+		this.zone = (TimeZone) zone.clone();
+		if (!precomputeOffsets) {
+			this.transitions = null;
+			this.offsets = null;
+			return;
+		}
+
+		long[] transitions = new long[16];
+		int[] offsets = new int[17];
+		int count = 0;
+		offsets[0] = this.zone.getOffset(TABLE_START);
+		// After a transition, the search continues from that transition, so
+		// several transitions within one sampling interval are found as long
+		// as the offset does not return to its old value.
+		long time = TABLE_START;
+		while (true) {
+			time = findTransition(this.zone, time, TABLE_END - 1);
+			int offset = this.zone.getOffset(time);
+			if (offset == offsets[count])
+				break;
+			if (count == transitions.length) {
+				transitions = Arrays.copyOf(transitions, count * 2);
+				offsets = Arrays.copyOf(offsets, count * 2 + 1);
+			}
+			transitions[count++] = time;
+			offsets[count] = offset;
+		}
+		this.transitions = Arrays.copyOf(transitions, count);
+		this.offsets = Arrays.copyOf(offsets, count + 1);
+	}
+
+	/**
+	 * Samples the offsets of the time zone and searches the first point in
+	 * time after the specified time at which the offset changes.
+	 * 
+	 * @return Returns the point in time of the transition, or limit if no
+	 *         transition was found before limit.
+	 */
+	private static long findTransition(TimeZone zone, long time, long limit) {
+		int offset = zone.getOffset(time);
+		while (time < limit) {
+			long next = Math.min(time + SAMPLE_INTERVAL, limit);
+			if (zone.getOffset(next) != offset) {
+				long low = time, high = next;
+				while (high - low > 1) {
+					long mid = low + (high - low) / 2;
+					if (zone.getOffset(mid) == offset)
+						low = mid;
+					else
+						high = mid;
+				}
+				return high;
+			}
+			time = next;
+		}
+		return limit;
+	}
+
+	/**
+	 * Gets the shared instance for the time zone. Instances are cached by the
+	 * time zone ID, so the transition tables are computed only once per time
+	 * zone.
+	 * 
+	 * A custom TimeZone whose rules differ from those of the cached zone with
+	 * the same ID gets an instance of its own that looks up the offsets using
+	 * TimeZone.getOffset(), so the transition table is not rebuilt on every
+	 * call.
+	 */
+	public static CivilTime forZone(TimeZone zone) {
+		CivilTime calendar = instances.get(zone.getID());
+		if (calendar == null) {
+			calendar = new CivilTime(zone);
+			CivilTime existing = instances.putIfAbsent(zone.getID(), calendar);
+			if (existing != null)
+				calendar = existing;
+		}
+		if (calendar.zone.hasSameRules(zone))
+			return calendar;
+		return new CivilTime(zone, false);
+	}
+
+	/** Gets the time zone used for the calendar arithmetic. */
+	public TimeZone getTimeZone() {
+		return (TimeZone) zone.clone();
+	}
+
+	/**
+	 * Gets a field of the date and time.
+	 * 
+	 * @param field
+	 *            One of YEAR, MONTH (1-12), DAY_OF_MONTH, HOUR (0-23), MINUTE,
+	 *            SECOND or MILLISECOND.
+	 */
+	public int getField(long time, int field) {
+		Day day = getDay(time);
+		switch (field) {
+		case YEAR:
+			return day.year;
+		case MONTH:
+			return day.month;
+		case DAY_OF_MONTH:
+			return day.dayOfMonth;
+		case HOUR:
+			return getMillisOfDay(day, time) / (60 * 60 * 1000);
+		case MINUTE:
+			return getMillisOfDay(day, time) / (60 * 1000) % 60;
+		case SECOND:
+			return getMillisOfDay(day, time) / 1000 % 60;
+		case MILLISECOND:
+			return getMillisOfDay(day, time) % 1000;
+		default:
+			throw new IllegalArgumentException("Unknown field: " + field);
+		}
+	}
+
+	/** Gets the first millisecond of the day containing the specified time. */
+	public long getStartOfDay(long time) {
+		return getDay(time).start;
+	}
+
+	/**
+	 * Gets the last millisecond of the day containing the specified time. This
+	 * is 23:59:59.999 unless the local time is changed at midnight.
+	 */
+	public long getEndOfDay(long time) {
+		return getDay(time).end - 1;
+	}
+
+	/**
+	 * Adds whole months to a time. The time of day is kept; if the day of
+	 * month does not exist in the target month, the last day of that month is
+	 * used.
+	 */
+	public long addMonths(long time, int months) {
+		if (months == 0)
+			return time;
+		Day day = getDay(time);
+		long monthIndex = day.year * 12L + (day.month - 1) + months;
+		int year = (int) floorDiv(monthIndex, 12);
+		int month = (int) (monthIndex - year * 12L) + 1;
+		int dayOfMonth = Math.min(day.dayOfMonth, getLengthOfMonth(year, month));
+		return toTime(daysFromCivil(year, month, dayOfMonth) * MILLIS_PER_DAY + getMillisOfDay(day, time));
+	}
+
+	/**
+	 * Gets the point in time for the specified local date and time. Like a
+	 * lenient Calendar, values outside the valid range roll over into the
+	 * neighboring units (e.g. month 0 is December of the previous year).
+	 * Local times skipped by a daylight saving transition are moved forward;
+	 * ambiguous local times resolve to standard time.
+	 * 
+	 * @param month
+	 *            The month (1-12).
+	 */
+	public long getTime(int year, int month, int dayOfMonth, long millisOfDay) {
+		long monthIndex = year * 12L + (month - 1);
+		int normalizedYear = (int) floorDiv(monthIndex, 12);
+		int normalizedMonth = (int) (monthIndex - normalizedYear * 12L) + 1;
+		long epochDay = daysFromCivil(normalizedYear, normalizedMonth, 1) + (dayOfMonth - 1);
+		return toTime(epochDay * MILLIS_PER_DAY + millisOfDay);
+	}
+
+	/**
+	 * Formats the time as ISO date and time (yyyy-MM-ddTHH:mm:ss), with
+	 * milliseconds if they are not zero.
+	 */
+	public String toIsoString(long time) {
+		Day day = getDay(time);
+		int millisOfDay = getMillisOfDay(day, time);
+		StringBuilder b = new StringBuilder(23);
+		appendPadded(b, day.year, 4);
+		b.append('-');
+		appendPadded(b, day.month, 2);
+		b.append('-');
+		appendPadded(b, day.dayOfMonth, 2);
+		b.append('T');
+		appendPadded(b, millisOfDay / (60 * 60 * 1000), 2);
+		b.append(':');
+		appendPadded(b, millisOfDay / (60 * 1000) % 60, 2);
+		b.append(':');
+		appendPadded(b, millisOfDay / 1000 % 60, 2);
+		if (millisOfDay % 1000 != 0) {
+			b.append('.');
+			appendPadded(b, millisOfDay % 1000, 3);
+		}
+		return b.toString();
+	}
+
+	private static void appendPadded(StringBuilder b, int value, int digits) {
+		if (value < 0) {
+			b.append('-');
+			value = -value;
+		}
+		for (int limit = 10; digits > 1; digits--, limit *= 10) {
+			if (value < limit)
+				b.append('0');
+		}
+		b.append(value);
+	}
+
+	/** Gets the number of days in the month. */
+	public static int getLengthOfMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			return isLeapYear(year) ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	public static boolean isLeapYear(int year) {
+		return (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+	}
+
+	private Day getDay(long time) {
+		int slot = (int) floorDiv(time, MILLIS_PER_DAY) & (CACHE_SIZE - 1);
+		Day day = dayCache[slot];
+		if (day == null || time < day.start || time >= day.end) {
+			day = createDay(time);
+			dayCache[slot] = day;
+		}
+		return day;
+	}
+
+	/** Gets the UTC offset at the specified time. */
+	public int getOffset(long time) {
+		if (transitions == null || time < TABLE_START || time >= TABLE_END)
+			return zone.getOffset(time);
+		int pos = Arrays.binarySearch(transitions, time);
+		return offsets[pos >= 0 ? pos + 1 : -pos - 1];
+	}
+
+	/** The variants of the calendar-dependent operators for this time zone. */
+	static final class Operators {
+		final BinaryOperator add, sub, after, before, withinSameDay;
+		final TernaryOperator withinSurrounding;
+
+		Operators(CivilTime calendar) {
+			add = new BinaryOperator.AddOperator(calendar);
+			sub = new BinaryOperator.SubOperator(calendar);
+			after = new BinaryOperator.AfterOperator(calendar);
+			before = new BinaryOperator.BeforeOperator(calendar);
+			withinSameDay = new BinaryOperator.WithinSameDayOperator(calendar);
+			withinSurrounding = new TernaryOperator.WithinSurroundingOperator(calendar);
+		}
+	}
+
+	Operators getOperators() {
+		Operators o = operators;
+		if (o == null)
+			operators = o = new Operators(this);
+		return o;
+	}
+
+	private Day createDay(long time) {
+		long epochDay = floorDiv(time + getOffset(time), MILLIS_PER_DAY);
+		long start = getFirstTimeAtOrAfter(epochDay * MILLIS_PER_DAY, (epochDay - 1) * MILLIS_PER_DAY);
+		// If the clock is set back over midnight, the local times after the
+		// transition belong to the previous day again; the entry ends at the
+		// next midnight after the requested time.
+		long end = getFirstTimeAtOrAfter((epochDay + 1) * MILLIS_PER_DAY, time);
+		int offset = getOffset(start);
+		boolean uniformOffset = (offset == getOffset(end - 1));
+		return new Day(epochDay, start, end, civilFromDays(epochDay), uniformOffset, offset);
+	}
+
+	private int getMillisOfDay(Day day, long time) {
+		int offset = day.uniformOffset ? day.offset : getOffset(time);
+		return (int) (time + offset - day.epochDay * MILLIS_PER_DAY);
+	}
+
+	/**
+	 * Gets the earliest point in time not before 'from' at which the local
+	 * time is at least the specified local time. Unlike toTime(), this
+	 * resolves an ambiguous local time to its first occurrence.
+	 * 
+	 * @param local
+	 *            Local milliseconds since 1.1.1970, midnight
+	 */
+	private long getFirstTimeAtOrAfter(long local, long from) {
+		// UTC offsets are less than a day, so the result is before 'limit'
+		long limit = Math.max(from, local) + MILLIS_PER_DAY;
+		long time = from;
+		while (time < limit) {
+			// the offset is constant between time and next
+			long next = getNextTransition(time, limit);
+			long candidate = Math.max(time, local - getOffset(time));
+			if (candidate < next)
+				return candidate;
+			time = next;
+		}
+		return toTime(local);
+	}
+
+	/**
+	 * Gets the first point in time after the specified time at which the UTC
+	 * offset changes, or limit if the offset does not change before limit.
+	 */
+	private long getNextTransition(long time, long limit) {
+		if (transitions == null || time < TABLE_START || limit >= TABLE_END)
+			return findTransition(zone, time, limit);
+		int pos = Arrays.binarySearch(transitions, time);
+		pos = pos >= 0 ? pos + 1 : -pos - 1;
+		return pos < transitions.length ? Math.min(transitions[pos], limit) : limit;
+	}
+
+	/** Converts local milliseconds since 1.1.1970, midnight to a point in time. */
+	private long toTime(long local) {
+		int offset = getOffset(local - zone.getRawOffset());
+		long time = local - offset;
+		int actualOffset = getOffset(time);
+		if (actualOffset != offset) {
+			long adjusted = local - actualOffset;
+			if (getOffset(adjusted) == actualOffset) {
+				time = adjusted;
+			} else {
+				// the local time was skipped by a transition: move forward
+				time = local - Math.min(offset, actualOffset);
+			}
+		}
+		return time;
+	}
+
+	private static long floorDiv(long a, long b) {
+		long q = a / b;
+		if ((a % b != 0) && ((a < 0) != (b < 0)))
+			q--;
+		return q;
+	}
+
+	/** Gets the number of days since 1970-01-01. */
+	static long daysFromCivil(int year, int month, int dayOfMonth) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = floorDiv(y, 400);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + dayOfMonth - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * Gets the date for the number of days since 1970-01-01, packed into a
+	 * single int: year &lt;&lt; 9 | month &lt;&lt; 5 | day.
+	 */
+	static int civilFromDays(long epochDay) {
+		long z = epochDay + 719468;
+		long era = floorDiv(z, 146097);
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long mp = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+		return (year << 9) | (month << 5) | day;
+	}
+
+	static int getYear(int date) {
+		return date >> 9;
+	}
+
+	static int getMonth(int date) {
+		return (date >> 5) & 15;
+	}
+
+	static int getDayOfMonth(int date) {
+		return date & 31;
+	}
+}
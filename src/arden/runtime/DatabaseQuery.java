@@ -34,12 +34,16 @@ package arden.runtime;
  * execute(). These work by calling execute() and then processing the
  * constraints/aggregation on the results using a MemoryQuery.
  * 
+ * Implementations that want to evaluate constraints in the underlying store
+ * can use PlannedQuery, which collects all operations in a QueryPlan and
+ * passes the complete plan to a QuerySource on execute().
+ * 
  * @author Daniel Grunwald
  * 
  */
 public abstract class DatabaseQuery {
 	/** The database query that always returns an empty result (0 columns) */
-	public static final DatabaseQuery NULL = new MemoryQuery(ArdenList.EMPTY.values);
+	public static final DatabaseQuery NULL = new MemoryQuery(ArdenList.EMPTY.getElements());
 
 	/**
 	 * Executes the query.
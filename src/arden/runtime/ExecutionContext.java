@@ -27,7 +27,11 @@
 
 package arden.runtime;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
 
 /**
  * Describes the environment in which a Medical Logic Module is executed.
@@ -36,6 +40,8 @@ import java.util.Date;
  * 
  */
 public class ExecutionContext {
+	private CivilTime calendar = CivilTime.DEFAULT;
+
 	/**
 	 * Creates a database query using a mapping clause. The DatabaseQuery object
 	 * can be used to limit the number of results produced.
@@ -54,6 +60,27 @@ public class ExecutionContext {
 		return DatabaseQuery.NULL;
 	}
 
+	/**
+	 * Executes the unconstrained queries for several mapping clauses at once.
+	 * Used by PrefetchingContext to load the data of all MLMs that are executed
+	 * for a patient before any MLM runs.
+	 * 
+	 * The default implementation calls createQuery(mapping).execute() for
+	 * every mapping; data sources that can fetch several mappings in a single
+	 * round-trip should override this method.
+	 * 
+	 * @return Returns a map from the mapping clauses to the query results (see
+	 *         DatabaseQuery.execute()).
+	 */
+	public Map<String, ArdenValue[]> executeQueries(Collection<String> mappings) {
+		Map<String, ArdenValue[]> results = new HashMap<String, ArdenValue[]>();
+		for (String mapping : mappings) {
+			if (!results.containsKey(mapping))
+				results.put(mapping, createQuery(mapping).execute());
+		}
+		return results;
+	}
+
 	/** Gets a value represents the message of a MESSAGE variable. */
 	public ArdenValue getMessage(String mapping) {
 		return new ArdenString(mapping);
@@ -126,4 +153,23 @@ public class ExecutionContext {
 	public ArdenTime getCurrentTime() {
 		return new ArdenTime(new Date());
 	}
+
+	/**
+	 * Gets the calendar used for time zone dependent operations: adding
+	 * months, EXTRACT YEAR/MONTH/DAY/HOUR/MINUTE, formatting times with %t and
+	 * WITHIN SAME DAY AS. The default is the time zone of the JVM.
+	 */
+	public CivilTime getCalendar() {
+		return calendar;
+	}
+
+	/** Gets the time zone used for time zone dependent operations. */
+	public TimeZone getTimeZone() {
+		return getCalendar().getTimeZone();
+	}
+
+	/** Sets the time zone used for time zone dependent operations. */
+	public void setTimeZone(TimeZone zone) {
+		calendar = CivilTime.forZone(zone);
+	}
 }
@@ -30,9 +30,10 @@ package arden.runtime;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.PriorityQueue;
 import java.util.regex.Pattern;
 
 /**
@@ -52,8 +53,8 @@ public final class ExpressionHelpers {
 
 	/** implements the "x,y" operator */
 	public static ArdenList binaryComma(ArdenValue lhs, ArdenValue rhs) {
-		ArdenValue[] left = unaryComma(lhs).values;
-		ArdenValue[] right = unaryComma(rhs).values;
+		ArdenValue[] left = unaryComma(lhs).getElements();
+		ArdenValue[] right = unaryComma(rhs).getElements();
 		ArdenValue[] result = new ArdenValue[left.length + right.length];
 		System.arraycopy(left, 0, result, 0, left.length);
 		System.arraycopy(right, 0, result, left.length, right.length);
@@ -63,14 +64,15 @@ public final class ExpressionHelpers {
 	/** implements the SORT DATA operator */
 	public static ArdenValue sortByData(ArdenValue inputVal) {
 		ArdenList input = unaryComma(inputVal);
-		if (input.values.length == 0)
+		ArdenValue[] values = input.getElements();
+		if (values.length == 0)
 			return input;
 		// check whether all elements are comparable (also checks whether list
 		// is already sorted):
-		ArdenValue lastElement = input.values[0];
+		ArdenValue lastElement = values[0];
 		boolean alreadySorted = true;
-		for (int i = 1; i < input.values.length; i++) {
-			ArdenValue thisElement = input.values[i];
+		for (int i = 1; i < values.length; i++) {
+			ArdenValue thisElement = values[i];
 			int r = lastElement.compareTo(thisElement);
 			if (r == Integer.MIN_VALUE) {
 				// list contains non-ordered element types or invalid comparison
@@ -82,7 +84,7 @@ public final class ExpressionHelpers {
 		}
 		if (alreadySorted)
 			return input;
-		ArdenValue[] result = (ArdenValue[]) input.values.clone();
+		ArdenValue[] result = values.clone();
 		Arrays.sort(result, new Comparator<ArdenValue>() {
 			@Override
 			public int compare(ArdenValue o1, ArdenValue o2) {
@@ -95,14 +97,15 @@ public final class ExpressionHelpers {
 	/** implements the SORT TIME operator */
 	public static ArdenValue sortByTime(ArdenValue inputVal) {
 		ArdenList input = unaryComma(inputVal);
-		if (input.values.length == 0)
+		ArdenValue[] values = input.getElements();
+		if (values.length == 0)
 			return input;
 		// check whether all elements have a primary time:
-		for (ArdenValue val : input.values) {
+		for (ArdenValue val : values) {
 			if (val.primaryTime == ArdenValue.NOPRIMARYTIME)
 				return ArdenNull.INSTANCE;
 		}
-		ArdenValue[] result = (ArdenValue[]) input.values.clone();
+		ArdenValue[] result = values.clone();
 		Arrays.sort(result, new Comparator<ArdenValue>() {
 			@Override
 			public int compare(ArdenValue o1, ArdenValue o2) {
@@ -120,7 +123,7 @@ public final class ExpressionHelpers {
 	/** implements the WHERE operator */
 	public static ArdenValue where(ArdenValue sequence, ArdenValue condition) {
 		if (condition instanceof ArdenList) {
-			ArdenValue[] conditionValues = ((ArdenList) condition).values;
+			ArdenValue[] conditionValues = ((ArdenList) condition).getElements();
 			int numTrue = 0;
 			for (ArdenValue cond : conditionValues) {
 				if (cond.isTrue())
@@ -128,7 +131,7 @@ public final class ExpressionHelpers {
 			}
 			ArdenValue[] result = new ArdenValue[numTrue];
 			if (sequence instanceof ArdenList) {
-				ArdenValue[] sequenceValues = ((ArdenList) sequence).values;
+				ArdenValue[] sequenceValues = ((ArdenList) sequence).getElements();
 				if (conditionValues.length != sequenceValues.length)
 					return ArdenNull.INSTANCE;
 				int pos = 0;
@@ -149,9 +152,27 @@ public final class ExpressionHelpers {
 		}
 	}
 
+	/**
+	 * Implements "sequence WHERE sequence op rhs" (and "sequence WHERE IT op
+	 * rhs") for a comparison operator, without creating the list of condition
+	 * values.
+	 */
+	public static ArdenValue whereCompare(ArdenValue sequence, BinaryOperator op, ArdenValue rhs) {
+		if (!(sequence instanceof ArdenList) || rhs instanceof ArdenList)
+			return where(sequence, op.run(sequence, rhs));
+		ArdenValue[] sequenceValues = ((ArdenList) sequence).getElements();
+		ArdenValue[] result = new ArdenValue[sequenceValues.length];
+		int pos = 0;
+		for (ArdenValue val : sequenceValues) {
+			if (op.runElement(val, rhs).isTrue())
+				result[pos++] = val;
+		}
+		return new ArdenList(Arrays.copyOf(result, pos));
+	}
+
 	/** implements the COUNT OF operator */
 	public static ArdenValue count(ArdenValue sequence) {
-		return new ArdenNumber(unaryComma(sequence).values.length);
+		return new ArdenNumber(unaryComma(sequence).size());
 	}
 
 	static long getCommonTime(ArdenValue[] items) {
@@ -165,11 +186,22 @@ public final class ExpressionHelpers {
 		return time;
 	}
 
+	static long getCommonTime(long[] times) {
+		if (times.length == 0)
+			return ArdenValue.NOPRIMARYTIME;
+		long time = times[0];
+		for (int i = 1; i < times.length; i++) {
+			if (times[i] != time)
+				return ArdenValue.NOPRIMARYTIME;
+		}
+		return time;
+	}
+
 	/** implements the EXIST operator */
 	public static ArdenValue exist(ArdenValue sequence) {
 		ArdenList input = unaryComma(sequence);
-		long primaryTime = getCommonTime(input.values);
-		for (ArdenValue val : input.values) {
+		long primaryTime = getCommonTime(input.getElements());
+		for (ArdenValue val : input.getElements()) {
 			if (!(val instanceof ArdenNull))
 				return ArdenBoolean.create(true, primaryTime);
 		}
@@ -179,21 +211,30 @@ public final class ExpressionHelpers {
 	/** implements the SUM operator */
 	public static ArdenValue sum(ArdenValue sequence) {
 		ArdenList input = unaryComma(sequence);
-		if (input.values.length == 0)
+		if (input.size() == 0)
 			return ArdenNumber.ZERO;
-		ArdenValue val = input.values[0];
-		for (int i = 1; i < input.values.length; i++) {
-			val = BinaryOperator.ADD.runElement(val, input.values[i]);
+		if (input.isNumberList()) {
+			double sum = 0;
+			for (double d : input.numbers)
+				sum += d;
+			return ArdenNumber.create(sum, getCommonTime(input.numberTimes));
+		}
+		ArdenValue[] values = input.getElements();
+		ArdenValue val = values[0];
+		for (int i = 1; i < values.length; i++) {
+			val = BinaryOperator.ADD.runElement(val, values[i]);
 		}
 		return val;
 	}
 
 	/** implements the MEDIAN operator */
 	public static ArdenValue median(ArdenValue sequence) {
+		if (sequence instanceof ArdenList && ((ArdenList) sequence).isNumberList())
+			return median((ArdenList) sequence);
 		ArdenValue sorted = sortByData(sequence);
 		if (!(sorted instanceof ArdenList))
 			return sorted; // error during sorting
-		ArdenValue[] values = ((ArdenList) sorted).values;
+		ArdenValue[] values = ((ArdenList) sorted).getElements();
 		if (values.length == 0) {
 			return ArdenNull.INSTANCE;
 		} else if ((values.length % 2) == 1) {
@@ -203,9 +244,55 @@ public final class ExpressionHelpers {
 		}
 	}
 
+	/** MEDIAN operator implementation for packed number lists */
+	private static ArdenValue median(ArdenList input) {
+		double[] numbers = input.numbers;
+		if (numbers.length == 0)
+			return ArdenNull.INSTANCE;
+		double[] sorted = numbers.clone();
+		Arrays.sort(sorted);
+		int middle = numbers.length / 2;
+		if ((numbers.length % 2) == 1) {
+			return getElementWithRank(input, sorted, middle);
+		} else {
+			ArdenValue lower = getElementWithRank(input, sorted, middle - 1);
+			ArdenValue upper = getElementWithRank(input, sorted, middle);
+			return average(binaryComma(lower, upper));
+		}
+	}
+
+	/**
+	 * Gets the element of a packed number list that is at the specified
+	 * position after a stable sort. Elements with equal value keep their order,
+	 * so the primary time is the same that sortByData() would produce.
+	 */
+	private static ArdenValue getElementWithRank(ArdenList input, double[] sorted, int rank) {
+		double value = sorted[rank];
+		int smallerElements = 0;
+		for (double d : input.numbers) {
+			if (d < value)
+				smallerElements++;
+		}
+		int occurrence = rank - smallerElements;
+		for (int i = 0; i < input.numbers.length; i++) {
+			if (input.numbers[i] == value && occurrence-- == 0)
+				return ArdenNumber.create(input.numbers[i], input.numberTimes[i]);
+		}
+		throw new Error("algorithm error.");
+	}
+
 	/** implements the AVERAGE operator */
 	public static ArdenValue average(ArdenValue sequence) {
-		ArdenValue[] values = unaryComma(sequence).values;
+		ArdenList input = unaryComma(sequence);
+		if (input.isNumberList()) {
+			if (input.numbers.length == 0)
+				return ArdenNull.INSTANCE;
+			double sum = 0;
+			for (double d : input.numbers)
+				sum += d;
+			return ArdenNumber.create(sum / input.numbers.length, getCommonTime(input.numberTimes));
+		}
+		ArdenValue[] values = input.getElements();
 		if (values.length == 0)
 			return ArdenNull.INSTANCE;
 		if (values[0] instanceof ArdenNumber) {
@@ -249,7 +336,10 @@ public final class ExpressionHelpers {
 
 	/** implements the VARIANCE operator */
 	public static ArdenValue variance(ArdenValue sequence) {
-		ArdenValue[] values = unaryComma(sequence).values;
+		ArdenList input = unaryComma(sequence);
+		if (input.isNumberList())
+			return variance(input.numbers, input.numberTimes);
+		ArdenValue[] values = input.getElements();
 		if (values.length < 2)
 			return ArdenNull.INSTANCE;
 		double sum = 0;
@@ -269,11 +359,28 @@ public final class ExpressionHelpers {
 		return ArdenNumber.create(variance, getCommonTime(values));
 	}
 
+	/** VARIANCE operator implementation for packed number lists */
+	private static ArdenValue variance(double[] numbers, long[] numberTimes) {
+		if (numbers.length < 2)
+			return ArdenNull.INSTANCE;
+		double sum = 0;
+		for (double d : numbers)
+			sum += d;
+		double avg = sum / numbers.length;
+		double diffsum = 0;
+		for (double d : numbers) {
+			double diff = avg - d;
+			diffsum += diff * diff;
+		}
+		double variance = diffsum / (numbers.length - 1);
+		return ArdenNumber.create(variance, getCommonTime(numberTimes));
+	}
+
 	/** implements the IS IN operator */
 	public static ArdenValue isIn(ArdenValue lhs, ArdenValue rhs) {
-		ArdenValue[] list = unaryComma(rhs).values;
+		ArdenValue[] list = unaryComma(rhs).getElements();
 		if (lhs instanceof ArdenList) {
-			ArdenValue[] left = ((ArdenList) lhs).values;
+			ArdenValue[] left = ((ArdenList) lhs).getElements();
 			ArdenValue[] result = new ArdenValue[left.length];
 			for (int i = 0; i < left.length; i++)
 				result[i] = isIn(left[i], list);
@@ -316,7 +423,7 @@ public final class ExpressionHelpers {
 
 	/** implements the SEQTO operator */
 	public static ArdenValue reverse(ArdenValue input) {
-		ArdenValue[] inputs = unaryComma(input).values;
+		ArdenValue[] inputs = unaryComma(input).getElements();
 		ArdenValue[] result = new ArdenValue[inputs.length];
 		for (int i = 0; i < result.length; i++)
 			result[i] = inputs[inputs.length - i - 1];
@@ -325,7 +432,7 @@ public final class ExpressionHelpers {
 
 	/** implements the INCREASE operator */
 	public static ArdenValue increase(ArdenValue input) {
-		ArdenValue[] inputs = unaryComma(input).values;
+		ArdenValue[] inputs = unaryComma(input).getElements();
 		if (inputs.length == 0)
 			return ArdenNull.INSTANCE;
 		if (!(inputs[0] instanceof ArdenNumber || inputs[0] instanceof ArdenDuration || inputs[0] instanceof ArdenTime))
@@ -341,7 +448,7 @@ public final class ExpressionHelpers {
 
 	/** implements the PERCENT INCREASE operator */
 	public static ArdenValue percentIncrease(ArdenValue input) {
-		ArdenValue[] inputs = unaryComma(input).values;
+		ArdenValue[] inputs = unaryComma(input).getElements();
 		if (inputs.length == 0)
 			return ArdenNull.INSTANCE;
 		if (!(inputs[0] instanceof ArdenNumber || inputs[0] instanceof ArdenDuration))
@@ -359,7 +466,10 @@ public final class ExpressionHelpers {
 
 	/** implements the SLOPE operator */
 	public static ArdenValue slope(ArdenValue input) {
-		ArdenValue[] inputs = unaryComma(input).values;
+		ArdenList inputList = unaryComma(input);
+		if (inputList.isNumberList())
+			return slope(inputList.numbers, inputList.numberTimes);
+		ArdenValue[] inputs = inputList.getElements();
 		if (inputs.length < 2)
 			return ArdenNull.INSTANCE;
 		// linear regression through (x=primaryTime/y=value) points
@@ -384,10 +494,35 @@ public final class ExpressionHelpers {
 		return ArdenNumber.create(z / n, ArdenValue.NOPRIMARYTIME);
 	}
 
+	/** SLOPE operator implementation for packed number lists */
+	private static ArdenValue slope(double[] numbers, long[] numberTimes) {
+		if (numbers.length < 2)
+			return ArdenNull.INSTANCE;
+		double avgX = 0;
+		double avgY = 0;
+		for (int i = 0; i < numbers.length; i++) {
+			if (numberTimes[i] == ArdenValue.NOPRIMARYTIME)
+				return ArdenNull.INSTANCE;
+			avgX += numberTimes[i] / 86000000.0; // x in days
+			avgY += numbers[i];
+		}
+		avgX /= numbers.length;
+		avgY /= numbers.length;
+		double z = 0;
+		double n = 0;
+		for (int i = 0; i < numbers.length; i++) {
+			double x = numberTimes[i] / 86000000.0;
+			double y = numbers[i];
+			z += (x - avgX) * (y - avgY);
+			n += (x - avgX) * (x - avgX);
+		}
+		return ArdenNumber.create(z / n, ArdenValue.NOPRIMARYTIME);
+	}
+
 	/** Implements the IS LIST operator. */
 	public static ArdenBoolean isList(ArdenValue input) {
 		if (input instanceof ArdenList) {
-			return ArdenBoolean.create(true, getCommonTime(((ArdenList) input).values));
+			return ArdenBoolean.create(true, getCommonTime(((ArdenList) input).getElements()));
 		} else {
 			return ArdenBoolean.create(false, input.primaryTime);
 		}
@@ -395,7 +530,7 @@ public final class ExpressionHelpers {
 
 	/** Implements the FIRST aggregation operator. */
 	public static ArdenValue first(ArdenValue input) {
-		ArdenValue[] arr = unaryComma(input).values;
+		ArdenValue[] arr = unaryComma(input).getElements();
 		if (arr.length == 0)
 			return ArdenNull.INSTANCE;
 		else
@@ -404,7 +539,7 @@ public final class ExpressionHelpers {
 
 	/** Implements the LAST aggregation operator. */
 	public static ArdenValue last(ArdenValue input) {
-		ArdenValue[] arr = unaryComma(input).values;
+		ArdenValue[] arr = unaryComma(input).getElements();
 		if (arr.length == 0)
 			return ArdenNull.INSTANCE;
 		else
@@ -414,26 +549,100 @@ public final class ExpressionHelpers {
 	/** Implements the FIRST transformation operator. */
 	public static ArdenValue first(ArdenValue input, int numberOfElements) {
 		ArdenList inputList = unaryComma(input);
-		if (numberOfElements >= inputList.values.length)
+		if (numberOfElements >= inputList.size())
 			return inputList;
 		ArdenValue[] result = new ArdenValue[numberOfElements];
-		System.arraycopy(inputList.values, 0, result, 0, numberOfElements);
+		System.arraycopy(inputList.getElements(), 0, result, 0, numberOfElements);
 		return new ArdenList(result);
 	}
 
 	/** Implements the LAST transformation operator. */
 	public static ArdenValue last(ArdenValue input, int numberOfElements) {
 		ArdenList inputList = unaryComma(input);
-		if (numberOfElements >= inputList.values.length)
+		if (numberOfElements >= inputList.size())
 			return inputList;
 		ArdenValue[] result = new ArdenValue[numberOfElements];
-		System.arraycopy(inputList.values, inputList.values.length - numberOfElements, result, 0, numberOfElements);
+		System.arraycopy(inputList.getElements(), inputList.size() - numberOfElements, result, 0, numberOfElements);
+		return new ArdenList(result);
+	}
+
+	/**
+	 * Implements "FIRST n FROM SORT DATA input" without sorting the whole
+	 * input.
+	 */
+	public static ArdenValue firstSortedByData(ArdenValue input, int numberOfElements) {
+		return selectSortedByData(input, numberOfElements, true);
+	}
+
+	/**
+	 * Implements "LAST n FROM SORT DATA input" without sorting the whole
+	 * input.
+	 */
+	public static ArdenValue lastSortedByData(ArdenValue input, int numberOfElements) {
+		return selectSortedByData(input, numberOfElements, false);
+	}
+
+	/**
+	 * Selects the smallest or largest elements using a heap bounded to
+	 * numberOfElements. Equal elements are ordered by their position, as in the
+	 * stable sort used by sortByData(), so the result is identical to
+	 * first()/last() applied to sortByData().
+	 */
+	private static ArdenValue selectSortedByData(ArdenValue input, int numberOfElements, boolean smallest) {
+		final ArdenValue[] values = unaryComma(input).getElements();
+		if (numberOfElements >= values.length) {
+			ArdenValue sorted = sortByData(input);
+			return smallest ? first(sorted, numberOfElements) : last(sorted, numberOfElements);
+		}
+		// check comparability like sortByData()
+		boolean alreadySorted = true;
+		for (int i = 1; i < values.length; i++) {
+			int r = values[i - 1].compareTo(values[i]);
+			if (r == Integer.MIN_VALUE) {
+				ArdenValue sorted = ArdenNull.INSTANCE;
+				return smallest ? first(sorted, numberOfElements) : last(sorted, numberOfElements);
+			} else if (r >= 0) {
+				alreadySorted = false;
+			}
+		}
+		if (alreadySorted)
+			return smallest ? first(input, numberOfElements) : last(input, numberOfElements);
+		if (numberOfElements == 0)
+			return ArdenList.EMPTY;
+
+		// order of the elements in the sorted list
+		final Comparator<Integer> order = new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				int r = values[o1].compareTo(values[o2]);
+				return (r != 0) ? r : o1.compareTo(o2);
+			}
+		};
+		// the heap's head is the selected element that would be dropped first
+		PriorityQueue<Integer> heap = new PriorityQueue<Integer>(numberOfElements, smallest ? Collections
+				.reverseOrder(order) : order);
+		for (int i = 0; i < values.length; i++) {
+			if (heap.size() < numberOfElements) {
+				heap.add(i);
+			} else {
+				int r = order.compare(i, heap.peek());
+				if (smallest ? r < 0 : r > 0) {
+					heap.poll();
+					heap.add(i);
+				}
+			}
+		}
+		Integer[] selected = heap.toArray(new Integer[numberOfElements]);
+		Arrays.sort(selected, order);
+		ArdenValue[] result = new ArdenValue[numberOfElements];
+		for (int i = 0; i < numberOfElements; i++)
+			result[i] = values[selected[i]];
 		return new ArdenList(result);
 	}
 
 	/** Implements the INDEX MINIMUM aggregation operator. */
 	public static ArdenValue indexMinimum(ArdenValue input) {
-		ArdenValue[] arr = unaryComma(input).values;
+		ArdenValue[] arr = unaryComma(input).getElements();
 		if (arr.length == 0)
 			return ArdenNull.INSTANCE;
 		int min = 0;
@@ -449,7 +658,7 @@ public final class ExpressionHelpers {
 
 	/** Implements the INDEX MINIMUM transformation operator. */
 	public static ArdenValue indexMinimum(ArdenValue input, int numberOfElements) {
-		ArdenValue[] arr = unaryComma(input).values;
+		ArdenValue[] arr = unaryComma(input).getElements();
 		ArdenValue sortedInput = sortByData(input);
 		if (!(sortedInput instanceof ArdenList))
 			return ArdenNull.INSTANCE;
@@ -458,7 +667,7 @@ public final class ExpressionHelpers {
 		if (numberOfElements == 0)
 			return ArdenList.EMPTY;
 		ArdenValue[] output = new ArdenValue[numberOfElements];
-		ArdenValue pivot = ((ArdenList) sortedInput).values[numberOfElements - 1];
+		ArdenValue pivot = ((ArdenList) sortedInput).getElements()[numberOfElements - 1];
 		int pos = 0;
 		for (int i = 0; i < arr.length; i++) {
 			if (arr[i].compareTo(pivot) <= 0) {
@@ -474,7 +683,7 @@ public final class ExpressionHelpers {
 
 	/** Implements the INDEX MAXIMUM aggregation operator. */
 	public static ArdenValue indexMaximum(ArdenValue input) {
-		ArdenValue[] arr = unaryComma(input).values;
+		ArdenValue[] arr = unaryComma(input).getElements();
 		if (arr.length == 0)
 			return ArdenNull.INSTANCE;
 		int max = 0;
@@ -490,7 +699,7 @@ public final class ExpressionHelpers {
 
 	/** Implements the INDEX MAXIMUM transformation operator. */
 	public static ArdenValue indexMaximum(ArdenValue input, int numberOfElements) {
-		ArdenValue[] arr = unaryComma(input).values;
+		ArdenValue[] arr = unaryComma(input).getElements();
 		ArdenValue sortedInput = sortByData(input);
 		if (!(sortedInput instanceof ArdenList))
 			return ArdenNull.INSTANCE;
@@ -499,7 +708,7 @@ public final class ExpressionHelpers {
 		if (numberOfElements == 0)
 			return ArdenList.EMPTY;
 		ArdenValue[] output = new ArdenValue[numberOfElements];
-		ArdenValue pivot = ((ArdenList) sortedInput).values[arr.length - numberOfElements];
+		ArdenValue pivot = ((ArdenList) sortedInput).getElements()[arr.length - numberOfElements];
 		int pos = 0;
 		for (int i = 0; i < arr.length; i++) {
 			if (arr[i].compareTo(pivot) >= 0) {
@@ -515,7 +724,7 @@ public final class ExpressionHelpers {
 
 	/** Implements the INDEX EARLIEST aggregation operator. */
 	public static ArdenValue indexEarliest(ArdenValue input) {
-		ArdenValue[] arr = unaryComma(input).values;
+		ArdenValue[] arr = unaryComma(input).getElements();
 		if (arr.length == 0 || arr[0].primaryTime == ArdenValue.NOPRIMARYTIME)
 			return ArdenNull.INSTANCE;
 		int best = 0;
@@ -530,7 +739,7 @@ public final class ExpressionHelpers {
 
 	/** Implements the INDEX EARLIEST transformation operator. */
 	public static ArdenValue indexEarliest(ArdenValue input, int numberOfElements) {
-		ArdenValue[] arr = unaryComma(input).values;
+		ArdenValue[] arr = unaryComma(input).getElements();
 		ArdenValue sortedInput = sortByTime(input);
 		if (!(sortedInput instanceof ArdenList))
 			return ArdenNull.INSTANCE;
@@ -539,10 +748,18 @@ public final class ExpressionHelpers {
 		if (numberOfElements == 0)
 			return ArdenList.EMPTY;
 		ArdenValue[] output = new ArdenValue[numberOfElements];
-		ArdenValue pivot = ((ArdenList) sortedInput).values[numberOfElements - 1];
+		ArdenValue pivot = ((ArdenList) sortedInput).getElements()[numberOfElements - 1];
+		// all elements strictly earlier than the pivot are part of the result;
+		// the remaining places are filled with elements at the pivot time
+		int remainingAtPivot = numberOfElements;
+		for (int i = 0; i < arr.length; i++) {
+			if (arr[i].primaryTime < pivot.primaryTime)
+				remainingAtPivot--;
+		}
 		int pos = 0;
 		for (int i = 0; i < arr.length; i++) {
-			if (arr[i].primaryTime <= pivot.primaryTime) {
+			if (arr[i].primaryTime < pivot.primaryTime
+					|| (arr[i].primaryTime == pivot.primaryTime && remainingAtPivot-- > 0)) {
 				output[pos++] = ArdenNumber.create(i + 1, ArdenValue.NOPRIMARYTIME);
 				if (pos == numberOfElements)
 					break;
@@ -555,7 +772,7 @@ public final class ExpressionHelpers {
 
 	/** Implements the INDEX LATEST aggregation operator. */
 	public static ArdenValue indexLatest(ArdenValue input) {
-		ArdenValue[] arr = unaryComma(input).values;
+		ArdenValue[] arr = unaryComma(input).getElements();
 		if (arr.length == 0 || arr[0].primaryTime == ArdenValue.NOPRIMARYTIME)
 			return ArdenNull.INSTANCE;
 		int best = 0;
@@ -570,7 +787,7 @@ public final class ExpressionHelpers {
 
 	/** Implements the INDEX LATEST transformation operator. */
 	public static ArdenValue indexLatest(ArdenValue input, int numberOfElements) {
-		ArdenValue[] arr = unaryComma(input).values;
+		ArdenValue[] arr = unaryComma(input).getElements();
 		ArdenValue sortedInput = sortByTime(input);
 		if (!(sortedInput instanceof ArdenList))
 			return ArdenNull.INSTANCE;
@@ -579,10 +796,18 @@ public final class ExpressionHelpers {
 		if (numberOfElements == 0)
 			return ArdenList.EMPTY;
 		ArdenValue[] output = new ArdenValue[numberOfElements];
-		ArdenValue pivot = ((ArdenList) sortedInput).values[arr.length - numberOfElements];
+		ArdenValue pivot = ((ArdenList) sortedInput).getElements()[arr.length - numberOfElements];
+		// all elements strictly later than the pivot are part of the result;
+		// the remaining places are filled with elements at the pivot time
+		int remainingAtPivot = numberOfElements;
+		for (int i = 0; i < arr.length; i++) {
+			if (arr[i].primaryTime > pivot.primaryTime)
+				remainingAtPivot--;
+		}
 		int pos = 0;
 		for (int i = 0; i < arr.length; i++) {
-			if (arr[i].primaryTime <= pivot.primaryTime) {
+			if (arr[i].primaryTime > pivot.primaryTime
+					|| (arr[i].primaryTime == pivot.primaryTime && remainingAtPivot-- > 0)) {
 				output[pos++] = ArdenNumber.create(i + 1, ArdenValue.NOPRIMARYTIME);
 				if (pos == numberOfElements)
 					break;
@@ -595,7 +820,7 @@ public final class ExpressionHelpers {
 
 	/** Implements the INDEX NEAREST operator. */
 	public static ArdenValue indexNearest(ArdenValue time, ArdenValue input) {
-		ArdenValue[] arr = unaryComma(input).values;
+		ArdenValue[] arr = unaryComma(input).getElements();
 		if (arr.length == 0 || arr[0].primaryTime == ArdenValue.NOPRIMARYTIME || !(time instanceof ArdenTime))
 			return ArdenNull.INSTANCE;
 		long inputTime = ((ArdenTime) time).value;
@@ -615,9 +840,9 @@ public final class ExpressionHelpers {
 
 	/** implements the [] (element) operator */
 	public static ArdenValue elementAt(ArdenValue list, ArdenValue index) {
-		ArdenValue[] values = unaryComma(list).values;
+		ArdenValue[] values = unaryComma(list).getElements();
 		if (index instanceof ArdenList) {
-			ArdenValue[] indices = ((ArdenList) index).values;
+			ArdenValue[] indices = ((ArdenList) index).getElements();
 			ArdenValue[] result = new ArdenValue[indices.length];
 			for (int i = 0; i < indices.length; i++) {
 				int val = RuntimeHelpers.getPrimitiveIntegerValue(indices[i]);
@@ -638,9 +863,9 @@ public final class ExpressionHelpers {
 	/** implements the ANY operator */
 	public static ArdenValue any(ArdenValue sequence) {
 		ArdenList input = unaryComma(sequence);
-		long primaryTime = getCommonTime(input.values);
+		long primaryTime = getCommonTime(input.getElements());
 		boolean allFalse = true;
-		for (ArdenValue val : input.values) {
+		for (ArdenValue val : input.getElements()) {
 			if (val.isTrue())
 				return ArdenBoolean.create(true, primaryTime);
 			allFalse &= val.isFalse();
@@ -654,9 +879,9 @@ public final class ExpressionHelpers {
 	/** implements the ALL operator */
 	public static ArdenValue all(ArdenValue sequence) {
 		ArdenList input = unaryComma(sequence);
-		long primaryTime = getCommonTime(input.values);
+		long primaryTime = getCommonTime(input.getElements());
 		boolean allTrue = true;
-		for (ArdenValue val : input.values) {
+		for (ArdenValue val : input.getElements()) {
 			if (val.isFalse())
 				return ArdenBoolean.create(false, primaryTime);
 			allTrue &= val.isTrue();
@@ -669,7 +894,7 @@ public final class ExpressionHelpers {
 
 	public static ArdenValue createDuration(ArdenValue val, double multiplier, boolean isMonths) {
 		if (val instanceof ArdenList) {
-			ArdenValue[] inputs = ((ArdenList) val).values;
+			ArdenValue[] inputs = ((ArdenList) val).getElements();
 			ArdenValue[] results = new ArdenValue[inputs.length];
 			for (int i = 0; i < inputs.length; i++)
 				results[i] = createDuration(inputs[i], multiplier, isMonths);
@@ -681,19 +906,43 @@ public final class ExpressionHelpers {
 		}
 	}
 
+	/**
+	 * Gets the value of a number for unboxed arithmetic. Returns NaN, which
+	 * represents null in unboxed code, for all other values.
+	 */
+	public static double unboxNumber(ArdenValue val) {
+		if (val instanceof ArdenNumber)
+			return ((ArdenNumber) val).value;
+		else
+			return Double.NaN;
+	}
+
+	/**
+	 * Replaces infinite results of unboxed arithmetic with NaN, because
+	 * ArdenNumber.create() turns both into null.
+	 */
+	public static double checkUnboxedResult(double val) {
+		if (Double.isInfinite(val))
+			return Double.NaN;
+		else
+			return val;
+	}
+
+	/** Used by MLMs compiled before the time zone of the context was supported. */
+	@Deprecated
 	public static ArdenValue extractTimeComponent(ArdenValue time, int component) {
+		return extractTimeComponent(time, component, CivilTime.DEFAULT);
+	}
+
+	public static ArdenValue extractTimeComponent(ArdenValue time, int component, CivilTime calendar) {
 		if (time instanceof ArdenList) {
-			ArdenValue[] inputs = ((ArdenList) time).values;
+			ArdenValue[] inputs = ((ArdenList) time).getElements();
 			ArdenValue[] results = new ArdenValue[inputs.length];
 			for (int i = 0; i < inputs.length; i++)
-				results[i] = extractTimeComponent(inputs[i], component);
+				results[i] = extractTimeComponent(inputs[i], component, calendar);
 			return new ArdenList(results);
 		} else if (time instanceof ArdenTime) {
-			GregorianCalendar c = new GregorianCalendar();
-			c.setTimeInMillis(((ArdenTime) time).value);
-			int val = c.get(component);
-			if (component == GregorianCalendar.MONTH)
-				val++;
+			int val = calendar.getField(((ArdenTime) time).value, component);
 			return ArdenNumber.create(val, time.primaryTime);
 		} else {
 			return ArdenNull.create(time.primaryTime);
@@ -716,7 +965,7 @@ public final class ExpressionHelpers {
 	/** implements the STRING... operator */
 	public static ArdenString joinString(ArdenValue input) {
 		StringBuilder b = new StringBuilder();
-		for (ArdenValue val : unaryComma(input).values) {
+		for (ArdenValue val : unaryComma(input).getElements()) {
 			b.append(toString(val));
 		}
 		return new ArdenString(b.toString());
@@ -725,7 +974,7 @@ public final class ExpressionHelpers {
 	/** implements the EXTRACT CHARACTERS operator */
 	public static ArdenList extractCharacters(ArdenValue input) {
 		ArrayList<String> strings = new ArrayList<String>();
-		for (ArdenValue val : unaryComma(input).values) {
+		for (ArdenValue val : unaryComma(input).getElements()) {
 			String txt = toString(val);
 			for (int i = 0; i < txt.length(); i++)
 				strings.add(txt.substring(i, i + 1));
@@ -739,7 +988,7 @@ public final class ExpressionHelpers {
 	/** implements the TRIM operator */
 	public static ArdenValue trim(ArdenValue input) {
 		if (input instanceof ArdenList) {
-			ArdenValue[] list = ((ArdenList) input).values;
+			ArdenValue[] list = ((ArdenList) input).getElements();
 			if (list.length == 0)
 				return ArdenNull.INSTANCE; // special case
 			ArdenValue[] results = new ArdenValue[list.length];
@@ -756,7 +1005,7 @@ public final class ExpressionHelpers {
 	/** implements the TRIM LEFT operator */
 	public static ArdenValue trimLeft(ArdenValue input) {
 		if (input instanceof ArdenList) {
-			ArdenValue[] list = ((ArdenList) input).values;
+			ArdenValue[] list = ((ArdenList) input).getElements();
 			if (list.length == 0)
 				return ArdenNull.INSTANCE; // special case
 			ArdenValue[] results = new ArdenValue[list.length];
@@ -777,7 +1026,7 @@ public final class ExpressionHelpers {
 	/** implements the TRIM RIGHT operator */
 	public static ArdenValue trimRight(ArdenValue input) {
 		if (input instanceof ArdenList) {
-			ArdenValue[] list = ((ArdenList) input).values;
+			ArdenValue[] list = ((ArdenList) input).getElements();
 			if (list.length == 0)
 				return ArdenNull.INSTANCE; // special case
 			ArdenValue[] results = new ArdenValue[list.length];
@@ -798,7 +1047,7 @@ public final class ExpressionHelpers {
 	/** implements the LENGTH OF operator */
 	public static ArdenValue length(ArdenValue input) {
 		if (input instanceof ArdenList) {
-			ArdenValue[] list = ((ArdenList) input).values;
+			ArdenValue[] list = ((ArdenList) input).getElements();
 			if (list.length == 0)
 				return ArdenNull.INSTANCE; // special case
 			ArdenValue[] results = new ArdenValue[list.length];
@@ -816,7 +1065,7 @@ public final class ExpressionHelpers {
 	/** implements the UPPERCASE operator */
 	public static ArdenValue toUpperCase(ArdenValue input) {
 		if (input instanceof ArdenList) {
-			ArdenValue[] list = ((ArdenList) input).values;
+			ArdenValue[] list = ((ArdenList) input).getElements();
 			if (list.length == 0)
 				return ArdenNull.INSTANCE; // special case
 			ArdenValue[] results = new ArdenValue[list.length];
@@ -834,7 +1083,7 @@ public final class ExpressionHelpers {
 	/** implements the LOWERCASE operator */
 	public static ArdenValue toLowerCase(ArdenValue input) {
 		if (input instanceof ArdenList) {
-			ArdenValue[] list = ((ArdenList) input).values;
+			ArdenValue[] list = ((ArdenList) input).getElements();
 			if (list.length == 0)
 				return ArdenNull.INSTANCE; // special case
 			ArdenValue[] results = new ArdenValue[list.length];
@@ -856,7 +1105,7 @@ public final class ExpressionHelpers {
 			String input = ((ArdenString) lhs).value;
 			return pattern.matcher(input).matches() ? ArdenBoolean.TRUE : ArdenBoolean.FALSE;
 		} else if (lhs instanceof ArdenList) {
-			ArdenValue[] inputs = ((ArdenList) lhs).values;
+			ArdenValue[] inputs = ((ArdenList) lhs).getElements();
 			ArdenValue[] results = new ArdenValue[inputs.length];
 			for (int i = 0; i < inputs.length; i++) {
 				if (inputs[i] instanceof ArdenString) {
@@ -912,7 +1161,7 @@ public final class ExpressionHelpers {
 
 	private static ArdenValue cloneObjects(ArdenValue input, HashMap<ArdenObject, ArdenObject> objectMap) {
 		if (input instanceof ArdenList) {
-			ArdenValue[] inputs = ((ArdenList) input).values;
+			ArdenValue[] inputs = ((ArdenList) input).getElements();
 			ArdenValue[] results = new ArdenValue[inputs.length];
 			for (int i = 0; i < inputs.length; i++)
 				results[i] = cloneObjects(inputs[i], objectMap);
@@ -940,7 +1189,7 @@ public final class ExpressionHelpers {
 			type = ((ArdenObject) input).type;
 		} else if (input instanceof ArdenList) {
 			// if all objects in list have the same type, get that type
-			ArdenValue[] inputs = ((ArdenList) input).values;
+			ArdenValue[] inputs = ((ArdenList) input).getElements();
 			if (inputs.length == 0 || !(inputs[0] instanceof ArdenObject))
 				return ArdenNull.INSTANCE;
 			type = ((ArdenObject) inputs[0]).type;
@@ -962,7 +1211,7 @@ public final class ExpressionHelpers {
 	/** IS <Object-Type> operator implementation */
 	public static ArdenValue isObjectType(ArdenValue input, ObjectType type) {
 		if (input instanceof ArdenList) {
-			ArdenValue[] inputs = ((ArdenList) input).values;
+			ArdenValue[] inputs = ((ArdenList) input).getElements();
 			ArdenValue[] results = new ArdenValue[inputs.length];
 			for (int i = 0; i < inputs.length; i++)
 				results[i] = isObjectType(inputs[i], type);
@@ -27,111 +27,194 @@
 
 package arden.runtime;
 
+import java.util.Arrays;
+import java.util.BitSet;
+
 /**
  * Implementation of DatabaseQuery that works in memory using ArdenValues.
  * 
+ * Time constraints compute which elements to keep from the primary times.
+ * If all columns are lists whose elements have the same primary times (the
+ * columns are rows of the same query), the selection is computed once for
+ * all columns and stored as a bitmap over the rows; further constraints only
+ * refine that bitmap. The filtered lists are created when the result is
+ * executed.
+ * 
  * @author Daniel Grunwald
  * 
  */
 public final class MemoryQuery extends DatabaseQuery {
 	private final ArdenValue[] values;
+	/** The primary times of the rows; null if the columns are not aligned */
+	private final long[] rowTimes;
+	/** The selected rows; null if all values are selected */
+	private final BitSet selection;
+	/** The filtered columns, created on the first execute() call */
+	private volatile ArdenValue[] selectedValues;
 
 	public MemoryQuery(ArdenValue[] values) {
 		if (values == null)
 			throw new NullPointerException();
 		this.values = values;
+		this.rowTimes = null;
+		this.selection = null;
+	}
+
+	private MemoryQuery(ArdenValue[] values, long[] rowTimes, BitSet selection) {
+		this.values = values;
+		this.rowTimes = rowTimes;
+		this.selection = selection;
 	}
 
 	@Override
 	public ArdenValue[] execute() {
-		return values;
+		if (selection == null)
+			return values;
+		ArdenValue[] result = selectedValues;
+		if (result == null) {
+			result = new ArdenValue[values.length];
+			for (int i = 0; i < values.length; i++)
+				result[i] = select((ArdenList) values[i], selection);
+			selectedValues = result;
+		}
+		return result;
 	}
 
-	@Override
-	public DatabaseQuery occursWithinTo(ArdenTime start, ArdenTime end) {
+	/** Gets the primary times of the elements of a list. */
+	private static long[] getPrimaryTimes(ArdenList list) {
+		if (list.numberTimes != null)
+			return list.numberTimes;
+		ArdenValue[] elements = list.getElements();
+		long[] times = new long[elements.length];
+		for (int i = 0; i < elements.length; i++)
+			times[i] = elements[i].primaryTime;
+		return times;
+	}
+
+	/**
+	 * Gets the primary times of the rows, or null if not all columns are lists
+	 * with the same primary times.
+	 */
+	private static long[] getRowTimes(ArdenValue[] values) {
+		if (values.length == 0 || !(values[0] instanceof ArdenList))
+			return null;
+		long[] times = getPrimaryTimes((ArdenList) values[0]);
+		for (int i = 1; i < values.length; i++) {
+			if (!(values[i] instanceof ArdenList) || !Arrays.equals(times, getPrimaryTimes((ArdenList) values[i])))
+				return null;
+		}
+		return times;
+	}
+
+	/**
+	 * Tests whether a primary time is within low..high (or outside of that
+	 * range if outside is true). Values without primary time never match,
+	 * because the comparison operators return null for them.
+	 */
+	private static boolean matches(long time, long low, long high, boolean outside) {
+		return time != ArdenValue.NOPRIMARYTIME && (low <= time && time <= high) != outside;
+	}
+
+	private static BitSet createSelection(long[] times, BitSet previousSelection, long low, long high, boolean outside) {
+		BitSet selection = new BitSet(times.length);
+		for (int i = 0; i < times.length; i++) {
+			if ((previousSelection == null || previousSelection.get(i)) && matches(times[i], low, high, outside))
+				selection.set(i);
+		}
+		return selection;
+	}
+
+	/** Creates a list containing the selected elements. */
+	private static ArdenList select(ArdenList list, BitSet selection) {
+		int count = selection.cardinality();
+		if (count == list.size())
+			return list;
+		if (list.isNumberList()) {
+			double[] numbers = new double[count];
+			long[] times = new long[count];
+			int pos = 0;
+			for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+				numbers[pos] = list.numbers[i];
+				times[pos] = list.numberTimes[i];
+				pos++;
+			}
+			return ArdenList.createNumberList(numbers, times);
+		}
+		ArdenValue[] elements = list.getElements();
+		ArdenValue[] output = new ArdenValue[count];
+		int pos = 0;
+		for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1))
+			output[pos++] = elements[i];
+		return new ArdenList(output);
+	}
+
+	/**
+	 * Keeps the values whose primary time is within low..high (or outside of
+	 * that range if outside is true).
+	 */
+	private DatabaseQuery selectByTime(long low, long high, boolean outside) {
+		long[] times = rowTimes != null ? rowTimes : getRowTimes(values);
+		if (times != null)
+			return new MemoryQuery(values, times, createSelection(times, selection, low, high, outside));
+		// the columns have different primary times: filter each one separately
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++) {
-			ArdenValue inputTime = UnaryOperator.TIME.run(values[i]);
-			result[i] = ExpressionHelpers.where(values[i], TernaryOperator.WITHINTO.run(inputTime, start, end));
+			if (values[i] instanceof ArdenList) {
+				ArdenList list = (ArdenList) values[i];
+				result[i] = select(list, createSelection(getPrimaryTimes(list), null, low, high, outside));
+			} else {
+				// 1 WHERE true ===> 1; 1 WHERE false ===> ()
+				result[i] = matches(values[i].primaryTime, low, high, outside) ? values[i] : ArdenList.EMPTY;
+			}
 		}
 		return new MemoryQuery(result);
 	}
 
+	@Override
+	public DatabaseQuery occursWithinTo(ArdenTime start, ArdenTime end) {
+		// WITHIN ... TO does not depend on the order of the bounds
+		return selectByTime(Math.min(start.value, end.value), Math.max(start.value, end.value), false);
+	}
+
 	@Override
 	public DatabaseQuery occursNotWithinTo(ArdenTime start, ArdenTime end) {
-		ArdenValue[] result = new ArdenValue[values.length];
-		for (int i = 0; i < values.length; i++) {
-			ArdenValue inputTime = UnaryOperator.TIME.run(values[i]);
-			result[i] = ExpressionHelpers.where(values[i], UnaryOperator.NOT.run(TernaryOperator.WITHINTO.run(
-					inputTime, start, end)));
-		}
-		return new MemoryQuery(result);
+		return selectByTime(Math.min(start.value, end.value), Math.max(start.value, end.value), true);
 	}
 
 	@Override
 	public DatabaseQuery occursBefore(ArdenTime time) {
-		ArdenValue[] result = new ArdenValue[values.length];
-		for (int i = 0; i < values.length; i++) {
-			ArdenValue inputTime = UnaryOperator.TIME.run(values[i]);
-			result[i] = ExpressionHelpers.where(values[i], BinaryOperator.ISBEFORE.run(inputTime, time));
-		}
-		return new MemoryQuery(result);
+		// t < time is the same as t not within time..MAX_VALUE
+		return selectByTime(time.value, Long.MAX_VALUE, true);
 	}
 
 	@Override
 	public DatabaseQuery occursNotBefore(ArdenTime time) {
-		ArdenValue[] result = new ArdenValue[values.length];
-		for (int i = 0; i < values.length; i++) {
-			ArdenValue inputTime = UnaryOperator.TIME.run(values[i]);
-			result[i] = ExpressionHelpers.where(values[i], UnaryOperator.NOT.run(BinaryOperator.ISBEFORE.run(inputTime,
-					time)));
-		}
-		return new MemoryQuery(result);
+		return selectByTime(time.value, Long.MAX_VALUE, false);
 	}
 
 	@Override
 	public DatabaseQuery occursAfter(ArdenTime time) {
-		ArdenValue[] result = new ArdenValue[values.length];
-		for (int i = 0; i < values.length; i++) {
-			ArdenValue inputTime = UnaryOperator.TIME.run(values[i]);
-			result[i] = ExpressionHelpers.where(values[i], BinaryOperator.ISAFTER.run(inputTime, time));
-		}
-		return new MemoryQuery(result);
+		return selectByTime(Long.MIN_VALUE, time.value, true);
 	}
 
 	@Override
 	public DatabaseQuery occursNotAfter(ArdenTime time) {
-		ArdenValue[] result = new ArdenValue[values.length];
-		for (int i = 0; i < values.length; i++) {
-			ArdenValue inputTime = UnaryOperator.TIME.run(values[i]);
-			result[i] = ExpressionHelpers.where(values[i], UnaryOperator.NOT.run(BinaryOperator.ISAFTER.run(inputTime,
-					time)));
-		}
-		return new MemoryQuery(result);
+		return selectByTime(Long.MIN_VALUE, time.value, false);
 	}
 
 	@Override
 	public DatabaseQuery occursAt(ArdenTime time) {
-		ArdenValue[] result = new ArdenValue[values.length];
-		for (int i = 0; i < values.length; i++) {
-			ArdenValue inputTime = UnaryOperator.TIME.run(values[i]);
-			result[i] = ExpressionHelpers.where(values[i], BinaryOperator.EQ.run(inputTime, time));
-		}
-		return new MemoryQuery(result);
+		return selectByTime(time.value, time.value, false);
 	}
 
 	@Override
 	public DatabaseQuery occursNotAt(ArdenTime time) {
-		ArdenValue[] result = new ArdenValue[values.length];
-		for (int i = 0; i < values.length; i++) {
-			ArdenValue inputTime = UnaryOperator.TIME.run(values[i]);
-			result[i] = ExpressionHelpers.where(values[i], BinaryOperator.NE.run(inputTime, time));
-		}
-		return new MemoryQuery(result);
+		return selectByTime(time.value, time.value, true);
 	}
 
 	@Override
 	public DatabaseQuery average() {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.average(values[i]);
@@ -140,6 +223,7 @@ public final class MemoryQuery extends DatabaseQuery {
 
 	@Override
 	public DatabaseQuery count() {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.count(values[i]);
@@ -148,6 +232,7 @@ public final class MemoryQuery extends DatabaseQuery {
 
 	@Override
 	public DatabaseQuery exist() {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.exist(values[i]);
@@ -156,6 +241,7 @@ public final class MemoryQuery extends DatabaseQuery {
 
 	@Override
 	public DatabaseQuery sum() {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.sum(values[i]);
@@ -164,6 +250,7 @@ public final class MemoryQuery extends DatabaseQuery {
 
 	@Override
 	public DatabaseQuery median() {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.median(values[i]);
@@ -172,6 +259,7 @@ public final class MemoryQuery extends DatabaseQuery {
 
 	@Override
 	public DatabaseQuery minimum() {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.elementAt(values[i], ExpressionHelpers.indexMinimum(values[i]));
@@ -180,6 +268,7 @@ public final class MemoryQuery extends DatabaseQuery {
 
 	@Override
 	public DatabaseQuery minimum(int numberOfElements) {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.elementAt(values[i], ExpressionHelpers.indexMinimum(values[i], numberOfElements));
@@ -188,6 +277,7 @@ public final class MemoryQuery extends DatabaseQuery {
 
 	@Override
 	public DatabaseQuery maximum() {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.elementAt(values[i], ExpressionHelpers.indexMaximum(values[i]));
@@ -196,6 +286,7 @@ public final class MemoryQuery extends DatabaseQuery {
 
 	@Override
 	public DatabaseQuery maximum(int numberOfElements) {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.elementAt(values[i], ExpressionHelpers.indexMaximum(values[i], numberOfElements));
@@ -204,6 +295,7 @@ public final class MemoryQuery extends DatabaseQuery {
 
 	@Override
 	public DatabaseQuery last() {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.last(values[i]);
@@ -212,6 +304,7 @@ public final class MemoryQuery extends DatabaseQuery {
 
 	@Override
 	public DatabaseQuery last(int numberOfElements) {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.last(values[i], numberOfElements);
@@ -220,6 +313,7 @@ public final class MemoryQuery extends DatabaseQuery {
 
 	@Override
 	public DatabaseQuery first() {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.first(values[i]);
@@ -228,6 +322,7 @@ public final class MemoryQuery extends DatabaseQuery {
 
 	@Override
 	public DatabaseQuery first(int numberOfElements) {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.first(values[i], numberOfElements);
@@ -236,6 +331,7 @@ public final class MemoryQuery extends DatabaseQuery {
 
 	@Override
 	public DatabaseQuery latest() {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.elementAt(values[i], ExpressionHelpers.indexLatest(values[i]));
@@ -244,6 +340,7 @@ public final class MemoryQuery extends DatabaseQuery {
 
 	@Override
 	public DatabaseQuery latest(int numberOfElements) {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.elementAt(values[i], ExpressionHelpers.indexLatest(values[i], numberOfElements));
@@ -252,6 +349,7 @@ public final class MemoryQuery extends DatabaseQuery {
 
 	@Override
 	public DatabaseQuery earliest() {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.elementAt(values[i], ExpressionHelpers.indexEarliest(values[i]));
@@ -260,6 +358,7 @@ public final class MemoryQuery extends DatabaseQuery {
 
 	@Override
 	public DatabaseQuery earliest(int numberOfElements) {
+		ArdenValue[] values = execute();
 		ArdenValue[] result = new ArdenValue[values.length];
 		for (int i = 0; i < values.length; i++)
 			result[i] = ExpressionHelpers.elementAt(values[i], ExpressionHelpers.indexEarliest(values[i], numberOfElements));
@@ -0,0 +1,193 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of MLMs that can be updated while MLMs are being executed.
+ * 
+ * Modules are identified by mlmname and institution, the key used by
+ * ExecutionContext.findModule(). Registering a module replaces the previous
+ * version atomically. Executions that are already in progress keep using the
+ * version they started with (MLMs resolve the modules they call when their
+ * data slot runs), and an old version can be garbage collected as soon as the
+ * last execution using it has finished.
+ * 
+ * Classes are only unloaded together with their class loader. A CompiledMlm
+ * uses a class loader of its own, but all modules of an MlmLibrary generation
+ * share one: as long as any module of a generation is registered (or still
+ * executing), the classes of the whole generation stay loaded. When replacing
+ * MLMs of a library, register the modules of the new generation for all names,
+ * not only for the changed MLMs.
+ * 
+ * Lookups do not lock and can be done from any number of threads. A typical
+ * ExecutionContext implements findModule() as:
+ * 
+ * <pre>
+ * MedicalLogicModule mlm = registry.findModule(name, institution);
+ * if (mlm == null)
+ *     throw new RuntimeException(&quot;MLM not found: &quot; + name);
+ * return mlm;
+ * </pre>
+ */
+public final class ModuleRegistry {
+	private static final class Key {
+		final String name;
+		final String institution;
+
+		Key(String name, String institution) {
+			this.name = name.trim().toLowerCase(Locale.ENGLISH);
+			this.institution = institution != null ? institution.trim().toLowerCase(Locale.ENGLISH) : null;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return name.equals(other.name)
+					&& (institution == null ? other.institution == null : institution.equals(other.institution));
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode() * 31 + (institution != null ? institution.hashCode() : 0);
+		}
+	}
+
+	private static final class Entry {
+		final Key key;
+		final MedicalLogicModule module;
+		final int version;
+
+		Entry(Key key, MedicalLogicModule module, int version) {
+			this.key = key;
+			this.module = module;
+			this.version = version;
+		}
+	}
+
+	private final ConcurrentHashMap<Key, Entry> modules = new ConcurrentHashMap<Key, Entry>();
+	/** Modules by mlmname only, used for lookups without institution. */
+	private final ConcurrentHashMap<String, Entry[]> modulesByName = new ConcurrentHashMap<String, Entry[]>();
+	/** Version numbers are never reused, even after a module was removed. */
+	private final ConcurrentHashMap<Key, Integer> lastVersions = new ConcurrentHashMap<Key, Integer>();
+
+	/**
+	 * Adds a module to the registry, replacing the module with the same
+	 * mlmname and institution.
+	 * 
+	 * @return Returns the version number of the module; the first version of
+	 *         a module has number 1.
+	 */
+	public synchronized int register(MedicalLogicModule module) {
+		Key key = new Key(module.getName(), module.getMaintenance().getInstitution());
+		Integer lastVersion = lastVersions.get(key);
+		int version = lastVersion != null ? lastVersion + 1 : 1;
+		lastVersions.put(key, version);
+		Entry entry = new Entry(key, module, version);
+		modules.put(key, entry);
+		updateNameIndex(key.name);
+		return version;
+	}
+
+	/**
+	 * Removes a module from the registry.
+	 * 
+	 * @return Returns true if the module was removed; false if it did not
+	 *         exist.
+	 */
+	public synchronized boolean unregister(String name, String institution) {
+		Key key = new Key(name, institution);
+		if (modules.remove(key) == null)
+			return false;
+		updateNameIndex(key.name);
+		return true;
+	}
+
+	private void updateNameIndex(String name) {
+		List<Entry> entries = new ArrayList<Entry>();
+		for (Entry entry : modules.values()) {
+			if (entry.key.name.equals(name))
+				entries.add(entry);
+		}
+		if (entries.isEmpty())
+			modulesByName.remove(name);
+		else
+			modulesByName.put(name, entries.toArray(new Entry[entries.size()]));
+	}
+
+	private Entry findEntry(String name, String institution) {
+		Key key = new Key(name, institution);
+		Entry entry = modules.get(key);
+		if (entry == null && institution == null) {
+			// no institution specified: use the module if the name is unique
+			Entry[] entries = modulesByName.get(key.name);
+			if (entries != null && entries.length == 1)
+				entry = entries[0];
+		}
+		return entry;
+	}
+
+	/**
+	 * Gets the current version of a module.
+	 * 
+	 * @param name
+	 *            The mlmname (case-insensitive).
+	 * @param institution
+	 *            The institution (case-insensitive). If null, a module
+	 *            registered without institution is returned, or the only
+	 *            module with the specified name.
+	 * @return Returns the module, or null if no matching module exists.
+	 */
+	public MedicalLogicModule findModule(String name, String institution) {
+		Entry entry = findEntry(name, institution);
+		return entry != null ? entry.module : null;
+	}
+
+	/**
+	 * Gets the version number of the current version of a module, or 0 if
+	 * no matching module exists.
+	 */
+	public int getVersion(String name, String institution) {
+		Entry entry = findEntry(name, institution);
+		return entry != null ? entry.version : 0;
+	}
+
+	/** Gets the current versions of all modules. */
+	public List<MedicalLogicModule> getModules() {
+		List<MedicalLogicModule> result = new ArrayList<MedicalLogicModule>();
+		for (Entry entry : modules.values())
+			result.add(entry.module);
+		return Collections.unmodifiableList(result);
+	}
+}
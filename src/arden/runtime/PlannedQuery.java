@@ -0,0 +1,196 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.runtime;
+
+/**
+ * DatabaseQuery that does not evaluate anything until execute() is called.
+ * 
+ * All constraints, aggregation and transformation operators are recorded in a
+ * QueryPlan, and the complete plan is passed to the QuerySource when the query
+ * is executed. This allows the data source to push time windows and top-N
+ * selections down into the underlying store instead of reading the complete
+ * history into memory.
+ * 
+ * If the source is a StreamingQuerySource, aggregations that follow only time
+ * constraints are evaluated while reading the rows from a cursor.
+ */
+public final class PlannedQuery extends DatabaseQuery {
+	private final QuerySource source;
+	private final QueryPlan plan;
+
+	public PlannedQuery(QuerySource source, String mapping) {
+		this(source, QueryPlan.create(mapping));
+	}
+
+	public PlannedQuery(QuerySource source, QueryPlan plan) {
+		if (source == null || plan == null)
+			throw new NullPointerException();
+		this.source = source;
+		this.plan = plan;
+	}
+
+	/** Gets the plan that will be executed. */
+	public QueryPlan getPlan() {
+		return plan;
+	}
+
+	private PlannedQuery append(QueryOperation operation) {
+		return new PlannedQuery(source, plan.append(operation));
+	}
+
+	@Override
+	public ArdenValue[] execute() {
+		if (source instanceof StreamingQuerySource && StreamingAggregation.canExecute(plan))
+			return StreamingAggregation.execute((StreamingQuerySource) source, plan);
+		return source.execute(plan);
+	}
+
+	@Override
+	public DatabaseQuery occursWithinTo(ArdenTime start, ArdenTime end) {
+		return append(QueryOperation.withinTo(start, end, false));
+	}
+
+	@Override
+	public DatabaseQuery occursNotWithinTo(ArdenTime start, ArdenTime end) {
+		return append(QueryOperation.withinTo(start, end, true));
+	}
+
+	@Override
+	public DatabaseQuery occursBefore(ArdenTime time) {
+		return append(QueryOperation.constraint(QueryOperation.Type.OCCURS_BEFORE, time));
+	}
+
+	@Override
+	public DatabaseQuery occursNotBefore(ArdenTime time) {
+		return append(QueryOperation.constraint(QueryOperation.Type.OCCURS_NOT_BEFORE, time));
+	}
+
+	@Override
+	public DatabaseQuery occursAfter(ArdenTime time) {
+		return append(QueryOperation.constraint(QueryOperation.Type.OCCURS_AFTER, time));
+	}
+
+	@Override
+	public DatabaseQuery occursNotAfter(ArdenTime time) {
+		return append(QueryOperation.constraint(QueryOperation.Type.OCCURS_NOT_AFTER, time));
+	}
+
+	@Override
+	public DatabaseQuery occursAt(ArdenTime time) {
+		return append(QueryOperation.constraint(QueryOperation.Type.OCCURS_AT, time));
+	}
+
+	@Override
+	public DatabaseQuery occursNotAt(ArdenTime time) {
+		return append(QueryOperation.constraint(QueryOperation.Type.OCCURS_NOT_AT, time));
+	}
+
+	@Override
+	public DatabaseQuery average() {
+		return append(QueryOperation.aggregation(QueryOperation.Type.AVERAGE));
+	}
+
+	@Override
+	public DatabaseQuery count() {
+		return append(QueryOperation.aggregation(QueryOperation.Type.COUNT));
+	}
+
+	@Override
+	public DatabaseQuery exist() {
+		return append(QueryOperation.aggregation(QueryOperation.Type.EXIST));
+	}
+
+	@Override
+	public DatabaseQuery sum() {
+		return append(QueryOperation.aggregation(QueryOperation.Type.SUM));
+	}
+
+	@Override
+	public DatabaseQuery median() {
+		return append(QueryOperation.aggregation(QueryOperation.Type.MEDIAN));
+	}
+
+	@Override
+	public DatabaseQuery minimum() {
+		return append(QueryOperation.aggregation(QueryOperation.Type.MINIMUM));
+	}
+
+	@Override
+	public DatabaseQuery minimum(int numberOfElements) {
+		return append(QueryOperation.transformation(QueryOperation.Type.MINIMUM_N, numberOfElements));
+	}
+
+	@Override
+	public DatabaseQuery maximum() {
+		return append(QueryOperation.aggregation(QueryOperation.Type.MAXIMUM));
+	}
+
+	@Override
+	public DatabaseQuery maximum(int numberOfElements) {
+		return append(QueryOperation.transformation(QueryOperation.Type.MAXIMUM_N, numberOfElements));
+	}
+
+	@Override
+	public DatabaseQuery last() {
+		return append(QueryOperation.aggregation(QueryOperation.Type.LAST));
+	}
+
+	@Override
+	public DatabaseQuery last(int numberOfElements) {
+		return append(QueryOperation.transformation(QueryOperation.Type.LAST_N, numberOfElements));
+	}
+
+	@Override
+	public DatabaseQuery first() {
+		return append(QueryOperation.aggregation(QueryOperation.Type.FIRST));
+	}
+
+	@Override
+	public DatabaseQuery first(int numberOfElements) {
+		return append(QueryOperation.transformation(QueryOperation.Type.FIRST_N, numberOfElements));
+	}
+
+	@Override
+	public DatabaseQuery latest() {
+		return append(QueryOperation.aggregation(QueryOperation.Type.LATEST));
+	}
+
+	@Override
+	public DatabaseQuery latest(int numberOfElements) {
+		return append(QueryOperation.transformation(QueryOperation.Type.LATEST_N, numberOfElements));
+	}
+
+	@Override
+	public DatabaseQuery earliest() {
+		return append(QueryOperation.aggregation(QueryOperation.Type.EARLIEST));
+	}
+
+	@Override
+	public DatabaseQuery earliest(int numberOfElements) {
+		return append(QueryOperation.transformation(QueryOperation.Type.EARLIEST_N, numberOfElements));
+	}
+}
@@ -0,0 +1,168 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.runtime;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ExecutionContext that serves the queries of a set of MLMs from a snapshot.
+ * 
+ * When several MLMs are executed for the same patient, they often read the
+ * same data. PrefetchingContext.create() collects the mapping clauses of all
+ * MLMs, fetches them using a single ExecutionContext.executeQueries() call and
+ * answers createQuery() for these mappings from the fetched data; constraints
+ * and aggregations are then evaluated in memory. All other calls are forwarded
+ * to the underlying context.
+ * 
+ * The snapshot contains the complete, unconstrained result of every mapping:
+ * the time windows and row limits that the MLMs apply are not passed to the
+ * data source. Prefetching therefore only pays off if the mappings return a
+ * bounded amount of data per patient; it is not used unless requested (see
+ * BatchExecutor.setPrefetchQueries()). Only MLMs that implement
+ * QueryMappingProvider are prefetched.
+ */
+public class PrefetchingContext extends ExecutionContext {
+	private final ExecutionContext context;
+	private final Map<String, ArdenValue[]> snapshot;
+	/** The queries created from the snapshot, indexed by time if possible */
+	private final ConcurrentHashMap<String, DatabaseQuery> queries = new ConcurrentHashMap<String, DatabaseQuery>();
+
+	/**
+	 * Creates a new PrefetchingContext.
+	 * 
+	 * @param context
+	 *            The context that receives all calls that cannot be answered
+	 *            from the snapshot.
+	 * @param snapshot
+	 *            Map from the mapping clauses to the unconstrained query
+	 *            results.
+	 */
+	public PrefetchingContext(ExecutionContext context, Map<String, ArdenValue[]> snapshot) {
+		if (context == null || snapshot == null)
+			throw new NullPointerException();
+		this.context = context;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Fetches the data read by the specified MLMs and creates a context that
+	 * serves their queries from it.
+	 */
+	public static PrefetchingContext create(ExecutionContext context, Collection<? extends MedicalLogicModule> modules) {
+		Set<String> mappings = new LinkedHashSet<String>();
+		for (MedicalLogicModule module : modules) {
+			if (module instanceof QueryMappingProvider)
+				mappings.addAll(((QueryMappingProvider) module).getQueryMappings());
+		}
+		return new PrefetchingContext(context, context.executeQueries(mappings));
+	}
+
+	/** Gets the underlying context. */
+	public ExecutionContext getContext() {
+		return context;
+	}
+
+	/** Gets the mapping clauses contained in the snapshot. */
+	public Set<String> getPrefetchedMappings() {
+		return Collections.unmodifiableSet(snapshot.keySet());
+	}
+
+	@Override
+	public DatabaseQuery createQuery(String mapping) {
+		DatabaseQuery query = queries.get(mapping);
+		if (query != null)
+			return query;
+		ArdenValue[] values = snapshot.get(mapping);
+		if (values == null)
+			return context.createQuery(mapping);
+		// queries are immutable, so all MLMs can share the same index
+		query = TimeIndexedQuery.create(values);
+		DatabaseQuery existing = queries.putIfAbsent(mapping, query);
+		return existing != null ? existing : query;
+	}
+
+	@Override
+	public Map<String, ArdenValue[]> executeQueries(Collection<String> mappings) {
+		return context.executeQueries(mappings);
+	}
+
+	@Override
+	public ArdenValue getMessage(String mapping) {
+		return context.getMessage(mapping);
+	}
+
+	@Override
+	public void write(ArdenValue message, String destination) {
+		context.write(message, destination);
+	}
+
+	@Override
+	public ArdenRunnable findModule(String name, String institution) {
+		return context.findModule(name, institution);
+	}
+
+	@Override
+	public ArdenRunnable findInterface(String mapping) {
+		return context.findInterface(mapping);
+	}
+
+	@Override
+	public void callWithDelay(ArdenRunnable mlm, ArdenValue[] arguments, ArdenValue delay) {
+		context.callWithDelay(mlm, arguments, delay);
+	}
+
+	@Override
+	public ArdenTime getEventTime() {
+		return context.getEventTime();
+	}
+
+	@Override
+	public ArdenTime getTriggerTime() {
+		return context.getTriggerTime();
+	}
+
+	@Override
+	public ArdenTime getCurrentTime() {
+		return context.getCurrentTime();
+	}
+
+	@Override
+	public CivilTime getCalendar() {
+		return context.getCalendar();
+	}
+
+	@Override
+	public void setTimeZone(TimeZone zone) {
+		context.setTimeZone(zone);
+	}
+}
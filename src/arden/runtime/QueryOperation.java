@@ -0,0 +1,182 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.runtime;
+
+/**
+ * A single step of a QueryPlan: a time constraint, an aggregation operator or
+ * a transformation operator. Every operation corresponds to one of the methods
+ * of DatabaseQuery.
+ */
+public final class QueryOperation {
+	/** The kinds of query operations. */
+	public enum Type {
+		OCCURS_WITHIN_TO, OCCURS_NOT_WITHIN_TO, OCCURS_BEFORE, OCCURS_NOT_BEFORE, OCCURS_AFTER, OCCURS_NOT_AFTER,
+		OCCURS_AT, OCCURS_NOT_AT,
+
+		AVERAGE, COUNT, EXIST, SUM, MEDIAN, MINIMUM, MAXIMUM, LAST, FIRST, LATEST, EARLIEST,
+
+		MINIMUM_N, MAXIMUM_N, LAST_N, FIRST_N, LATEST_N, EARLIEST_N;
+
+		/** Gets whether this operation type filters the results by time. */
+		public boolean isConstraint() {
+			return ordinal() <= OCCURS_NOT_AT.ordinal();
+		}
+
+		/** Gets whether this operation type reduces every column to a single value. */
+		public boolean isAggregation() {
+			return ordinal() >= AVERAGE.ordinal() && ordinal() <= EARLIEST.ordinal();
+		}
+
+		/** Gets whether this operation type selects a number of elements. */
+		public boolean isTransformation() {
+			return ordinal() >= MINIMUM_N.ordinal();
+		}
+	}
+
+	public final Type type;
+	/**
+	 * The time argument of a constraint (the start time for WITHIN ... TO); null
+	 * for aggregation and transformation operators.
+	 */
+	public final ArdenTime time;
+	/** The end time for WITHIN ... TO constraints; null otherwise. */
+	public final ArdenTime endTime;
+	/** The number of elements for transformation operators; -1 otherwise. */
+	public final int numberOfElements;
+
+	private QueryOperation(Type type, ArdenTime time, ArdenTime endTime, int numberOfElements) {
+		this.type = type;
+		this.time = time;
+		this.endTime = endTime;
+		this.numberOfElements = numberOfElements;
+	}
+
+	/** Creates a WITHIN ... TO constraint. */
+	public static QueryOperation withinTo(ArdenTime start, ArdenTime end, boolean negate) {
+		if (start == null || end == null)
+			throw new NullPointerException();
+		return new QueryOperation(negate ? Type.OCCURS_NOT_WITHIN_TO : Type.OCCURS_WITHIN_TO, start, end, -1);
+	}
+
+	/** Creates a constraint that compares the primary time with a single point in time. */
+	public static QueryOperation constraint(Type type, ArdenTime time) {
+		if (time == null)
+			throw new NullPointerException();
+		if (!type.isConstraint() || type == Type.OCCURS_WITHIN_TO || type == Type.OCCURS_NOT_WITHIN_TO)
+			throw new IllegalArgumentException(type.toString());
+		return new QueryOperation(type, time, null, -1);
+	}
+
+	/** Creates an aggregation operator. */
+	public static QueryOperation aggregation(Type type) {
+		if (!type.isAggregation())
+			throw new IllegalArgumentException(type.toString());
+		return new QueryOperation(type, null, null, -1);
+	}
+
+	/** Creates a transformation operator. */
+	public static QueryOperation transformation(Type type, int numberOfElements) {
+		if (!type.isTransformation())
+			throw new IllegalArgumentException(type.toString());
+		if (numberOfElements < 0)
+			throw new IllegalArgumentException("numberOfElements must not be negative");
+		return new QueryOperation(type, null, null, numberOfElements);
+	}
+
+	/**
+	 * Applies this operation to a query by calling the corresponding
+	 * DatabaseQuery method.
+	 */
+	public DatabaseQuery applyTo(DatabaseQuery query) {
+		switch (type) {
+		case OCCURS_WITHIN_TO:
+			return query.occursWithinTo(time, endTime);
+		case OCCURS_NOT_WITHIN_TO:
+			return query.occursNotWithinTo(time, endTime);
+		case OCCURS_BEFORE:
+			return query.occursBefore(time);
+		case OCCURS_NOT_BEFORE:
+			return query.occursNotBefore(time);
+		case OCCURS_AFTER:
+			return query.occursAfter(time);
+		case OCCURS_NOT_AFTER:
+			return query.occursNotAfter(time);
+		case OCCURS_AT:
+			return query.occursAt(time);
+		case OCCURS_NOT_AT:
+			return query.occursNotAt(time);
+		case AVERAGE:
+			return query.average();
+		case COUNT:
+			return query.count();
+		case EXIST:
+			return query.exist();
+		case SUM:
+			return query.sum();
+		case MEDIAN:
+			return query.median();
+		case MINIMUM:
+			return query.minimum();
+		case MAXIMUM:
+			return query.maximum();
+		case LAST:
+			return query.last();
+		case FIRST:
+			return query.first();
+		case LATEST:
+			return query.latest();
+		case EARLIEST:
+			return query.earliest();
+		case MINIMUM_N:
+			return query.minimum(numberOfElements);
+		case MAXIMUM_N:
+			return query.maximum(numberOfElements);
+		case LAST_N:
+			return query.last(numberOfElements);
+		case FIRST_N:
+			return query.first(numberOfElements);
+		case LATEST_N:
+			return query.latest(numberOfElements);
+		case EARLIEST_N:
+			return query.earliest(numberOfElements);
+		default:
+			throw new RuntimeException("unknown query operation");
+		}
+	}
+
+	@Override
+	public String toString() {
+		if (endTime != null)
+			return type + " " + time + " " + endTime;
+		else if (time != null)
+			return type + " " + time;
+		else if (numberOfElements >= 0)
+			return type + " " + numberOfElements;
+		else
+			return type.toString();
+	}
+}
@@ -0,0 +1,109 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.runtime;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes a database query: the mapping clause plus the chain of
+ * constraints, aggregation and transformation operators that were applied to
+ * it.
+ * 
+ * QueryPlan objects are immutable; append() creates a new plan.
+ */
+public final class QueryPlan {
+	private final String mapping;
+	private final QueryOperation[] operations;
+
+	private QueryPlan(String mapping, QueryOperation[] operations) {
+		this.mapping = mapping;
+		this.operations = operations;
+	}
+
+	/** Creates a plan that reads the data described by the mapping clause. */
+	public static QueryPlan create(String mapping) {
+		if (mapping == null)
+			throw new NullPointerException();
+		return new QueryPlan(mapping, new QueryOperation[0]);
+	}
+
+	/** Gets the contents of the mapping clause. */
+	public String getMapping() {
+		return mapping;
+	}
+
+	/** Gets the operations in the order in which they must be applied. */
+	public List<QueryOperation> getOperations() {
+		return Collections.unmodifiableList(Arrays.asList(operations));
+	}
+
+	/** Creates a new plan that additionally applies the specified operation. */
+	public QueryPlan append(QueryOperation operation) {
+		if (operation == null)
+			throw new NullPointerException();
+		QueryOperation[] newOperations = new QueryOperation[operations.length + 1];
+		System.arraycopy(operations, 0, newOperations, 0, operations.length);
+		newOperations[operations.length] = operation;
+		return new QueryPlan(mapping, newOperations);
+	}
+
+	/**
+	 * Applies the operations starting at firstOperation to a query. Data
+	 * sources that handle only some of the operations themselves can use this
+	 * to process the remaining operations.
+	 */
+	public DatabaseQuery applyTo(DatabaseQuery query, int firstOperation) {
+		for (int i = firstOperation; i < operations.length; i++)
+			query = operations[i].applyTo(query);
+		return query;
+	}
+
+	/**
+	 * Processes all operations in memory.
+	 * 
+	 * @param values
+	 *            The unfiltered query results (one entry per column).
+	 */
+	public ArdenValue[] execute(ArdenValue[] values) {
+		return applyTo(TimeIndexedQuery.create(values), 0).execute();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		b.append('{');
+		b.append(mapping);
+		b.append('}');
+		for (QueryOperation op : operations) {
+			b.append(", ");
+			b.append(op.toString());
+		}
+		return b.toString();
+	}
+}
@@ -30,9 +30,7 @@ package arden.runtime;
 import java.lang.reflect.InvocationTargetException;
 import java.text.DateFormat;
 import java.text.NumberFormat;
-import java.util.Calendar;
 import java.util.Date;
-import java.util.GregorianCalendar;
 
 /**
  * Static helper methods.
@@ -106,38 +104,48 @@ public final class RuntimeHelpers {
 		}
 	}
 
-	/** Helper method for %t format specification. */
+	/**
+	 * Helper method for %t format specification, used by MLMs compiled before
+	 * the time zone of the execution context was supported.
+	 */
+	@Deprecated
 	public static String formatTime(ArdenValue val, int precision) {
+		return formatTime(val, precision, CivilTime.DEFAULT);
+	}
+
+	/** Helper method for %t format specification. */
+	public static String formatTime(ArdenValue val, int precision, CivilTime calendar) {
 		if (val instanceof ArdenTime) {
 			long time = ((ArdenTime) val).value;
 			switch (precision) {
-			case 0: {
-				GregorianCalendar c = new GregorianCalendar();
-				c.setTimeInMillis(time);
-				return Integer.toString(c.get(Calendar.YEAR));
-			}
-			case 1: {
-				GregorianCalendar c = new GregorianCalendar();
-				c.setTimeInMillis(time);
-				return Integer.toString(c.get(Calendar.YEAR)) + "-" + Integer.toString(c.get(Calendar.MONTH) + 1);
-			}
+			case 0:
+				return Integer.toString(calendar.getField(time, CivilTime.YEAR));
+			case 1:
+				return Integer.toString(calendar.getField(time, CivilTime.YEAR)) + "-"
+						+ Integer.toString(calendar.getField(time, CivilTime.MONTH));
 			case 2:
-				return DateFormat.getDateInstance(DateFormat.MEDIUM).format(new Date(time));
+				return formatLocalized(DateFormat.getDateInstance(DateFormat.MEDIUM), time, calendar);
 			case 3:
-				GregorianCalendar c = new GregorianCalendar();
-				c.setTimeInMillis(time);
-				return DateFormat.getDateInstance(DateFormat.MEDIUM).format(new Date(time)) + " "
-						+ Integer.toString(c.get(Calendar.HOUR_OF_DAY)) + "h";
+				return formatLocalized(DateFormat.getDateInstance(DateFormat.MEDIUM), time, calendar) + " "
+						+ Integer.toString(calendar.getField(time, CivilTime.HOUR)) + "h";
 			case 4:
-				return DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT).format(new Date(time));
+				return formatLocalized(DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT), time,
+						calendar);
 			default:
-				return DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.LONG).format(new Date(time));
+				return formatLocalized(DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.LONG), time,
+						calendar);
 			}
 		} else {
 			return ExpressionHelpers.toString(val);
 		}
 	}
 
+	private static String formatLocalized(DateFormat format, long time, CivilTime calendar) {
+		if (calendar != CivilTime.DEFAULT)
+			format.setTimeZone(calendar.getTimeZone());
+		return format.format(new Date(time));
+	}
+
 	public static String padRight(String input, int length, char padChar) {
 		StringBuilder b = new StringBuilder(length);
 		b.append(input);
@@ -154,29 +162,17 @@ public final class RuntimeHelpers {
 		return b.toString();
 	}
 
-	public static ArdenValue getStartOfDay(ArdenValue time) {
+	public static ArdenValue getStartOfDay(ArdenValue time, CivilTime calendar) {
 		if (time instanceof ArdenTime) {
-			GregorianCalendar c = new GregorianCalendar();
-			c.setTimeInMillis(((ArdenTime) time).value);
-			c.set(Calendar.HOUR_OF_DAY, 0);
-			c.set(Calendar.MINUTE, 0);
-			c.set(Calendar.SECOND, 0);
-			c.set(Calendar.MILLISECOND, 0);
-			return new ArdenTime(c.getTimeInMillis(), time.primaryTime);
+			return new ArdenTime(calendar.getStartOfDay(((ArdenTime) time).value), time.primaryTime);
 		} else {
 			return ArdenNull.create(time.primaryTime);
 		}
 	}
 
-	public static ArdenValue getEndOfDay(ArdenValue time) {
+	public static ArdenValue getEndOfDay(ArdenValue time, CivilTime calendar) {
 		if (time instanceof ArdenTime) {
-			GregorianCalendar c = new GregorianCalendar();
-			c.setTimeInMillis(((ArdenTime) time).value);
-			c.set(Calendar.HOUR_OF_DAY, 23);
-			c.set(Calendar.MINUTE, 59);
-			c.set(Calendar.SECOND, 59);
-			c.set(Calendar.MILLISECOND, 999);
-			return new ArdenTime(c.getTimeInMillis(), time.primaryTime);
+			return new ArdenTime(calendar.getEndOfDay(((ArdenTime) time).value), time.primaryTime);
 		} else {
 			return ArdenNull.create(time.primaryTime);
 		}
@@ -196,24 +192,50 @@ public final class RuntimeHelpers {
 			return DatabaseQuery.NULL;
 	}
 
+	/** Used by MLMs compiled before the time zone of the context was supported. */
+	@Deprecated
 	public static DatabaseQuery constrainQueryWithinSurrounding(DatabaseQuery q, ArdenValue duration, ArdenValue time) {
+		return constrainQueryWithinSurrounding(q, duration, time, CivilTime.DEFAULT);
+	}
+
+	public static DatabaseQuery constrainQueryWithinSurrounding(DatabaseQuery q, ArdenValue duration, ArdenValue time,
+			CivilTime calendar) {
 		// within DURATION surrounding TIME
-		return constrainQueryWithinTo(q, BinaryOperator.BEFORE.run(duration, time), BinaryOperator.AFTER.run(duration,
-				time));
+		return constrainQueryWithinTo(q, BinaryOperator.BEFORE.inZone(calendar).run(duration, time),
+				BinaryOperator.AFTER.inZone(calendar).run(duration, time));
 	}
 
+	/** Used by MLMs compiled before the time zone of the context was supported. */
+	@Deprecated
 	public static DatabaseQuery constrainQueryNotWithinSurrounding(DatabaseQuery q, ArdenValue duration, ArdenValue time) {
+		return constrainQueryNotWithinSurrounding(q, duration, time, CivilTime.DEFAULT);
+	}
+
+	public static DatabaseQuery constrainQueryNotWithinSurrounding(DatabaseQuery q, ArdenValue duration,
+			ArdenValue time, CivilTime calendar) {
 		// NOT within DURATION surrounding TIME
-		return constrainQueryNotWithinTo(q, BinaryOperator.BEFORE.run(duration, time), BinaryOperator.AFTER.run(
-				duration, time));
+		return constrainQueryNotWithinTo(q, BinaryOperator.BEFORE.inZone(calendar).run(duration, time),
+				BinaryOperator.AFTER.inZone(calendar).run(duration, time));
 	}
 
+	/** Used by MLMs compiled before the time zone of the context was supported. */
+	@Deprecated
 	public static DatabaseQuery constrainQueryWithinSameDay(DatabaseQuery q, ArdenValue time) {
-		return constrainQueryWithinTo(q, getStartOfDay(time), getEndOfDay(time));
+		return constrainQueryWithinSameDay(q, time, CivilTime.DEFAULT);
 	}
 
+	public static DatabaseQuery constrainQueryWithinSameDay(DatabaseQuery q, ArdenValue time, CivilTime calendar) {
+		return constrainQueryWithinTo(q, getStartOfDay(time, calendar), getEndOfDay(time, calendar));
+	}
+
+	/** Used by MLMs compiled before the time zone of the context was supported. */
+	@Deprecated
 	public static DatabaseQuery constrainQueryNotWithinSameDay(DatabaseQuery q, ArdenValue time) {
-		return constrainQueryNotWithinTo(q, getStartOfDay(time), getEndOfDay(time));
+		return constrainQueryNotWithinSameDay(q, time, CivilTime.DEFAULT);
+	}
+
+	public static DatabaseQuery constrainQueryNotWithinSameDay(DatabaseQuery q, ArdenValue time, CivilTime calendar) {
+		return constrainQueryNotWithinTo(q, getStartOfDay(time, calendar), getEndOfDay(time, calendar));
 	}
 
 	public static DatabaseQuery constrainQueryBefore(DatabaseQuery q, ArdenValue time) {
@@ -265,7 +287,7 @@ public final class RuntimeHelpers {
 		int shortestListLength = Integer.MAX_VALUE;
 		for (ArdenValue input : inputs) {
 			if (input instanceof ArdenList)
-				shortestListLength = Math.min(shortestListLength, ((ArdenList) input).values.length);
+				shortestListLength = Math.min(shortestListLength, ((ArdenList) input).size());
 			else
 				allInputsAreLists = false;
 		}
@@ -274,7 +296,7 @@ public final class RuntimeHelpers {
 			for (int i = 0; i < results.length; i++) {
 				ArdenObject obj = new ArdenObject(type);
 				for (int j = 0; j < inputs.length && j < obj.fields.length; j++)
-					obj.fields[j] = ((ArdenList) inputs[j]).values[i];
+					obj.fields[j] = ((ArdenList) inputs[j]).getElements()[i];
 				results[i] = obj;
 			}
 			return new ArdenList(results);
@@ -295,7 +317,7 @@ public final class RuntimeHelpers {
 			else
 				return obj.fields[index];
 		} else if (objref instanceof ArdenList) {
-			ArdenValue[] inputs = ((ArdenList) objref).values;
+			ArdenValue[] inputs = ((ArdenList) objref).getElements();
 			ArdenValue[] results = new ArdenValue[inputs.length];
 			for (int i = 0; i < inputs.length; i++)
 				results[i] = getObjectMember(inputs[i], upperCaseFieldName);
@@ -312,7 +334,7 @@ public final class RuntimeHelpers {
 			if (index >= 0)
 				obj.fields[index] = newValue;
 		} else if (objref instanceof ArdenList) {
-			for (ArdenValue listEntry : ((ArdenList) objref).values) {
+			for (ArdenValue listEntry : ((ArdenList) objref).getElements()) {
 				setObjectMember(listEntry, upperCaseFieldName, newValue);
 			}
 		}
@@ -0,0 +1,163 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.runtime;
+
+import java.lang.reflect.Field;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Execution counts and times of the statements of an MLM, indexed by line
+ * number.
+ * 
+ * MLMs compiled with Compiler.enableStatementProfiling() create a Timer for
+ * every execution of a slot and notify it at the start of every statement.
+ * The time between the start of a statement and the start of the next
+ * statement (or the end of the slot) is attributed to the line of the
+ * statement; so the time of a statement includes the time spent in MLMs it
+ * calls. If a slot throws an exception, the time of its last statement is
+ * not recorded.
+ */
+public final class StatementProfile {
+	/** Name of the static field holding the profile in the generated class. */
+	public static final String FIELD_NAME = "$profile";
+
+	private final String name;
+	private final AtomicLongArray counts;
+	private final AtomicLongArray nanos;
+
+	private StatementProfile(String name, int lineCount) {
+		this.name = name;
+		this.counts = new AtomicLongArray(lineCount);
+		this.nanos = new AtomicLongArray(lineCount);
+	}
+
+	/** Creates a profile. Called by the static initializer of generated classes. */
+	public static StatementProfile create(String name, int lineCount) {
+		return new StatementProfile(name, lineCount);
+	}
+
+	/**
+	 * Gets the profile of a compiled MLM class, or null if the class was not
+	 * compiled with statement profiling.
+	 */
+	public static StatementProfile forClass(Class<? extends MedicalLogicModuleImplementation> implementationClass) {
+		try {
+			Field field = implementationClass.getField(FIELD_NAME);
+			return (StatementProfile) field.get(null);
+		} catch (NoSuchFieldException e) {
+			return null;
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Gets the mlmname. */
+	public String getName() {
+		return name;
+	}
+
+	/** Gets the number of the last line containing a statement, plus one. */
+	public int getLineCount() {
+		return counts.length();
+	}
+
+	/**
+	 * Gets how often the statement(s) starting in the line were executed.
+	 * Returns 0 for lines without statements.
+	 */
+	public long getExecutionCount(int line) {
+		return line >= 0 && line < counts.length() ? counts.get(line) : 0;
+	}
+
+	/** Gets the total time spent in the statement(s) starting in the line in nanoseconds. */
+	public long getNanos(int line) {
+		return line >= 0 && line < nanos.length() ? nanos.get(line) : 0;
+	}
+
+	/** Sets all counts and times to zero. */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+			nanos.set(i, 0);
+		}
+	}
+
+	/** Creates a timer for an execution of a slot. */
+	public Timer startTimer() {
+		return new Timer(this);
+	}
+
+	/**
+	 * Measures the statements of one execution of a slot. A timer is used by a
+	 * single thread only.
+	 */
+	public static final class Timer {
+		private final StatementProfile profile;
+		private int line = -1;
+		private long startTime;
+
+		Timer(StatementProfile profile) {
+			this.profile = profile;
+		}
+
+		/** Called at the start of every statement. */
+		public void statement(int line) {
+			long now = System.nanoTime();
+			if (this.line >= 0)
+				profile.nanos.addAndGet(this.line, now - startTime);
+			profile.counts.incrementAndGet(line);
+			this.line = line;
+			this.startTime = now;
+		}
+
+		/** Called when the slot returns. */
+		public void finish() {
+			if (line >= 0) {
+				profile.nanos.addAndGet(line, System.nanoTime() - startTime);
+				line = -1;
+			}
+		}
+	}
+
+	/**
+	 * Returns a table with the count and time of every line that was
+	 * executed.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		b.append(String.format(Locale.ENGLISH, "%6s %10s %12s%n", "line", "count", "time [ms]"));
+		for (int i = 0; i < counts.length(); i++) {
+			long count = counts.get(i);
+			if (count > 0)
+				b.append(String.format(Locale.ENGLISH, "%6d %10d %12.3f%n", i, count, nanos.get(i) / 1e6));
+		}
+		return b.toString();
+	}
+}
@@ -0,0 +1,414 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.runtime;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Evaluates the aggregation operators AVERAGE, SUM, COUNT, EXIST and MEDIAN
+ * while reading the rows from a QueryCursor, without materializing the query
+ * results.
+ * 
+ * The results are identical to those of the operators in ExpressionHelpers.
+ * The only exception is MEDIAN on series of numbers that are longer than the
+ * exact median limit of the source: these are estimated using the P²
+ * algorithm, which needs constant memory. The estimate has a primary time
+ * only if all values share the same primary time.
+ */
+public final class StreamingAggregation {
+	private StreamingAggregation() {
+	}
+
+	/**
+	 * Gets whether the plan consists of time constraints followed by an
+	 * aggregation that can be evaluated while streaming.
+	 */
+	public static boolean canExecute(QueryPlan plan) {
+		List<QueryOperation> operations = plan.getOperations();
+		if (operations.isEmpty())
+			return false;
+		for (int i = 0; i < operations.size() - 1; i++) {
+			if (!operations.get(i).type.isConstraint())
+				return false;
+		}
+		switch (operations.get(operations.size() - 1).type) {
+		case AVERAGE:
+		case SUM:
+		case COUNT:
+		case EXIST:
+		case MEDIAN:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Executes a plan for which canExecute() returns true.
+	 * 
+	 * @return Returns the aggregated value for each column.
+	 */
+	public static ArdenValue[] execute(StreamingQuerySource source, QueryPlan plan) {
+		if (!canExecute(plan))
+			throw new IllegalArgumentException("Plan cannot be streamed: " + plan);
+		List<QueryOperation> operations = plan.getOperations();
+		QueryPlan constraints = QueryPlan.create(plan.getMapping());
+		for (int i = 0; i < operations.size() - 1; i++)
+			constraints = constraints.append(operations.get(i));
+		QueryOperation.Type type = operations.get(operations.size() - 1).type;
+
+		QueryCursor cursor = source.open(constraints);
+		try {
+			Aggregator[] aggregators = new Aggregator[cursor.getColumnCount()];
+			for (int i = 0; i < aggregators.length; i++)
+				aggregators[i] = createAggregator(type, source.getExactMedianLimit());
+			while (cursor.next()) {
+				for (int i = 0; i < aggregators.length; i++)
+					aggregators[i].add(cursor.getValue(i));
+			}
+			ArdenValue[] result = new ArdenValue[aggregators.length];
+			for (int i = 0; i < aggregators.length; i++)
+				result[i] = aggregators[i].getResult();
+			return result;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private static Aggregator createAggregator(QueryOperation.Type type, int exactMedianLimit) {
+		switch (type) {
+		case AVERAGE:
+			return new AverageAggregator();
+		case SUM:
+			return new SumAggregator();
+		case COUNT:
+			return new CountAggregator();
+		case EXIST:
+			return new ExistAggregator();
+		case MEDIAN:
+			return new MedianAggregator(exactMedianLimit);
+		default:
+			throw new IllegalArgumentException(type.toString());
+		}
+	}
+
+	/** Reduces a column to a single value. */
+	private static abstract class Aggregator {
+		/** The number of values added so far */
+		int count;
+		/** The primary time shared by all values added so far */
+		long commonTime = ArdenValue.NOPRIMARYTIME;
+
+		final void add(ArdenValue value) {
+			accumulate(value);
+			if (count == 0)
+				commonTime = value.primaryTime;
+			else
+				commonTime = BinaryOperator.combinePrimaryTime(commonTime, value.primaryTime);
+			count++;
+		}
+
+		/**
+		 * Processes the next value; count and commonTime do not include the
+		 * value yet.
+		 */
+		abstract void accumulate(ArdenValue value);
+
+		abstract ArdenValue getResult();
+	}
+
+	private static final class CountAggregator extends Aggregator {
+		@Override
+		void accumulate(ArdenValue value) {
+		}
+
+		@Override
+		ArdenValue getResult() {
+			return new ArdenNumber(count);
+		}
+	}
+
+	private static final class ExistAggregator extends Aggregator {
+		private boolean exists;
+
+		@Override
+		void accumulate(ArdenValue value) {
+			if (!(value instanceof ArdenNull))
+				exists = true;
+		}
+
+		@Override
+		ArdenValue getResult() {
+			return ArdenBoolean.create(exists, commonTime);
+		}
+	}
+
+	private static final class SumAggregator extends Aggregator {
+		/** The sum while all values are numbers */
+		private double sum;
+		/** The sum once a value is not a number; null before */
+		private ArdenValue partialSum;
+
+		@Override
+		void accumulate(ArdenValue value) {
+			if (partialSum == null && value instanceof ArdenNumber) {
+				sum += ((ArdenNumber) value).value;
+			} else if (partialSum == null) {
+				// continue like ExpressionHelpers.sum() on a list that is not
+				// a number list: add the elements one by one
+				if (count == 0)
+					partialSum = value;
+				else
+					partialSum = BinaryOperator.ADD.runElement(ArdenNumber.create(sum, commonTime), value);
+			} else {
+				partialSum = BinaryOperator.ADD.runElement(partialSum, value);
+			}
+		}
+
+		@Override
+		ArdenValue getResult() {
+			if (count == 0)
+				return ArdenNumber.ZERO;
+			if (partialSum != null)
+				return partialSum;
+			return ArdenNumber.create(sum, commonTime);
+		}
+	}
+
+	private static final class AverageAggregator extends Aggregator {
+		/** The type of the first value; null if the values cannot be averaged */
+		private Class<?> type;
+		private double sum;
+		private boolean isMonths;
+		private BigInteger timeSum = BigInteger.ZERO;
+
+		@Override
+		void accumulate(ArdenValue value) {
+			if (count == 0) {
+				if (value instanceof ArdenNumber || value instanceof ArdenTime || value instanceof ArdenDuration)
+					type = value.getClass();
+				if (value instanceof ArdenDuration)
+					isMonths = ((ArdenDuration) value).isMonths;
+			}
+			if (type == null || value.getClass() != type) {
+				type = null;
+			} else if (value instanceof ArdenNumber) {
+				sum += ((ArdenNumber) value).value;
+			} else if (value instanceof ArdenTime) {
+				timeSum = timeSum.add(BigInteger.valueOf(((ArdenTime) value).value));
+			} else {
+				// same conversion as ExpressionHelpers.average()
+				ArdenDuration d = (ArdenDuration) value;
+				if (isMonths && !d.isMonths) {
+					isMonths = false;
+					sum *= ArdenDuration.SECONDS_PER_MONTH;
+				}
+				if (isMonths)
+					sum += d.value;
+				else
+					sum += d.toSeconds();
+			}
+		}
+
+		@Override
+		ArdenValue getResult() {
+			if (count == 0 || type == null)
+				return ArdenNull.INSTANCE;
+			else if (type == ArdenNumber.class)
+				return ArdenNumber.create(sum / count, commonTime);
+			else if (type == ArdenTime.class)
+				return new ArdenTime(timeSum.divide(BigInteger.valueOf(count)).longValue(), commonTime);
+			else
+				return ArdenDuration.create(sum / count, isMonths, commonTime);
+		}
+	}
+
+	/**
+	 * Computes the median exactly by collecting the values (numbers are stored
+	 * unboxed). If more numbers than the exact median limit are added, the
+	 * collected values are discarded and the median is estimated instead.
+	 */
+	private static final class MedianAggregator extends Aggregator {
+		private final int exactLimit;
+		private double[] numbers = new double[16];
+		private long[] numberTimes = new long[16];
+		/** The collected values once a value is not a number; null before */
+		private List<ArdenValue> values;
+		/** The estimator; null if the exact median is computed */
+		private QuantileEstimator estimator;
+		/** Set if a value is not a number after the numbers were discarded */
+		private boolean notComparable;
+
+		MedianAggregator(int exactLimit) {
+			this.exactLimit = exactLimit;
+			if (exactLimit < Integer.MAX_VALUE)
+				estimator = new QuantileEstimator(0.5);
+		}
+
+		@Override
+		void accumulate(ArdenValue value) {
+			if (values != null) {
+				values.add(value);
+			} else if (value instanceof ArdenNumber) {
+				double d = ((ArdenNumber) value).value;
+				if (estimator != null)
+					estimator.add(d);
+				if (numbers != null) {
+					if (count == numbers.length) {
+						numbers = Arrays.copyOf(numbers, count * 2);
+						numberTimes = Arrays.copyOf(numberTimes, count * 2);
+					}
+					numbers[count] = d;
+					numberTimes[count] = value.primaryTime;
+					if (count + 1 > exactLimit) {
+						numbers = null;
+						numberTimes = null;
+					}
+				}
+			} else if (numbers != null) {
+				// values other than numbers cannot be estimated
+				values = new ArrayList<ArdenValue>();
+				for (int i = 0; i < count; i++)
+					values.add(ArdenNumber.create(numbers[i], numberTimes[i]));
+				values.add(value);
+				numbers = null;
+				numberTimes = null;
+				estimator = null;
+			} else {
+				// numbers mixed with other values cannot be sorted
+				notComparable = true;
+			}
+		}
+
+		@Override
+		ArdenValue getResult() {
+			if (count == 0 || notComparable)
+				return ArdenNull.INSTANCE;
+			if (values != null)
+				return ExpressionHelpers.median(new ArdenList(values.toArray(new ArdenValue[values.size()])));
+			if (numbers != null)
+				return ExpressionHelpers.median(ArdenList.createNumberList(Arrays.copyOf(numbers, count), Arrays
+						.copyOf(numberTimes, count)));
+			return ArdenNumber.create(estimator.getEstimate(), commonTime);
+		}
+	}
+
+	/**
+	 * Estimates a quantile of a series of numbers in constant memory using the
+	 * P² algorithm (R. Jain, I. Chlamtac: The P² algorithm for dynamic
+	 * calculation of quantiles and histograms without storing observations).
+	 * Five markers track the minimum, the maximum, the quantile and the two
+	 * quantiles halfway to the extremes; the heights of the markers are adjusted
+	 * using piecewise-parabolic interpolation as the values arrive.
+	 */
+	static final class QuantileEstimator {
+		private final double[] increments;
+		/** The heights of the markers (during the first five values: the values) */
+		private final double[] heights = new double[5];
+		/** The actual positions of the markers (1-based) */
+		private final double[] positions = new double[5];
+		/** The desired positions of the markers */
+		private final double[] desiredPositions = new double[5];
+		private int count;
+
+		QuantileEstimator(double quantile) {
+			increments = new double[] { 0, quantile / 2, quantile, (1 + quantile) / 2, 1 };
+		}
+
+		void add(double value) {
+			if (count < 5) {
+				heights[count++] = value;
+				if (count == 5) {
+					Arrays.sort(heights);
+					for (int i = 0; i < 5; i++) {
+						positions[i] = i + 1;
+						desiredPositions[i] = 1 + 4 * increments[i];
+					}
+				}
+				return;
+			}
+			count++;
+			// find the cell k with heights[k] <= value < heights[k + 1]
+			int k;
+			if (value < heights[0]) {
+				heights[0] = value;
+				k = 0;
+			} else if (value >= heights[4]) {
+				heights[4] = value;
+				k = 3;
+			} else {
+				k = 0;
+				while (value >= heights[k + 1])
+					k++;
+			}
+			for (int i = k + 1; i < 5; i++)
+				positions[i]++;
+			for (int i = 0; i < 5; i++)
+				desiredPositions[i] += increments[i];
+			// adjust the heights of the middle markers if necessary
+			for (int i = 1; i <= 3; i++) {
+				double d = desiredPositions[i] - positions[i];
+				if ((d >= 1 && positions[i + 1] - positions[i] > 1) || (d <= -1 && positions[i - 1] - positions[i] < -1)) {
+					int sign = d > 0 ? 1 : -1;
+					double height = parabolic(i, sign);
+					if (!(heights[i - 1] < height && height < heights[i + 1]))
+						height = heights[i] + sign * (heights[i + sign] - heights[i])
+								/ (positions[i + sign] - positions[i]);
+					heights[i] = height;
+					positions[i] += sign;
+				}
+			}
+		}
+
+		private double parabolic(int i, int sign) {
+			return heights[i] + sign / (positions[i + 1] - positions[i - 1])
+					* ((positions[i] - positions[i - 1] + sign) * (heights[i + 1] - heights[i])
+							/ (positions[i + 1] - positions[i]) + (positions[i + 1] - positions[i] - sign)
+							* (heights[i] - heights[i - 1]) / (positions[i] - positions[i - 1]));
+		}
+
+		/** Gets the estimated quantile; NaN if no values were added. */
+		double getEstimate() {
+			if (count >= 5)
+				return heights[2];
+			if (count == 0)
+				return Double.NaN;
+			// few values: interpolate between the sorted values
+			double[] sorted = Arrays.copyOf(heights, count);
+			Arrays.sort(sorted);
+			double position = increments[2] * (count - 1);
+			int lower = (int) position;
+			if (lower == count - 1)
+				return sorted[lower];
+			return sorted[lower] + (position - lower) * (sorted[lower + 1] - sorted[lower]);
+		}
+	}
+}
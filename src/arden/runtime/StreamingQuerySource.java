@@ -0,0 +1,52 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.runtime;
+
+/**
+ * A QuerySource that can also return the rows of a query one at a time.
+ * 
+ * PlannedQuery uses open() for plans that consist of time constraints
+ * followed by AVERAGE, SUM, COUNT, EXIST or MEDIAN, so these aggregations do
+ * not need to hold the complete query result in memory (see
+ * StreamingAggregation).
+ */
+public interface StreamingQuerySource extends QuerySource {
+	/**
+	 * Opens a cursor over the results of a plan that consists only of time
+	 * constraints. The rows must be returned in the order in which execute()
+	 * would return the elements.
+	 */
+	QueryCursor open(QueryPlan plan);
+
+	/**
+	 * Gets the number of values up to which MEDIAN is computed exactly. The
+	 * median of longer series of numbers is estimated using constant memory.
+	 * Return Integer.MAX_VALUE to always compute the exact median.
+	 */
+	int getExactMedianLimit();
+}
@@ -49,15 +49,34 @@ public abstract class TernaryOperator {
 		};
 	};
 
-	public static final TernaryOperator WITHINSURROUNDING = new TernaryOperator("WITHINSURROUNDING") {
+	public static final TernaryOperator WITHINSURROUNDING = new WithinSurroundingOperator(CivilTime.DEFAULT);
+
+	static final class WithinSurroundingOperator extends TernaryOperator {
+		private final CivilTime calendar;
+
+		WithinSurroundingOperator(CivilTime calendar) {
+			super("WITHINSURROUNDING");
+			this.calendar = calendar;
+		}
+
+		@Override
+		public boolean dependsOnTimeZone() {
+			return true;
+		}
+
+		@Override
+		public TernaryOperator inZone(CivilTime calendar) {
+			return (calendar == this.calendar) ? this : calendar.getOperators().withinSurrounding;
+		}
+
 		// <n:time> IS WITHIN <n:duration> SURROUNDING <n:time>
 		// => argument IS WITHIN (dur BEFORE time) TO (dur AFTER time)
 		@Override
 		public ArdenValue runElement(ArdenValue arg1, ArdenValue arg2, ArdenValue arg3) {
-			return WITHINTO.runElement(arg1, BinaryOperator.BEFORE.runElement(arg2, arg3), BinaryOperator.AFTER
-					.runElement(arg2, arg3));
+			return WITHINTO.runElement(arg1, BinaryOperator.BEFORE.inZone(calendar).runElement(arg2, arg3),
+					BinaryOperator.AFTER.inZone(calendar).runElement(arg2, arg3));
 		};
-	};
+	}
 
 	public static final TernaryOperator FINDSTRING = new TernaryOperator("FINDSTRING") {
 		// FIND <n:string> IN STRING <n:string> STARTING AT <n:number>
@@ -134,6 +153,20 @@ public abstract class TernaryOperator {
 		this.name = name;
 	}
 
+	/** Gets whether the result of the operator depends on the time zone. */
+	public boolean dependsOnTimeZone() {
+		return false;
+	}
+
+	/**
+	 * Gets the variant of this operator that does its calendar arithmetic in
+	 * the time zone of the specified calendar. Operators that do not depend on
+	 * the time zone return this.
+	 */
+	public TernaryOperator inZone(CivilTime calendar) {
+		return this;
+	}
+
 	/** Helper method for handling of primary times */
 	public static final long combinePrimaryTime(long time1, long time2, long time3) {
 		if (time1 == time2 && time1 == time3)
@@ -145,13 +178,13 @@ public abstract class TernaryOperator {
 	/** Implements the list logic for running the operator. */
 	public final ArdenValue run(ArdenValue arg1, ArdenValue arg2, ArdenValue arg3) {
 		if (arg1 instanceof ArdenList) {
-			ArdenValue[] args1 = ((ArdenList) arg1).values;
+			ArdenValue[] args1 = ((ArdenList) arg1).getElements();
 			return runList(args1, repeat(arg2, args1.length), repeat(arg3, args1.length));
 		} else if (arg2 instanceof ArdenList) {
-			ArdenValue[] args2 = ((ArdenList) arg2).values;
+			ArdenValue[] args2 = ((ArdenList) arg2).getElements();
 			return runList(repeat(arg1, args2.length), args2, repeat(arg3, args2.length));
 		} else if (arg3 instanceof ArdenList) {
-			ArdenValue[] args3 = ((ArdenList) arg3).values;
+			ArdenValue[] args3 = ((ArdenList) arg3).getElements();
 			return runList(repeat(arg1, args3.length), repeat(arg2, args3.length), args3);
 		} else {
 			return runElement(arg1, arg2, arg3);
@@ -169,7 +202,7 @@ public abstract class TernaryOperator {
 
 	private static ArdenValue[] repeat(ArdenValue arg, int times) {
 		if (arg instanceof ArdenList)
-			return ((ArdenList) arg).values;
+			return ((ArdenList) arg).getElements();
 		ArdenValue[] arr = new ArdenValue[times];
 		for (int i = 0; i < times; i++)
 			arr[i] = arg;
@@ -0,0 +1,329 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.runtime;
+
+import java.util.Arrays;
+
+/**
+ * Implementation of DatabaseQuery for query results whose rows are in
+ * chronological order.
+ * 
+ * The rows are kept sorted by primary time (the elements in one row share
+ * their primary time), so time constraints are evaluated using binary search
+ * and return a slice of the rows; EARLIEST and LATEST read the start or the
+ * end of the slice. The results are identical to those of a MemoryQuery on
+ * the same values. All other operations are delegated to a MemoryQuery.
+ */
+public final class TimeIndexedQuery extends DatabaseQuery {
+	/** The values passed to create(), returned when the slice covers all rows */
+	private final ArdenValue[] values;
+	/** The elements of each column */
+	private final ArdenValue[][] columns;
+	/** The primary time of each row */
+	private final long[] times;
+	/** The rows of this query: from (inclusive) to end (exclusive) */
+	private final int from, end;
+
+	private TimeIndexedQuery(ArdenValue[] values, ArdenValue[][] columns, long[] times, int from, int end) {
+		this.values = values;
+		this.columns = columns;
+		this.times = times;
+		this.from = from;
+		this.end = end;
+	}
+
+	/**
+	 * Creates a query on the specified values.
+	 * 
+	 * Returns a TimeIndexedQuery if all columns are lists of the same length,
+	 * all elements have a primary time, the elements in each row have the same
+	 * primary time and the rows are in chronological order. Otherwise, a
+	 * MemoryQuery is returned.
+	 * 
+	 * @param values
+	 *            The query results (one entry per column).
+	 */
+	public static DatabaseQuery create(ArdenValue[] values) {
+		if (values == null)
+			throw new NullPointerException();
+		if (values.length == 0)
+			return new MemoryQuery(values);
+		ArdenValue[][] columns = new ArdenValue[values.length][];
+		for (int i = 0; i < values.length; i++) {
+			if (!(values[i] instanceof ArdenList))
+				return new MemoryQuery(values);
+			columns[i] = values[i].getElements();
+			if (columns[i].length != columns[0].length)
+				return new MemoryQuery(values);
+		}
+		long[] times = new long[columns[0].length];
+		long previousTime = Long.MIN_VALUE;
+		for (int row = 0; row < times.length; row++) {
+			long time = columns[0][row].primaryTime;
+			if (time == ArdenValue.NOPRIMARYTIME || time < previousTime)
+				return new MemoryQuery(values);
+			for (int i = 1; i < columns.length; i++) {
+				if (columns[i][row].primaryTime != time)
+					return new MemoryQuery(values);
+			}
+			times[row] = time;
+			previousTime = time;
+		}
+		return new TimeIndexedQuery(values, columns, times, 0, times.length);
+	}
+
+	@Override
+	public ArdenValue[] execute() {
+		if (from == 0 && end == times.length)
+			return values;
+		ArdenValue[] result = new ArdenValue[columns.length];
+		for (int i = 0; i < columns.length; i++)
+			result[i] = new ArdenList(Arrays.copyOfRange(columns[i], from, end));
+		return result;
+	}
+
+	/** Returns the first row with a primary time >= time. */
+	private int lowerBound(long time) {
+		int low = from;
+		int high = end;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] < time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/** Returns the first row with a primary time > time. */
+	private int upperBound(long time) {
+		int low = from;
+		int high = end;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] <= time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private DatabaseQuery slice(int newFrom, int newEnd) {
+		if (newFrom == from && newEnd == end)
+			return this;
+		return new TimeIndexedQuery(values, columns, times, newFrom, newEnd);
+	}
+
+	/** Creates a query containing the rows from1 to end1 and from2 to end2. */
+	private DatabaseQuery slices(int from1, int end1, int from2, int end2) {
+		if (from1 == end1)
+			return slice(from2, end2);
+		if (from2 == end2)
+			return slice(from1, end1);
+		if (end1 == from2)
+			return slice(from1, end2);
+		int length = end1 - from1 + end2 - from2;
+		ArdenValue[][] newColumns = new ArdenValue[columns.length][];
+		ArdenValue[] newValues = new ArdenValue[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			newColumns[i] = new ArdenValue[length];
+			System.arraycopy(columns[i], from1, newColumns[i], 0, end1 - from1);
+			System.arraycopy(columns[i], from2, newColumns[i], end1 - from1, end2 - from2);
+			newValues[i] = new ArdenList(newColumns[i]);
+		}
+		long[] newTimes = new long[length];
+		System.arraycopy(times, from1, newTimes, 0, end1 - from1);
+		System.arraycopy(times, from2, newTimes, end1 - from1, end2 - from2);
+		return new TimeIndexedQuery(newValues, newColumns, newTimes, 0, length);
+	}
+
+	private MemoryQuery toMemoryQuery() {
+		return new MemoryQuery(execute());
+	}
+
+	/** Creates a query with one row (or null in every column if row is -1). */
+	private DatabaseQuery row(int row) {
+		ArdenValue[] result = new ArdenValue[columns.length];
+		for (int i = 0; i < columns.length; i++)
+			result[i] = row < 0 ? ArdenNull.INSTANCE : columns[i][row];
+		return new MemoryQuery(result);
+	}
+
+	@Override
+	public DatabaseQuery occursWithinTo(ArdenTime start, ArdenTime end) {
+		// WITHIN ... TO does not depend on the order of the bounds
+		long low = Math.min(start.value, end.value);
+		long high = Math.max(start.value, end.value);
+		return slice(lowerBound(low), upperBound(high));
+	}
+
+	@Override
+	public DatabaseQuery occursNotWithinTo(ArdenTime start, ArdenTime end) {
+		long low = Math.min(start.value, end.value);
+		long high = Math.max(start.value, end.value);
+		return slices(from, lowerBound(low), upperBound(high), this.end);
+	}
+
+	@Override
+	public DatabaseQuery occursBefore(ArdenTime time) {
+		return slice(from, lowerBound(time.value));
+	}
+
+	@Override
+	public DatabaseQuery occursNotBefore(ArdenTime time) {
+		return slice(lowerBound(time.value), end);
+	}
+
+	@Override
+	public DatabaseQuery occursAfter(ArdenTime time) {
+		return slice(upperBound(time.value), end);
+	}
+
+	@Override
+	public DatabaseQuery occursNotAfter(ArdenTime time) {
+		return slice(from, upperBound(time.value));
+	}
+
+	@Override
+	public DatabaseQuery occursAt(ArdenTime time) {
+		return slice(lowerBound(time.value), upperBound(time.value));
+	}
+
+	@Override
+	public DatabaseQuery occursNotAt(ArdenTime time) {
+		return slices(from, lowerBound(time.value), upperBound(time.value), end);
+	}
+
+	@Override
+	public DatabaseQuery average() {
+		return toMemoryQuery().average();
+	}
+
+	@Override
+	public DatabaseQuery count() {
+		return toMemoryQuery().count();
+	}
+
+	@Override
+	public DatabaseQuery exist() {
+		return toMemoryQuery().exist();
+	}
+
+	@Override
+	public DatabaseQuery sum() {
+		return toMemoryQuery().sum();
+	}
+
+	@Override
+	public DatabaseQuery median() {
+		return toMemoryQuery().median();
+	}
+
+	@Override
+	public DatabaseQuery minimum() {
+		return toMemoryQuery().minimum();
+	}
+
+	@Override
+	public DatabaseQuery minimum(int numberOfElements) {
+		return toMemoryQuery().minimum(numberOfElements);
+	}
+
+	@Override
+	public DatabaseQuery maximum() {
+		return toMemoryQuery().maximum();
+	}
+
+	@Override
+	public DatabaseQuery maximum(int numberOfElements) {
+		return toMemoryQuery().maximum(numberOfElements);
+	}
+
+	@Override
+	public DatabaseQuery last() {
+		return row(from < end ? end - 1 : -1);
+	}
+
+	@Override
+	public DatabaseQuery last(int numberOfElements) {
+		if (numberOfElements < 0)
+			return toMemoryQuery().last(numberOfElements);
+		return slice(Math.max(from, end - numberOfElements), end);
+	}
+
+	@Override
+	public DatabaseQuery first() {
+		return row(from < end ? from : -1);
+	}
+
+	@Override
+	public DatabaseQuery first(int numberOfElements) {
+		if (numberOfElements < 0)
+			return toMemoryQuery().first(numberOfElements);
+		return slice(from, Math.min(end, from + numberOfElements));
+	}
+
+	@Override
+	public DatabaseQuery latest() {
+		// of several rows at the latest time, the first one is returned
+		return row(from < end ? lowerBound(times[end - 1]) : -1);
+	}
+
+	@Override
+	public DatabaseQuery latest(int numberOfElements) {
+		if (numberOfElements < 0)
+			return toMemoryQuery().latest(numberOfElements);
+		if (numberOfElements >= end - from)
+			return this;
+		if (numberOfElements == 0)
+			return slice(end, end);
+		// All rows later than the pivot are part of the result; the remaining
+		// places are filled with the first rows at the pivot time.
+		long pivotTime = times[end - numberOfElements];
+		int pivotStart = lowerBound(pivotTime);
+		int pivotEnd = upperBound(pivotTime);
+		int remainingAtPivot = numberOfElements - (end - pivotEnd);
+		return slices(pivotStart, pivotStart + remainingAtPivot, pivotEnd, end);
+	}
+
+	@Override
+	public DatabaseQuery earliest() {
+		return first();
+	}
+
+	@Override
+	public DatabaseQuery earliest(int numberOfElements) {
+		if (numberOfElements < 0)
+			return toMemoryQuery().earliest(numberOfElements);
+		// rows at the same time are in their original order, so the earliest
+		// rows are the first ones
+		return first(numberOfElements);
+	}
+}
@@ -0,0 +1,206 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.runtime.batch;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import arden.runtime.ExecutionContext;
+import arden.runtime.MedicalLogicModule;
+import arden.runtime.MedicalLogicModuleImplementation;
+import arden.runtime.PrefetchingContext;
+
+/**
+ * Executes a set of MLMs for many patients.
+ * 
+ * Every patient is processed as one task on the Executor; within that task,
+ * the MLMs are executed one after another in the order of descending priority.
+ * The number of patients that are submitted but not yet handled is limited,
+ * so the patient iterator is only advanced as fast as the results are
+ * consumed.
+ */
+public final class BatchExecutor {
+	private final MedicalLogicModule[] modules;
+	private final Executor executor;
+	private final int maxPendingPatients;
+	private volatile boolean prefetchQueries;
+
+	/**
+	 * Creates a new BatchExecutor.
+	 * 
+	 * @param modules
+	 *            The MLMs to execute for each patient.
+	 * @param executor
+	 *            The executor that runs the per-patient tasks, usually a thread
+	 *            pool. The executor is not shut down by the BatchExecutor.
+	 * @param maxPendingPatients
+	 *            The maximum number of patients that are being processed or
+	 *            whose results have not yet been passed to the handler.
+	 */
+	public BatchExecutor(Collection<? extends MedicalLogicModule> modules, Executor executor, int maxPendingPatients) {
+		if (modules == null || executor == null)
+			throw new NullPointerException();
+		if (maxPendingPatients < 1)
+			throw new IllegalArgumentException("maxPendingPatients must be at least 1");
+		List<MedicalLogicModule> sortedModules = new ArrayList<MedicalLogicModule>(modules);
+		// Collections.sort is stable, so MLMs with the same priority keep their order
+		Collections.sort(sortedModules, new Comparator<MedicalLogicModule>() {
+			@Override
+			public int compare(MedicalLogicModule a, MedicalLogicModule b) {
+				return Double.compare(b.getPriority(), a.getPriority());
+			}
+		});
+		this.modules = sortedModules.toArray(new MedicalLogicModule[sortedModules.size()]);
+		this.executor = executor;
+		this.maxPendingPatients = maxPendingPatients;
+	}
+
+	/** Gets the MLMs in the order in which they are executed. */
+	public List<MedicalLogicModule> getModules() {
+		List<MedicalLogicModule> list = new ArrayList<MedicalLogicModule>(modules.length);
+		Collections.addAll(list, modules);
+		return Collections.unmodifiableList(list);
+	}
+
+	/** Gets whether the queries of all MLMs are fetched before the MLMs are executed. */
+	public boolean getPrefetchQueries() {
+		return prefetchQueries;
+	}
+
+	/**
+	 * Sets whether the queries of all MLMs are fetched before the MLMs are
+	 * executed. If enabled, every patient's data is fetched once using a
+	 * single ExecutionContext.executeQueries() call, and the MLMs read from
+	 * that snapshot (see PrefetchingContext).
+	 * 
+	 * Disabled by default: the snapshot holds the complete history of every
+	 * mapping, because the constraints of the READ statements are applied in
+	 * memory instead of in the data source.
+	 */
+	public void setPrefetchQueries(boolean prefetchQueries) {
+		this.prefetchQueries = prefetchQueries;
+	}
+
+	/**
+	 * Executes the MLMs for all patients. This method returns when the results
+	 * of all patients have been passed to the handler.
+	 * 
+	 * Exceptions thrown by an MLM are reported in its BatchResult and do not
+	 * affect the other MLMs. Exceptions thrown by the handler abort the batch;
+	 * patients that are still being processed will be completed, but their
+	 * results are discarded.
+	 */
+	public void execute(Iterator<? extends ExecutionContext> patients, BatchResultHandler handler)
+			throws InterruptedException {
+		if (patients == null || handler == null)
+			throw new NullPointerException();
+		BlockingQueue<PatientTask> completed = new LinkedBlockingQueue<PatientTask>();
+		int pending = 0;
+		while (true) {
+			while (pending < maxPendingPatients && patients.hasNext()) {
+				executor.execute(new PatientTask(patients.next(), completed));
+				pending++;
+			}
+			if (pending == 0)
+				return;
+			PatientTask task = completed.take();
+			pending--;
+			if (task.failure instanceof Error)
+				throw (Error) task.failure;
+			else if (task.failure != null)
+				throw new RuntimeException(task.failure);
+			handler.patientCompleted(task.context, task.results);
+		}
+	}
+
+	/** Executes all MLMs for a single patient on the current thread. */
+	public BatchResult[] execute(ExecutionContext context) {
+		BatchResult[] results = new BatchResult[modules.length];
+		ExecutionContext mlmContext = context;
+		if (prefetchQueries) {
+			try {
+				mlmContext = PrefetchingContext.create(context, Arrays.asList(modules));
+			} catch (RuntimeException ex) {
+				// without the patient's data, none of the MLMs can run
+				for (int i = 0; i < modules.length; i++)
+					results[i] = new BatchResult(modules[i], context, false, null, ex);
+				return results;
+			}
+		}
+		for (int i = 0; i < modules.length; i++)
+			results[i] = execute(modules[i], context, mlmContext);
+		return results;
+	}
+
+	private static BatchResult execute(MedicalLogicModule module, ExecutionContext context,
+			ExecutionContext mlmContext) {
+		try {
+			MedicalLogicModuleImplementation impl = module.createInstance(mlmContext, null);
+			if (impl.logic(mlmContext))
+				return new BatchResult(module, context, true, impl.action(mlmContext), null);
+			else
+				return new BatchResult(module, context, false, null, null);
+		} catch (InvocationTargetException ex) {
+			return new BatchResult(module, context, false, null, ex.getCause() != null ? ex.getCause() : ex);
+		} catch (RuntimeException ex) {
+			return new BatchResult(module, context, false, null, ex);
+		}
+	}
+
+	private final class PatientTask implements Runnable {
+		final ExecutionContext context;
+		final BlockingQueue<PatientTask> completed;
+		BatchResult[] results;
+		Throwable failure;
+
+		PatientTask(ExecutionContext context, BlockingQueue<PatientTask> completed) {
+			this.context = context;
+			this.completed = completed;
+		}
+
+		@Override
+		public void run() {
+			try {
+				results = execute(context);
+			} catch (Throwable ex) {
+				failure = ex;
+			} finally {
+				// the queue publishes the fields to the thread calling execute()
+				completed.add(this);
+			}
+		}
+	}
+}
@@ -0,0 +1,86 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.runtime.batch;
+
+import arden.runtime.ArdenValue;
+import arden.runtime.ExecutionContext;
+import arden.runtime.MedicalLogicModule;
+
+/**
+ * The outcome of executing one MLM for one patient in a BatchExecutor.
+ */
+public final class BatchResult {
+	private final MedicalLogicModule module;
+	private final ExecutionContext context;
+	private final boolean concluded;
+	private final ArdenValue[] returnValues;
+	private final Throwable error;
+
+	BatchResult(MedicalLogicModule module, ExecutionContext context, boolean concluded, ArdenValue[] returnValues,
+			Throwable error) {
+		this.module = module;
+		this.context = context;
+		this.concluded = concluded;
+		this.returnValues = returnValues;
+		this.error = error;
+	}
+
+	/** Gets the MLM that was executed. */
+	public MedicalLogicModule getModule() {
+		return module;
+	}
+
+	/** Gets the context (patient) the MLM was executed for. */
+	public ExecutionContext getContext() {
+		return context;
+	}
+
+	/** Gets whether the logic block concluded true, i.e. the action block was executed. */
+	public boolean isConcluded() {
+		return concluded;
+	}
+
+	/**
+	 * Gets the value(s) provided by the "return" statement, or (Java) null if
+	 * the action block was not executed or did not execute a return statement.
+	 */
+	public ArdenValue[] getReturnValues() {
+		return returnValues;
+	}
+
+	/** Gets the exception thrown by the MLM, or null if the MLM completed normally. */
+	public Throwable getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		if (error != null)
+			return module.getName() + ": " + error;
+		return module.getName() + ": " + (concluded ? "concluded true" : "concluded false");
+	}
+}
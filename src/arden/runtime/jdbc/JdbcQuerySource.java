@@ -0,0 +1,525 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.runtime.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import arden.runtime.ArdenBoolean;
+import arden.runtime.ArdenList;
+import arden.runtime.ArdenNull;
+import arden.runtime.ArdenNumber;
+import arden.runtime.ArdenString;
+import arden.runtime.ArdenTime;
+import arden.runtime.ArdenValue;
+import arden.runtime.MemoryQuery;
+import arden.runtime.QueryCursor;
+import arden.runtime.QueryOperation;
+import arden.runtime.QueryPlan;
+import arden.runtime.StreamingQuerySource;
+
+/**
+ * QuerySource that reads the data from a relational database using JDBC.
+ * 
+ * Every mapping clause is resolved to an SqlTemplate. The time constraints at
+ * the start of a query plan are translated into WHERE predicates on the time
+ * column; a following FIRST, LAST, EARLIEST or LATEST operator is translated
+ * into ORDER BY and a row limit. All remaining operations are evaluated in
+ * memory.
+ * 
+ * AVERAGE, SUM, COUNT, EXIST and MEDIAN after time constraints are evaluated
+ * on a cursor over the result set (see StreamingQuerySource), so the rows are
+ * not kept in memory.
+ * 
+ * Prepared statements are cached per generated SQL text and kept open until
+ * close() is called. Times and row limits are passed as parameters, so the
+ * number of cached statements only depends on the shapes of the query plans.
+ * Cursors do not use the cache: every cursor prepares a statement of its own
+ * and closes it together with the result set, so queries can be executed
+ * while a cursor is open. Instances of this class are not thread-safe, use one
+ * instance per connection.
+ */
+public class JdbcQuerySource implements StreamingQuerySource {
+	/** The number of rows fetched at once by cursors */
+	private static final int CURSOR_FETCH_SIZE = 1000;
+
+	private final Connection connection;
+	private final Map<String, SqlTemplate> templates = new HashMap<String, SqlTemplate>();
+	private final Map<String, PreparedStatement> statementCache = new HashMap<String, PreparedStatement>();
+	private int exactMedianLimit = Integer.MAX_VALUE;
+
+	public JdbcQuerySource(Connection connection) {
+		if (connection == null)
+			throw new NullPointerException();
+		this.connection = connection;
+	}
+
+	public Connection getConnection() {
+		return connection;
+	}
+
+	/** Registers the SQL template that is used for the specified mapping clause. */
+	public void addTemplate(String mapping, SqlTemplate template) {
+		if (mapping == null || template == null)
+			throw new NullPointerException();
+		templates.put(mapping.trim(), template);
+	}
+
+	/**
+	 * Gets the SQL template for a mapping clause. The default implementation
+	 * looks up the templates registered with addTemplate(); derived classes may
+	 * override this method to construct templates from the mapping string.
+	 * 
+	 * @return Returns the template, or null if the mapping is unknown.
+	 */
+	protected SqlTemplate resolveTemplate(String mapping) {
+		return templates.get(mapping.trim());
+	}
+
+	/**
+	 * Creates a QuerySource that passes the specified parameters to the '?'
+	 * placeholders in the SQL templates, e.g. the ID of the current patient.
+	 */
+	public StreamingQuerySource withParameters(final Object... parameters) {
+		return new StreamingQuerySource() {
+			@Override
+			public ArdenValue[] execute(QueryPlan plan) {
+				return JdbcQuerySource.this.execute(plan, parameters);
+			}
+
+			@Override
+			public QueryCursor open(QueryPlan plan) {
+				return JdbcQuerySource.this.open(plan, parameters);
+			}
+
+			@Override
+			public int getExactMedianLimit() {
+				return exactMedianLimit;
+			}
+		};
+	}
+
+	@Override
+	public int getExactMedianLimit() {
+		return exactMedianLimit;
+	}
+
+	/**
+	 * Sets the number of values up to which MEDIAN is computed exactly; the
+	 * median of longer series of numbers is estimated. The default is
+	 * Integer.MAX_VALUE (always exact).
+	 */
+	public void setExactMedianLimit(int exactMedianLimit) {
+		if (exactMedianLimit < 0)
+			throw new IllegalArgumentException("exactMedianLimit must not be negative");
+		this.exactMedianLimit = exactMedianLimit;
+	}
+
+	@Override
+	public ArdenValue[] execute(QueryPlan plan) {
+		return execute(plan, new Object[0]);
+	}
+
+	@Override
+	public QueryCursor open(QueryPlan plan) {
+		return open(plan, new Object[0]);
+	}
+
+	private SqlTemplate getTemplate(QueryPlan plan) {
+		SqlTemplate template = resolveTemplate(plan.getMapping());
+		if (template == null)
+			throw new RuntimeException("No SQL template for mapping '" + plan.getMapping() + "'");
+		return template;
+	}
+
+	/**
+	 * Appends the query for the template and translates the leading time
+	 * constraints into WHERE predicates.
+	 * 
+	 * @return Returns the number of operations that were translated.
+	 */
+	private static int appendQuery(StringBuilder sql, List<Object> arguments, SqlTemplate template,
+			List<QueryOperation> operations, Object[] parameters) {
+		String time = "arden_query." + template.getTimeColumn();
+		sql.append("SELECT * FROM (").append(template.getSql()).append(") arden_query");
+		for (Object parameter : parameters)
+			arguments.add(parameter);
+		int count = 0;
+		while (count < operations.size() && operations.get(count).type.isConstraint()) {
+			sql.append(count == 0 ? " WHERE " : " AND ");
+			appendConstraint(sql, arguments, time, operations.get(count));
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Executes the query plan.
+	 * 
+	 * @param parameters
+	 *            The values for the '?' placeholders in the SQL template.
+	 */
+	public ArdenValue[] execute(QueryPlan plan, Object[] parameters) {
+		SqlTemplate template = getTemplate(plan);
+		List<QueryOperation> operations = plan.getOperations();
+
+		String time = "arden_query." + template.getTimeColumn();
+		StringBuilder sql = new StringBuilder();
+		List<Object> arguments = new ArrayList<Object>();
+		// translate leading time constraints into WHERE predicates
+		int firstOperation = appendQuery(sql, arguments, template, operations, parameters);
+
+		// translate a following selection into ORDER BY + row limit
+		int limit = 0;
+		boolean descending = false;
+		if (firstOperation < operations.size()) {
+			QueryOperation op = operations.get(firstOperation);
+			switch (op.type) {
+			case FIRST:
+			case EARLIEST:
+				limit = 1;
+				break;
+			case LAST:
+			case LATEST:
+				limit = 1;
+				descending = true;
+				break;
+			case FIRST_N:
+			case EARLIEST_N:
+				limit = op.numberOfElements;
+				break;
+			case LAST_N:
+			case LATEST_N:
+				limit = op.numberOfElements;
+				descending = true;
+				break;
+			default:
+				break;
+			}
+		}
+		if (limit > 0 || !isOrderIndependent(operations, firstOperation)) {
+			sql.append(" ORDER BY ").append(time);
+			if (descending)
+				sql.append(" DESC");
+		}
+		if (limit > 0)
+			appendLimit(sql, arguments, limit);
+		else
+			descending = false;
+
+		ArdenValue[] values;
+		try {
+			values = executeSql(sql.toString(), arguments, template.getTimeColumn(), descending);
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+		// The selection operator is re-applied in memory; this is necessary
+		// because it also converts lists into single values.
+		return plan.applyTo(new MemoryQuery(values), firstOperation).execute();
+	}
+
+	/**
+	 * Opens a cursor over the rows selected by a plan that consists only of
+	 * time constraints.
+	 * 
+	 * @param parameters
+	 *            The values for the '?' placeholders in the SQL template.
+	 */
+	public QueryCursor open(QueryPlan plan, Object[] parameters) {
+		SqlTemplate template = getTemplate(plan);
+		List<QueryOperation> operations = plan.getOperations();
+		StringBuilder sql = new StringBuilder();
+		List<Object> arguments = new ArrayList<Object>();
+		if (appendQuery(sql, arguments, template, operations, parameters) != operations.size())
+			throw new IllegalArgumentException("Plan contains operations other than time constraints: " + plan);
+		sql.append(" ORDER BY arden_query.").append(template.getTimeColumn());
+		try {
+			// executing a statement closes its previous result set, so the
+			// cursor cannot use a cached statement
+			PreparedStatement statement = connection.prepareStatement(sql.toString());
+			try {
+				setParameters(statement, arguments);
+				statement.setFetchSize(CURSOR_FETCH_SIZE);
+				ResultSet rs = statement.executeQuery();
+				String timeColumn = template.getTimeColumn();
+				return new ResultSetCursor(statement, rs, getDataColumns(rs, timeColumn), timeColumn);
+			} catch (SQLException e) {
+				statement.close();
+				throw e;
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * QueryCursor that reads the rows of a result set. Closing the cursor
+	 * closes the statement.
+	 */
+	private final class ResultSetCursor implements QueryCursor {
+		private final PreparedStatement statement;
+		private final ResultSet rs;
+		private final int[] columns;
+		private final String timeColumn;
+		private long primaryTime;
+
+		ResultSetCursor(PreparedStatement statement, ResultSet rs, int[] columns, String timeColumn) {
+			this.statement = statement;
+			this.rs = rs;
+			this.columns = columns;
+			this.timeColumn = timeColumn;
+		}
+
+		@Override
+		public int getColumnCount() {
+			return columns.length;
+		}
+
+		@Override
+		public boolean next() {
+			try {
+				if (!rs.next())
+					return false;
+				primaryTime = getPrimaryTime(rs, timeColumn);
+				return true;
+			} catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public ArdenValue getValue(int column) {
+			try {
+				return convert(rs.getObject(columns[column]), primaryTime);
+			} catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public void close() {
+			try {
+				// also closes the result set
+				statement.close();
+			} catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private static void appendConstraint(StringBuilder sql, List<Object> arguments, String time, QueryOperation op) {
+		switch (op.type) {
+		case OCCURS_WITHIN_TO:
+		case OCCURS_NOT_WITHIN_TO:
+			if (op.type == QueryOperation.Type.OCCURS_NOT_WITHIN_TO)
+				sql.append("NOT ");
+			sql.append('(').append(time).append(" BETWEEN ? AND ?)");
+			// WITHIN ... TO does not depend on the order of the bounds
+			arguments.add(new Timestamp(Math.min(op.time.value, op.endTime.value)));
+			arguments.add(new Timestamp(Math.max(op.time.value, op.endTime.value)));
+			return;
+		case OCCURS_BEFORE:
+			sql.append(time).append(" < ?");
+			break;
+		case OCCURS_NOT_BEFORE:
+			sql.append(time).append(" >= ?");
+			break;
+		case OCCURS_AFTER:
+			sql.append(time).append(" > ?");
+			break;
+		case OCCURS_NOT_AFTER:
+			sql.append(time).append(" <= ?");
+			break;
+		case OCCURS_AT:
+			sql.append(time).append(" = ?");
+			break;
+		case OCCURS_NOT_AT:
+			sql.append(time).append(" <> ?");
+			break;
+		default:
+			throw new IllegalArgumentException(op.toString());
+		}
+		arguments.add(new Timestamp(op.time.value));
+	}
+
+	/**
+	 * Gets whether the result of the operations starting at firstOperation
+	 * does not depend on the order of the rows, so the query needs no ORDER BY.
+	 */
+	private static boolean isOrderIndependent(List<QueryOperation> operations, int firstOperation) {
+		if (firstOperation >= operations.size())
+			return false;
+		QueryOperation.Type type = operations.get(firstOperation).type;
+		return type == QueryOperation.Type.COUNT || type == QueryOperation.Type.EXIST;
+	}
+
+	/**
+	 * Appends the clause that limits the number of rows returned by the query.
+	 * The limit is passed as a parameter, so plans that differ only in the
+	 * number of elements share one prepared statement. The default
+	 * implementation uses the SQL:2008 syntax "FETCH FIRST ? ROWS ONLY";
+	 * override this method for databases that only support LIMIT or TOP.
+	 * 
+	 * @param arguments
+	 *            The list of parameters for the statement; the limit must be
+	 *            added in the position of its placeholder.
+	 */
+	protected void appendLimit(StringBuilder sql, List<Object> arguments, int limit) {
+		sql.append(" FETCH FIRST ? ROWS ONLY");
+		arguments.add(limit);
+	}
+
+	private PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement statement = statementCache.get(sql);
+		if (statement == null) {
+			statement = connection.prepareStatement(sql);
+			statementCache.put(sql, statement);
+		}
+		return statement;
+	}
+
+	private PreparedStatement bind(String sql, List<Object> arguments) throws SQLException {
+		PreparedStatement statement = prepare(sql);
+		statement.clearParameters();
+		setParameters(statement, arguments);
+		return statement;
+	}
+
+	private static void setParameters(PreparedStatement statement, List<Object> arguments) throws SQLException {
+		for (int i = 0; i < arguments.size(); i++)
+			statement.setObject(i + 1, arguments.get(i));
+	}
+
+	/** Gets the indices of all columns except for the time column. */
+	private static int[] getDataColumns(ResultSet rs, String timeColumn) throws SQLException {
+		ResultSetMetaData metaData = rs.getMetaData();
+		List<Integer> dataColumns = new ArrayList<Integer>();
+		for (int i = 1; i <= metaData.getColumnCount(); i++) {
+			if (!metaData.getColumnLabel(i).equalsIgnoreCase(timeColumn))
+				dataColumns.add(i);
+		}
+		int[] columns = new int[dataColumns.size()];
+		for (int i = 0; i < columns.length; i++)
+			columns[i] = dataColumns.get(i);
+		return columns;
+	}
+
+	private static long getPrimaryTime(ResultSet rs, String timeColumn) throws SQLException {
+		Timestamp time = rs.getTimestamp(timeColumn);
+		return time != null ? time.getTime() : ArdenValue.NOPRIMARYTIME;
+	}
+
+	private ArdenValue[] executeSql(String sql, List<Object> arguments, String timeColumn, boolean reverse)
+			throws SQLException {
+		PreparedStatement statement = bind(sql, arguments);
+		List<Object[]> rows = new ArrayList<Object[]>();
+		List<Long> times = new ArrayList<Long>();
+		int[] columns;
+		ResultSet rs = statement.executeQuery();
+		try {
+			columns = getDataColumns(rs, timeColumn);
+			while (rs.next()) {
+				times.add(getPrimaryTime(rs, timeColumn));
+				Object[] row = new Object[columns.length];
+				for (int i = 0; i < columns.length; i++)
+					row[i] = rs.getObject(columns[i]);
+				rows.add(row);
+			}
+		} finally {
+			rs.close();
+		}
+
+		int rowCount = rows.size();
+		long[] primaryTimes = new long[rowCount];
+		for (int i = 0; i < rowCount; i++)
+			primaryTimes[i] = times.get(reverse ? rowCount - 1 - i : i);
+		ArdenValue[] result = new ArdenValue[columns.length];
+		for (int column = 0; column < columns.length; column++) {
+			Object[] data = new Object[rowCount];
+			boolean allNumbers = true;
+			for (int i = 0; i < rowCount; i++) {
+				data[i] = rows.get(reverse ? rowCount - 1 - i : i)[column];
+				allNumbers &= data[i] instanceof Number;
+			}
+			if (allNumbers) {
+				double[] numbers = new double[rowCount];
+				for (int i = 0; i < rowCount; i++)
+					numbers[i] = ((Number) data[i]).doubleValue();
+				result[column] = ArdenList.createNumberList(numbers, primaryTimes.clone());
+			} else {
+				ArdenValue[] elements = new ArdenValue[rowCount];
+				for (int i = 0; i < rowCount; i++)
+					elements[i] = convert(data[i], primaryTimes[i]);
+				result[column] = new ArdenList(elements);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Converts a value read from the database into an Arden value. Derived
+	 * classes may override this method to support additional SQL types.
+	 */
+	protected ArdenValue convert(Object value, long primaryTime) {
+		if (value == null)
+			return ArdenNull.create(primaryTime);
+		else if (value instanceof Number)
+			return ArdenNumber.create(((Number) value).doubleValue(), primaryTime);
+		else if (value instanceof String)
+			return new ArdenString((String) value, primaryTime);
+		else if (value instanceof java.util.Date)
+			return new ArdenTime(((java.util.Date) value).getTime(), primaryTime);
+		else if (value instanceof Boolean)
+			return ArdenBoolean.create((Boolean) value, primaryTime);
+		else
+			return new ArdenString(value.toString(), primaryTime);
+	}
+
+	/** Closes all cached prepared statements. The connection is not closed. */
+	public void close() throws SQLException {
+		SQLException error = null;
+		for (PreparedStatement statement : statementCache.values()) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				if (error == null)
+					error = e;
+			}
+		}
+		statementCache.clear();
+		if (error != null)
+			throw error;
+	}
+}
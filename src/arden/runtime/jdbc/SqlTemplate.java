@@ -0,0 +1,71 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.runtime.jdbc;
+
+/**
+ * The SQL query a mapping clause resolves to.
+ * 
+ * The query may contain '?' parameters which are bound to the parameters
+ * passed to JdbcQuerySource.withParameters() (e.g. the patient ID). Every
+ * column of the result set except the time column becomes one column of the
+ * Arden query result; the time column provides the primary times.
+ */
+public final class SqlTemplate {
+	private final String sql;
+	private final String timeColumn;
+
+	/**
+	 * Creates a new SQL template.
+	 * 
+	 * @param sql
+	 *            The SELECT statement. Time constraints and row limits are
+	 *            added around this statement, so it should not contain an ORDER
+	 *            BY clause.
+	 * @param timeColumn
+	 *            The name of the column that contains the primary time. The
+	 *            column must be of an SQL date/time type.
+	 */
+	public SqlTemplate(String sql, String timeColumn) {
+		if (sql == null || timeColumn == null)
+			throw new NullPointerException();
+		this.sql = sql;
+		this.timeColumn = timeColumn;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	public String getTimeColumn() {
+		return timeColumn;
+	}
+
+	@Override
+	public String toString() {
+		return sql;
+	}
+}
@@ -0,0 +1,108 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.runtime.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import arden.runtime.MedicalLogicModule;
+
+/**
+ * Collects execution metrics of MLMs, keyed by mlmname.
+ * 
+ * MLMs are measured by wrapping them using instrument(). The wrapper counts
+ * invocations and conclusions, measures the time spent in the data, logic and
+ * action slots, and counts the database queries and the values they return.
+ * Counters are updated without locks, so instrumented MLMs can run on many
+ * threads.
+ * 
+ * When the metrics are disabled, instrumented MLMs call the wrapped MLM
+ * directly and nothing is recorded.
+ */
+public final class ExecutionMetrics {
+	private final ConcurrentMap<String, MlmMetrics> metrics = new ConcurrentHashMap<String, MlmMetrics>();
+	private volatile boolean enabled = true;
+
+	/** Gets whether metrics are being recorded. */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/** Enables or disables recording. Metrics are enabled by default. */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/** Wraps an MLM so that its executions are recorded. */
+	public MedicalLogicModule instrument(MedicalLogicModule module) {
+		if (module == null)
+			throw new NullPointerException();
+		return new InstrumentedModule(module, this);
+	}
+
+	/** Gets the metrics of an MLM, creating them if necessary. */
+	public MlmMetrics getMetrics(String mlmName) {
+		MlmMetrics m = metrics.get(mlmName);
+		if (m == null) {
+			MlmMetrics newMetrics = new MlmMetrics(mlmName);
+			m = metrics.putIfAbsent(mlmName, newMetrics);
+			if (m == null)
+				m = newMetrics;
+		}
+		return m;
+	}
+
+	/** Gets the metrics of all MLMs that were instrumented, sorted by mlmname. */
+	public List<MlmMetrics> getAllMetrics() {
+		List<MlmMetrics> result = new ArrayList<MlmMetrics>(metrics.values());
+		Collections.sort(result, new Comparator<MlmMetrics>() {
+			@Override
+			public int compare(MlmMetrics a, MlmMetrics b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		return result;
+	}
+
+	/** Passes the metrics of all MLMs to the exporter. */
+	public void export(MetricsExporter exporter) {
+		Collection<MlmMetrics> all = Collections.unmodifiableList(getAllMetrics());
+		exporter.export(all);
+	}
+
+	/** Sets the counters of all MLMs to zero. */
+	public void reset() {
+		for (MlmMetrics m : metrics.values())
+			m.reset();
+	}
+}
@@ -0,0 +1,165 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.runtime.metrics;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.List;
+
+import arden.runtime.ArdenValue;
+import arden.runtime.ExecutionContext;
+import arden.runtime.LibraryMetadata;
+import arden.runtime.MaintenanceMetadata;
+import arden.runtime.MedicalLogicModule;
+import arden.runtime.MedicalLogicModuleImplementation;
+import arden.runtime.QueryMappingProvider;
+
+/**
+ * MedicalLogicModule wrapper that records executions in ExecutionMetrics.
+ */
+final class InstrumentedModule implements MedicalLogicModule, QueryMappingProvider {
+	private final MedicalLogicModule module;
+	private final ExecutionMetrics executionMetrics;
+	private final MlmMetrics metrics;
+
+	InstrumentedModule(MedicalLogicModule module, ExecutionMetrics executionMetrics) {
+		this.module = module;
+		this.executionMetrics = executionMetrics;
+		this.metrics = executionMetrics.getMetrics(module.getName());
+	}
+
+	/** Wraps the instance to measure the logic and action slots. */
+	private static final class InstrumentedImplementation extends MedicalLogicModuleImplementation {
+		private final MedicalLogicModuleImplementation impl;
+		private final MlmMetrics metrics;
+
+		InstrumentedImplementation(MedicalLogicModuleImplementation impl, MlmMetrics metrics) {
+			this.impl = impl;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public boolean logic(ExecutionContext context) {
+			long startTime = System.nanoTime();
+			boolean result;
+			try {
+				result = impl.logic(context);
+			} catch (RuntimeException e) {
+				metrics.errors.increment();
+				throw e;
+			} finally {
+				metrics.logicNanos.add(System.nanoTime() - startTime);
+			}
+			if (result)
+				metrics.concludedTrue.increment();
+			else
+				metrics.concludedFalse.increment();
+			return result;
+		}
+
+		@Override
+		public ArdenValue[] action(ExecutionContext context) {
+			long startTime = System.nanoTime();
+			try {
+				return impl.action(context);
+			} catch (RuntimeException e) {
+				metrics.errors.increment();
+				throw e;
+			} finally {
+				metrics.actionNanos.add(System.nanoTime() - startTime);
+			}
+		}
+
+		@Override
+		public double getUrgency() {
+			return impl.getUrgency();
+		}
+	}
+
+	@Override
+	public MedicalLogicModuleImplementation createInstance(ExecutionContext context, ArdenValue[] arguments)
+			throws InvocationTargetException {
+		if (!executionMetrics.isEnabled())
+			return module.createInstance(context, arguments);
+		metrics.invocations.increment();
+		long startTime = System.nanoTime();
+		MedicalLogicModuleImplementation impl;
+		try {
+			impl = module.createInstance(new MeteringContext(context, executionMetrics, metrics), arguments);
+		} catch (InvocationTargetException e) {
+			metrics.errors.increment();
+			throw e;
+		} catch (RuntimeException e) {
+			metrics.errors.increment();
+			throw e;
+		} finally {
+			metrics.dataNanos.add(System.nanoTime() - startTime);
+		}
+		return new InstrumentedImplementation(impl, metrics);
+	}
+
+	@Override
+	public ArdenValue[] run(ExecutionContext context, ArdenValue[] arguments) throws InvocationTargetException {
+		MedicalLogicModuleImplementation impl = createInstance(context, arguments);
+		try {
+			if (impl.logic(context))
+				return impl.action(context);
+			else
+				return null;
+		} catch (Exception ex) {
+			throw new InvocationTargetException(ex);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return module.getName();
+	}
+
+	@Override
+	public MaintenanceMetadata getMaintenance() {
+		return module.getMaintenance();
+	}
+
+	@Override
+	public LibraryMetadata getLibrary() {
+		return module.getLibrary();
+	}
+
+	@Override
+	public double getPriority() {
+		return module.getPriority();
+	}
+
+	@Override
+	public List<String> getQueryMappings() {
+		if (module instanceof QueryMappingProvider)
+			return ((QueryMappingProvider) module).getQueryMappings();
+		return Collections.emptyList();
+	}
+}
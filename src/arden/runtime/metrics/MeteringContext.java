@@ -0,0 +1,180 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.runtime.metrics;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TimeZone;
+
+import arden.runtime.ArdenBoolean;
+import arden.runtime.ArdenList;
+import arden.runtime.ArdenNull;
+import arden.runtime.ArdenObject;
+import arden.runtime.ArdenRunnable;
+import arden.runtime.ArdenString;
+import arden.runtime.ArdenTime;
+import arden.runtime.ArdenValue;
+import arden.runtime.CivilTime;
+import arden.runtime.DatabaseQuery;
+import arden.runtime.ExecutionContext;
+import arden.runtime.PlannedQuery;
+import arden.runtime.QueryPlan;
+import arden.runtime.QuerySource;
+
+/**
+ * ExecutionContext that counts the queries executed by an MLM and the values
+ * they return. All calls are forwarded to the underlying context.
+ * 
+ * Queries are recorded as PlannedQuery, and the complete plan is applied to
+ * the query of the underlying context when it is executed, so the underlying
+ * context sees the same operations as without metering. Queries created after
+ * the metrics were disabled are not wrapped.
+ */
+final class MeteringContext extends ExecutionContext implements QuerySource {
+	private final ExecutionContext context;
+	private final ExecutionMetrics executionMetrics;
+	private final MlmMetrics metrics;
+
+	MeteringContext(ExecutionContext context, ExecutionMetrics executionMetrics, MlmMetrics metrics) {
+		if (context == null)
+			throw new NullPointerException();
+		this.context = context;
+		this.executionMetrics = executionMetrics;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public DatabaseQuery createQuery(String mapping) {
+		if (!executionMetrics.isEnabled())
+			return context.createQuery(mapping);
+		return new PlannedQuery(this, mapping);
+	}
+
+	@Override
+	public ArdenValue[] execute(QueryPlan plan) {
+		ArdenValue[] result = plan.applyTo(context.createQuery(plan.getMapping()), 0).execute();
+		metrics.queries.increment();
+		long values = 0;
+		long bytes = 0;
+		for (ArdenValue column : result) {
+			if (column instanceof ArdenList)
+				values += ((ArdenList) column).size();
+			else
+				values++;
+			bytes += approximateSize(column);
+		}
+		metrics.queryValues.add(values);
+		metrics.queryBytes.add(bytes);
+		return result;
+	}
+
+	/**
+	 * Gets the approximate size of a value as it would be transferred from a
+	 * database: 8 bytes for numbers, times, durations and primary times, one
+	 * byte for booleans and two bytes per character for strings. This is not
+	 * the memory used by the Java objects.
+	 */
+	static long approximateSize(ArdenValue value) {
+		if (value instanceof ArdenList) {
+			ArdenList list = (ArdenList) value;
+			if (list.isNumberList())
+				return 16L * list.size();
+			long size = 0;
+			for (ArdenValue element : list.getElements())
+				size += approximateSize(element);
+			return size;
+		}
+		long size = value.primaryTime != ArdenValue.NOPRIMARYTIME ? 8 : 0;
+		if (value instanceof ArdenString) {
+			size += 2L * ((ArdenString) value).value.length();
+		} else if (value instanceof ArdenBoolean) {
+			size += 1;
+		} else if (value instanceof ArdenObject) {
+			for (ArdenValue field : ((ArdenObject) value).fields)
+				size += approximateSize(field);
+		} else if (!(value instanceof ArdenNull)) {
+			size += 8;
+		}
+		return size;
+	}
+
+	@Override
+	public Map<String, ArdenValue[]> executeQueries(Collection<String> mappings) {
+		return context.executeQueries(mappings);
+	}
+
+	@Override
+	public ArdenValue getMessage(String mapping) {
+		return context.getMessage(mapping);
+	}
+
+	@Override
+	public void write(ArdenValue message, String destination) {
+		context.write(message, destination);
+	}
+
+	@Override
+	public ArdenRunnable findModule(String name, String institution) {
+		return context.findModule(name, institution);
+	}
+
+	@Override
+	public ArdenRunnable findInterface(String mapping) {
+		return context.findInterface(mapping);
+	}
+
+	@Override
+	public void callWithDelay(ArdenRunnable mlm, ArdenValue[] arguments, ArdenValue delay) {
+		context.callWithDelay(mlm, arguments, delay);
+	}
+
+	@Override
+	public ArdenTime getEventTime() {
+		return context.getEventTime();
+	}
+
+	@Override
+	public ArdenTime getTriggerTime() {
+		return context.getTriggerTime();
+	}
+
+	@Override
+	public ArdenTime getCurrentTime() {
+		return context.getCurrentTime();
+	}
+
+	@Override
+	public CivilTime getCalendar() {
+		return context.getCalendar();
+	}
+
+	@Override
+	public void setTimeZone(TimeZone zone) {
+		context.setTimeZone(zone);
+	}
+}
@@ -0,0 +1,128 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.runtime.metrics;
+
+/**
+ * Execution counters of one MLM. All counters are cumulative since the
+ * metrics were created or reset.
+ */
+public final class MlmMetrics {
+	private final String name;
+	final StripedCounter invocations = new StripedCounter();
+	final StripedCounter concludedTrue = new StripedCounter();
+	final StripedCounter concludedFalse = new StripedCounter();
+	final StripedCounter errors = new StripedCounter();
+	final StripedCounter dataNanos = new StripedCounter();
+	final StripedCounter logicNanos = new StripedCounter();
+	final StripedCounter actionNanos = new StripedCounter();
+	final StripedCounter queries = new StripedCounter();
+	final StripedCounter queryValues = new StripedCounter();
+	final StripedCounter queryBytes = new StripedCounter();
+
+	MlmMetrics(String name) {
+		this.name = name;
+	}
+
+	/** Gets the mlmname. */
+	public String getName() {
+		return name;
+	}
+
+	/** Gets the number of instances created (executions of the data slot). */
+	public long getInvocations() {
+		return invocations.sum();
+	}
+
+	/** Gets the number of executions where the logic slot concluded true. */
+	public long getConcludedTrue() {
+		return concludedTrue.sum();
+	}
+
+	/** Gets the number of executions where the logic slot concluded false. */
+	public long getConcludedFalse() {
+		return concludedFalse.sum();
+	}
+
+	/** Gets the number of executions that failed with an exception. */
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	/** Gets the total time spent creating instances (data slot) in nanoseconds. */
+	public long getDataNanos() {
+		return dataNanos.sum();
+	}
+
+	/** Gets the total time spent in the logic slot in nanoseconds. */
+	public long getLogicNanos() {
+		return logicNanos.sum();
+	}
+
+	/** Gets the total time spent in the action slot in nanoseconds. */
+	public long getActionNanos() {
+		return actionNanos.sum();
+	}
+
+	/** Gets the number of executed database queries. */
+	public long getQueries() {
+		return queries.sum();
+	}
+
+	/**
+	 * Gets the number of values returned by database queries (the sum of the
+	 * list lengths over all columns).
+	 */
+	public long getQueryValues() {
+		return queryValues.sum();
+	}
+
+	/**
+	 * Gets the approximate number of bytes returned by database queries: 8
+	 * bytes per number, time, duration and primary time, 2 bytes per string
+	 * character and 1 byte per boolean. ArdenValues have no serialized form, so
+	 * this estimates the size of the data as read from a database rather than
+	 * the memory used by the returned objects.
+	 */
+	public long getQueryBytes() {
+		return queryBytes.sum();
+	}
+
+	/** Sets all counters to zero. */
+	public void reset() {
+		invocations.reset();
+		concludedTrue.reset();
+		concludedFalse.reset();
+		errors.reset();
+		dataNanos.reset();
+		logicNanos.reset();
+		actionNanos.reset();
+		queries.reset();
+		queryValues.reset();
+		queryBytes.reset();
+	}
+}
@@ -0,0 +1,91 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.runtime.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that can be updated concurrently by many threads without
+ * contention.
+ * 
+ * The value is spread over several cells; each thread adds to the cell
+ * selected by its thread ID, and sum() adds up all cells. The cells are
+ * placed on separate cache lines so that threads updating different cells do
+ * not slow each other down.
+ */
+public final class StripedCounter {
+	/** Number of longs per cell; 8 longs = one 64-byte cache line. */
+	private static final int PADDING = 8;
+	private static final int CELL_COUNT = cellCount();
+
+	private static int cellCount() {
+		int n = Runtime.getRuntime().availableProcessors() * 2;
+		int count = 1;
+		while (count < n && count < 64)
+			count <<= 1;
+		return count;
+	}
+
+	private final AtomicLongArray cells = new AtomicLongArray(CELL_COUNT * PADDING);
+
+	private static int cellIndex() {
+		return ((int) Thread.currentThread().getId() & (CELL_COUNT - 1)) * PADDING;
+	}
+
+	/** Adds a value to the counter. */
+	public void add(long value) {
+		cells.getAndAdd(cellIndex(), value);
+	}
+
+	/** Increments the counter by one. */
+	public void increment() {
+		cells.getAndIncrement(cellIndex());
+	}
+
+	/**
+	 * Gets the current value. Concurrent updates may or may not be included
+	 * in the result.
+	 */
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < CELL_COUNT; i++)
+			sum += cells.get(i * PADDING);
+		return sum;
+	}
+
+	/** Sets the counter to zero. Concurrent updates may get lost. */
+	public void reset() {
+		for (int i = 0; i < CELL_COUNT; i++)
+			cells.set(i * PADDING, 0);
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(sum());
+	}
+}
@@ -0,0 +1,59 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.runtime.metrics;
+
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Writes metrics as a tab-separated table with one line per MLM. Times are
+ * written in milliseconds.
+ */
+public final class TextMetricsExporter implements MetricsExporter {
+	private final PrintWriter writer;
+
+	public TextMetricsExporter(PrintWriter writer) {
+		if (writer == null)
+			throw new NullPointerException();
+		this.writer = writer;
+	}
+
+	@Override
+	public void export(Collection<MlmMetrics> metrics) {
+		writer.println("mlmname\tinvocations\ttrue\tfalse\terrors\tdata ms\tlogic ms\taction ms\tqueries\tvalues"
+				+ "\tbytes");
+		for (MlmMetrics m : metrics) {
+			writer.println(String.format(Locale.ENGLISH, "%s\t%d\t%d\t%d\t%d\t%.3f\t%.3f\t%.3f\t%d\t%d\t%d",
+					m.getName(), m.getInvocations(), m.getConcludedTrue(), m.getConcludedFalse(), m.getErrors(),
+					m.getDataNanos() / 1e6, m.getLogicNanos() / 1e6, m.getActionNanos() / 1e6, m.getQueries(),
+					m.getQueryValues(), m.getQueryBytes()));
+		}
+		writer.flush();
+	}
+}
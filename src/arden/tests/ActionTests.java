@@ -34,6 +34,7 @@ import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.lang.reflect.InvocationTargetException;
 
+import arden.compiler.CompiledMlm;
 import arden.compiler.Compiler;
 import arden.compiler.CompilerException;
 import arden.runtime.ArdenRunnable;
@@ -62,11 +63,15 @@ public class ActionTests {
 
 	public static MedicalLogicModule parseTemplate(String dataCode, String logicCode, String actionCode)
 			throws CompilerException {
+		return parseTemplate(new Compiler(), dataCode, logicCode, actionCode);
+	}
+
+	public static CompiledMlm parseTemplate(Compiler c, String dataCode, String logicCode, String actionCode)
+			throws CompilerException {
 		try {
 			InputStream s = ActionTests.class.getResourceAsStream("ActionTemplate.mlm");
 			String fullCode = inputStreamToString(s).replace("$ACTION", actionCode).replace("$DATA", dataCode).replace(
 					"$LOGIC", logicCode);
-			Compiler c = new Compiler();
 			return c.compileMlm(new StringReader(fullCode));
 		} catch (IOException e) {
 			throw new RuntimeException(e);
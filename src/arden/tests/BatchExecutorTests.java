@@ -0,0 +1,178 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.runtime.ArdenList;
+import arden.runtime.ArdenNumber;
+import arden.runtime.ArdenValue;
+import arden.runtime.DatabaseQuery;
+import arden.runtime.ExecutionContext;
+import arden.runtime.MedicalLogicModule;
+import arden.runtime.MemoryQuery;
+import arden.runtime.batch.BatchExecutor;
+import arden.runtime.batch.BatchResult;
+import arden.runtime.batch.BatchResultHandler;
+
+public class BatchExecutorTests {
+	private static MedicalLogicModule compile(int priority, String logic, String action) throws Exception {
+		return compile(priority, "", logic, action);
+	}
+
+	private static MedicalLogicModule compile(int priority, String data, String logic, String action)
+			throws Exception {
+		// the priority slot follows the data slot in the template
+		return ActionTests.parseTemplate(data + ";; priority: " + priority, logic, action);
+	}
+
+	private static List<ExecutionContext> createPatients(int count) {
+		List<ExecutionContext> patients = new ArrayList<ExecutionContext>();
+		for (int i = 0; i < count; i++)
+			patients.add(new TestContext());
+		return patients;
+	}
+
+	@Test
+	public void ModulesAreOrderedByPriority() throws Exception {
+		MedicalLogicModule low = compile(10, "conclude true;", "return 1;");
+		MedicalLogicModule high = compile(90, "conclude true;", "return 2;");
+		MedicalLogicModule medium = compile(50, "conclude false;", "return 3;");
+		BatchExecutor batch = new BatchExecutor(Arrays.asList(low, high, medium), Executors.newSingleThreadExecutor(),
+				1);
+		Assert.assertEquals(Arrays.asList(high, medium, low), batch.getModules());
+
+		BatchResult[] results = batch.execute(new TestContext());
+		Assert.assertEquals(3, results.length);
+		Assert.assertEquals("2", results[0].getReturnValues()[0].toString());
+		Assert.assertFalse(results[1].isConcluded());
+		Assert.assertNull(results[1].getReturnValues());
+		Assert.assertEquals("1", results[2].getReturnValues()[0].toString());
+	}
+
+	@Test
+	public void AllPatientsAreProcessed() throws Exception {
+		MedicalLogicModule mlm = compile(50, "conclude true;", "write \"done\";");
+		final List<ExecutionContext> patients = createPatients(100);
+		final List<ExecutionContext> handled = new ArrayList<ExecutionContext>();
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			new BatchExecutor(Arrays.asList(mlm), pool, 8).execute(patients.iterator(), new BatchResultHandler() {
+				@Override
+				public void patientCompleted(ExecutionContext context, BatchResult[] results) {
+					Assert.assertEquals(1, results.length);
+					Assert.assertTrue(results[0].isConcluded());
+					Assert.assertEquals("done\n", ((TestContext) context).getOutputText());
+					handled.add(context);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+		Assert.assertEquals(patients.size(), handled.size());
+		Assert.assertTrue(handled.containsAll(patients));
+	}
+
+	@Test
+	public void PendingPatientsAreLimited() throws Exception {
+		MedicalLogicModule mlm = compile(50, "conclude true;", "return 1;");
+		final AtomicInteger submitted = new AtomicInteger();
+		final AtomicInteger handled = new AtomicInteger();
+		final Iterator<ExecutionContext> patients = createPatients(50).iterator();
+		Iterator<ExecutionContext> countingIterator = new Iterator<ExecutionContext>() {
+			@Override
+			public boolean hasNext() {
+				return patients.hasNext();
+			}
+
+			@Override
+			public ExecutionContext next() {
+				Assert.assertTrue(submitted.incrementAndGet() - handled.get() <= 3);
+				return patients.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			new BatchExecutor(Arrays.asList(mlm), pool, 3).execute(countingIterator, new BatchResultHandler() {
+				@Override
+				public void patientCompleted(ExecutionContext context, BatchResult[] results) {
+					handled.incrementAndGet();
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+		Assert.assertEquals(50, handled.get());
+	}
+
+	@Test
+	public void ErrorsAreReportedPerModule() throws Exception {
+		MedicalLogicModule failing = compile(90, "other := MLM 'missing'", "conclude true;", "call other;");
+		MedicalLogicModule working = compile(10, "conclude true;", "return 1;");
+		BatchResult[] results = new BatchExecutor(Arrays.asList(failing, working), Executors
+				.newSingleThreadExecutor(), 1).execute(new TestContext());
+		Assert.assertNotNull(results[0].getError());
+		Assert.assertNull(results[1].getError());
+		Assert.assertEquals("1", results[1].getReturnValues()[0].toString());
+	}
+
+	@Test
+	public void PrefetchFetchesEachPatientOnce() throws Exception {
+		MedicalLogicModule mlm1 = compile(60, "x := READ LAST {potassium}", "conclude true;", "return x;");
+		MedicalLogicModule mlm2 = compile(50, "x := READ COUNT {potassium}", "conclude true;", "return x;");
+		final AtomicInteger queries = new AtomicInteger();
+		TestContext patient = new TestContext() {
+			@Override
+			public DatabaseQuery createQuery(String mapping) {
+				queries.incrementAndGet();
+				return new MemoryQuery(new ArdenValue[] { new ArdenList(new ArdenValue[] { ArdenNumber.create(1, 0),
+						ArdenNumber.create(2, 1000) }) });
+			}
+		};
+		BatchExecutor batch = new BatchExecutor(Arrays.asList(mlm1, mlm2), Executors.newSingleThreadExecutor(), 1);
+		batch.setPrefetchQueries(true);
+		BatchResult[] results = batch.execute(patient);
+		Assert.assertEquals("2", results[0].getReturnValues()[0].toString());
+		Assert.assertEquals("2", results[1].getReturnValues()[0].toString());
+		Assert.assertSame(patient, results[0].getContext());
+		Assert.assertEquals(1, queries.get());
+	}
+}
@@ -0,0 +1,134 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.benchmarks.Benchmark;
+import arden.benchmarks.BenchmarkRunner;
+import arden.benchmarks.CompilerBenchmarks;
+import arden.benchmarks.MlmBenchmarks;
+import arden.benchmarks.RuntimeBenchmarks;
+import arden.benchmarks.SyntheticContext;
+import arden.benchmarks.Workload;
+import arden.compiler.Compiler;
+import arden.runtime.MedicalLogicModule;
+
+public class BenchmarkTests {
+	@Test
+	public void RuntimeBenchmarksRunForAllWorkloads() {
+		List<Workload> workloads = BenchmarkRunner.createWorkloads(new int[] { 0, 1, 50 }, Arrays
+				.asList(Workload.ElementMix.values()), Arrays.asList(Workload.TimePattern.values()));
+		for (Benchmark b : RuntimeBenchmarks.getBenchmarks()) {
+			for (Workload w : workloads) {
+				b.setUp(w);
+				Assert.assertNotNull(b.getName() + " " + w, b.run());
+			}
+		}
+	}
+
+	@Test
+	public void WorkloadIsDeterministic() {
+		Workload w = new Workload(100, Workload.ElementMix.NUMBERS_WITH_NULLS, Workload.TimePattern.RANDOM);
+		Assert.assertEquals(w.createList().toString(), w.createList().toString());
+		Assert.assertTrue(new Workload(10, Workload.ElementMix.NUMBERS, Workload.TimePattern.NONE).createList()
+				.isNumberList());
+	}
+
+	@Test
+	public void RunnerOutput() {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		runner.setWarmupIterations(1);
+		runner.setMeasurementIterations(2);
+		runner.setIterationTimeMillis(5);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		runner.run(RuntimeBenchmarks.getBenchmarks().subList(0, 1), Collections.singletonList(new Workload(10,
+				Workload.ElementMix.NUMBERS, Workload.TimePattern.ASCENDING)), new PrintStream(output, true));
+		String[] lines = output.toString().split("\n");
+		Assert.assertEquals(2, lines.length);
+		String[] columns = lines[1].split("\t");
+		Assert.assertEquals(6, columns.length);
+		Assert.assertEquals("10", columns[1]);
+		Assert.assertTrue(Double.parseDouble(columns[4]) > 0);
+	}
+
+	@Test
+	public void MlmBenchmarksRunForAllWorkloads() {
+		List<Workload> workloads = BenchmarkRunner.createWorkloads(new int[] { 0, 1, 50 }, Arrays
+				.asList(Workload.ElementMix.values()), Arrays.asList(Workload.TimePattern.ASCENDING,
+				Workload.TimePattern.NONE));
+		List<Benchmark> benchmarks = MlmBenchmarks.getBenchmarks();
+		Assert.assertEquals(10, benchmarks.size());
+		for (Benchmark b : benchmarks) {
+			for (Workload w : workloads) {
+				b.setUp(w);
+				Assert.assertNotNull(b.getName() + " " + w, b.run());
+			}
+		}
+	}
+
+	@Test
+	public void SyntheticMlmWritesMessage() throws Exception {
+		MedicalLogicModule mlm = new Compiler().compileMlm(new StringReader(MlmBenchmarks.createSyntheticMlm(3)));
+		Workload w = new Workload(100, Workload.ElementMix.NUMBERS, Workload.TimePattern.ASCENDING);
+		SyntheticContext context = new SyntheticContext(w, 1);
+		mlm.run(context, null);
+		Assert.assertEquals("synthetic_3", mlm.getName());
+		Assert.assertTrue(context.getMessageCount() <= 1);
+	}
+
+	@Test
+	public void LatencyPercentiles() {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		runner.setWarmupIterations(1);
+		runner.setIterationTimeMillis(5);
+		runner.setLatencySamples(100);
+		BenchmarkRunner.LatencyResult r = runner.measureLatency(RuntimeBenchmarks.getBenchmarks().get(0),
+				new Workload(10, Workload.ElementMix.NUMBERS, Workload.TimePattern.NONE));
+		Assert.assertTrue(r.getPercentile(0.5) <= r.getPercentile(0.99));
+		Assert.assertTrue(r.getPercentile(0.99) <= r.getMaximum());
+		Assert.assertTrue(r.getAllocatedBytes() == -1 || r.getAllocatedBytes() > 0);
+	}
+
+	@Test
+	public void CompilerBenchmarksCompileCorpus() {
+		Assert.assertEquals(25, CompilerBenchmarks.createCorpus(25).size());
+		for (Benchmark b : CompilerBenchmarks.getBenchmarks()) {
+			b.setUp(new Workload(25, Workload.ElementMix.NUMBERS, Workload.TimePattern.NONE));
+			Assert.assertEquals(25, ((List<?>) b.run()).size());
+		}
+	}
+}
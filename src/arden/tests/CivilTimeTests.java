@@ -0,0 +1,330 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.tests;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.runtime.CivilTime;
+
+public class CivilTimeTests {
+	private static final String[] zoneIds = { "UTC", "Europe/Berlin", "America/New_York", "Australia/Lord_Howe",
+			"Asia/Kolkata", "America/Sao_Paulo" };
+
+	/** Random times between 1900 and 2100, with many times close to midnight. */
+	private static long[] randomTimes(int count) {
+		Random random = new Random(1234);
+		long[] times = new long[count];
+		long start = -2208988800000L;
+		long range = 200L * 365 * CivilTime.MILLIS_PER_DAY;
+		for (int i = 0; i < count; i++) {
+			long time = start + (long) (random.nextDouble() * range);
+			if (i % 2 == 0)
+				time -= time % (60L * 60 * 1000);
+			times[i] = time;
+		}
+		return times;
+	}
+
+	private static GregorianCalendar calendar(TimeZone zone, long time) {
+		GregorianCalendar c = new GregorianCalendar(zone);
+		c.setTimeInMillis(time);
+		return c;
+	}
+
+	@Test
+	public void FieldsMatchGregorianCalendar() {
+		for (String id : zoneIds) {
+			TimeZone zone = TimeZone.getTimeZone(id);
+			CivilTime civil = new CivilTime(zone);
+			for (long time : randomTimes(5000)) {
+				GregorianCalendar c = calendar(zone, time);
+				String message = id + " " + time;
+				Assert.assertEquals(message, c.get(Calendar.YEAR), civil.getField(time, CivilTime.YEAR));
+				Assert.assertEquals(message, c.get(Calendar.MONTH) + 1, civil.getField(time, CivilTime.MONTH));
+				Assert.assertEquals(message, c.get(Calendar.DAY_OF_MONTH), civil.getField(time, CivilTime.DAY_OF_MONTH));
+				Assert.assertEquals(message, c.get(Calendar.HOUR_OF_DAY), civil.getField(time, CivilTime.HOUR));
+				Assert.assertEquals(message, c.get(Calendar.MINUTE), civil.getField(time, CivilTime.MINUTE));
+				Assert.assertEquals(message, c.get(Calendar.SECOND), civil.getField(time, CivilTime.SECOND));
+				Assert.assertEquals(message, c.get(Calendar.MILLISECOND), civil.getField(time, CivilTime.MILLISECOND));
+			}
+		}
+	}
+
+	@Test
+	public void OffsetTableMatchesTimeZone() {
+		for (String id : zoneIds) {
+			TimeZone zone = TimeZone.getTimeZone(id);
+			CivilTime civil = CivilTime.forZone(zone);
+			for (long time : randomTimes(5000)) {
+				Assert.assertEquals(id + " " + time, zone.getOffset(time), civil.getOffset(time));
+				Assert.assertEquals(id + " " + time, zone.getOffset(time - 1), civil.getOffset(time - 1));
+			}
+			// outside of the table
+			Assert.assertEquals(zone.getOffset(-5000000000000L), civil.getOffset(-5000000000000L));
+			Assert.assertEquals(zone.getOffset(5000000000000L), civil.getOffset(5000000000000L));
+			Assert.assertSame(civil, CivilTime.forZone(TimeZone.getTimeZone(id)));
+		}
+	}
+
+	/** Time zone whose offset changes at the specified points in time. */
+	@SuppressWarnings("serial")
+	private static final class StepTimeZone extends TimeZone {
+		private final long[] transitions;
+		private final int[] offsets;
+
+		StepTimeZone(String id, long[] transitions, int[] offsets) {
+			setID(id);
+			this.transitions = transitions;
+			this.offsets = offsets;
+		}
+
+		@Override
+		public int getOffset(long date) {
+			int i = 0;
+			while (i < transitions.length && date >= transitions[i])
+				i++;
+			return offsets[i];
+		}
+
+		@Override
+		public int getOffset(int era, int year, int month, int day, int dayOfWeek, int milliseconds) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int getRawOffset() {
+			return offsets[0];
+		}
+
+		@Override
+		public void setRawOffset(int offsetMillis) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean useDaylightTime() {
+			return false;
+		}
+
+		@Override
+		public boolean inDaylightTime(Date date) {
+			return false;
+		}
+	}
+
+	@Test
+	public void TransitionsOnSameDay() {
+		long hour = 60L * 60 * 1000;
+		// 2000-06-01T01:00Z and 2000-06-01T04:00Z
+		long first = 959821200000L;
+		TimeZone zone = new StepTimeZone("Test/Steps", new long[] { first, first + 3 * hour }, new int[] { 0,
+				(int) hour, (int) (2 * hour) });
+		CivilTime civil = new CivilTime(zone);
+		for (long time = first - 2 * hour; time < first + 6 * hour; time += hour / 4) {
+			Assert.assertEquals(Long.toString(time), zone.getOffset(time), civil.getOffset(time));
+			Assert.assertEquals(Long.toString(time), zone.getOffset(time - 1), civil.getOffset(time - 1));
+		}
+	}
+
+	@Test
+	public void ForZoneWithDifferentRules() {
+		long hour = 60L * 60 * 1000;
+		long transition = 959821200000L;
+		CivilTime berlin = CivilTime.forZone(TimeZone.getTimeZone("Europe/Berlin"));
+		TimeZone zone = new StepTimeZone("Europe/Berlin", new long[] { transition }, new int[] { 0, (int) hour });
+		CivilTime civil = CivilTime.forZone(zone);
+		Assert.assertNotSame(berlin, civil);
+		Assert.assertEquals(0, civil.getOffset(transition - 1));
+		Assert.assertEquals(hour, civil.getOffset(transition));
+		Assert.assertEquals(hour, civil.getOffset(5000000000000L));
+		// the custom zone does not replace the shared instance
+		Assert.assertSame(berlin, CivilTime.forZone(TimeZone.getTimeZone("Europe/Berlin")));
+	}
+
+	private static boolean isSameDay(TimeZone zone, long time1, long time2) {
+		GregorianCalendar c1 = calendar(zone, time1);
+		GregorianCalendar c2 = calendar(zone, time2);
+		return c1.get(Calendar.YEAR) == c2.get(Calendar.YEAR)
+				&& c1.get(Calendar.DAY_OF_YEAR) == c2.get(Calendar.DAY_OF_YEAR);
+	}
+
+	@Test
+	public void DayBoundariesMatchGregorianCalendar() {
+		// GregorianCalendar resolves ambiguous and skipped local midnights
+		// differently, so compare the dates instead of setting the fields
+		String[] ids = Arrays.copyOf(zoneIds, zoneIds.length + 1);
+		ids[zoneIds.length] = "Pacific/Apia";
+		for (String id : ids) {
+			TimeZone zone = TimeZone.getTimeZone(id);
+			CivilTime civil = new CivilTime(zone);
+			for (long time : randomTimes(5000)) {
+				String message = id + " " + time;
+				long start = civil.getStartOfDay(time);
+				long end = civil.getEndOfDay(time);
+				Assert.assertTrue(message, start <= time && time <= end);
+				Assert.assertTrue(message, isSameDay(zone, start, time));
+				Assert.assertFalse(message, isSameDay(zone, start - 1, time));
+				Assert.assertTrue(message, isSameDay(zone, end, time));
+				Assert.assertFalse(message, isSameDay(zone, end + 1, time));
+			}
+		}
+	}
+
+	private static long parse(String time) throws ParseException {
+		return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").parse(time).getTime();
+	}
+
+	@Test
+	public void DayBoundariesAtDaylightSavingTransitions() throws Exception {
+		CivilTime civil = new CivilTime(TimeZone.getTimeZone("America/Sao_Paulo"));
+		// the clock was set back from 01:00 to 00:00; the day starts at the
+		// first midnight regardless of the days that are cached
+		long start = parse("1950-04-16T00:00:00.000-0200");
+		Assert.assertEquals(start, civil.getStartOfDay(parse("1950-04-16T00:54:34.000-0200")));
+		Assert.assertEquals(start, civil.getStartOfDay(parse("1950-04-16T00:04:34.000-0300")));
+		Assert.assertEquals(start, civil.getStartOfDay(parse("1950-04-16T00:54:34.000-0200")));
+		// the clock was set back from 00:00 to 23:00 of the previous day
+		long end = parse("2019-02-16T23:59:59.999-0300");
+		Assert.assertEquals(end, civil.getEndOfDay(parse("2019-02-16T23:27:24.000-0200")));
+		Assert.assertEquals(end, civil.getEndOfDay(parse("2019-02-16T23:27:24.000-0300")));
+
+		// the clock was set forward from 23:00 to 00:00 of the next day
+		civil = new CivilTime(TimeZone.getTimeZone("Europe/Berlin"));
+		Assert.assertEquals(parse("1916-04-30T22:59:59.999+0100"), civil.getEndOfDay(parse(
+				"1916-04-30T12:00:00.000+0100")));
+		Assert.assertEquals(parse("1916-05-01T00:00:00.000+0200"), civil.getStartOfDay(parse(
+				"1916-05-01T12:00:00.000+0200")));
+
+		// 2011-12-30 was skipped
+		civil = new CivilTime(TimeZone.getTimeZone("Pacific/Apia"));
+		Assert.assertEquals(parse("2011-12-29T23:59:59.999-1000"), civil.getEndOfDay(parse(
+				"2011-12-29T12:00:00.000-1000")));
+		Assert.assertEquals(parse("2011-12-31T00:00:00.000+1400"), civil.getStartOfDay(parse(
+				"2011-12-31T12:00:00.000+1400")));
+	}
+
+	@Test
+	public void AddZeroMonthsDuringAmbiguousHour() throws Exception {
+		CivilTime civil = new CivilTime(TimeZone.getTimeZone("America/Sao_Paulo"));
+		long time = parse("2019-02-16T23:27:24.000-0200");
+		Assert.assertEquals(time, civil.addMonths(time, 0));
+	}
+
+	@Test
+	public void AddMonthsMatchesGregorianCalendar() {
+		Random random = new Random(42);
+		for (String id : zoneIds) {
+			TimeZone zone = TimeZone.getTimeZone(id);
+			CivilTime civil = new CivilTime(zone);
+			for (long time : randomTimes(5000)) {
+				int months = random.nextInt(61) - 30;
+				GregorianCalendar c = calendar(zone, time);
+				c.add(Calendar.MONTH, months);
+				Assert.assertEquals(id + " " + time + " " + months, c.getTimeInMillis(), civil.addMonths(time, months));
+			}
+		}
+	}
+
+	@Test
+	public void GetTime() {
+		TimeZone zone = TimeZone.getTimeZone("Europe/Berlin");
+		CivilTime civil = new CivilTime(zone);
+		GregorianCalendar c = new GregorianCalendar(zone);
+		c.clear();
+		c.set(1991, Calendar.JANUARY, 31, 13, 30, 15);
+		Assert.assertEquals(c.getTimeInMillis(), civil.getTime(1991, 1, 31, (13 * 3600 + 30 * 60 + 15) * 1000));
+		// lenient: month 0 and day 0 roll over into the previous year and month
+		c.clear();
+		c.set(1990, Calendar.NOVEMBER, 30);
+		Assert.assertEquals(c.getTimeInMillis(), civil.getTime(1991, 0, 0, 0));
+		// 02:30 does not exist on the day daylight saving time starts
+		c.clear();
+		c.set(2010, Calendar.MARCH, 28, 3, 30);
+		Assert.assertEquals(c.getTimeInMillis(), civil.getTime(2010, 3, 28, 150 * 60 * 1000));
+	}
+
+	@Test
+	public void IsoFormatMatchesSimpleDateFormat() {
+		for (String id : zoneIds) {
+			TimeZone zone = TimeZone.getTimeZone(id);
+			CivilTime civil = new CivilTime(zone);
+			SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+			SimpleDateFormat formatWithMillis = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+			format.setTimeZone(zone);
+			formatWithMillis.setTimeZone(zone);
+			for (long time : randomTimes(2000)) {
+				SimpleDateFormat expected = (time % 1000 != 0) ? formatWithMillis : format;
+				Assert.assertEquals(expected.format(new Date(time)), civil.toIsoString(time));
+			}
+		}
+	}
+
+	@Test
+	public void ConcurrentFormatting() throws Exception {
+		final TimeZone zone = TimeZone.getTimeZone("Europe/Berlin");
+		final CivilTime civil = new CivilTime(zone);
+		final long[] times = randomTimes(20000);
+		final Throwable[] failure = new Throwable[1];
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int offset = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+						format.setTimeZone(zone);
+						for (int i = 0; i < times.length; i++) {
+							long time = times[(i + offset * 997) % times.length] | 1;
+							Assert.assertEquals(format.format(new Date(time)), civil.toIsoString(time));
+						}
+					} catch (Throwable ex) {
+						synchronized (failure) {
+							failure[0] = ex;
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		if (failure[0] != null)
+			throw new AssertionError(failure[0]);
+	}
+}
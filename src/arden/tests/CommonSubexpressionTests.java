@@ -0,0 +1,130 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.compiler.CompiledMlm;
+import arden.runtime.ArdenNumber;
+import arden.runtime.ArdenObject;
+import arden.runtime.ArdenRunnable;
+import arden.runtime.ArdenValue;
+import arden.runtime.ExecutionContext;
+
+public class CommonSubexpressionTests extends ExpressionTestBase {
+	@Test
+	public void RepeatedExpressionIsCachedAcrossSlots() throws Exception {
+		CompiledMlm mlm = compile("x := (3,1,2); a := MAXIMUM OF x;", "b := maximum of X; conclude true;",
+				"return a, b, Maximum Of x;");
+		Assert.assertTrue(classReferences(mlm, "cse$1"));
+		Assert.assertFalse(classReferences(mlm, "cse$2"));
+		Assert.assertArrayEquals(new String[] { "3", "3", "3" }, run(mlm));
+	}
+
+	@Test
+	public void SingleOccurrenceIsNotCached() throws Exception {
+		CompiledMlm mlm = compile("x := (3,1,2);", "conclude true;", "return maximum of x, minimum of x;");
+		Assert.assertFalse(classReferences(mlm, "cse$"));
+		Assert.assertArrayEquals(new String[] { "3", "1" }, run(mlm));
+	}
+
+	@Test
+	public void AssignmentInvalidatesCache() throws Exception {
+		CompiledMlm mlm = compile("x := (1,2,3); a := count of x;", "x := 5, 6; b := count of x; conclude true;",
+				"return a, b, count of x;");
+		Assert.assertArrayEquals(new String[] { "3", "2", "2" }, run(mlm));
+	}
+
+	@Test
+	public void CacheInLoop() throws Exception {
+		CompiledMlm mlm = compile("", "i := 0; l := (); while count of l < 3 do l := l, i; i := i + 1; enddo;"
+				+ "conclude true;", "return count of l, l;");
+		Assert.assertArrayEquals(new String[] { "3", "(0,1,2)" }, run(mlm));
+	}
+
+	@Test
+	public void WhereClauseWithIt() throws Exception {
+		CompiledMlm mlm = compile("x := (1,2,3); a := count of (x where it > 1);",
+				"x := 4, 5, 6, 7; b := count of (x where it > 1); conclude true;",
+				"return a, b, count of (x where it > 1), count of (x where it > 5);");
+		Assert.assertTrue(classReferences(mlm, "cse$1"));
+		Assert.assertArrayEquals(new String[] { "2", "4", "4", "2" }, run(mlm));
+	}
+
+	@Test
+	public void NowAssignmentInvalidatesCache() throws Exception {
+		CompiledMlm mlm = compile("a := 1; TIME OF a := 2000-01-05T00:00:00; b := 2; TIME OF b := 2000-01-20T00:00:00;"
+				+ "l := a, b;", "NOW := 2000-01-21T00:00:00; c1 := count (l where it occurred within past 3 days);"
+				+ "NOW := 2000-01-10T00:00:00; c2 := count (l where it occurred within past 3 days); conclude true;",
+				"return c1, c2;");
+		Assert.assertArrayEquals(new String[] { "1", "0" }, run(mlm));
+	}
+
+	@Test
+	public void ObjectMemberAssignmentInvalidatesCache() throws Exception {
+		CompiledMlm mlm = compile("Box := OBJECT [ amount ];", "o := NEW Box WITH 1; a1 := sum of o.amount; p := o;"
+				+ "p.amount := 5; a2 := sum of o.amount; conclude true;", "return a1, a2;");
+		Assert.assertArrayEquals(new String[] { "1", "5" }, run(mlm));
+	}
+
+	@Test
+	public void CalledMlmModifyingObjectInvalidatesCache() throws Exception {
+		CompiledMlm mlm = compile("Box := OBJECT [ amount ]; m := MLM 'mutator'; o := NEW Box WITH 1;"
+				+ "a1 := sum of o.amount; r := CALL m WITH o; a2 := sum of o.amount;", "conclude true;",
+				"a3 := sum of o.amount; CALL m WITH o; return a1, a2, a3, sum of o.amount;");
+		Assert.assertTrue(classReferences(mlm, "cse$1"));
+		TestContext context = new TestContext() {
+			@Override
+			public ArdenRunnable findModule(String name, String institution) {
+				return new ArdenRunnable() {
+					@Override
+					public ArdenValue[] run(ExecutionContext context, ArdenValue[] arguments) {
+						ArdenObject object = (ArdenObject) arguments[0];
+						object.fields[0] = ArdenNumber.create(((ArdenNumber) object.fields[0]).value + 1,
+								ArdenValue.NOPRIMARYTIME);
+						return new ArdenValue[0];
+					}
+				};
+			}
+		};
+		ArdenValue[] result = mlm.run(context, null);
+		Assert.assertEquals("1", result[0].toString());
+		Assert.assertEquals("2", result[1].toString());
+		Assert.assertEquals("2", result[2].toString());
+		Assert.assertEquals("3", result[3].toString());
+	}
+
+	@Test
+	public void ExpressionWithNowIsNotCached() throws Exception {
+		CompiledMlm mlm = compile("", "a := count of now; NOW := 1990-01-01; b := count of now; conclude true;",
+				"return a, b;");
+		Assert.assertFalse(classReferences(mlm, "cse$"));
+		Assert.assertArrayEquals(new String[] { "1", "1" }, run(mlm));
+	}
+}
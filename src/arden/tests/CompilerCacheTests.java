@@ -0,0 +1,163 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import arden.compiler.CompiledMlm;
+import arden.compiler.Compiler;
+import arden.compiler.CompilerCache;
+
+public class CompilerCacheTests {
+	private File directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = File.createTempFile("mlmcache", "");
+		directory.delete();
+	}
+
+	@After
+	public void deleteDirectory() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files)
+				file.delete();
+		}
+		directory.delete();
+	}
+
+	private static String readExample(String name) throws IOException {
+		InputStreamReader r = new InputStreamReader(CompilerCacheTests.class.getResourceAsStream("/arden/examples/" + name));
+		StringBuilder b = new StringBuilder();
+		char[] buffer = new char[4096];
+		int len;
+		while ((len = r.read(buffer)) > 0)
+			b.append(buffer, 0, len);
+		r.close();
+		return b.toString();
+	}
+
+	private File[] cacheFiles() {
+		File[] files = directory.listFiles();
+		return files != null ? files : new File[0];
+	}
+
+	@Test
+	public void CachedMlmIsEquivalent() throws Exception {
+		String source = readExample("x2.1.mlm");
+		CompilerCache cache = new CompilerCache(directory);
+		CompiledMlm compiled = cache.compileMlm(new Compiler(), new StringReader(source));
+		Assert.assertEquals(1, cacheFiles().length);
+
+		CompiledMlm cached = cache.compileMlm(new Compiler(), new StringReader(source));
+		Assert.assertNotSame(compiled, cached);
+		Assert.assertEquals(1, cacheFiles().length);
+		Assert.assertEquals(compiled.getName(), cached.getName());
+		Assert.assertEquals(compiled.getPriority(), cached.getPriority(), 0);
+		Assert.assertEquals(compiled.getMaintenance().getDate(), cached.getMaintenance().getDate());
+		Assert.assertEquals(compiled.getMaintenance().getInstitution(), cached.getMaintenance().getInstitution());
+		Assert.assertEquals(compiled.getLibrary().getKeywords(), cached.getLibrary().getKeywords());
+		Assert.assertEquals(compiled.getLibrary().getExplanation(), cached.getLibrary().getExplanation());
+		Assert.assertEquals(compiled.getQueryMappings(), cached.getQueryMappings());
+
+		TestContext context = new TestContext();
+		cached.run(context, null);
+		Assert.assertEquals("", context.getOutputText());
+	}
+
+	@Test
+	public void KeyIncludesSourceAndOptions() throws Exception {
+		CompilerCache cache = new CompilerCache(directory);
+		cache.compile(new Compiler(), readExample("x2.1.mlm"));
+		cache.compile(new Compiler(), readExample("x2.2.mlm"));
+		Assert.assertEquals(2, cacheFiles().length);
+		Compiler debugCompiler = new Compiler();
+		debugCompiler.enableDebugging("x2.1.mlm");
+		cache.compile(debugCompiler, readExample("x2.1.mlm"));
+		Assert.assertEquals(3, cacheFiles().length);
+		cache.clear();
+		Assert.assertEquals(0, cacheFiles().length);
+	}
+
+	@Test
+	public void CorruptCacheFileIsReplaced() throws Exception {
+		String source = readExample("x2.1.mlm");
+		CompilerCache cache = new CompilerCache(directory);
+		cache.compile(new Compiler(), source);
+		File file = cacheFiles()[0];
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(new byte[] { 1, 2, 3 });
+		fos.close();
+
+		CompiledMlm mlm = cache.compileMlm(new Compiler(), new StringReader(source));
+		Assert.assertEquals("fractional_na", mlm.getName());
+		Assert.assertTrue(file.length() > 3);
+	}
+
+	@Test
+	public void UnwritableDirectoryIsIgnored() throws Exception {
+		// a file in place of the directory: the cache files cannot be created
+		new FileOutputStream(directory).close();
+		CompilerCache cache = new CompilerCache(directory);
+		CompiledMlm mlm = cache.compileMlm(new Compiler(), new StringReader(readExample("x2.1.mlm")));
+		Assert.assertEquals("fractional_na", mlm.getName());
+		Assert.assertTrue(directory.isFile());
+	}
+
+	@Test
+	public void CorruptLengthIsCacheMiss() throws Exception {
+		String source = readExample("x2.1.mlm");
+		CompilerCache cache = new CompilerCache(directory);
+		cache.compile(new Compiler(), source);
+		File file = cacheFiles()[0];
+		long length = file.length();
+		// magic, format version, compiler version, MLM count, class data length
+		long classDataLength = 4 + 4 + 2 + Compiler.VERSION.length() + 4;
+		int[] corruptValues = { Integer.MAX_VALUE, -2 };
+		for (int value : corruptValues) {
+			RandomAccessFile f = new RandomAccessFile(file, "rw");
+			f.seek(classDataLength);
+			f.writeInt(value);
+			f.close();
+
+			CompiledMlm mlm = cache.compileMlm(new Compiler(), new StringReader(source));
+			Assert.assertEquals("fractional_na", mlm.getName());
+			Assert.assertEquals(length, file.length());
+		}
+	}
+}
@@ -0,0 +1,96 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.tests;
+
+import java.io.InputStreamReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.compiler.Compiler;
+import arden.compiler.CompilerProfile;
+import arden.compiler.CompilerProfile.Phase;
+
+public class CompilerProfileTests {
+	private static void compile(Compiler c, String name) throws Exception {
+		c.compileMlm(new InputStreamReader(CompilerProfileTests.class.getResourceAsStream("/arden/examples/" + name
+				+ ".mlm")));
+	}
+
+	@Test
+	public void AllPhasesAreRecorded() throws Exception {
+		Compiler c = new Compiler();
+		CompilerProfile profile = new CompilerProfile();
+		c.setProfile(profile);
+		compile(c, "x2.1");
+		for (Phase phase : Phase.values()) {
+			Assert.assertTrue(phase.toString(), profile.getNanos(phase) >= 0);
+			Assert.assertTrue(phase.toString(), profile.getAllocatedBytes(phase) >= -1);
+		}
+		Assert.assertTrue(profile.getNanos(Phase.LEX) > 0);
+		Assert.assertTrue(profile.getNanos(Phase.PARSE) > 0);
+		Assert.assertTrue(profile.getNanos(Phase.DATA) > 0);
+		Assert.assertTrue(profile.getNanos(Phase.WRITE_CLASS) > 0);
+		Assert.assertTrue(profile.getTotalNanos() >= profile.getNanos(Phase.PARSE));
+	}
+
+	@Test
+	public void MlmProfile() throws Exception {
+		Compiler c = new Compiler();
+		CompilerProfile profile = new CompilerProfile();
+		c.setProfile(profile);
+		compile(c, "x2.1");
+		compile(c, "x2.2");
+		Assert.assertEquals(2, profile.getMlmProfiles().size());
+		CompilerProfile.MlmProfile mlm = profile.getMlmProfiles().get(0);
+		Assert.assertEquals("fractional_na", mlm.getName());
+		Assert.assertTrue(mlm.getConstantPoolEntries() > 0);
+		Assert.assertTrue(mlm.getConstantPoolLookups() > 0);
+		Assert.assertTrue(mlm.getResolvedLabels() > 0);
+		Assert.assertEquals(0, mlm.getNanos(Phase.PARSE));
+		Assert.assertTrue(profile.toString().contains("2 MLMs"));
+	}
+
+	@Test
+	public void Reset() throws Exception {
+		Compiler c = new Compiler();
+		CompilerProfile profile = new CompilerProfile();
+		c.setProfile(profile);
+		compile(c, "x2.1");
+		profile.reset();
+		Assert.assertEquals(0, profile.getTotalNanos());
+		Assert.assertEquals(0, profile.getMlmProfiles().size());
+	}
+
+	@Test
+	public void DisabledByDefault() throws Exception {
+		Compiler c = new Compiler();
+		Assert.assertNull(c.getProfile());
+		compile(c, "x2.1");
+	}
+}
@@ -0,0 +1,130 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.compiler.CompiledMlm;
+import arden.compiler.CompilerException;
+import arden.runtime.ArdenValue;
+
+public class ConstantFoldingTests extends ExpressionTestBase {
+	@Test
+	public void FoldedArithmetic() throws Exception {
+		assertEval("3 days", "3 * 24 hours");
+		assertEval("7", "1 + 2 * 3");
+		assertEval("null", "1 + \"a\"");
+		assertEval("null", "1 / 0");
+		assertEval("\"abcdef\"", "\"abc\" || \"def\"");
+		assertEval("\"ab3\"", "\"ab\" || 3");
+		assertEval("true", "not (1 > 2) and 3 <= 3");
+		assertEval("1990-03-02T00:00:00", "1 day after 1990-03-01");
+		assertEval("1990-02-01T00:00:00", "1 month before 1990-03-01");
+	}
+
+	@Test
+	public void FoldedExpressionDoesNotInvokeOperators() throws Exception {
+		CompiledMlm mlm = compile("", "conclude true;", "return 3 * 24 hours, \"abc\" || \"def\";");
+		Assert.assertFalse(classReferences(mlm, "arden/runtime/BinaryOperator"));
+		Assert.assertFalse(classReferences(mlm, "createDuration"));
+		Assert.assertFalse(classReferences(mlm, "concat"));
+		ArdenValue[] result = mlm.run(new TestContext(), null);
+		Assert.assertEquals("3 days", result[0].toString());
+		Assert.assertEquals("\"abcdef\"", result[1].toString());
+	}
+
+	@Test
+	public void ConcatenationWithTimeIsNotFolded() throws Exception {
+		// times are formatted in the time zone of the JVM running the MLM
+		CompiledMlm mlm = compile("", "conclude true;", "return \"at \" || 1990-03-01T12:00:00;");
+		Assert.assertTrue(classReferences(mlm, "concat"));
+		Assert.assertEquals("\"at 1990-03-01T12:00:00\"", mlm.run(new TestContext(), null)[0].toString());
+	}
+
+	@Test
+	public void ExpressionWithVariableIsNotFolded() throws Exception {
+		CompiledMlm mlm = compile("x := 3;", "conclude true;", "return x * 24 hours;");
+		Assert.assertTrue(classReferences(mlm, "arden/runtime/BinaryOperator"));
+		Assert.assertEquals("3 days", mlm.run(new TestContext(), null)[0].toString());
+	}
+
+	@Test
+	public void DeadBranchIsRemoved() throws Exception {
+		CompiledMlm mlm = compile("", "if 1 > 2 then x := \"dead code\"; conclude false; endif; conclude true;",
+				"return x;");
+		Assert.assertFalse(classReferences(mlm, "dead code"));
+		ArdenValue[] result = mlm.run(new TestContext(), null);
+		Assert.assertEquals("null", result[0].toString());
+	}
+
+	@Test
+	public void DeadBranchIsChecked() throws Exception {
+		try {
+			compile("", "if false then x := undefinedVariable; endif; conclude true;", "");
+			Assert.fail("expected CompilerException");
+		} catch (CompilerException e) {
+			Assert.assertTrue(e.getMessage().contains("undefinedVariable"));
+		}
+		try {
+			compile("", "conclude true;", "IF true THEN return 1; ELSEIF undefinedVariable THEN return 2; ENDIF;");
+			Assert.fail("expected CompilerException");
+		} catch (CompilerException e) {
+			Assert.assertTrue(e.getMessage().contains("undefinedVariable"));
+		}
+	}
+
+	@Test
+	public void DeadBranchSeesEarlierVariables() throws Exception {
+		CompiledMlm mlm = compile("y := 2;", "if false then x := y * \"dead code\"; endif; conclude true;",
+				"return x, y;");
+		Assert.assertFalse(classReferences(mlm, "dead code"));
+		ArdenValue[] result = mlm.run(new TestContext(), null);
+		Assert.assertEquals("null", result[0].toString());
+		Assert.assertEquals("2", result[1].toString());
+	}
+
+	@Test
+	public void ConstantElseIfChain() throws Exception {
+		CompiledMlm mlm = compile("", "conclude true;", "IF false THEN return \"first\"; "
+				+ "ELSEIF 2 = 2 THEN return \"second\"; ELSE return \"third\"; ENDIF;");
+		Assert.assertFalse(classReferences(mlm, "first"));
+		Assert.assertFalse(classReferences(mlm, "third"));
+		Assert.assertEquals("\"second\"", mlm.run(new TestContext(), null)[0].toString());
+	}
+
+	@Test
+	public void NullConditionSelectsElseBranch() throws Exception {
+		CompiledMlm mlm = compile("", "IF 1 + \"a\" THEN a := 1; LET b BE 2; ELSE c := 3; ENDIF; conclude true;",
+				"return a, b, c;");
+		ArdenValue[] result = mlm.run(new TestContext(), null);
+		Assert.assertEquals("null", result[0].toString());
+		Assert.assertEquals("null", result[1].toString());
+		Assert.assertEquals("3", result[2].toString());
+	}
+}
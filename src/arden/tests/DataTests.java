@@ -28,10 +28,17 @@
 package arden.tests;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import arden.compiler.CompiledMlm;
+import arden.compiler.Compiler;
 import arden.runtime.ArdenList;
 import arden.runtime.ArdenNumber;
 import arden.runtime.ArdenRunnable;
@@ -42,6 +49,11 @@ import arden.runtime.DatabaseQuery;
 import arden.runtime.ExecutionContext;
 import arden.runtime.MedicalLogicModule;
 import arden.runtime.MemoryQuery;
+import arden.runtime.PlannedQuery;
+import arden.runtime.PrefetchingContext;
+import arden.runtime.QueryOperation;
+import arden.runtime.QueryPlan;
+import arden.runtime.QuerySource;
 
 public class DataTests {
 	private ArdenValue eval(String data, String logic, String action, ExecutionContext context) throws Exception {
@@ -213,4 +225,110 @@ public class DataTests {
 		Assert.assertEquals("(NEW AnionGap WITH \"s1\", \"c1\", \"b1\",NEW AnionGap WITH \"s2\", \"c2\", \"b2\")",
 				result.toString());
 	}
+
+	@Test
+	public void PlannedQueryReceivesCompletePlan() throws Exception {
+		final ArdenValue[] potassiumQueryResults = new ArdenValue[] { new ArdenList(new ArdenValue[] {
+				new ArdenString("a", 1000), new ArdenString("b", 2000), new ArdenString("c", 3000),
+				new ArdenString("d", 86400000), new ArdenString("e", 86400001) }) };
+		final QueryPlan[] executedPlans = new QueryPlan[1];
+		final QuerySource source = new QuerySource() {
+			@Override
+			public ArdenValue[] execute(QueryPlan plan) {
+				Assert.assertNull("plan must be executed only once", executedPlans[0]);
+				executedPlans[0] = plan;
+				return plan.execute(potassiumQueryResults);
+			}
+		};
+		ArdenValue result = eval("LET var1 BE READ LAST 2 FROM {select potassium from results} "
+				+ "WHERE it occurred BEFORE 1970-01-02;", "CONCLUDE true;", "return var1;", new TestContext() {
+			@Override
+			public DatabaseQuery createQuery(String mapping) {
+				return new PlannedQuery(source, mapping);
+			}
+		});
+		Assert.assertEquals("(\"b\",\"c\")", result.toString());
+
+		QueryPlan plan = executedPlans[0];
+		Assert.assertEquals("select potassium from results", plan.getMapping());
+		List<QueryOperation> operations = plan.getOperations();
+		Assert.assertEquals(2, operations.size());
+		Assert.assertEquals(QueryOperation.Type.OCCURS_BEFORE, operations.get(0).type);
+		Assert.assertEquals("1970-01-02T00:00:00", operations.get(0).time.toString());
+		Assert.assertEquals(QueryOperation.Type.LAST_N, operations.get(1).type);
+		Assert.assertEquals(2, operations.get(1).numberOfElements);
+	}
+
+	@Test
+	public void PlannedQueryAggregation() throws Exception {
+		final ArdenValue[] results = new ArdenValue[] { new ArdenList(new ArdenValue[] { ArdenNumber.create(1, 0),
+				ArdenNumber.create(5, 0) }) };
+		ArdenValue result = eval("var1 := READ AVERAGE {select potassium from results};", "CONCLUDE true;",
+				"return var1;", new TestContext() {
+					@Override
+					public DatabaseQuery createQuery(String mapping) {
+						return new PlannedQuery(new QuerySource() {
+							@Override
+							public ArdenValue[] execute(QueryPlan plan) {
+								Assert.assertEquals("{select potassium from results}, AVERAGE", plan.toString());
+								return plan.execute(results);
+							}
+						}, mapping);
+					}
+				});
+		Assert.assertEquals("3", result.toString());
+	}
+
+	@Test
+	public void ErrorInDataSlotIsWrapped() throws Exception {
+		MedicalLogicModule mlm = ActionTests.parseTemplate("a := READ {potassium};", "CONCLUDE true;", "");
+		final LinkageError error = new LinkageError("broken data source");
+		TestContext context = new TestContext() {
+			@Override
+			public DatabaseQuery createQuery(String mapping) {
+				throw error;
+			}
+		};
+		try {
+			mlm.createInstance(context, null);
+			Assert.fail("expected InvocationTargetException");
+		} catch (InvocationTargetException e) {
+			Assert.assertSame(error, e.getCause());
+		}
+	}
+
+	@Test
+	public void QueryMappingsAreRecorded() throws Exception {
+		CompiledMlm mlm = ActionTests.parseTemplate(new Compiler(), "a := READ {potassium}; b := READ LAST {sodium}; "
+				+ "c := READ {potassium} WHERE it occurred BEFORE 1970-01-02;", "CONCLUDE true;", "");
+		Assert.assertEquals(Arrays.asList("potassium", "sodium"), mlm.getQueryMappings());
+	}
+
+	@Test
+	public void PrefetchingContextServesQueriesFromSnapshot() throws Exception {
+		final List<String> fetched = new ArrayList<String>();
+		TestContext context = new TestContext() {
+			@Override
+			public Map<String, ArdenValue[]> executeQueries(Collection<String> mappings) {
+				fetched.addAll(mappings);
+				return super.executeQueries(mappings);
+			}
+
+			@Override
+			public DatabaseQuery createQuery(String mapping) {
+				return new MemoryQuery(new ArdenValue[] { new ArdenList(new ArdenValue[] { ArdenNumber.create(1, 0),
+						ArdenNumber.create(5, 86400000) }) });
+			}
+		};
+		MedicalLogicModule mlm1 = ActionTests.parseTemplate("x := READ LAST {potassium};", "CONCLUDE true;",
+				"return x;");
+		MedicalLogicModule mlm2 = ActionTests.parseTemplate("x := READ {potassium} WHERE it occurred BEFORE "
+				+ "1970-01-02; y := READ {sodium};", "CONCLUDE true;", "return x;");
+		PrefetchingContext prefetching = PrefetchingContext.create(context, Arrays.asList(mlm1, mlm2));
+		Assert.assertEquals(Arrays.asList("potassium", "sodium"), fetched);
+
+		Assert.assertEquals("5", mlm1.run(prefetching, null)[0].toString());
+		Assert.assertEquals("(,1)", mlm2.run(prefetching, null)[0].toString());
+		Assert.assertEquals(2, fetched.size());
+	}
 }
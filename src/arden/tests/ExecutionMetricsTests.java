@@ -0,0 +1,156 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.tests;
+
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.compiler.Compiler;
+import arden.runtime.ArdenList;
+import arden.runtime.ArdenString;
+import arden.runtime.ArdenValue;
+import arden.runtime.DatabaseQuery;
+import arden.runtime.MedicalLogicModule;
+import arden.runtime.MemoryQuery;
+import arden.runtime.metrics.ExecutionMetrics;
+import arden.runtime.metrics.MlmMetrics;
+import arden.runtime.metrics.StripedCounter;
+import arden.runtime.metrics.TextMetricsExporter;
+
+public class ExecutionMetricsTests {
+	private static MedicalLogicModule compile(String name) throws Exception {
+		return new Compiler().compileMlm(new InputStreamReader(ExecutionMetricsTests.class
+				.getResourceAsStream("/arden/examples/" + name + ".mlm")));
+	}
+
+	private static TestContext allergyContext() {
+		return new TestContext() {
+			@Override
+			public DatabaseQuery createQuery(String mapping) {
+				ArdenList list = new ArdenList(new ArdenValue[] { new ArdenString("all1"), new ArdenString("all2") });
+				return new MemoryQuery(new ArdenValue[] { list });
+			}
+		};
+	}
+
+	@Test
+	public void CountsExecutions() throws Exception {
+		ExecutionMetrics metrics = new ExecutionMetrics();
+		MedicalLogicModule mlm = metrics.instrument(compile("x2.3"));
+		TestContext context = allergyContext();
+		mlm.run(context, null);
+		mlm.run(new TestContext(), null);
+		Assert.assertEquals("Caution, the patient has the following allergy to penicillin documented: all2\n", context
+				.getOutputText());
+
+		MlmMetrics m = metrics.getMetrics(mlm.getName());
+		Assert.assertEquals(2, m.getInvocations());
+		Assert.assertEquals(1, m.getConcludedTrue());
+		Assert.assertEquals(1, m.getConcludedFalse());
+		Assert.assertEquals(0, m.getErrors());
+		Assert.assertEquals(2, m.getQueries());
+		// 'read last' returns a single value; DatabaseQuery.NULL has no columns
+		Assert.assertEquals(1, m.getQueryValues());
+		// the string "all2" without primary time
+		Assert.assertEquals(8, m.getQueryBytes());
+		Assert.assertTrue(m.getDataNanos() > 0);
+		Assert.assertTrue(m.getActionNanos() > 0);
+	}
+
+	@Test
+	public void CountsErrors() throws Exception {
+		ExecutionMetrics metrics = new ExecutionMetrics();
+		MedicalLogicModule mlm = metrics.instrument(compile("x2.3"));
+		try {
+			mlm.run(new TestContext() {
+				@Override
+				public DatabaseQuery createQuery(String mapping) {
+					throw new IllegalStateException("database offline");
+				}
+			}, null);
+			Assert.fail("expected InvocationTargetException");
+		} catch (InvocationTargetException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		Assert.assertEquals(1, metrics.getMetrics(mlm.getName()).getErrors());
+	}
+
+	@Test
+	public void DisabledMetricsRecordNothing() throws Exception {
+		ExecutionMetrics metrics = new ExecutionMetrics();
+		MedicalLogicModule mlm = metrics.instrument(compile("x2.3"));
+		metrics.setEnabled(false);
+		mlm.run(allergyContext(), null);
+		Assert.assertEquals(0, metrics.getMetrics(mlm.getName()).getInvocations());
+		Assert.assertEquals(0, metrics.getMetrics(mlm.getName()).getQueries());
+	}
+
+	@Test
+	public void Export() throws Exception {
+		ExecutionMetrics metrics = new ExecutionMetrics();
+		MedicalLogicModule mlm = metrics.instrument(compile("x2.3"));
+		mlm.run(allergyContext(), null);
+		StringWriter output = new StringWriter();
+		metrics.export(new TextMetricsExporter(new PrintWriter(output)));
+		String[] lines = output.toString().split("\n");
+		Assert.assertEquals(2, lines.length);
+		String[] columns = lines[1].trim().split("\t");
+		Assert.assertEquals(mlm.getName(), columns[0]);
+		Assert.assertEquals("1", columns[1]);
+		Assert.assertEquals("1", columns[2]);
+
+		metrics.reset();
+		Assert.assertEquals(0, metrics.getMetrics(mlm.getName()).getInvocations());
+	}
+
+	@Test
+	public void StripedCounterIsThreadSafe() throws Exception {
+		final StripedCounter counter = new StripedCounter();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 100000; j++)
+						counter.increment();
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		Assert.assertEquals(800000, counter.sum());
+		counter.add(-800000);
+		Assert.assertEquals(0, counter.sum());
+	}
+}
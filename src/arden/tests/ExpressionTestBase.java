@@ -27,11 +27,15 @@
 
 package arden.tests;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.GregorianCalendar;
 
 import org.junit.Assert;
 
+import arden.compiler.CompiledMlm;
+import arden.compiler.Compiler;
 import arden.compiler.CompilerException;
 import arden.runtime.ArdenTime;
 import arden.runtime.ArdenValue;
@@ -72,6 +76,38 @@ public class ExpressionTestBase {
 		Assert.assertEquals(expressionCode, expectedResult, arr[0].toString());
 	}
 
+	/** Compiles an MLM with the specified slots (see ActionTests.parseTemplate). */
+	public static CompiledMlm compile(String data, String logic, String action) throws CompilerException {
+		return ActionTests.parseTemplate(new Compiler(), data, logic, action);
+	}
+
+	/** Tests whether the constant pool of the compiled class contains the text. */
+	public static boolean classReferences(CompiledMlm mlm, String text) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		mlm.saveClassFile(os);
+		return new String(os.toByteArray(), "ISO-8859-1").contains(text);
+	}
+
+	/** Runs the MLM and converts the returned values to strings. */
+	public static String[] run(MedicalLogicModule mlm) throws InvocationTargetException {
+		return run(mlm, new TestContext());
+	}
+
+	/**
+	 * Runs the MLM and converts the returned values to strings.
+	 * 
+	 * @return Returns null if the MLM did not return.
+	 */
+	public static String[] run(MedicalLogicModule mlm, ExecutionContext context) throws InvocationTargetException {
+		ArdenValue[] result = mlm.run(context, null);
+		if (result == null)
+			return null;
+		String[] strings = new String[result.length];
+		for (int i = 0; i < result.length; i++)
+			strings[i] = result[i].toString();
+		return strings;
+	}
+
 	static TestContext getContextWithNow(final int year, final int month, final int day) {
 		return new TestContext() {
 			@Override
@@ -0,0 +1,152 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.tests;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import arden.runtime.ArdenTime;
+import arden.runtime.ArdenValue;
+import arden.runtime.DatabaseQuery;
+import arden.runtime.PlannedQuery;
+import arden.runtime.QueryCursor;
+import arden.runtime.QueryPlan;
+import arden.runtime.QuerySource;
+import arden.runtime.jdbc.JdbcQuerySource;
+import arden.runtime.jdbc.SqlTemplate;
+
+/**
+ * Runs JdbcQuerySource against an in-memory H2 database (the H2 driver must
+ * be on the test classpath).
+ */
+public class JdbcDatabaseTests {
+	private Connection connection;
+	private JdbcQuerySource source;
+
+	private static Timestamp day(int day) {
+		return new Timestamp(day * 86400000L);
+	}
+
+	@Before
+	public void createDatabase() throws Exception {
+		connection = DriverManager.getConnection("jdbc:h2:mem:");
+		Statement statement = connection.createStatement();
+		statement.execute("CREATE TABLE potassium (patient INT, amount DOUBLE, measured TIMESTAMP)");
+		statement.close();
+		PreparedStatement insert = connection.prepareStatement("INSERT INTO potassium VALUES (?, ?, ?)");
+		// rows of patient 42 are inserted out of order; patient 7 must never be read
+		int[] days = { 3, 1, 5, 2, 4 };
+		for (int day : days) {
+			insert.setInt(1, 42);
+			insert.setDouble(2, day + 0.5);
+			insert.setTimestamp(3, day(day));
+			insert.executeUpdate();
+		}
+		insert.setInt(1, 7);
+		insert.setDouble(2, 99);
+		insert.setTimestamp(3, day(6));
+		insert.executeUpdate();
+		insert.close();
+		source = new JdbcQuerySource(connection);
+		source.addTemplate("potassium", new SqlTemplate(
+				"SELECT amount, measured FROM potassium WHERE patient = ?", "measured"));
+	}
+
+	@After
+	public void closeDatabase() throws Exception {
+		source.close();
+		connection.close();
+	}
+
+	private String read(DatabaseQuery query) {
+		return query.execute()[0].toString();
+	}
+
+	@Test
+	public void ReadAllSortsByTime() {
+		QuerySource patient = source.withParameters(42);
+		Assert.assertEquals("(1.5,2.5,3.5,4.5,5.5)", read(new PlannedQuery(patient, "potassium")));
+	}
+
+	@Test
+	public void ConstraintsAndRowLimits() {
+		QuerySource patient = source.withParameters(42);
+		ArdenTime day4 = new ArdenTime(day(4).getTime());
+		for (int n = 1; n <= 6; n++) {
+			// each n reuses the same prepared statement; the limit is a parameter
+			String expected = n == 1 ? "(,5.5)" : n == 2 ? "(4.5,5.5)" : n == 3 ? "(3.5,4.5,5.5)"
+					: n == 4 ? "(2.5,3.5,4.5,5.5)" : "(1.5,2.5,3.5,4.5,5.5)";
+			Assert.assertEquals(expected, read(new PlannedQuery(patient, "potassium").latest(n)));
+		}
+		Assert.assertEquals("(1.5,2.5)", read(new PlannedQuery(patient, "potassium").earliest(2)));
+		Assert.assertEquals("3.5", read(new PlannedQuery(patient, "potassium").occursBefore(day4).last()));
+		Assert.assertEquals("(4.5,5.5)", read(new PlannedQuery(patient, "potassium").occursNotBefore(day4)));
+		Assert.assertEquals("2", read(new PlannedQuery(patient, "potassium").occursWithinTo(day4,
+				new ArdenTime(day(2).getTime())).latest(2).count()));
+	}
+
+	@Test
+	public void Aggregations() {
+		QuerySource patient = source.withParameters(42);
+		Assert.assertEquals("5", read(new PlannedQuery(patient, "potassium").count()));
+		Assert.assertEquals("true", read(new PlannedQuery(patient, "potassium").exist()));
+		Assert.assertEquals("3.5", read(new PlannedQuery(patient, "potassium").average()));
+		Assert.assertEquals("17.5", read(new PlannedQuery(patient, "potassium").sum()));
+		Assert.assertEquals("3.5", read(new PlannedQuery(patient, "potassium").median()));
+		Assert.assertEquals("0", read(new PlannedQuery(source.withParameters(1), "potassium").count()));
+	}
+
+	@Test
+	public void ExecuteWhileCursorIsOpen() {
+		QueryPlan plan = QueryPlan.create("potassium");
+		Object[] parameters = { 42 };
+		QueryCursor cursor = source.open(plan, parameters);
+		try {
+			Assert.assertTrue(cursor.next());
+			Assert.assertEquals("1.5", cursor.getValue(0).toString());
+			// same SQL text as the cursor's query
+			ArdenValue[] values = source.execute(plan, parameters);
+			Assert.assertEquals("(1.5,2.5,3.5,4.5,5.5)", values[0].toString());
+			StringBuilder b = new StringBuilder();
+			while (cursor.next())
+				b.append(cursor.getValue(0)).append(' ');
+			Assert.assertEquals("2.5 3.5 4.5 5.5 ", b.toString());
+		} finally {
+			cursor.close();
+		}
+		Assert.assertEquals("(1.5,2.5,3.5,4.5,5.5)", source.execute(plan, parameters)[0].toString());
+	}
+}
@@ -0,0 +1,257 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.tests;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.runtime.ArdenTime;
+import arden.runtime.ArdenValue;
+import arden.runtime.DatabaseQuery;
+import arden.runtime.MedicalLogicModule;
+import arden.runtime.PlannedQuery;
+import arden.runtime.QueryOperation;
+import arden.runtime.QueryPlan;
+import arden.runtime.jdbc.JdbcQuerySource;
+import arden.runtime.jdbc.SqlTemplate;
+
+public class JdbcQuerySourceTests {
+	/**
+	 * Minimal JDBC connection that records the prepared SQL and parameters
+	 * and returns a fixed result set.
+	 */
+	private static class StubDatabase implements InvocationHandler {
+		final List<String> preparedSql = new ArrayList<String>();
+		final List<Object> parameters = new ArrayList<Object>();
+		final String[] columns;
+		final Object[][] rows;
+
+		StubDatabase(String[] columns, Object[]... rows) {
+			this.columns = columns;
+			this.rows = rows;
+		}
+
+		Connection getConnection() {
+			return (Connection) proxy(Connection.class, this);
+		}
+
+		private static Object proxy(Class<?> type, InvocationHandler handler) {
+			return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			if (!method.getName().equals("prepareStatement"))
+				throw new UnsupportedOperationException(method.getName());
+			preparedSql.add((String) args[0]);
+			return proxy(PreparedStatement.class, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if (method.getName().equals("clearParameters")) {
+						parameters.clear();
+						return null;
+					} else if (method.getName().equals("setObject")) {
+						parameters.add(args[1]);
+						return null;
+					} else if (method.getName().equals("setFetchSize")) {
+						return null;
+					} else if (method.getName().equals("executeQuery")) {
+						return createResultSet();
+					} else if (method.getName().equals("close")) {
+						return null;
+					}
+					throw new UnsupportedOperationException(method.getName());
+				}
+			});
+		}
+
+		private ResultSet createResultSet() {
+			return (ResultSet) proxy(ResultSet.class, new InvocationHandler() {
+				int row = -1;
+
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					String name = method.getName();
+					if (name.equals("next")) {
+						return ++row < rows.length;
+					} else if (name.equals("getTimestamp")) {
+						return rows[row][Arrays.asList(columns).indexOf(args[0])];
+					} else if (name.equals("getObject")) {
+						return rows[row][(Integer) args[0] - 1];
+					} else if (name.equals("getMetaData")) {
+						return proxy(ResultSetMetaData.class, new InvocationHandler() {
+							@Override
+							public Object invoke(Object proxy, Method method, Object[] args) {
+								if (method.getName().equals("getColumnCount"))
+									return columns.length;
+								else if (method.getName().equals("getColumnLabel"))
+									return columns[(Integer) args[0] - 1];
+								throw new UnsupportedOperationException(method.getName());
+							}
+						});
+					} else if (name.equals("close")) {
+						return null;
+					}
+					throw new UnsupportedOperationException(name);
+				}
+			});
+		}
+	}
+
+	private static final SqlTemplate potassiumTemplate = new SqlTemplate(
+			"SELECT value, unit, measured FROM potassium WHERE patient = ?", "measured");
+
+	private static Timestamp day(int day) {
+		return new Timestamp(day * 86400000L);
+	}
+
+	@Test
+	public void ReadAllSortsByTime() throws Exception {
+		StubDatabase db = new StubDatabase(new String[] { "value", "unit", "measured" }, new Object[] { 4.5,
+				"mmol/l", day(1) }, new Object[] { 5, "mmol/l", day(2) });
+		JdbcQuerySource source = new JdbcQuerySource(db.getConnection());
+		source.addTemplate("potassium", potassiumTemplate);
+
+		ArdenValue[] result = source.execute(QueryPlan.create("potassium"), new Object[] { 42 });
+		Assert.assertEquals(Arrays.asList("SELECT * FROM (SELECT value, unit, measured FROM potassium WHERE patient = ?) "
+				+ "arden_query ORDER BY arden_query.measured"), db.preparedSql);
+		Assert.assertEquals(Arrays.<Object> asList(42), db.parameters);
+		Assert.assertEquals(2, result.length);
+		Assert.assertEquals("(4.5,5)", result[0].toString());
+		Assert.assertEquals("(\"mmol/l\",\"mmol/l\")", result[1].toString());
+		Assert.assertEquals("1970-01-03T00:00:00", new ArdenTime(((arden.runtime.ArdenList) result[0])
+				.getElements()[1].primaryTime).toString());
+	}
+
+	@Test
+	public void ConstraintsBecomeWherePredicates() throws Exception {
+		StubDatabase db = new StubDatabase(new String[] { "value", "measured" });
+		JdbcQuerySource source = new JdbcQuerySource(db.getConnection());
+		source.addTemplate("potassium", potassiumTemplate);
+
+		QueryPlan plan = QueryPlan.create("potassium").append(
+				QueryOperation.withinTo(new ArdenTime(day(5).getTime()), new ArdenTime(day(3).getTime()), false))
+				.append(QueryOperation.constraint(QueryOperation.Type.OCCURS_NOT_BEFORE, new ArdenTime(day(4)
+						.getTime())));
+		ArdenValue[] result = source.withParameters(42).execute(plan);
+		Assert.assertEquals(Arrays.asList("SELECT * FROM (SELECT value, unit, measured FROM potassium WHERE patient = ?) "
+				+ "arden_query WHERE (arden_query.measured BETWEEN ? AND ?) AND arden_query.measured >= ? "
+				+ "ORDER BY arden_query.measured"), db.preparedSql);
+		Assert.assertEquals(Arrays.<Object> asList(42, day(3), day(5), day(4)), db.parameters);
+		Assert.assertEquals("()", result[0].toString());
+	}
+
+	@Test
+	public void LatestBecomesRowLimit() throws Exception {
+		// the stub returns the rows in the order requested by "ORDER BY ... DESC"
+		StubDatabase db = new StubDatabase(new String[] { "value", "measured" }, new Object[] { 3, day(3) },
+				new Object[] { 2, day(2) });
+		JdbcQuerySource source = new JdbcQuerySource(db.getConnection());
+		source.addTemplate("potassium", potassiumTemplate);
+
+		DatabaseQuery query = new PlannedQuery(source.withParameters(42), "potassium").latest(2);
+		Assert.assertEquals("(2,3)", query.execute()[0].toString());
+		Assert.assertEquals(Arrays.asList("SELECT * FROM (SELECT value, unit, measured FROM potassium WHERE patient = ?) "
+				+ "arden_query ORDER BY arden_query.measured DESC FETCH FIRST ? ROWS ONLY"), db.preparedSql);
+		Assert.assertEquals(Arrays.<Object> asList(42, 2), db.parameters);
+
+		query = new PlannedQuery(source.withParameters(42), "potassium").occursBefore(new ArdenTime(day(4).getTime()))
+				.last();
+		db.preparedSql.clear();
+		Assert.assertEquals("3", query.execute()[0].toString());
+		Assert.assertEquals(Arrays.asList("SELECT * FROM (SELECT value, unit, measured FROM potassium WHERE patient = ?) "
+				+ "arden_query WHERE arden_query.measured < ? ORDER BY arden_query.measured DESC FETCH FIRST ? ROWS ONLY"),
+				db.preparedSql);
+		Assert.assertEquals(Arrays.<Object> asList(42, day(4), 1), db.parameters);
+	}
+
+	@Test
+	public void AggregationReadsCursor() throws Exception {
+		StubDatabase db = new StubDatabase(new String[] { "value", "measured" }, new Object[] { 3, day(3) },
+				new Object[] { null, day(4) }, new Object[] { 6, day(5) });
+		JdbcQuerySource source = new JdbcQuerySource(db.getConnection());
+		source.addTemplate("potassium", potassiumTemplate);
+
+		DatabaseQuery query = new PlannedQuery(source.withParameters(42), "potassium").occursAfter(
+				new ArdenTime(day(2).getTime())).count();
+		Assert.assertEquals("3", query.execute()[0].toString());
+		Assert.assertEquals(Arrays.asList("SELECT * FROM (SELECT value, unit, measured FROM potassium WHERE patient = ?) "
+				+ "arden_query WHERE arden_query.measured > ? ORDER BY arden_query.measured"), db.preparedSql);
+		Assert.assertEquals(Arrays.<Object> asList(42, day(2)), db.parameters);
+		Assert.assertEquals("true", new PlannedQuery(source, "potassium").exist().execute()[0].toString());
+		Assert.assertEquals("null", new PlannedQuery(source, "potassium").sum().execute()[0].toString());
+	}
+
+	@Test
+	public void PreparedStatementsAreCached() throws Exception {
+		StubDatabase db = new StubDatabase(new String[] { "value", "measured" });
+		JdbcQuerySource source = new JdbcQuerySource(db.getConnection());
+		source.addTemplate("potassium", potassiumTemplate);
+
+		source.withParameters(1).execute(QueryPlan.create("potassium"));
+		source.withParameters(2).execute(QueryPlan.create("potassium"));
+		Assert.assertEquals(1, db.preparedSql.size());
+		Assert.assertEquals(Arrays.<Object> asList(2), db.parameters);
+		source.close();
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void UnknownMapping() throws Exception {
+		StubDatabase db = new StubDatabase(new String[0]);
+		new JdbcQuerySource(db.getConnection()).execute(QueryPlan.create("unknown"));
+	}
+
+	@Test
+	public void ReadInMlm() throws Exception {
+		StubDatabase db = new StubDatabase(new String[] { "value", "measured" }, new Object[] { 5.5, day(2) });
+		final JdbcQuerySource source = new JdbcQuerySource(db.getConnection());
+		source.addTemplate("potassium", potassiumTemplate);
+
+		MedicalLogicModule mlm = ActionTests.parseTemplate("x := READ LAST {potassium};", "CONCLUDE true;",
+				"RETURN x;");
+		ArdenValue[] result = mlm.run(new TestContext() {
+			@Override
+			public DatabaseQuery createQuery(String mapping) {
+				return new PlannedQuery(source.withParameters(42), mapping);
+			}
+		}, null);
+		Assert.assertEquals("5.5", result[0].toString());
+		Assert.assertTrue(db.preparedSql.get(0).endsWith("DESC FETCH FIRST ? ROWS ONLY"));
+	}
+}
@@ -0,0 +1,132 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.tests;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.compiler.CompiledMlm;
+import arden.runtime.ArdenList;
+import arden.runtime.ArdenNumber;
+import arden.runtime.ArdenString;
+import arden.runtime.ArdenValue;
+import arden.runtime.BinaryOperator;
+import arden.runtime.ExpressionHelpers;
+
+public class ListFusionTests extends ExpressionTestBase {
+	/** Gets the values including their primary times. */
+	private static String describe(ArdenValue value) {
+		StringBuilder b = new StringBuilder(value.toString());
+		for (ArdenValue element : value.getElements())
+			b.append(' ').append(element.primaryTime);
+		return b.toString();
+	}
+
+	@Test
+	public void FusedOperatorsAreUsed() throws Exception {
+		CompiledMlm mlm = compile("x := 7, 2, 9, 4, 6;", "conclude true;",
+				"return first 2 from (sort data (x where x > 3)), last 2 from (sort (x where it < 9));");
+		Assert.assertTrue(classReferences(mlm, "firstSortedByData"));
+		Assert.assertTrue(classReferences(mlm, "lastSortedByData"));
+		Assert.assertTrue(classReferences(mlm, "whereCompare"));
+		ArdenValue[] result = mlm.run(new TestContext(), null);
+		Assert.assertEquals("(4,6)", result[0].toString());
+		Assert.assertEquals("(6,7)", result[1].toString());
+	}
+
+	@Test
+	public void FirstFromSort() throws Exception {
+		assertEval("(1,1,2)", "FIRST 3 FROM (SORT DATA (3,1,4,1,2))");
+		assertEval("(3,4)", "LAST 2 FROM (SORT (3,1,4,1,2))");
+		assertEval("(1,2,3)", "FIRST 5 FROM (SORT DATA (3,1,2))");
+		assertEval("()", "FIRST 0 FROM (SORT DATA (3,1,2))");
+		assertEval("(,null)", "FIRST 2 FROM (SORT DATA (3,\"a\",2))");
+		assertEval("(,3)", "LAST 2 FROM (SORT DATA 3)");
+		assertEval("(\"a\",\"b\")", "FIRST 2 FROM (SORT DATA (\"c\",\"b\",\"a\"))");
+	}
+
+	@Test
+	public void WhereComparison() throws Exception {
+		assertEval("(4,5)", "(3,4,5) WHERE (3,4,5) > 3");
+		assertEval("(4,5)", "(3,4,5) WHERE IT >= 4");
+		assertEval("()", "(3,4,5) WHERE IT > 5");
+		assertEval("3", "3 WHERE IT = 3");
+		assertEval("()", "3 WHERE IT <> 3");
+		assertEval("(,4)", "(3,4,5) WHERE IT = (1,4,2)");
+		assertEval("()", "(3,4,5) WHERE IT = (1,4)");
+		assertEval("(,\"b\")", "(\"a\",\"b\",null) WHERE IT > \"a\"");
+	}
+
+	@Test
+	public void FusedResultsMatchUnfused() throws Exception {
+		CompiledMlm mlm = compile("x := 5, 3, 8, 3, 1, 9, 3, 7;", "y := x where x >= 3; s := sort data y; conclude true;",
+				"return first 3 from (sort data (x where x >= 3)), first 3 from s, "
+						+ "last 4 from (sort (x where it >= 3)), last 4 from s;");
+		ArdenValue[] result = mlm.run(new TestContext(), null);
+		Assert.assertEquals(result[1].toString(), result[0].toString());
+		Assert.assertEquals(result[3].toString(), result[2].toString());
+	}
+
+	@Test
+	public void SelectionMatchesSortWithTies() throws Exception {
+		Random random = new Random(42);
+		for (int iteration = 0; iteration < 200; iteration++) {
+			int length = random.nextInt(12);
+			ArdenValue[] values = new ArdenValue[length];
+			for (int i = 0; i < length; i++) {
+				// few distinct values so that there are many ties; the
+				// primary time distinguishes the tied elements
+				values[i] = ArdenNumber.create(random.nextInt(4), 1000L * i);
+			}
+			ArdenList list = new ArdenList(values);
+			for (int n = 0; n <= length + 1; n++) {
+				ArdenValue sorted = ExpressionHelpers.sortByData(list);
+				Assert.assertEquals(describe(ExpressionHelpers.first(sorted, n)), describe(ExpressionHelpers
+						.firstSortedByData(list, n)));
+				Assert.assertEquals(describe(ExpressionHelpers.last(sorted, n)), describe(ExpressionHelpers
+						.lastSortedByData(list, n)));
+			}
+		}
+	}
+
+	@Test
+	public void WhereCompareMatchesWhere() throws Exception {
+		ArdenValue[] values = { ArdenNumber.create(2, 0), new ArdenString("a"), ArdenNumber.create(5, 0),
+				ArdenNumber.create(3, 1000) };
+		ArdenList list = new ArdenList(values);
+		BinaryOperator[] operators = { BinaryOperator.LT, BinaryOperator.LE, BinaryOperator.GT, BinaryOperator.GE,
+				BinaryOperator.EQ, BinaryOperator.NE };
+		for (BinaryOperator op : operators) {
+			ArdenValue rhs = ArdenNumber.create(3, 0);
+			Assert.assertEquals(describe(ExpressionHelpers.where(list, op.run(list, rhs))), describe(ExpressionHelpers
+					.whereCompare(list, op, rhs)));
+		}
+	}
+}
@@ -47,8 +47,8 @@ public class ListOperatorTests extends ExpressionTestBase {
 	@Test
 	public void SingleElementList() throws Exception {
 		ArdenList list = (ArdenList) evalExpression(",null");
-		Assert.assertEquals(1, list.values.length);
-		Assert.assertSame(ArdenNull.INSTANCE, list.values[0]);
+		Assert.assertEquals(1, list.size());
+		Assert.assertSame(ArdenNull.INSTANCE, list.getElements()[0]);
 	}
 
 	@Test
@@ -59,18 +59,18 @@ public class ListOperatorTests extends ExpressionTestBase {
 	@Test
 	public void BinaryComma() throws Exception {
 		ArdenList list = (ArdenList) evalExpression("4,2");
-		Assert.assertEquals(2, list.values.length);
-		Assert.assertEquals(4, ((ArdenNumber) list.values[0]).value, 0);
-		Assert.assertEquals(2, ((ArdenNumber) list.values[1]).value, 0);
+		Assert.assertEquals(2, list.size());
+		Assert.assertEquals(4, ((ArdenNumber) list.getElements()[0]).value, 0);
+		Assert.assertEquals(2, ((ArdenNumber) list.getElements()[1]).value, 0);
 	}
 
 	@Test
 	public void BinaryComma2() throws Exception {
 		ArdenList list = (ArdenList) evalExpression("(4,\"a\") , null");
-		Assert.assertEquals(3, list.values.length);
-		Assert.assertEquals(4, ((ArdenNumber) list.values[0]).value, 0);
-		Assert.assertEquals("a", ((ArdenString) list.values[1]).value);
-		Assert.assertSame(ArdenNull.INSTANCE, list.values[2]);
+		Assert.assertEquals(3, list.size());
+		Assert.assertEquals(4, ((ArdenNumber) list.getElements()[0]).value, 0);
+		Assert.assertEquals("a", ((ArdenString) list.getElements()[1]).value);
+		Assert.assertSame(ArdenNull.INSTANCE, list.getElements()[2]);
 	}
 
 	@Test
@@ -117,11 +117,11 @@ public class ListOperatorTests extends ExpressionTestBase {
 		ArdenValue[] arr = mlm.run(new TestContext(), args);
 		Assert.assertEquals(1, arr.length);
 		ArdenList list = (ArdenList) arr[0];
-		Assert.assertEquals(4, list.values.length);
-		Assert.assertEquals(1, ((ArdenTime) list.values[0]).value);
-		Assert.assertEquals(2, ((ArdenTime) list.values[1]).value);
-		Assert.assertEquals(3, ((ArdenTime) list.values[2]).value);
-		Assert.assertEquals(4, ((ArdenTime) list.values[3]).value);
+		Assert.assertEquals(4, list.size());
+		Assert.assertEquals(1, ((ArdenTime) list.getElements()[0]).value);
+		Assert.assertEquals(2, ((ArdenTime) list.getElements()[1]).value);
+		Assert.assertEquals(3, ((ArdenTime) list.getElements()[2]).value);
+		Assert.assertEquals(4, ((ArdenTime) list.getElements()[3]).value);
 	}
 
 	@Test
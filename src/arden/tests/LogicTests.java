@@ -83,9 +83,9 @@ public class LogicTests {
 		ArdenList list = (ArdenList) eval("data1 := (1,\"abc\",null)", "TIME data1 := 2010-02-05; conclude true;",
 				"return data1;", new TestContext());
 		Assert.assertEquals("(1,\"abc\",null)", list.toString());
-		Assert.assertEquals("2010-02-05T00:00:00", new ArdenTime(list.values[0].primaryTime, 0).toString());
-		Assert.assertEquals("2010-02-05T00:00:00", new ArdenTime(list.values[1].primaryTime, 0).toString());
-		Assert.assertEquals("2010-02-05T00:00:00", new ArdenTime(list.values[2].primaryTime, 0).toString());
+		Assert.assertEquals("2010-02-05T00:00:00", new ArdenTime(list.getElements()[0].primaryTime, 0).toString());
+		Assert.assertEquals("2010-02-05T00:00:00", new ArdenTime(list.getElements()[1].primaryTime, 0).toString());
+		Assert.assertEquals("2010-02-05T00:00:00", new ArdenTime(list.getElements()[2].primaryTime, 0).toString());
 	}
 
 	@Test
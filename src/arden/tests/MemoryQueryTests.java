@@ -0,0 +1,176 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.tests;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.runtime.ArdenList;
+import arden.runtime.ArdenNull;
+import arden.runtime.ArdenNumber;
+import arden.runtime.ArdenString;
+import arden.runtime.ArdenTime;
+import arden.runtime.ArdenValue;
+import arden.runtime.BinaryOperator;
+import arden.runtime.DatabaseQuery;
+import arden.runtime.ExpressionHelpers;
+import arden.runtime.MemoryQuery;
+import arden.runtime.TernaryOperator;
+import arden.runtime.UnaryOperator;
+
+public class MemoryQueryTests {
+	/** Gets the columns including the primary times of their elements. */
+	private static String describe(ArdenValue[] columns) {
+		StringBuilder b = new StringBuilder();
+		for (ArdenValue column : columns) {
+			b.append(column.toString());
+			for (ArdenValue element : column.getElements())
+				b.append(' ').append(element.primaryTime);
+			b.append(';');
+		}
+		return b.toString();
+	}
+
+	/** Evaluates a time constraint on each column using the Arden operators. */
+	private static ArdenValue[] evaluate(ArdenValue[] columns, int constraint, ArdenTime t1, ArdenTime t2) {
+		ArdenValue[] result = new ArdenValue[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			ArdenValue time = UnaryOperator.TIME.run(columns[i]);
+			ArdenValue condition;
+			switch (constraint / 2) {
+			case 0:
+				condition = TernaryOperator.WITHINTO.run(time, t1, t2);
+				break;
+			case 1:
+				condition = BinaryOperator.ISBEFORE.run(time, t1);
+				break;
+			case 2:
+				condition = BinaryOperator.ISAFTER.run(time, t1);
+				break;
+			default:
+				condition = BinaryOperator.EQ.run(time, t1);
+				break;
+			}
+			if (constraint % 2 == 1)
+				condition = UnaryOperator.NOT.run(condition);
+			result[i] = ExpressionHelpers.where(columns[i], condition);
+		}
+		return result;
+	}
+
+	private static DatabaseQuery constrain(DatabaseQuery query, int constraint, ArdenTime t1, ArdenTime t2) {
+		switch (constraint) {
+		case 0:
+			return query.occursWithinTo(t1, t2);
+		case 1:
+			return query.occursNotWithinTo(t1, t2);
+		case 2:
+			return query.occursBefore(t1);
+		case 3:
+			return query.occursNotBefore(t1);
+		case 4:
+			return query.occursAfter(t1);
+		case 5:
+			return query.occursNotAfter(t1);
+		case 6:
+			return query.occursAt(t1);
+		default:
+			return query.occursNotAt(t1);
+		}
+	}
+
+	private static long randomTime(Random random) {
+		return random.nextInt(10) == 0 ? ArdenValue.NOPRIMARYTIME : random.nextInt(10) * 1000;
+	}
+
+	private static ArdenValue[] createColumns(Random random, boolean aligned) {
+		int rows = random.nextInt(8);
+		long[] times = new long[rows];
+		for (int i = 0; i < rows; i++)
+			times[i] = randomTime(random);
+		double[] numbers = new double[rows];
+		ArdenValue[] strings = new ArdenValue[rows];
+		ArdenValue[] boxedNumbers = new ArdenValue[rows];
+		for (int i = 0; i < rows; i++) {
+			numbers[i] = random.nextInt(100);
+			long time = aligned ? times[i] : randomTime(random);
+			strings[i] = random.nextBoolean() ? new ArdenString("s" + i, time) : ArdenNull.create(time);
+			boxedNumbers[i] = ArdenNumber.create(i, times[i]);
+		}
+		return new ArdenValue[] { ArdenList.createNumberList(numbers, times), new ArdenList(strings),
+				new ArdenList(boxedNumbers) };
+	}
+
+	@Test
+	public void ConstraintsMatchOperators() {
+		Random random = new Random(3);
+		for (int iteration = 0; iteration < 2000; iteration++) {
+			ArdenValue[] columns = createColumns(random, iteration % 2 == 0);
+			DatabaseQuery query = new MemoryQuery(columns);
+			ArdenValue[] expected = columns;
+			// apply up to three constraints in a row
+			for (int step = 0; step < 3; step++) {
+				int constraint = random.nextInt(8);
+				ArdenTime t1 = new ArdenTime(random.nextInt(10) * 1000);
+				ArdenTime t2 = new ArdenTime(random.nextInt(10) * 1000);
+				expected = evaluate(expected, constraint, t1, t2);
+				query = constrain(query, constraint, t1, t2);
+				Assert.assertEquals(describe(expected), describe(query.execute()));
+			}
+			Assert.assertEquals(describe(new MemoryQuery(expected).latest(2).execute()), describe(query.latest(2)
+					.execute()));
+			Assert.assertEquals(describe(new MemoryQuery(expected).count().execute()), describe(query.count()
+					.execute()));
+		}
+	}
+
+	@Test
+	public void ScalarColumns() {
+		ArdenValue[] columns = { ArdenNumber.create(1, 1000), ArdenNumber.create(2, ArdenValue.NOPRIMARYTIME),
+				new ArdenList(new ArdenValue[] { ArdenNumber.create(3, 1000), ArdenNumber.create(4, 3000) }) };
+		ArdenValue[] result = new MemoryQuery(columns).occursBefore(new ArdenTime(2000)).execute();
+		Assert.assertEquals("1", result[0].toString());
+		Assert.assertEquals("()", result[1].toString());
+		Assert.assertEquals("(,3)", result[2].toString());
+		result = new MemoryQuery(columns).occursAfter(new ArdenTime(2000)).execute();
+		Assert.assertEquals("()", result[0].toString());
+		Assert.assertEquals("()", result[1].toString());
+		Assert.assertEquals("(,4)", result[2].toString());
+	}
+
+	@Test
+	public void AlignedColumnsKeepNumberLists() {
+		ArdenList numbers = ArdenList.createNumberList(new double[] { 1, 2, 3 }, new long[] { 1000, 2000, 3000 });
+		ArdenValue[] result = new MemoryQuery(new ArdenValue[] { numbers, numbers }).occursNotAt(new ArdenTime(2000))
+				.execute();
+		Assert.assertEquals("(1,3)", result[0].toString());
+		Assert.assertTrue(((ArdenList) result[1]).isNumberList());
+	}
+}
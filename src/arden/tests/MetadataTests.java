@@ -40,7 +40,8 @@ public class MetadataTests {
 	@Test
 	public void X21() throws Exception {
 		Compiler c = new Compiler();
-		CompiledMlm mlm = c.compileMlm(new InputStreamReader(MetadataTests.class.getResourceAsStream("x2.1.mlm")));
+		CompiledMlm mlm = c.compileMlm(new InputStreamReader(MetadataTests.class
+				.getResourceAsStream("/arden/examples/x2.1.mlm")));
 
 		MaintenanceMetadata m = mlm.getMaintenance();
 		Assert.assertEquals("Fractional excretion of sodium", m.getTitle());
@@ -63,7 +64,8 @@ public class MetadataTests {
 	@Test
 	public void X23() throws Exception {
 		Compiler c = new Compiler();
-		CompiledMlm mlm = c.compileMlm(new InputStreamReader(MetadataTests.class.getResourceAsStream("x2.3.mlm")));
+		CompiledMlm mlm = c.compileMlm(new InputStreamReader(MetadataTests.class
+				.getResourceAsStream("/arden/examples/x2.3.mlm")));
 
 		MaintenanceMetadata m = mlm.getMaintenance();
 		Assert.assertEquals("Check for penicillin allergy", m.getTitle());
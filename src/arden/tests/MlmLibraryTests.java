@@ -0,0 +1,131 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.tests;
+
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.compiler.CompiledMlm;
+import arden.compiler.Compiler;
+import arden.compiler.MlmLibrary;
+import arden.runtime.DatabaseQuery;
+import arden.runtime.MedicalLogicModule;
+import arden.runtime.MedicalLogicModuleImplementation;
+
+public class MlmLibraryTests {
+	private static List<CompiledMlm> compile(String packageName, String... names) throws Exception {
+		Compiler c = new Compiler();
+		c.setPackageName(packageName);
+		List<CompiledMlm> output = new ArrayList<CompiledMlm>();
+		for (String name : names)
+			output.add(c.compileMlm(new InputStreamReader(MlmLibraryTests.class.getResourceAsStream("/arden/examples/"
+					+ name + ".mlm"))));
+		return output;
+	}
+
+	@Test
+	public void PackageName() throws Exception {
+		CompiledMlm mlm = compile("arden.mlm.test", "x2.1").get(0);
+		Assert.assertEquals("arden.mlm.test.fractional_na", mlm.getClassName());
+		Assert.assertEquals("arden.mlm.test.fractional_na", mlm.createInstance(new TestContext(), null).getClass()
+				.getName());
+	}
+
+	@Test
+	public void FactoryClass() throws Exception {
+		CompiledMlm mlm = compile(null, "x2.1").get(0);
+		Assert.assertEquals("fractional_na$Factory", mlm.getFactoryClassName());
+		MedicalLogicModuleImplementation impl = mlm.createInstance(new TestContext(), null);
+		Assert.assertEquals("fractional_na", impl.getClass().getName());
+		Assert.assertNotSame(impl, mlm.createInstance(new TestContext(), null));
+	}
+
+	@Test
+	public void DataSlotExceptionIsWrapped() throws Exception {
+		MedicalLogicModule mlm = ActionTests.parseTemplate("x := READ {potassium}", "conclude true;", "");
+		try {
+			mlm.createInstance(new TestContext() {
+				@Override
+				public DatabaseQuery createQuery(String mapping) {
+					throw new IllegalStateException("database offline");
+				}
+			}, null);
+			Assert.fail("expected InvocationTargetException");
+		} catch (InvocationTargetException ex) {
+			Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void AllModulesShareOneClassLoader() throws Exception {
+		MlmLibrary library = new MlmLibrary();
+		MlmLibrary.Generation generation = library.load(compile("arden.mlm.gen", "x2.1", "x2.2", "x2.3"));
+		Assert.assertSame(generation, library.getCurrentGeneration());
+		Assert.assertEquals(1, generation.getNumber());
+		// implementation class + factory class per MLM
+		Assert.assertEquals(6, generation.getClassCount());
+		Assert.assertTrue(generation.getBytecodeSize() > 0);
+
+		MedicalLogicModule mlm1 = generation.getModule("fractional_na");
+		MedicalLogicModule mlm2 = generation.getModule("pen_allergy");
+		ClassLoader loader = mlm1.createInstance(new TestContext(), null).getClass().getClassLoader();
+		Assert.assertSame(loader, mlm2.createInstance(new TestContext(), null).getClass().getClassLoader());
+
+		TestContext context = new TestContext();
+		mlm1.run(context, null);
+		Assert.assertEquals("", context.getOutputText());
+	}
+
+	@Test
+	public void GenerationSwap() throws Exception {
+		MlmLibrary library = new MlmLibrary();
+		List<CompiledMlm> mlms = compile("arden.mlm.gen", "x2.1");
+		MedicalLogicModule old = library.load(mlms).getModule("fractional_na");
+		MlmLibrary.Generation generation2 = library.load(mlms);
+		Assert.assertEquals(2, generation2.getNumber());
+		Assert.assertSame(generation2, library.getCurrentGeneration());
+		MedicalLogicModule current = generation2.getModule("fractional_na");
+		Assert.assertNotSame(old.createInstance(new TestContext(), null).getClass(), current.createInstance(
+				new TestContext(), null).getClass());
+		// modules of the old generation can still be used
+		old.run(new TestContext(), null);
+		Assert.assertTrue(library.getLiveGenerationCount() >= 1);
+		Assert.assertTrue(MlmLibrary.getLoadedClassCount() > 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void DuplicateClassNames() throws Exception {
+		List<CompiledMlm> mlms = compile(null, "x2.1");
+		new MlmLibrary().load(Arrays.asList(mlms.get(0), mlms.get(0)));
+	}
+}
@@ -0,0 +1,112 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.runtime.ArdenRunnable;
+import arden.runtime.ArdenString;
+import arden.runtime.ArdenValue;
+import arden.runtime.MedicalLogicModule;
+import arden.runtime.MedicalLogicModuleImplementation;
+import arden.runtime.ModuleRegistry;
+
+public class ModuleRegistryTests {
+	private static MedicalLogicModule returning(String value) throws Exception {
+		return ActionTests.parseAction("return \"" + value + "\"");
+	}
+
+	private static String run(MedicalLogicModule mlm) throws Exception {
+		ArdenValue[] result = mlm.run(new TestContext(), null);
+		return ((ArdenString) result[0]).value;
+	}
+
+	@Test
+	public void FindModule() throws Exception {
+		ModuleRegistry registry = new ModuleRegistry();
+		MedicalLogicModule mlm = returning("v1");
+		Assert.assertEquals(1, registry.register(mlm));
+		Assert.assertSame(mlm, registry.findModule("test_mlm", "TU Braunschweig"));
+		Assert.assertSame(mlm, registry.findModule("TEST_MLM", "tu braunschweig"));
+		Assert.assertSame(mlm, registry.findModule("test_mlm", null));
+		Assert.assertNull(registry.findModule("test_mlm", "Other Institution"));
+		Assert.assertNull(registry.findModule("other_mlm", null));
+		Assert.assertEquals(0, registry.getVersion("other_mlm", null));
+	}
+
+	@Test
+	public void ReplaceModule() throws Exception {
+		ModuleRegistry registry = new ModuleRegistry();
+		registry.register(returning("v1"));
+		Assert.assertEquals(2, registry.register(returning("v2")));
+		Assert.assertEquals(2, registry.getVersion("test_mlm", "TU Braunschweig"));
+		Assert.assertEquals("v2", run(registry.findModule("test_mlm", null)));
+		Assert.assertEquals(1, registry.getModules().size());
+	}
+
+	@Test
+	public void InFlightExecutionKeepsOldVersion() throws Exception {
+		ModuleRegistry registry = new ModuleRegistry();
+		registry.register(returning("v1"));
+		TestContext context = new TestContext();
+		MedicalLogicModuleImplementation impl = registry.findModule("test_mlm", null).createInstance(context, null);
+		registry.register(returning("v2"));
+		Assert.assertTrue(impl.logic(context));
+		Assert.assertEquals("v1", ((ArdenString) impl.action(context)[0]).value);
+		Assert.assertEquals("v2", run(registry.findModule("test_mlm", null)));
+	}
+
+	@Test
+	public void UnregisterKeepsVersionNumbers() throws Exception {
+		ModuleRegistry registry = new ModuleRegistry();
+		registry.register(returning("v1"));
+		Assert.assertTrue(registry.unregister("test_mlm", "TU Braunschweig"));
+		Assert.assertFalse(registry.unregister("test_mlm", "TU Braunschweig"));
+		Assert.assertNull(registry.findModule("test_mlm", null));
+		Assert.assertEquals(2, registry.register(returning("v2")));
+	}
+
+	@Test
+	public void CallThroughRegistry() throws Exception {
+		final ModuleRegistry registry = new ModuleRegistry();
+		registry.register(returning("v1"));
+		TestContext context = new TestContext() {
+			@Override
+			public ArdenRunnable findModule(String name, String institution) {
+				return registry.findModule(name, institution);
+			}
+		};
+		MedicalLogicModule caller = ActionTests.parseTemplate("x := MLM 'test_mlm'; y := CALL x",
+				"conclude true;", "WRITE y");
+		caller.run(context, null);
+		registry.register(returning("v2"));
+		caller.run(context, null);
+		Assert.assertEquals("v1\nv2\n", context.getOutputText());
+	}
+}
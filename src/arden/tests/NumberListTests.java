@@ -0,0 +1,136 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.runtime.ArdenList;
+import arden.runtime.ArdenNumber;
+import arden.runtime.ArdenValue;
+import arden.runtime.BinaryOperator;
+import arden.runtime.ExpressionHelpers;
+
+public class NumberListTests extends ExpressionTestBase {
+	private static final double[] NUMBERS = { 5, 3, 8, 3, -1, 2.5 };
+	private static final long[] TIMES = { 1000, 2000, 3000, 4000, 5000, 6000 };
+
+	private static ArdenList packed() {
+		return ArdenList.createNumberList(NUMBERS.clone(), TIMES.clone());
+	}
+
+	private static ArdenList boxed() {
+		ArdenValue[] values = new ArdenValue[NUMBERS.length];
+		for (int i = 0; i < values.length; i++)
+			values[i] = ArdenNumber.create(NUMBERS[i], TIMES[i]);
+		return new ArdenList(values);
+	}
+
+	private static void assertSameResult(ArdenValue expected, ArdenValue actual) {
+		Assert.assertEquals(expected.toString(), actual.toString());
+		Assert.assertEquals(expected.primaryTime, actual.primaryTime);
+		if (expected instanceof ArdenList) {
+			ArdenValue[] expectedElements = expected.getElements();
+			ArdenValue[] actualElements = actual.getElements();
+			for (int i = 0; i < expectedElements.length; i++)
+				Assert.assertEquals(expectedElements[i].primaryTime, actualElements[i].primaryTime);
+		}
+	}
+
+	@Test
+	public void PackedListIsEqualToBoxedList() throws Exception {
+		Assert.assertTrue(packed().isNumberList());
+		Assert.assertFalse(boxed().isNumberList());
+		Assert.assertEquals(boxed(), packed());
+		Assert.assertEquals(packed(), boxed());
+		Assert.assertEquals(boxed().hashCode(), packed().hashCode());
+		assertSameResult(boxed(), packed());
+	}
+
+	@Test
+	public void InvalidNumberFallsBackToBoxedList() throws Exception {
+		ArdenList list = ArdenList.createNumberList(new double[] { 1, Double.NaN }, new long[] { 0, 0 });
+		Assert.assertFalse(list.isNumberList());
+		Assert.assertEquals("(1,null)", list.toString());
+	}
+
+	@Test
+	public void Aggregation() throws Exception {
+		assertSameResult(ExpressionHelpers.sum(boxed()), ExpressionHelpers.sum(packed()));
+		assertSameResult(ExpressionHelpers.average(boxed()), ExpressionHelpers.average(packed()));
+		assertSameResult(ExpressionHelpers.median(boxed()), ExpressionHelpers.median(packed()));
+		assertSameResult(ExpressionHelpers.variance(boxed()), ExpressionHelpers.variance(packed()));
+		assertSameResult(ExpressionHelpers.slope(boxed()), ExpressionHelpers.slope(packed()));
+	}
+
+	@Test
+	public void MedianUsesTimeOfStableSort() throws Exception {
+		double[] numbers = { 3, 1, 3, 3, 5 };
+		long[] times = { 10, 20, 30, 40, 50 };
+		ArdenValue[] values = new ArdenValue[numbers.length];
+		for (int i = 0; i < values.length; i++)
+			values[i] = ArdenNumber.create(numbers[i], times[i]);
+		ArdenValue median = ExpressionHelpers.median(ArdenList.createNumberList(numbers, times));
+		Assert.assertEquals("3", median.toString());
+		Assert.assertEquals(30, median.primaryTime);
+		assertSameResult(ExpressionHelpers.median(new ArdenList(values)), median);
+	}
+
+	@Test
+	public void Arithmetic() throws Exception {
+		BinaryOperator[] operators = { BinaryOperator.ADD, BinaryOperator.SUB, BinaryOperator.MUL,
+				BinaryOperator.DIV };
+		ArdenValue scalar = ArdenNumber.create(2, 2000);
+		for (BinaryOperator op : operators) {
+			ArdenValue result = op.run(packed(), packed());
+			Assert.assertTrue(((ArdenList) result).isNumberList());
+			assertSameResult(op.run(boxed(), boxed()), result);
+			assertSameResult(op.run(boxed(), scalar), op.run(packed(), scalar));
+			assertSameResult(op.run(scalar, boxed()), op.run(scalar, packed()));
+		}
+	}
+
+	@Test
+	public void DivisionByZeroProducesNull() throws Exception {
+		ArdenValue result = BinaryOperator.DIV.run(packed(), ArdenNumber.ZERO);
+		Assert.assertFalse(((ArdenList) result).isNumberList());
+		Assert.assertEquals("(null,null,null,null,null,null)", result.toString());
+	}
+
+	@Test
+	public void ListLengthMismatch() throws Exception {
+		ArdenList shortList = ArdenList.createNumberList(new double[] { 1 }, new long[] { 0 });
+		Assert.assertEquals("null", BinaryOperator.ADD.run(packed(), shortList).toString());
+	}
+
+	@Test
+	public void PackedListInMlm() throws Exception {
+		assertEvalWithArgument("(10,6,16,6,-2,5)", "arg + arg", packed(), new TestContext());
+		assertEvalWithArgument("20.5", "sum of arg", packed(), new TestContext());
+		assertEvalWithArgument("(5,3,8,3,2.5,\"x\")", "(arg where arg > 0), \"x\"", packed(), new TestContext());
+	}
+}
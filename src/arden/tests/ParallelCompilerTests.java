@@ -0,0 +1,162 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+package arden.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import arden.compiler.CompiledMlm;
+import arden.compiler.Compiler;
+import arden.compiler.LibraryCompilerException;
+
+public class ParallelCompilerTests {
+	private static final String[] examples = { "x2.1", "x2.2", "x2.3", "x2.4", "x2.5", "x2.6", "x2.7", "x2.8" };
+
+	private File directory;
+	private ExecutorService pool;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("mlmlibrary", "");
+		directory.delete();
+		directory.mkdir();
+		new File(directory, "sub").mkdir();
+		for (int i = 0; i < examples.length; i++) {
+			// put some of the files into a subdirectory
+			copyExample(examples[i], new File(i % 2 == 0 ? directory : new File(directory, "sub"), examples[i] + ".mlm"));
+		}
+		pool = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files)
+				delete(child);
+		}
+		file.delete();
+	}
+
+	private static void copyExample(String name, File target) throws IOException {
+		InputStream in = ParallelCompilerTests.class.getResourceAsStream("/arden/examples/" + name + ".mlm");
+		OutputStream out = new FileOutputStream(target);
+		byte[] buffer = new byte[4096];
+		int len;
+		while ((len = in.read(buffer)) > 0)
+			out.write(buffer, 0, len);
+		out.close();
+		in.close();
+	}
+
+	private void writeFile(String name, String content) throws IOException {
+		OutputStream out = new FileOutputStream(new File(directory, name));
+		out.write(content.getBytes("UTF-8"));
+		out.close();
+	}
+
+	@Test
+	public void CompileDirectory() throws Exception {
+		Map<String, CompiledMlm> mlms = new Compiler().compileDirectory(directory, pool);
+		Assert.assertEquals(examples.length, mlms.size());
+		Assert.assertTrue(mlms.keySet().containsAll(
+				Arrays.asList("fractional_na", "hypercalcemia_for_b", "pen_allergy", "gentamicin_dosing",
+						"gentamicin_monitoring", "anctms", "care_cardiology_mlm", "test_for_allergies_while_loop")));
+
+		TestContext context = new TestContext();
+		mlms.get("fractional_na").run(context, null);
+		Assert.assertEquals("", context.getOutputText());
+	}
+
+	@Test
+	public void ErrorsOfAllFilesAreReported() throws Exception {
+		writeFile("broken1.mlm", "maintenance: title: broken;;");
+		writeFile("broken2.mlm", "this is not an MLM");
+		try {
+			new Compiler().compileDirectory(directory, pool);
+			Assert.fail("expected LibraryCompilerException");
+		} catch (LibraryCompilerException ex) {
+			Assert.assertEquals(2, ex.getErrors().size());
+			Assert.assertTrue(ex.getErrors().containsKey(new File(directory, "broken1.mlm")));
+			Assert.assertTrue(ex.getErrors().containsKey(new File(directory, "broken2.mlm")));
+			Assert.assertEquals(examples.length, ex.getCompiledModules().size());
+		}
+	}
+
+	@Test
+	public void ExceptionIsSerializable() throws Exception {
+		copyExample("x2.1", new File(directory, "copy.mlm"));
+		try {
+			new Compiler().compileDirectory(directory, pool);
+			Assert.fail("expected LibraryCompilerException");
+		} catch (LibraryCompilerException ex) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			ObjectOutputStream s = new ObjectOutputStream(output);
+			s.writeObject(ex);
+			s.close();
+			LibraryCompilerException copy = (LibraryCompilerException) new ObjectInputStream(new ByteArrayInputStream(
+					output.toByteArray())).readObject();
+			Assert.assertEquals(ex.getMessage(), copy.getMessage());
+			Assert.assertFalse(ex.getCompiledModules().isEmpty());
+			Assert.assertEquals(1, copy.getErrors().size());
+			Assert.assertTrue(copy.getCompiledModules().isEmpty());
+		}
+	}
+
+	@Test
+	public void DuplicateNamesAreReported() throws Exception {
+		copyExample("x2.1", new File(directory, "copy.mlm"));
+		try {
+			new Compiler().compileDirectory(directory, pool);
+			Assert.fail("expected LibraryCompilerException");
+		} catch (LibraryCompilerException ex) {
+			Assert.assertEquals(1, ex.getErrors().size());
+			Assert.assertEquals(examples.length, ex.getCompiledModules().size());
+		}
+	}
+}
@@ -0,0 +1,93 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.compiler.CompiledMlm;
+import arden.runtime.ArdenTime;
+
+public class ShortCircuitTests extends ExpressionTestBase {
+	/** Counts how often the MLM evaluates "eventtime". */
+	private static class CountingContext extends TestContext {
+		int eventTimeCount;
+
+		@Override
+		public ArdenTime getEventTime() {
+			eventTimeCount++;
+			return super.getEventTime();
+		}
+	}
+
+	@Test
+	public void AndSkipsRightOperand() throws Exception {
+		CompiledMlm mlm = compile("x := 1;", "if x > 2 and exist eventtime then a := 1; endif;"
+				+ "if x < 2 and exist eventtime then b := 1; endif; conclude true;", "return a, b;");
+		CountingContext context = new CountingContext();
+		Assert.assertArrayEquals(new String[] { "null", "1" }, run(mlm, context));
+		Assert.assertEquals(1, context.eventTimeCount);
+	}
+
+	@Test
+	public void OrSkipsRightOperand() throws Exception {
+		CompiledMlm mlm = compile("x := 1;", "if x < 2 or exist eventtime then a := 1; endif;"
+				+ "if x > 2 or exist eventtime then b := 1; endif; conclude true;", "return a, b;");
+		CountingContext context = new CountingContext();
+		Assert.assertArrayEquals(new String[] { "1", "1" }, run(mlm, context));
+		Assert.assertEquals(1, context.eventTimeCount);
+	}
+
+	@Test
+	public void ConcludeSkipsRightOperand() throws Exception {
+		CompiledMlm mlm = compile("x := 1;", "conclude x > 2 and exist eventtime;", "return 1;");
+		CountingContext context = new CountingContext();
+		Assert.assertNull(run(mlm, context));
+		Assert.assertEquals(0, context.eventTimeCount);
+	}
+
+	@Test
+	public void NullSemantics() throws Exception {
+		CompiledMlm mlm = compile("x := 1; n := null;", "if n or x < 2 then a := 1; endif;"
+				+ "if n and x < 2 then b := 1; endif;" + "if not (n and false) then c := 1; endif;"
+				+ "if x < 2 and (n or true) then d := 1; endif; conclude true;", "return a, b, c, d;");
+		Assert.assertArrayEquals(new String[] { "1", "null", "1", "1" }, run(mlm, new TestContext()));
+
+		mlm = compile("x := 1; n := null;", "conclude n or x > 2;", "return 1;");
+		Assert.assertNull(run(mlm, new TestContext()));
+	}
+
+	@Test
+	public void ListOperandsKeepListSemantics() throws Exception {
+		// "true OR (true, true)" is the list (true, true), which is not true
+		CompiledMlm mlm = compile("x := 1; l := (true, true);", "if x < 2 or l then a := 1; endif;"
+				+ "if l or x < 2 then b := 1; endif;" + "if l and x < 2 then c := 1; endif;"
+				+ "if any l and x < 2 then d := 1; endif; conclude true;", "return a, b, c, d;");
+		Assert.assertArrayEquals(new String[] { "null", "null", "null", "1" }, run(mlm, new TestContext()));
+	}
+}
@@ -0,0 +1,96 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.compiler.CompiledMlm;
+import arden.compiler.Compiler;
+import arden.runtime.StatementProfile;
+
+public class StatementProfileTests {
+	// line numbers of the slots in ActionTemplate.mlm
+	private static final int DATA_LINE = 22;
+	private static final int LOGIC_LINE = 25;
+	private static final int ACTION_LINE = 28;
+
+	private static CompiledMlm compile(String data, String logic, String action) throws Exception {
+		Compiler c = new Compiler();
+		c.enableStatementProfiling();
+		return ActionTests.parseTemplate(c, data, logic, action);
+	}
+
+	@Test
+	public void NoProfileByDefault() throws Exception {
+		CompiledMlm mlm = ActionTests.parseTemplate(new Compiler(), "", "conclude true;", "");
+		Assert.assertNull(mlm.getStatementProfile());
+	}
+
+	@Test
+	public void CountsStatementsPerLine() throws Exception {
+		CompiledMlm mlm = compile("x := 1;", "conclude x = 1;", "FOR i IN 1 SEQTO 3 DO\n WRITE \"loop\";\n ENDDO;");
+		TestContext context = new TestContext();
+		mlm.run(context, null);
+		mlm.run(context, null);
+
+		StatementProfile profile = mlm.getStatementProfile();
+		Assert.assertNotNull(profile);
+		Assert.assertEquals("test_mlm", profile.getName());
+		Assert.assertEquals(2, profile.getExecutionCount(DATA_LINE));
+		Assert.assertEquals(2, profile.getExecutionCount(LOGIC_LINE));
+		Assert.assertEquals(2, profile.getExecutionCount(ACTION_LINE));
+		Assert.assertEquals(6, profile.getExecutionCount(ACTION_LINE + 1));
+		Assert.assertTrue(profile.getNanos(ACTION_LINE + 1) > 0);
+		Assert.assertEquals(0, profile.getExecutionCount(ACTION_LINE + 5));
+		Assert.assertTrue(profile.toString().contains("\n    " + (ACTION_LINE + 1) + "          6"));
+
+		profile.reset();
+		Assert.assertEquals(0, profile.getExecutionCount(ACTION_LINE + 1));
+	}
+
+	@Test
+	public void ProfiledMlmBehavesLikeNormalMlm() throws Exception {
+		CompiledMlm mlm = compile("x := 5;", "if x > 3 then conclude true; endif; conclude false;",
+				"return x * 2;");
+		Assert.assertEquals("10", mlm.run(new TestContext(), null)[0].toString());
+		Assert.assertEquals(1, mlm.getStatementProfile().getExecutionCount(ACTION_LINE));
+	}
+
+	@Test
+	public void ProfilingWithDebugging() throws Exception {
+		Compiler c = new Compiler();
+		c.enableDebugging("test.mlm");
+		c.enableStatementProfiling();
+		CompiledMlm mlm = ActionTests.parseTemplate(c, "x := 1;", "conclude true;", "WRITE \"a\";");
+		TestContext context = new TestContext();
+		mlm.run(context, null);
+		Assert.assertEquals("a\n", context.getOutputText());
+		Assert.assertEquals(1, mlm.getStatementProfile().getExecutionCount(ACTION_LINE));
+	}
+}
@@ -0,0 +1,234 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.tests;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.runtime.ArdenDuration;
+import arden.runtime.ArdenList;
+import arden.runtime.ArdenNull;
+import arden.runtime.ArdenNumber;
+import arden.runtime.ArdenString;
+import arden.runtime.ArdenTime;
+import arden.runtime.ArdenValue;
+import arden.runtime.DatabaseQuery;
+import arden.runtime.ExpressionHelpers;
+import arden.runtime.MemoryQuery;
+import arden.runtime.PlannedQuery;
+import arden.runtime.QueryCursor;
+import arden.runtime.QueryOperation;
+import arden.runtime.QueryPlan;
+import arden.runtime.StreamingAggregation;
+import arden.runtime.StreamingQuerySource;
+
+public class StreamingAggregationTests {
+	/**
+	 * Streaming source over in-memory columns; execute() must not be called
+	 * for aggregations.
+	 */
+	private static class ColumnSource implements StreamingQuerySource {
+		final ArdenValue[] columns;
+		final int exactMedianLimit;
+		int openCursors;
+
+		ColumnSource(int exactMedianLimit, ArdenValue... columns) {
+			this.columns = columns;
+			this.exactMedianLimit = exactMedianLimit;
+		}
+
+		@Override
+		public ArdenValue[] execute(QueryPlan plan) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public QueryCursor open(QueryPlan plan) {
+			final ArdenValue[] result = plan.execute(columns);
+			openCursors++;
+			return new QueryCursor() {
+				int row = -1;
+
+				@Override
+				public int getColumnCount() {
+					return result.length;
+				}
+
+				@Override
+				public boolean next() {
+					return ++row < result[0].getElements().length;
+				}
+
+				@Override
+				public ArdenValue getValue(int column) {
+					return result[column].getElements()[row];
+				}
+
+				@Override
+				public void close() {
+					openCursors--;
+				}
+			};
+		}
+
+		@Override
+		public int getExactMedianLimit() {
+			return exactMedianLimit;
+		}
+	}
+
+	/** Gets the values including their primary times. */
+	private static String describe(ArdenValue[] values) {
+		StringBuilder b = new StringBuilder();
+		for (ArdenValue value : values)
+			b.append(value.toString()).append(' ').append(value.primaryTime).append(';');
+		return b.toString();
+	}
+
+	private static ArdenValue createValue(Random random, int kind, long time) {
+		switch (kind) {
+		case 0:
+			return ArdenNumber.create(random.nextInt(20) - 5, time);
+		case 1:
+			return new ArdenTime(random.nextInt(100000) * 1000L, time);
+		case 2:
+			return random.nextBoolean() ? ArdenDuration.seconds(random.nextInt(1000), time) : ArdenDuration.months(
+					random.nextInt(10), time);
+		case 3:
+			return new ArdenString("s" + random.nextInt(10), time);
+		default:
+			return ArdenNull.create(time);
+		}
+	}
+
+	/** Creates a column; mostly of one kind, sometimes mixed with other kinds. */
+	private static ArdenValue createColumn(Random random, long[] times) {
+		int kind = random.nextInt(5);
+		boolean mixed = random.nextInt(4) == 0;
+		ArdenValue[] values = new ArdenValue[times.length];
+		for (int i = 0; i < values.length; i++)
+			values[i] = createValue(random, mixed && random.nextInt(3) == 0 ? random.nextInt(5) : kind, times[i]);
+		return new ArdenList(values);
+	}
+
+	private static final QueryOperation.Type[] aggregations = { QueryOperation.Type.AVERAGE,
+			QueryOperation.Type.SUM, QueryOperation.Type.COUNT, QueryOperation.Type.EXIST,
+			QueryOperation.Type.MEDIAN };
+
+	private static DatabaseQuery aggregate(DatabaseQuery query, QueryOperation.Type type) {
+		return QueryOperation.aggregation(type).applyTo(query);
+	}
+
+	@Test
+	public void MatchesMemoryQuery() {
+		Random random = new Random(11);
+		for (int iteration = 0; iteration < 1000; iteration++) {
+			long[] times = new long[random.nextInt(7)];
+			boolean sameTime = random.nextInt(4) == 0;
+			for (int i = 0; i < times.length; i++)
+				times[i] = sameTime ? 5000 : i * 1000;
+			ArdenValue[] columns = { createColumn(random, times), createColumn(random, times) };
+			ColumnSource source = new ColumnSource(Integer.MAX_VALUE, columns);
+			ArdenTime time = new ArdenTime(random.nextInt(7) * 1000);
+			for (QueryOperation.Type type : aggregations) {
+				ArdenValue[] expected = aggregate(new MemoryQuery(columns).occursNotAt(time), type).execute();
+				ArdenValue[] actual = aggregate(new PlannedQuery(source, "data").occursNotAt(time), type).execute();
+				Assert.assertEquals(type + " of " + Arrays.toString(columns), describe(expected), describe(actual));
+			}
+			Assert.assertEquals(0, source.openCursors);
+		}
+	}
+
+	@Test
+	public void CanExecute() {
+		QueryPlan plan = QueryPlan.create("data");
+		Assert.assertFalse(StreamingAggregation.canExecute(plan));
+		Assert.assertTrue(StreamingAggregation.canExecute(plan.append(QueryOperation
+				.aggregation(QueryOperation.Type.MEDIAN))));
+		plan = plan.append(QueryOperation.constraint(QueryOperation.Type.OCCURS_AFTER, new ArdenTime(0)));
+		Assert.assertFalse(StreamingAggregation.canExecute(plan));
+		Assert.assertTrue(StreamingAggregation.canExecute(plan.append(QueryOperation
+				.aggregation(QueryOperation.Type.SUM))));
+		Assert.assertFalse(StreamingAggregation.canExecute(plan.append(QueryOperation
+				.aggregation(QueryOperation.Type.MINIMUM))));
+		Assert.assertFalse(StreamingAggregation.canExecute(plan.append(
+				QueryOperation.transformation(QueryOperation.Type.LAST_N, 3)).append(
+				QueryOperation.aggregation(QueryOperation.Type.AVERAGE))));
+	}
+
+	private static ArdenList createNumbers(Random random, int count) {
+		double[] numbers = new double[count];
+		long[] times = new long[count];
+		for (int i = 0; i < count; i++) {
+			numbers[i] = 100 + random.nextGaussian() * 10;
+			times[i] = i * 1000L;
+		}
+		return ArdenList.createNumberList(numbers, times);
+	}
+
+	@Test
+	public void ExactMedianBelowLimit() {
+		ArdenList numbers = createNumbers(new Random(5), 1000);
+		ColumnSource source = new ColumnSource(1000, numbers);
+		ArdenValue median = new PlannedQuery(source, "data").median().execute()[0];
+		Assert.assertEquals(describe(new ArdenValue[] { ExpressionHelpers.median(numbers) }),
+				describe(new ArdenValue[] { median }));
+	}
+
+	@Test
+	public void ApproximateMedianAboveLimit() {
+		ArdenList numbers = createNumbers(new Random(5), 200000);
+		ColumnSource source = new ColumnSource(1000, numbers);
+		ArdenValue median = new PlannedQuery(source, "data").median().execute()[0];
+		double exact = ((ArdenNumber) ExpressionHelpers.median(numbers)).value;
+		Assert.assertEquals(exact, ((ArdenNumber) median).value, 0.1);
+		Assert.assertEquals(ArdenValue.NOPRIMARYTIME, median.primaryTime);
+	}
+
+	@Test
+	public void ApproximateMedianOfFewValues() {
+		ColumnSource source = new ColumnSource(0, new ArdenList(new ArdenValue[] { ArdenNumber.create(3, 1000),
+				ArdenNumber.create(1, 1000), ArdenNumber.create(10, 1000), ArdenNumber.create(2, 1000) }));
+		ArdenValue median = new PlannedQuery(source, "data").median().execute()[0];
+		Assert.assertEquals("2.5", median.toString());
+		Assert.assertEquals(1000, median.primaryTime);
+	}
+
+	@Test
+	public void MedianOfMixedValuesAboveLimit() {
+		ColumnSource source = new ColumnSource(2, new ArdenList(new ArdenValue[] { ArdenNumber.create(3, 1000),
+				ArdenNumber.create(1, 2000), ArdenNumber.create(10, 3000), new ArdenString("a", 4000) }));
+		Assert.assertEquals("null", new PlannedQuery(source, "data").median().execute()[0].toString());
+		source = new ColumnSource(2, new ArdenList(new ArdenValue[] { new ArdenString("b", 1000),
+				new ArdenString("c", 2000), new ArdenString("a", 3000) }));
+		Assert.assertEquals("\"b\"", new PlannedQuery(source, "data").median().execute()[0].toString());
+	}
+}
@@ -0,0 +1,164 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.tests;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.runtime.ArdenList;
+import arden.runtime.ArdenNumber;
+import arden.runtime.ArdenString;
+import arden.runtime.ArdenTime;
+import arden.runtime.ArdenValue;
+import arden.runtime.DatabaseQuery;
+import arden.runtime.MemoryQuery;
+import arden.runtime.TimeIndexedQuery;
+
+public class TimeIndexedQueryTests {
+	/** Gets the columns including the primary times of their elements. */
+	private static String describe(DatabaseQuery query) {
+		StringBuilder b = new StringBuilder();
+		for (ArdenValue column : query.execute()) {
+			b.append(column.toString());
+			for (ArdenValue element : column.getElements())
+				b.append(' ').append(element.primaryTime);
+			b.append(';');
+		}
+		return b.toString();
+	}
+
+	/** Creates two columns with ascending primary times (including duplicates). */
+	private static ArdenValue[] createColumns(Random random, int rows) {
+		ArdenValue[] numbers = new ArdenValue[rows];
+		ArdenValue[] strings = new ArdenValue[rows];
+		long time = 0;
+		for (int i = 0; i < rows; i++) {
+			time += random.nextInt(3) * 1000;
+			numbers[i] = ArdenNumber.create(random.nextInt(10), time);
+			strings[i] = new ArdenString("s" + i, time);
+		}
+		return new ArdenValue[] { new ArdenList(numbers), new ArdenList(strings) };
+	}
+
+	private static void assertSameResult(DatabaseQuery expected, DatabaseQuery actual) {
+		Assert.assertEquals(describe(expected), describe(actual));
+	}
+
+	private static void assertSameResults(DatabaseQuery expected, DatabaseQuery actual, Random random) {
+		assertSameResult(expected, actual);
+		for (int n = 0; n < 5; n++) {
+			ArdenTime t1 = new ArdenTime(random.nextInt(25) * 1000 - 2000);
+			ArdenTime t2 = new ArdenTime(random.nextInt(25) * 1000 - 2000);
+			assertSameResult(expected.occursWithinTo(t1, t2), actual.occursWithinTo(t1, t2));
+			assertSameResult(expected.occursNotWithinTo(t1, t2), actual.occursNotWithinTo(t1, t2));
+			assertSameResult(expected.occursBefore(t1), actual.occursBefore(t1));
+			assertSameResult(expected.occursNotBefore(t1), actual.occursNotBefore(t1));
+			assertSameResult(expected.occursAfter(t1), actual.occursAfter(t1));
+			assertSameResult(expected.occursNotAfter(t1), actual.occursNotAfter(t1));
+			assertSameResult(expected.occursAt(t1), actual.occursAt(t1));
+			assertSameResult(expected.occursNotAt(t1), actual.occursNotAt(t1));
+		}
+		assertSameResult(expected.first(), actual.first());
+		assertSameResult(expected.last(), actual.last());
+		assertSameResult(expected.earliest(), actual.earliest());
+		assertSameResult(expected.latest(), actual.latest());
+		assertSameResult(expected.count(), actual.count());
+		assertSameResult(expected.maximum(), actual.maximum());
+		for (int n = 0; n < 12; n++) {
+			assertSameResult(expected.first(n), actual.first(n));
+			assertSameResult(expected.last(n), actual.last(n));
+			assertSameResult(expected.earliest(n), actual.earliest(n));
+			assertSameResult(expected.latest(n), actual.latest(n));
+		}
+	}
+
+	@Test
+	public void MatchesMemoryQuery() {
+		Random random = new Random(42);
+		for (int iteration = 0; iteration < 200; iteration++) {
+			ArdenValue[] columns = createColumns(random, random.nextInt(10));
+			DatabaseQuery indexed = TimeIndexedQuery.create(columns);
+			Assert.assertTrue(indexed instanceof TimeIndexedQuery);
+			assertSameResults(new MemoryQuery(columns), indexed, random);
+		}
+	}
+
+	@Test
+	public void ChainedOperationsMatchMemoryQuery() {
+		Random random = new Random(7);
+		for (int iteration = 0; iteration < 200; iteration++) {
+			ArdenValue[] columns = createColumns(random, random.nextInt(10));
+			ArdenTime t1 = new ArdenTime(random.nextInt(20) * 1000);
+			ArdenTime t2 = new ArdenTime(random.nextInt(20) * 1000);
+			DatabaseQuery expected = new MemoryQuery(columns).occursNotAt(t1).occursNotWithinTo(t2, t1);
+			DatabaseQuery actual = TimeIndexedQuery.create(columns).occursNotAt(t1).occursNotWithinTo(t2, t1);
+			assertSameResults(expected, actual, random);
+			int n = random.nextInt(8);
+			assertSameResults(new MemoryQuery(columns).latest(n), TimeIndexedQuery.create(columns).latest(n), random);
+		}
+	}
+
+	@Test
+	public void ConstraintReturnsSlice() {
+		ArdenValue[] columns = createColumns(new Random(1), 1000);
+		DatabaseQuery query = TimeIndexedQuery.create(columns);
+		ArdenTime start = new ArdenTime(200000);
+		ArdenTime end = new ArdenTime(300000);
+		Assert.assertTrue(query.occursWithinTo(start, end) instanceof TimeIndexedQuery);
+		Assert.assertTrue(query.occursNotWithinTo(start, end) instanceof TimeIndexedQuery);
+		Assert.assertTrue(query.latest(10) instanceof TimeIndexedQuery);
+		assertSameResult(new MemoryQuery(columns).occursWithinTo(start, end), query.occursWithinTo(end, start));
+	}
+
+	@Test
+	public void UnorderedRowsUseMemoryQuery() {
+		ArdenValue[] columns = { new ArdenList(new ArdenValue[] { ArdenNumber.create(1, 2000),
+				ArdenNumber.create(2, 1000) }) };
+		Assert.assertTrue(TimeIndexedQuery.create(columns) instanceof MemoryQuery);
+	}
+
+	@Test
+	public void MissingPrimaryTimeUsesMemoryQuery() {
+		ArdenValue[] columns = { new ArdenList(new ArdenValue[] { ArdenNumber.create(1, 1000),
+				ArdenNumber.create(2, ArdenValue.NOPRIMARYTIME) }) };
+		Assert.assertTrue(TimeIndexedQuery.create(columns) instanceof MemoryQuery);
+	}
+
+	@Test
+	public void MisalignedColumnsUseMemoryQuery() {
+		ArdenValue[] columns = { new ArdenList(new ArdenValue[] { ArdenNumber.create(1, 1000) }),
+				new ArdenList(new ArdenValue[] { ArdenNumber.create(1, 2000) }) };
+		Assert.assertTrue(TimeIndexedQuery.create(columns) instanceof MemoryQuery);
+		ArdenValue[] lengths = { new ArdenList(new ArdenValue[] { ArdenNumber.create(1, 1000) }), ArdenList.EMPTY };
+		Assert.assertTrue(TimeIndexedQuery.create(lengths) instanceof MemoryQuery);
+		ArdenValue[] scalar = { ArdenNumber.create(1, 1000) };
+		Assert.assertTrue(TimeIndexedQuery.create(scalar) instanceof MemoryQuery);
+	}
+}
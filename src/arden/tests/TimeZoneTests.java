@@ -0,0 +1,138 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.tests;
+
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.compiler.CompiledMlm;
+import arden.compiler.Compiler;
+import arden.runtime.ArdenList;
+import arden.runtime.ArdenNumber;
+import arden.runtime.ArdenValue;
+import arden.runtime.CivilTime;
+import arden.runtime.DatabaseQuery;
+import arden.runtime.ExecutionContext;
+import arden.runtime.MemoryQuery;
+
+public class TimeZoneTests extends ExpressionTestBase {
+	private static TestContext contextInZone(String id) {
+		TestContext context = new TestContext();
+		context.setTimeZone(TimeZone.getTimeZone(id));
+		return context;
+	}
+
+	@Test
+	public void LiteralsWithTimeZone() throws Exception {
+		assertEval("true", "1989-01-01T13:30:00.123z = 1989-01-01T14:30:00.123+01:00");
+		assertEval("true", "1989-01-01T13:30:00Z = 1989-01-01T08:00:00-05:30");
+		assertEval("true", "1989-01-01T13:30:00Z - 1989-01-01T13:30:00+02:00 = 2 hours");
+	}
+
+	@Test
+	public void DefaultZoneIsJvmZone() {
+		Assert.assertSame(CivilTime.DEFAULT, new TestContext().getCalendar());
+		Assert.assertEquals(TimeZone.getDefault().getID(), new TestContext().getTimeZone().getID());
+	}
+
+	@Test
+	public void CalendarsAreSharedPerZone() {
+		Assert.assertSame(contextInZone("Europe/Berlin").getCalendar(), contextInZone("Europe/Berlin").getCalendar());
+		Assert.assertNotSame(contextInZone("Europe/Berlin").getCalendar(), contextInZone("UTC").getCalendar());
+	}
+
+	@Test
+	public void ExtractUsesContextZone() throws Exception {
+		String expr = "EXTRACT DAY 1999-12-31T23:30:00Z, EXTRACT HOUR 1999-12-31T23:30:00Z";
+		assertEval("(31,23)", expr, contextInZone("UTC"));
+		assertEval("(1,0)", expr, contextInZone("Europe/Berlin"));
+		assertEval("(31,18)", expr, contextInZone("America/New_York"));
+	}
+
+	@Test
+	public void FormatUsesContextZone() throws Exception {
+		String expr = "1999-12-31T23:30:00Z FORMATTED WITH \"%.0t\"";
+		assertEval("\"1999\"", expr, contextInZone("UTC"));
+		assertEval("\"2000\"", expr, contextInZone("Asia/Tokyo"));
+	}
+
+	@Test
+	public void MonthArithmeticUsesContextZone() throws Exception {
+		// 2010-03-01T01:00 in Berlin; one month later daylight saving time is
+		// in effect
+		String expr = "2010-03-01T00:00:00Z + 1 month = 2010-03-31T23:00:00Z, "
+				+ "1 month AFTER 2010-03-01T00:00:00Z = 2010-03-31T23:00:00Z, "
+				+ "2010-03-31T23:00:00Z - 1 month = 2010-03-01T00:00:00Z, "
+				+ "1 month BEFORE 2010-03-31T23:00:00Z = 2010-03-01T00:00:00Z";
+		assertEval("(true,true,true,true)", expr, contextInZone("Europe/Berlin"));
+		assertEval("(false,false,false,false)", expr, contextInZone("UTC"));
+		assertEval("true", "2010-03-01T00:00:00Z + 1 month = 2010-04-01T00:00:00Z", contextInZone("UTC"));
+	}
+
+	@Test
+	public void SameDayUsesContextZone() throws Exception {
+		String expr = "2010-06-01T23:30:00Z IS WITHIN SAME DAY AS 2010-06-02T01:00:00Z";
+		assertEval("false", expr, contextInZone("UTC"));
+		assertEval("true", expr, contextInZone("Europe/Berlin"));
+		String surrounding = "2010-03-01T00:00:00Z IS WITHIN 1 month SURROUNDING 2010-03-31T23:30:00Z";
+		// 1 month before 2010-03-31T23:30Z is 2010-02-28T23:30Z in UTC, but
+		// 2010-03-01T00:30Z in Berlin
+		assertEval("true", surrounding, contextInZone("UTC"));
+		assertEval("false", surrounding, contextInZone("Europe/Berlin"));
+	}
+
+	private static ExecutionContext contextWithData(String zone) {
+		ExecutionContext context = new TestContext() {
+			@Override
+			public DatabaseQuery createQuery(String mapping) {
+				// values at 2010-06-01T21:30Z, 2010-06-01T23:30Z, 2010-06-02T01:00Z
+				ArdenValue[] values = { ArdenNumber.create(1, 1275427800000L), ArdenNumber.create(2, 1275435000000L),
+						ArdenNumber.create(3, 1275440400000L) };
+				return new MemoryQuery(new ArdenValue[] { new ArdenList(values) });
+			}
+		};
+		context.setTimeZone(TimeZone.getTimeZone(zone));
+		return context;
+	}
+
+	@Test
+	public void ReadWithinSameDayUsesContextZone() throws Exception {
+		CompiledMlm mlm = ActionTests.parseTemplate(new Compiler(),
+				"x := READ {values} WHERE it occurred WITHIN SAME DAY AS 2010-06-02T01:00:00Z;"
+						+ "y := READ {values} WHERE it occurred NOT WITHIN SAME DAY AS 2010-06-02T01:00:00Z;",
+				"conclude true;", "return x, y;");
+		ArdenValue[] result = mlm.run(contextWithData("UTC"), null);
+		Assert.assertEquals("(,3)", result[0].toString());
+		Assert.assertEquals("(1,2)", result[1].toString());
+		result = mlm.run(contextWithData("Europe/Berlin"), null);
+		Assert.assertEquals("(2,3)", result[0].toString());
+		Assert.assertEquals("(,1)", result[1].toString());
+	}
+}
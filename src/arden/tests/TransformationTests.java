@@ -110,12 +110,18 @@ public class TransformationTests extends ExpressionTestBase {
 	public void earliestFrom() throws Exception {
 		assertEval("()", "EARLIEST 2 FROM ()");
 		assertEval("null", "EARLIEST 2 FROM (1,2)");
+
+		ArdenValue[] arg = { ArdenNumber.create(1, 5000), ArdenNumber.create(2, 5000), ArdenNumber.create(3, 4000) };
+		assertEvalWithArgument("(1,3)", "EARLIEST 2 FROM arg", new ArdenList(arg), new TestContext());
 	}
 
 	@Test
 	public void latestFrom() throws Exception {
 		assertEval("()", "LATEST 2 FROM ()");
 		assertEval("null", "LATEST 2 FROM (1,2)");
+
+		ArdenValue[] arg = { ArdenNumber.create(1, 5000), ArdenNumber.create(2, 5000), ArdenNumber.create(3, 6000) };
+		assertEvalWithArgument("(1,3)", "LATEST 2 FROM arg", new ArdenList(arg), new TestContext());
 	}
 
 	@Test
@@ -0,0 +1,95 @@
+// arden2bytecode
+// Copyright (c) 2010, Daniel Grunwald
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without modification, are
+// permitted provided that the following conditions are met:
+//
+// - Redistributions of source code must retain the above copyright notice, this list
+//   of conditions and the following disclaimer.
+//
+// - Redistributions in binary form must reproduce the above copyright notice, this list
+//   of conditions and the following disclaimer in the documentation and/or other materials
+//   provided with the distribution.
+//
+// - Neither the name of the owner nor the names of its contributors may be used to
+//   endorse or promote products derived from this software without specific prior written
+//   permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS &AS IS& AND ANY EXPRESS
+// OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+// AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+// CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+// IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+// OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package arden.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import arden.compiler.CompiledMlm;
+
+public class UnboxedArithmeticTests extends ExpressionTestBase {
+	@Test
+	public void NumericVariablesUseUnboxedArithmetic() throws Exception {
+		CompiledMlm mlm = compile("x := 3; y := x * 2 + 1;", "z := y - x / 2; conclude true;",
+				"return y, z, -x, +z, x / 0, x * (y - 7);");
+		Assert.assertFalse(classReferences(mlm, "Larden/runtime/BinaryOperator;"));
+		Assert.assertFalse(classReferences(mlm, "Larden/runtime/UnaryOperator;"));
+		Assert.assertArrayEquals(new String[] { "7", "5.5", "-3", "5.5", "null", "0" }, run(mlm));
+	}
+
+	@Test
+	public void NullPropagates() throws Exception {
+		CompiledMlm mlm = compile("x := null; y := 1 / 0;", "z := x + 1; conclude true;",
+				"return z, y * 0, -x, 2 - y;");
+		Assert.assertArrayEquals(new String[] { "null", "null", "null", "null" }, run(mlm));
+	}
+
+	@Test
+	public void VariableWithOtherAssignmentIsNotUnboxed() throws Exception {
+		CompiledMlm mlm = compile("x := 3;", "x := \"a\"; y := x + 1; conclude true;", "return y;");
+		Assert.assertTrue(classReferences(mlm, "Larden/runtime/BinaryOperator;"));
+		Assert.assertArrayEquals(new String[] { "null" }, run(mlm));
+	}
+
+	@Test
+	public void PrimaryTimeIsPreserved() throws Exception {
+		CompiledMlm mlm = compile("x := 3; TIME x := 1990-03-01; y := 4; TIME y := 1990-03-01;",
+				"a := x * y; b := x + 1; c := -x; d := a - x / y; conclude true;",
+				"return TIME OF a, TIME OF b, TIME OF c, TIME OF d, a;");
+		Assert.assertArrayEquals(new String[] { "1990-03-01T00:00:00", "null", "1990-03-01T00:00:00",
+				"1990-03-01T00:00:00", "12" }, run(mlm));
+	}
+
+	@Test
+	public void NumericConditions() throws Exception {
+		CompiledMlm mlm = compile("x := null; y := 5;", "if x < 3 then a := 1; endif;"
+				+ "if not (x < 3) then b := 1; endif;" + "if y > 3 and not (x = 1) then c := 1; endif;"
+				+ "if y > 3 or x = 1 then d := 1; endif;" + "if x = 1 or y <> 5 then e := 1; endif;"
+				+ "if not (y = 1 and x = 1) then f := 1; endif;" + "if y >= 5 and y <= 5 and y = 5 then g := 1; endif;"
+				+ "conclude y = 5;", "return a, b, c, d, e, f, g;");
+		Assert.assertFalse(classReferences(mlm, "Larden/runtime/BinaryOperator;"));
+		Assert.assertFalse(classReferences(mlm, "isTrue"));
+		Assert.assertArrayEquals(new String[] { "null", "null", "null", "1", "null", "1", "1" }, run(mlm));
+	}
+
+	@Test
+	public void NumericWhileLoop() throws Exception {
+		CompiledMlm mlm = compile("", "i := 0; isum := 0; while i <= 100 do isum := isum + i; i := i + 1; enddo;"
+				+ "conclude isum > 5000;", "return isum;");
+		Assert.assertFalse(classReferences(mlm, "Larden/runtime/BinaryOperator;"));
+		Assert.assertArrayEquals(new String[] { "5050" }, run(mlm));
+	}
+
+	@Test
+	public void ConcludeNullCondition() throws Exception {
+		CompiledMlm mlm = compile("x := null;", "conclude x > 1 or x <= 1;", "return 1;");
+		Assert.assertNull(run(mlm));
+		mlm = compile("x := null;", "conclude not (x > 1 and 1 > 2);", "return 1;");
+		Assert.assertArrayEquals(new String[] { "1" }, run(mlm));
+	}
+}